@@ -8,7 +8,24 @@ package top.folen.common;
  */
 public class FastDfsException extends Exception {
 
+	/**
+	 * the error no returned by the server, 0 if not a server error
+	 */
+	private final byte errorCode;
+
 	public FastDfsException(String message) {
+		this(message, (byte) 0);
+	}
+
+	public FastDfsException(String message, byte errorCode) {
 		super(message);
+		this.errorCode = errorCode;
+	}
+
+	/**
+	 * @return the error no returned by the server, 0 if not a server error
+	 */
+	public byte getErrorCode() {
+		return errorCode;
 	}
 }
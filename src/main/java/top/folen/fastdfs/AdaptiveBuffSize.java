@@ -0,0 +1,67 @@
+package top.folen.fastdfs;
+
+/**
+ * 下载时每次读取 socket 的字节数：每读取 WINDOW_BUFFERS 个缓冲区的数据计算一次吞吐量，比上一次提升超过 5% 就把读取
+ * 字节数加倍，直到 maxSize；吞吐量不再提升时固定为当前值。initSize 与 maxSize 相同时即为固定大小
+ *
+ * @author sec
+ * @version 1.0
+ **/
+class AdaptiveBuffSize {
+
+	/**
+	 * the throughput is measured every WINDOW_BUFFERS buffers of data
+	 */
+	private static final int WINDOW_BUFFERS = 8;
+
+	private static final double MIN_IMPROVEMENT = 1.05;
+
+	private int size;
+
+	private int maxSize;
+
+	private long windowStart = System.nanoTime();
+
+	private long windowBytes;
+
+	private double lastThroughput;
+
+	/**
+	 * @param initSize the initial read size
+	 * @param maxSize  the max read size, not less than initSize
+	 */
+	AdaptiveBuffSize(int initSize, int maxSize) {
+		this.size = initSize;
+		this.maxSize = Math.max(initSize, maxSize);
+	}
+
+	/**
+	 * @return the bytes to read next time
+	 */
+	int get() {
+		return size;
+	}
+
+	/**
+	 * @param bytes the bytes read last time
+	 */
+	void onRead(int bytes) {
+		if (size >= maxSize) {
+			return;
+		}
+		windowBytes += bytes;
+		if (windowBytes < (long) WINDOW_BUFFERS * size) {
+			return;
+		}
+		long now = System.nanoTime();
+		double throughput = windowBytes / (double) Math.max(now - windowStart, 1);
+		if (throughput > lastThroughput * MIN_IMPROVEMENT) {
+			lastThroughput = throughput;
+			size = (int) Math.min((long) size * 2, maxSize);
+		} else {
+			maxSize = size;
+		}
+		windowStart = now;
+		windowBytes = 0;
+	}
+}
@@ -0,0 +1,237 @@
+package top.folen.fastdfs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import top.folen.common.FastDfsException;
+import top.folen.common.NameValuePair;
+import top.folen.fastdfs.pool.BufferPool;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 上传长度未知的数据：写入的数据缓存在一个分片大小的缓冲区中，缓冲区满时第一个分片创建 appender 文件，之后的分片追加到
+ * 该文件，内存占用固定为一个分片；close 时写入剩余数据，并可选地调用 regenerateAppenderFilename 把 appender 文件
+ * 转为普通文件（需要 FastDFS V6.02 及以上的 storage）；写入或 close 失败时调用 abort 删除已上传的部分并释放缓冲区
+ * <p>
+ * Note: the instance of this class is not thread safe
+ *
+ * @author sec
+ * @version 1.0
+ **/
+public class AppenderOutputStream extends OutputStream {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(AppenderOutputStream.class);
+
+	public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+	private final StorageClient client;
+
+	private final String fileExtName;
+
+	private final NameValuePair[] metaList;
+
+	private final boolean regenerate;
+
+	private final int chunkSize;
+
+	private byte[] buff;
+
+	private int count;
+
+	private long fileSize;
+
+	private String groupName;
+
+	private String remoteFilename;
+
+	private boolean closed;
+
+	/**
+	 * close succeeded, the file is complete
+	 */
+	private boolean completed;
+
+	/**
+	 * constructor with DEFAULT_CHUNK_SIZE, the appender file is regenerated to a normal file on close
+	 *
+	 * @param client      the storage client
+	 * @param groupName   the group name to upload file to, can be empty
+	 * @param fileExtName file ext name, do not include dot(.)
+	 * @param metaList    meta info array
+	 */
+	public AppenderOutputStream(StorageClient client, String groupName, String fileExtName,
+	                            NameValuePair[] metaList) {
+		this(client, groupName, fileExtName, metaList, DEFAULT_CHUNK_SIZE, true);
+	}
+
+	/**
+	 * constructor
+	 *
+	 * @param client      the storage client
+	 * @param groupName   the group name to upload file to, can be empty
+	 * @param fileExtName file ext name, do not include dot(.)
+	 * @param metaList    meta info array
+	 * @param chunkSize   the buffered bytes before sent to the storage server
+	 * @param regenerate  regenerate the appender file to a normal file on close
+	 */
+	public AppenderOutputStream(StorageClient client, String groupName, String fileExtName,
+	                            NameValuePair[] metaList, int chunkSize, boolean regenerate) {
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("chunkSize must be positive");
+		}
+		this.client = client;
+		this.groupName = groupName;
+		this.fileExtName = fileExtName;
+		this.metaList = metaList;
+		this.regenerate = regenerate;
+		this.chunkSize = chunkSize;
+		this.buff = BufferPool.acquireHeap(chunkSize);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		ensureOpen();
+		if (count == chunkSize) {
+			sendChunk();
+		}
+		buff[count++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		ensureOpen();
+		if ((off | len | (off + len) | (b.length - (off + len))) < 0) {
+			throw new IndexOutOfBoundsException();
+		}
+		while (len > 0) {
+			if (count == chunkSize) {
+				sendChunk();
+			}
+			int bytes = Math.min(len, chunkSize - count);
+			System.arraycopy(b, off, buff, count, bytes);
+			count += bytes;
+			off += bytes;
+			len -= bytes;
+		}
+	}
+
+	/**
+	 * send the buffered bytes to the storage server
+	 */
+	@Override
+	public void flush() throws IOException {
+		ensureOpen();
+		if (count > 0) {
+			sendChunk();
+		}
+	}
+
+	/**
+	 * send the remain bytes, and regenerate the appender file to a normal file if required
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		if (count > 0 || remoteFilename == null) {
+			sendChunk();
+		}
+		closed = true;
+		BufferPool.releaseHeap(buff);
+		buff = null;
+		if (!regenerate) {
+			completed = true;
+			return;
+		}
+		try {
+			String[] results = client.regenerateAppenderFilename(groupName, remoteFilename);
+			if (results == null) {
+				throw new IOException("regenerate appender filename " + groupName + "/" + remoteFilename
+						+ " fail, errno code: " + client.getErrorCode());
+			}
+			groupName = results[0];
+			remoteFilename = results[1];
+		} catch (FastDfsException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+		completed = true;
+	}
+
+	/**
+	 * discard the upload after a failed write or close: delete the partial appender file from the storage server
+	 * and release the chunk buffer, do nothing after a successful close
+	 */
+	public void abort() {
+		closed = true;
+		if (buff != null) {
+			BufferPool.releaseHeap(buff);
+			buff = null;
+		}
+		if (completed || remoteFilename == null) {
+			return;
+		}
+		try {
+			int result = client.deleteFile(groupName, remoteFilename);
+			if (result != 0) {
+				LOGGER.warn("delete aborted appender file {}/{} fail, errno code: {}", groupName, remoteFilename,
+						result);
+			}
+		} catch (IOException | FastDfsException e) {
+			LOGGER.warn("delete aborted appender file {}/{} fail", groupName, remoteFilename, e);
+		}
+		remoteFilename = null;
+	}
+
+	private void sendChunk() throws IOException {
+		try {
+			if (remoteFilename == null) {
+				String[] results = client.uploadAppenderFile(groupName, buff, 0, count, fileExtName, metaList);
+				if (results == null) {
+					throw new IOException("upload appender file fail, errno code: " + client.getErrorCode());
+				}
+				groupName = results[0];
+				remoteFilename = results[1];
+			} else {
+				// modify at the end instead of append, so sending the chunk again after a failure is safe
+				int result = client.modifyFile(groupName, remoteFilename, fileSize, buff, 0, count);
+				if (result != 0) {
+					throw new IOException("append file " + groupName + "/" + remoteFilename + " fail, errno code: "
+							+ result);
+				}
+			}
+		} catch (FastDfsException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+		fileSize += count;
+		count = 0;
+	}
+
+	private void ensureOpen() throws IOException {
+		if (closed) {
+			throw new IOException("stream closed");
+		}
+	}
+
+	/**
+	 * @return the group name to store the file, null before the first chunk sent
+	 */
+	public String getGroupName() {
+		return remoteFilename != null ? groupName : null;
+	}
+
+	/**
+	 * @return the appender filename, or the regenerated filename after close, null before the first chunk sent
+	 */
+	public String getRemoteFilename() {
+		return remoteFilename;
+	}
+
+	/**
+	 * @return the bytes sent to the storage server
+	 */
+	public long getFileSize() {
+		return fileSize;
+	}
+}
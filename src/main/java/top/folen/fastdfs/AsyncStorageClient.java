@@ -0,0 +1,464 @@
+package top.folen.fastdfs;
+
+import top.folen.common.FastDfsException;
+import top.folen.common.NameValuePair;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 异步 storage 客户端，StorageClient1 的每个操作都返回 CompletableFuture
+ * <p>
+ * 操作在有界线程池中执行，每个工作线程复用自己的 StorageClient1，连接来自连接池；
+ * 超过线程数的并发请求在有界队列中排队，而不是每个请求一个线程，队列满时 future 以 RejectedExecutionException 失败。
+ * 服务端返回的错误（原同步接口中的 null 或非 0 返回值）以 FastDfsException 失败，错误码见 getErrorCode()
+ * <p>
+ * Note: the instance of this class is thread safe
+ *
+ * @author sec
+ * @version 1.0
+ **/
+public class AsyncStorageClient {
+
+	public static final int DEFAULT_THREADS = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+	public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+
+	private static final AtomicInteger INSTANCE_SEQ = new AtomicInteger();
+
+	private final ExecutorService executor;
+
+	/**
+	 * shutdown the executor on close if it is created by this client
+	 */
+	private final boolean ownExecutor;
+
+	/**
+	 * StorageClient1 is not thread safe, every executor thread has its own client
+	 */
+	private final ThreadLocal<StorageClient1> clients = ThreadLocal.withInitial(StorageClient1::new);
+
+	/**
+	 * constructor using DEFAULT_THREADS threads and DEFAULT_QUEUE_CAPACITY queue
+	 */
+	public AsyncStorageClient() {
+		this(DEFAULT_THREADS, DEFAULT_QUEUE_CAPACITY);
+	}
+
+	/**
+	 * constructor with a new bounded executor
+	 *
+	 * @param threads       the executor threads, max concurrent storage requests
+	 * @param queueCapacity max requests waiting for an executor thread
+	 */
+	public AsyncStorageClient(int threads, int queueCapacity) {
+		int seq = INSTANCE_SEQ.incrementAndGet();
+		AtomicInteger threadSeq = new AtomicInteger();
+		ThreadPoolExecutor threadPool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(queueCapacity), r -> {
+			Thread thread = new Thread(r, "fastdfs-async-" + seq + "-" + threadSeq.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		threadPool.allowCoreThreadTimeOut(true);
+		this.executor = threadPool;
+		this.ownExecutor = true;
+	}
+
+	/**
+	 * constructor with the caller's executor, which should be bounded, the executor is not shutdown by close()
+	 *
+	 * @param executor the executor to run the storage requests
+	 */
+	public AsyncStorageClient(ExecutorService executor) {
+		this.executor = executor;
+		this.ownExecutor = false;
+	}
+
+	/**
+	 * upload file to storage server (by file name)
+	 *
+	 * @param localFilename local filename to upload
+	 * @param fileExtName   file ext name, do not include dot(.), null to extract ext name from the local filename
+	 * @param metaList      meta info array
+	 * @return future of the file id(including group name and filename)
+	 */
+	public CompletableFuture<String> uploadFile1(String localFilename, String fileExtName,
+	                                             NameValuePair[] metaList) {
+		return submit(client -> notNull(client, client.uploadFile1(localFilename, fileExtName, metaList)));
+	}
+
+	/**
+	 * upload file to storage server (by file name)
+	 *
+	 * @param groupName     the group name to upload file to, can be empty
+	 * @param localFilename local filename to upload
+	 * @param fileExtName   file ext name, do not include dot(.), null to extract ext name from the local filename
+	 * @param metaList      meta info array
+	 * @return future of the file id(including group name and filename)
+	 */
+	public CompletableFuture<String> uploadFile1(String groupName, String localFilename, String fileExtName,
+	                                             NameValuePair[] metaList) {
+		return submit(client -> notNull(client, client.uploadFile1(groupName, localFilename, fileExtName, metaList)));
+	}
+
+	/**
+	 * upload file to storage server (by file buff)
+	 *
+	 * @param fileBuff    file content/buff
+	 * @param fileExtName file ext name, do not include dot(.)
+	 * @param metaList    meta info array
+	 * @return future of the file id(including group name and filename)
+	 */
+	public CompletableFuture<String> uploadFile1(byte[] fileBuff, String fileExtName, NameValuePair[] metaList) {
+		return submit(client -> notNull(client, client.uploadFile1(fileBuff, fileExtName, metaList)));
+	}
+
+	/**
+	 * upload file to storage server (by file buff)
+	 *
+	 * @param groupName   the group name to upload file to, can be empty
+	 * @param fileBuff    file content/buff
+	 * @param fileExtName file ext name, do not include dot(.)
+	 * @param metaList    meta info array
+	 * @return future of the file id(including group name and filename)
+	 */
+	public CompletableFuture<String> uploadFile1(String groupName, byte[] fileBuff, String fileExtName,
+	                                             NameValuePair[] metaList) {
+		return submit(client -> notNull(client, client.uploadFile1(groupName, fileBuff, fileExtName, metaList)));
+	}
+
+	/**
+	 * upload file to storage server (by callback), the callback is called in the executor thread
+	 *
+	 * @param groupName   the group name to upload file to, can be empty
+	 * @param fileSize    the file size
+	 * @param callback    the write data callback object
+	 * @param fileExtName file ext name, do not include dot(.)
+	 * @param metaList    meta info array
+	 * @return future of the file id(including group name and filename)
+	 */
+	public CompletableFuture<String> uploadFile1(String groupName, long fileSize, UploadCallback callback,
+	                                             String fileExtName, NameValuePair[] metaList) {
+		return submit(client -> notNull(client,
+				client.uploadFile1(groupName, fileSize, callback, fileExtName, metaList)));
+	}
+
+	/**
+	 * upload slave file to storage server (by file name)
+	 *
+	 * @param masterFileId  the master file id to generate the slave file
+	 * @param prefixName    the prefix name to generate the slave file
+	 * @param localFilename local filename to upload
+	 * @param fileExtName   file ext name, do not include dot(.), null to extract ext name from the local filename
+	 * @param metaList      meta info array
+	 * @return future of the file id(including group name and filename)
+	 */
+	public CompletableFuture<String> uploadFile1(String masterFileId, String prefixName, String localFilename,
+	                                             String fileExtName, NameValuePair[] metaList) {
+		return submit(client -> notNull(client,
+				client.uploadFile1(masterFileId, prefixName, localFilename, fileExtName, metaList)));
+	}
+
+	/**
+	 * upload slave file to storage server (by file buff)
+	 *
+	 * @param masterFileId the master file id to generate the slave file
+	 * @param prefixName   the prefix name to generate the slave file
+	 * @param fileBuff     file content/buff
+	 * @param fileExtName  file ext name, do not include dot(.)
+	 * @param metaList     meta info array
+	 * @return future of the file id(including group name and filename)
+	 */
+	public CompletableFuture<String> uploadFile1(String masterFileId, String prefixName, byte[] fileBuff,
+	                                             String fileExtName, NameValuePair[] metaList) {
+		return submit(client -> notNull(client,
+				client.uploadFile1(masterFileId, prefixName, fileBuff, fileExtName, metaList)));
+	}
+
+	/**
+	 * upload appender file to storage server (by file name)
+	 *
+	 * @param localFilename local filename to upload
+	 * @param fileExtName   file ext name, do not include dot(.), null to extract ext name from the local filename
+	 * @param metaList      meta info array
+	 * @return future of the file id(including group name and filename)
+	 */
+	public CompletableFuture<String> uploadAppenderFile1(String localFilename, String fileExtName,
+	                                                     NameValuePair[] metaList) {
+		return submit(client -> notNull(client, client.uploadAppenderFile1(localFilename, fileExtName, metaList)));
+	}
+
+	/**
+	 * upload appender file to storage server (by file buff)
+	 *
+	 * @param fileBuff    file content/buff
+	 * @param fileExtName file ext name, do not include dot(.)
+	 * @param metaList    meta info array
+	 * @return future of the file id(including group name and filename)
+	 */
+	public CompletableFuture<String> uploadAppenderFile1(byte[] fileBuff, String fileExtName,
+	                                                     NameValuePair[] metaList) {
+		return submit(client -> notNull(client, client.uploadAppenderFile1(fileBuff, fileExtName, metaList)));
+	}
+
+	/**
+	 * upload appender file to storage server (by file buff)
+	 *
+	 * @param groupName   the group name to upload file to, can be empty
+	 * @param fileBuff    file content/buff
+	 * @param fileExtName file ext name, do not include dot(.)
+	 * @param metaList    meta info array
+	 * @return future of the file id(including group name and filename)
+	 */
+	public CompletableFuture<String> uploadAppenderFile1(String groupName, byte[] fileBuff, String fileExtName,
+	                                                     NameValuePair[] metaList) {
+		return submit(client -> notNull(client,
+				client.uploadAppenderFile1(groupName, fileBuff, fileExtName, metaList)));
+	}
+
+	/**
+	 * append file to storage server (by file name)
+	 *
+	 * @param appenderFileId the appender file id
+	 * @param localFilename  local filename to append
+	 * @return future completed when success
+	 */
+	public CompletableFuture<Void> appendFile1(String appenderFileId, String localFilename) {
+		return submit(client -> success(client.appendFile1(appenderFileId, localFilename)));
+	}
+
+	/**
+	 * append file to storage server (by file buff)
+	 *
+	 * @param appenderFileId the appender file id
+	 * @param fileBuff       file content/buff
+	 * @return future completed when success
+	 */
+	public CompletableFuture<Void> appendFile1(String appenderFileId, byte[] fileBuff) {
+		return submit(client -> success(client.appendFile1(appenderFileId, fileBuff)));
+	}
+
+	/**
+	 * modify appender file to storage server (by file name)
+	 *
+	 * @param appenderFileId the appender file id
+	 * @param fileOffset     the offset of appender file
+	 * @param localFilename  local filename to append
+	 * @return future completed when success
+	 */
+	public CompletableFuture<Void> modifyFile1(String appenderFileId, long fileOffset, String localFilename) {
+		return submit(client -> success(client.modifyFile1(appenderFileId, fileOffset, localFilename)));
+	}
+
+	/**
+	 * modify appender file to storage server (by file buff)
+	 *
+	 * @param appenderFileId the appender file id
+	 * @param fileOffset     the offset of appender file
+	 * @param fileBuff       file content/buff
+	 * @return future completed when success
+	 */
+	public CompletableFuture<Void> modifyFile1(String appenderFileId, long fileOffset, byte[] fileBuff) {
+		return submit(client -> success(client.modifyFile1(appenderFileId, fileOffset, fileBuff)));
+	}
+
+	/**
+	 * regenerate filename for appender file
+	 *
+	 * @param appenderFileId the appender file id
+	 * @return future of the regenerated file id
+	 */
+	public CompletableFuture<String> regenerateAppenderFilename1(String appenderFileId) {
+		return submit(client -> notNull(client, client.regenerateAppenderFilename1(appenderFileId)));
+	}
+
+	/**
+	 * truncate appender file to size 0 from storage server
+	 *
+	 * @param appenderFileId the appender file id
+	 * @return future completed when success
+	 */
+	public CompletableFuture<Void> truncateFile1(String appenderFileId) {
+		return submit(client -> success(client.truncateFile1(appenderFileId)));
+	}
+
+	/**
+	 * truncate appender file from storage server
+	 *
+	 * @param appenderFileId    the appender file id
+	 * @param truncatedFileSize truncated file size
+	 * @return future completed when success
+	 */
+	public CompletableFuture<Void> truncateFile1(String appenderFileId, long truncatedFileSize) {
+		return submit(client -> success(client.truncateFile1(appenderFileId, truncatedFileSize)));
+	}
+
+	/**
+	 * delete file from storage server
+	 *
+	 * @param fileId the file id(including group name and filename)
+	 * @return future completed when success
+	 */
+	public CompletableFuture<Void> deleteFile1(String fileId) {
+		return submit(client -> success(client.deleteFile1(fileId)));
+	}
+
+	/**
+	 * download file from storage server
+	 *
+	 * @param fileId the file id(including group name and filename)
+	 * @return future of the file content
+	 */
+	public CompletableFuture<byte[]> downloadFile1(String fileId) {
+		return downloadFile1(fileId, 0, 0);
+	}
+
+	/**
+	 * download file from storage server
+	 *
+	 * @param fileId        the file id(including group name and filename)
+	 * @param fileOffset    the start offset of the file
+	 * @param downloadBytes download bytes, 0 for remain bytes from offset
+	 * @return future of the file content
+	 */
+	public CompletableFuture<byte[]> downloadFile1(String fileId, long fileOffset, long downloadBytes) {
+		return submit(client -> notNull(client, client.downloadFile1(fileId, fileOffset, downloadBytes)));
+	}
+
+	/**
+	 * download file from storage server to local file
+	 *
+	 * @param fileId        the file id(including group name and filename)
+	 * @param localFilename the filename on local
+	 * @return future completed when success
+	 */
+	public CompletableFuture<Void> downloadFile1(String fileId, String localFilename) {
+		return submit(client -> success(client.downloadFile1(fileId, localFilename)));
+	}
+
+	/**
+	 * download file from storage server to local file
+	 *
+	 * @param fileId        the file id(including group name and filename)
+	 * @param fileOffset    the start offset of the file
+	 * @param downloadBytes download bytes, 0 for remain bytes from offset
+	 * @param localFilename the filename on local
+	 * @return future completed when success
+	 */
+	public CompletableFuture<Void> downloadFile1(String fileId, long fileOffset, long downloadBytes,
+	                                             String localFilename) {
+		return submit(client -> success(client.downloadFile1(fileId, fileOffset, downloadBytes, localFilename)));
+	}
+
+	/**
+	 * download file from storage server, the callback is called in the executor thread
+	 *
+	 * @param fileId   the file id(including group name and filename)
+	 * @param callback the callback object, will call callback.recv() when data arrive
+	 * @return future completed when success
+	 */
+	public CompletableFuture<Void> downloadFile1(String fileId, DownloadCallback callback) {
+		return submit(client -> success(client.downloadFile1(fileId, callback)));
+	}
+
+	/**
+	 * get all metadata items from storage server
+	 *
+	 * @param fileId the file id(including group name and filename)
+	 * @return future of the meta info array
+	 */
+	public CompletableFuture<NameValuePair[]> getMetadata1(String fileId) {
+		return submit(client -> notNull(client, client.getMetadata1(fileId)));
+	}
+
+	/**
+	 * set metadata items to storage server
+	 *
+	 * @param fileId   the file id(including group name and filename)
+	 * @param metaList meta item array
+	 * @param opFlag   ProtoCommon.STORAGE_SET_METADATA_FLAG_OVERWRITE or ProtoCommon.STORAGE_SET_METADATA_FLAG_MERGE
+	 * @return future completed when success
+	 */
+	public CompletableFuture<Void> setMetadata1(String fileId, NameValuePair[] metaList, byte opFlag) {
+		return submit(client -> success(client.setMetadata1(fileId, metaList, opFlag)));
+	}
+
+	/**
+	 * get file info from storage server
+	 *
+	 * @param fileId the file id(including group name and filename)
+	 * @return future of the file info
+	 */
+	public CompletableFuture<FileInfo> queryFileInfo1(String fileId) {
+		return submit(client -> notNull(client, client.queryFileInfo1(fileId)));
+	}
+
+	/**
+	 * get file info decoded from filename
+	 *
+	 * @param fileId the file id(including group name and filename)
+	 * @return future of the file info
+	 */
+	public CompletableFuture<FileInfo> getFileInfo1(String fileId) {
+		return submit(client -> notNull(client, client.getFileInfo1(fileId)));
+	}
+
+	/**
+	 * shutdown the executor created by this client, the submitted requests are still executed
+	 */
+	public void close() {
+		if (ownExecutor) {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * @return the storage client of the current thread, reused by the requests run in the thread
+	 */
+	StorageClient1 currentClient() {
+		return clients.get();
+	}
+
+	private <T> CompletableFuture<T> submit(StorageCall<T> call) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		try {
+			executor.execute(() -> {
+				try {
+					future.complete(call.call(currentClient()));
+				} catch (Throwable e) {
+					future.completeExceptionally(e);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	private static <T> T notNull(StorageClient1 client, T result) throws FastDfsException {
+		if (result == null) {
+			throw new FastDfsException("storage request fail, errno code: " + client.getErrorCode(),
+					client.getErrorCode());
+		}
+		return result;
+	}
+
+	private static Void success(int result) throws FastDfsException {
+		if (result != 0) {
+			throw new FastDfsException("storage request fail, errno code: " + result, (byte) result);
+		}
+		return null;
+	}
+
+	private interface StorageCall<T> {
+
+		T call(StorageClient1 client) throws IOException, FastDfsException;
+	}
+}
@@ -0,0 +1,534 @@
+package top.folen.fastdfs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import top.folen.common.FastDfsException;
+import top.folen.common.NameValuePair;
+import top.folen.fastdfs.pool.Connection;
+import top.folen.fastdfs.pool.ConnectionUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 批量 storage 操作，按 storage 节点分组，在每个节点的一个连接上流水线发送请求（不等待前一个响应），各节点并行执行
+ * <p>
+ * 文件的 storage 由文件名中的源 storage IP 结合缓存的 storage 列表在本地确定，无法确定时再通过路由缓存或 tracker 查询；
+ * 每个连接上未收到响应的请求数不超过 window，连接异常时该连接上剩余的文件以 ERR_NO_EIO 失败
+ * <p>
+ * Note: the instance of this class is thread safe
+ *
+ * @author sec
+ * @version 1.0
+ **/
+public class BatchStorageClient {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(BatchStorageClient.class);
+
+	public static final int DEFAULT_THREADS = 8;
+
+	/**
+	 * max requests sent but not responded on a connection
+	 */
+	public static final int DEFAULT_WINDOW_SIZE = 64;
+
+	/**
+	 * the requests of a window are written without reading the responses, keep them (about 100 bytes each) within
+	 * the socket buffers, otherwise the write blocks while the storage blocks on writing the responses
+	 */
+	public static final int MAX_WINDOW_SIZE = 128;
+
+	private static final AtomicInteger INSTANCE_SEQ = new AtomicInteger();
+
+	private static final PipelineCodec<NameValuePair[]> METADATA_CODEC = new PipelineCodec<NameValuePair[]>() {
+		@Override
+		public byte[] encode(String groupName, String remoteFilename) throws IOException {
+			return StorageClient.packFilePackage(ProtoCommon.STORAGE_PROTO_CMD_GET_METADATA, groupName,
+					remoteFilename);
+		}
+
+		@Override
+		public NameValuePair[] decode(byte[] body) throws IOException {
+			return ProtoCommon.splitMetadata(new String(body, ClientGlobal.G_CHARSET));
+		}
+	};
+
+	private static final PipelineCodec<FileInfo> FILE_INFO_CODEC = new PipelineCodec<FileInfo>() {
+		@Override
+		public byte[] encode(String groupName, String remoteFilename) throws IOException {
+			return StorageClient.packFilePackage(ProtoCommon.STORAGE_PROTO_CMD_QUERY_FILE_INFO, groupName,
+					remoteFilename);
+		}
+
+		@Override
+		public FileInfo decode(byte[] body) throws IOException {
+			if (body.length != 3 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE + ProtoCommon.FDFS_IPADDR_SIZE) {
+				throw new IOException("recv body length: " + body.length + " is not correct, expect length: "
+						+ (3 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE + ProtoCommon.FDFS_IPADDR_SIZE));
+			}
+			long fileSize = ProtoCommon.buff2long(body, 0);
+			int createTimestamp = (int) ProtoCommon.buff2long(body, ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE);
+			int crc32 = (int) ProtoCommon.buff2long(body, 2 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE);
+			String sourceIpAddr = (new String(body, 3 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE,
+					ProtoCommon.FDFS_IPADDR_SIZE)).trim();
+			return new FileInfo(true, FileInfo.FILE_TYPE_NORMAL, fileSize, createTimestamp, crc32, sourceIpAddr);
+		}
+	};
+
+	private final TrackerServer trackerServer;
+
+	private final ExecutorService executor;
+
+	/**
+	 * shutdown the executor on close if it is created by this client
+	 */
+	private final boolean ownExecutor;
+
+	private final Progress progress = new Progress();
+
+	private volatile int windowSize = DEFAULT_WINDOW_SIZE;
+
+	/**
+	 * constructor with DEFAULT_THREADS threads to run the storage nodes in parallel
+	 */
+	public BatchStorageClient() {
+		this(null, DEFAULT_THREADS);
+	}
+
+	/**
+	 * constructor with a new executor
+	 *
+	 * @param trackerServer the tracker server, can be null
+	 * @param threads       max storage nodes run in parallel
+	 */
+	public BatchStorageClient(TrackerServer trackerServer, int threads) {
+		int seq = INSTANCE_SEQ.incrementAndGet();
+		AtomicInteger threadSeq = new AtomicInteger();
+		this.trackerServer = trackerServer;
+		this.executor = Executors.newFixedThreadPool(threads, r -> {
+			Thread thread = new Thread(r, "fastdfs-batch-" + seq + "-" + threadSeq.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.ownExecutor = true;
+	}
+
+	/**
+	 * constructor with the caller's executor, the executor is not shutdown by close()
+	 *
+	 * @param trackerServer the tracker server, can be null
+	 * @param executor      the executor to run the storage nodes in parallel
+	 */
+	public BatchStorageClient(TrackerServer trackerServer, ExecutorService executor) {
+		this.trackerServer = trackerServer;
+		this.executor = executor;
+		this.ownExecutor = false;
+	}
+
+	/**
+	 * delete files from storage servers
+	 *
+	 * @param fileIds the file ids(including group name and filename)
+	 * @return the result of every file id, in the order of fileIds
+	 */
+	public Map<String, StorageResult<Void>> deleteFiles(Collection<String> fileIds) {
+		return collect(fileIds, new PipelineCodec<Void>() {
+			@Override
+			public byte[] encode(String groupName, String remoteFilename) throws IOException {
+				return StorageClient.packFilePackage(ProtoCommon.STORAGE_PROTO_CMD_DELETE_FILE, groupName,
+						remoteFilename);
+			}
+
+			@Override
+			public Void decode(byte[] body) {
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * get all metadata items of files from storage servers
+	 *
+	 * @param fileIds the file ids(including group name and filename)
+	 * @return the meta info array of every file id, in the order of fileIds
+	 */
+	public Map<String, StorageResult<NameValuePair[]>> getMetadata(Collection<String> fileIds) {
+		return collect(fileIds, METADATA_CODEC);
+	}
+
+	/**
+	 * get all metadata items of files from storage servers, the results are passed to the callback as the responses
+	 * arrive, return after all the files are done
+	 *
+	 * @param fileIds  the file ids(including group name and filename)
+	 * @param callback receive the meta info array of every file, called concurrently by the node threads
+	 */
+	public void getMetadata(Collection<String> fileIds, BatchCallback<NameValuePair[]> callback) {
+		execute(fileIds, METADATA_CODEC, callback);
+	}
+
+	/**
+	 * query file infos from storage servers
+	 *
+	 * @param fileIds the file ids(including group name and filename)
+	 * @return the FileInfo of every file id, in the order of fileIds
+	 */
+	public Map<String, StorageResult<FileInfo>> queryFileInfos(Collection<String> fileIds) {
+		return collect(fileIds, FILE_INFO_CODEC);
+	}
+
+	/**
+	 * query file infos from storage servers, the results are passed to the callback as the responses arrive,
+	 * return after all the files are done
+	 *
+	 * @param fileIds  the file ids(including group name and filename)
+	 * @param callback receive the FileInfo of every file, called concurrently by the node threads
+	 */
+	public void queryFileInfos(Collection<String> fileIds, BatchCallback<FileInfo> callback) {
+		execute(fileIds, FILE_INFO_CODEC, callback);
+	}
+
+	public int getWindowSize() {
+		return windowSize;
+	}
+
+	/**
+	 * set max requests sent but not responded on a connection, take effect on the next batch
+	 *
+	 * @param windowSize the window size, must be greater than 0 and not greater than MAX_WINDOW_SIZE
+	 */
+	public void setWindowSize(int windowSize) {
+		if (windowSize <= 0 || windowSize > MAX_WINDOW_SIZE) {
+			throw new IllegalArgumentException("invalid window size: " + windowSize);
+		}
+		this.windowSize = windowSize;
+	}
+
+	/**
+	 * @return the live counters of all the batches run by this client, can be read by another thread while the
+	 * batches are running
+	 */
+	public Progress getProgress() {
+		return progress;
+	}
+
+	/**
+	 * shutdown the executor created by this client
+	 */
+	public void close() {
+		if (ownExecutor) {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * run the requests and collect all the results
+	 *
+	 * @param fileIds the file ids, duplicated ids are requested once
+	 * @param codec   encode the request and decode the response
+	 * @return the result of every file id, in the order of fileIds
+	 */
+	protected <T> Map<String, StorageResult<T>> collect(Collection<String> fileIds, PipelineCodec<T> codec) {
+		Map<String, StorageResult<T>> results = new ConcurrentHashMap<>();
+		Collection<String> uniqueIds = new LinkedHashSet<>(fileIds);
+		execute(uniqueIds, codec, results::put);
+		Map<String, StorageResult<T>> ordered = new LinkedHashMap<>();
+		for (String fileId : uniqueIds) {
+			ordered.put(fileId, results.get(fileId));
+		}
+		return ordered;
+	}
+
+	/**
+	 * group the files by storage node and run the pipelines of the nodes in parallel, return after all done
+	 *
+	 * @param fileIds      the file ids
+	 * @param codec        encode the request and decode the response
+	 * @param userCallback receive the result of every file, called concurrently by the node threads
+	 */
+	protected <T> void execute(Collection<String> fileIds, PipelineCodec<T> codec, BatchCallback<T> userCallback) {
+		progress.begin();
+		try {
+			run(fileIds, codec, userCallback);
+		} finally {
+			progress.end();
+		}
+	}
+
+	/**
+	 * run a batch, counted in the progress by execute
+	 */
+	private <T> void run(Collection<String> fileIds, PipelineCodec<T> codec, BatchCallback<T> userCallback) {
+		progress.total.addAndGet(fileIds.size());
+		BatchCallback<T> callback = (fileId, result) -> {
+			(result.isSuccess() ? progress.succeeded : progress.failed).incrementAndGet();
+			userCallback.onResult(fileId, result);
+		};
+		Map<String, NodeBatch> nodes = new LinkedHashMap<>();
+		TrackerClient tracker = new TrackerClient();
+		String[] parts = new String[2];
+		for (String fileId : fileIds) {
+			if (StorageClient1.splitFileId(fileId, parts) != 0) {
+				callback.onResult(fileId, StorageResult.fail(ProtoCommon.ERR_NO_EINVAL));
+				continue;
+			}
+			StorageServer storageServer;
+			try {
+				storageServer = route(tracker, parts[0], parts[1]);
+			} catch (IOException | FastDfsException e) {
+				LOGGER.warn("query storage of {} fail", fileId, e);
+				callback.onResult(fileId, StorageResult.fail(ProtoCommon.ERR_NO_EIO));
+				continue;
+			}
+			if (storageServer == null) {
+				callback.onResult(fileId, StorageResult.fail(tracker.getErrorCode() != 0 ? tracker.getErrorCode() :
+						ProtoCommon.ERR_NO_ENOENT));
+				continue;
+			}
+			String key = storageServer.getInetSocketAddress().toString();
+			nodes.computeIfAbsent(key, k -> new NodeBatch(storageServer)).add(fileId, parts[0], parts[1]);
+		}
+
+		List<CompletableFuture<Void>> futures = new ArrayList<>(nodes.size());
+		for (NodeBatch node : nodes.values()) {
+			futures.add(CompletableFuture.runAsync(() -> pipeline(node, codec, callback), executor));
+		}
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+	}
+
+	/**
+	 * the storage server for the update requests of the file: the source storage if it can be resolved locally
+	 * (route_cache.local_fetch enabled), otherwise the cached or the tracker returned one
+	 */
+	private StorageServer route(TrackerClient tracker, String groupName, String remoteFilename) throws IOException,
+			FastDfsException {
+		StorageServer storageServer;
+		if (LocalStorageResolver.isEnabled()) {
+			storageServer = LocalStorageResolver.resolveSource(trackerServer, groupName, remoteFilename);
+			if (storageServer != null) {
+				return storageServer;
+			}
+		}
+		storageServer = StorageRouteCache.get(StorageRouteCache.ROUTE_UPDATE, groupName, remoteFilename);
+		if (storageServer != null) {
+			return storageServer;
+		}
+		storageServer = tracker.getUpdateStorage(trackerServer, groupName, remoteFilename);
+		if (storageServer != null) {
+			StorageRouteCache.put(StorageRouteCache.ROUTE_UPDATE, groupName, remoteFilename, storageServer);
+		}
+		return storageServer;
+	}
+
+	/**
+	 * send the requests of the node on one connection, keep at most window requests waiting for the responses,
+	 * the responses come back in the order of the requests
+	 */
+	private <T> void pipeline(NodeBatch node, PipelineCodec<T> codec, BatchCallback<T> callback) {
+		int count = node.fileIds.size();
+		int window = windowSize;
+		int sent = 0;
+		int received = 0;
+		Connection connection = null;
+		try {
+			connection = node.storageServer.getConnection();
+			OutputStream out = connection.getOutputStream();
+			InputStream in = connection.getInputStream();
+			ByteArrayOutputStream pending = new ByteArrayOutputStream();
+			while (received < count) {
+				// refill when half of the window is responded, so the requests are sent in batches
+				if (sent < count && sent - received <= window / 2) {
+					while (sent < count && sent - received < window) {
+						pending.write(codec.encode(node.groupNames.get(sent), node.remoteFilenames.get(sent)));
+						sent++;
+						progress.inFlight.incrementAndGet();
+					}
+					pending.writeTo(out);
+					pending.reset();
+				}
+
+				ProtoCommon.RecvPackageInfo pkgInfo = ProtoCommon.recvPackage(in,
+						ProtoCommon.STORAGE_PROTO_CMD_RESP, -1);
+				StorageResult<T> result = pkgInfo.errno != 0 ? StorageResult.fail(pkgInfo.errno) :
+						StorageResult.success(codec.decode(pkgInfo.body));
+				progress.inFlight.decrementAndGet();
+				callback.onResult(node.fileIds.get(received++), result);
+			}
+		} catch (IOException | FastDfsException | RuntimeException e) {
+			LOGGER.warn("batch request to {} fail, {} of {} files not responded", node.storageServer
+					.getInetSocketAddress(), count - received, count, e);
+			ConnectionUtil.close(connection);
+			progress.inFlight.addAndGet(received - sent);
+			if (received < count) {
+				LocalStorageResolver.invalidate(node.groupNames.get(received));
+			}
+			for (int i = received; i < count; i++) {
+				StorageRouteCache.invalidate(node.groupNames.get(i), node.remoteFilenames.get(i));
+				callback.onResult(node.fileIds.get(i), StorageResult.fail(ProtoCommon.ERR_NO_EIO));
+			}
+		} finally {
+			ConnectionUtil.release(connection);
+		}
+	}
+
+	/**
+	 * encode the request of a file and decode the success response body
+	 */
+	protected interface PipelineCodec<T> {
+
+		/**
+		 * @param groupName      the group name
+		 * @param remoteFilename the filename on storage server
+		 * @return the whole request package, including the header
+		 */
+		byte[] encode(String groupName, String remoteFilename) throws IOException;
+
+		/**
+		 * @param body the response body when errno is 0
+		 * @return the result data
+		 */
+		T decode(byte[] body) throws IOException;
+	}
+
+	/**
+	 * receive the result of a file
+	 */
+	public interface BatchCallback<T> {
+
+		/**
+		 * @param fileId the file id
+		 * @param result the result of the file
+		 */
+		void onResult(String fileId, StorageResult<T> result);
+	}
+
+	/**
+	 * counters of the batches, the files are counted when their results are passed to the callback
+	 */
+	public static class Progress {
+
+		private final AtomicInteger running = new AtomicInteger();
+
+		/**
+		 * start time of the running batches, or the last ones when idle, 0 before the first batch
+		 */
+		private volatile long startTime;
+
+		/**
+		 * end time of the last batches, 0 while running
+		 */
+		private volatile long endTime;
+
+		/**
+		 * completed files before the running batches
+		 */
+		private volatile long startCompleted;
+
+		private final AtomicLong total = new AtomicLong();
+
+		private final AtomicLong succeeded = new AtomicLong();
+
+		private final AtomicLong failed = new AtomicLong();
+
+		private final AtomicLong inFlight = new AtomicLong();
+
+		/**
+		 * @return the files submitted, including the finished ones
+		 */
+		public long getTotal() {
+			return total.get();
+		}
+
+		public long getSucceeded() {
+			return succeeded.get();
+		}
+
+		public long getFailed() {
+			return failed.get();
+		}
+
+		public long getCompleted() {
+			return succeeded.get() + failed.get();
+		}
+
+		/**
+		 * @return the requests sent but not responded
+		 */
+		public long getInFlight() {
+			return inFlight.get();
+		}
+
+		/**
+		 * @return completed files per second of the running batches (the batches overlapped in time are counted
+		 * together), or the last ones when idle
+		 */
+		public double getRate() {
+			long start = startTime;
+			if (start == 0) {
+				return 0;
+			}
+			long end = endTime;
+			long elapsed = (end != 0 ? end : System.currentTimeMillis()) - start;
+			return (getCompleted() - startCompleted) * 1000.0 / Math.max(elapsed, 1);
+		}
+
+		private void begin() {
+			if (running.getAndIncrement() == 0) {
+				startCompleted = getCompleted();
+				endTime = 0;
+				startTime = System.currentTimeMillis();
+			}
+		}
+
+		private void end() {
+			if (running.decrementAndGet() == 0) {
+				endTime = System.currentTimeMillis();
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "Progress{" +
+					"total=" + getTotal() +
+					", succeeded=" + getSucceeded() +
+					", failed=" + getFailed() +
+					", inFlight=" + getInFlight() +
+					", rate=" + String.format("%.1f", getRate()) +
+					'}';
+		}
+	}
+
+	/**
+	 * the files of a storage node
+	 */
+	private static class NodeBatch {
+		private final StorageServer storageServer;
+		private final List<String> fileIds = new ArrayList<>();
+		private final List<String> groupNames = new ArrayList<>();
+		private final List<String> remoteFilenames = new ArrayList<>();
+
+		NodeBatch(StorageServer storageServer) {
+			this.storageServer = storageServer;
+		}
+
+		void add(String fileId, String groupName, String remoteFilename) {
+			fileIds.add(fileId);
+			groupNames.add(groupName);
+			remoteFilenames.add(remoteFilename);
+		}
+	}
+}
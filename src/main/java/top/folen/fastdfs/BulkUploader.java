@@ -0,0 +1,369 @@
+package top.folen.fastdfs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import top.folen.common.FastDfsException;
+import top.folen.common.NameValuePair;
+import top.folen.fastdfs.pool.BufferPool;
+import top.folen.fastdfs.pool.Connection;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * 批量上传：通过 tracker 的 getStoreStorages 取得 group 内所有可写的 storage，把文件分散上传到这些 storage，
+ * 每个 storage 的并发上传数不超过 concurrencyPerNode，所有正在上传的文件大小之和不超过 maxInFlightBytes
+ * （单个文件超过该值时独占全部额度），结果按输入顺序返回
+ * <p>
+ * Note: the instance of this class is thread safe, every upload uses its own threads and storage clients
+ *
+ * @author sec
+ * @version 1.0
+ **/
+public class BulkUploader {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(BulkUploader.class);
+
+	public static final int DEFAULT_CONCURRENCY_PER_NODE = 4;
+
+	public static final long DEFAULT_MAX_IN_FLIGHT_BYTES = 64L * 1024 * 1024;
+
+	private final TrackerClient trackerClient;
+
+	private int concurrencyPerNode = DEFAULT_CONCURRENCY_PER_NODE;
+
+	private long maxInFlightBytes = DEFAULT_MAX_IN_FLIGHT_BYTES;
+
+	/**
+	 * constructor using global settings in class ClientGlobal
+	 */
+	public BulkUploader() {
+		this(new TrackerClient());
+	}
+
+	/**
+	 * constructor
+	 *
+	 * @param trackerClient the tracker client to query the store storages
+	 */
+	public BulkUploader(TrackerClient trackerClient) {
+		this.trackerClient = trackerClient;
+	}
+
+	/**
+	 * upload the files to all the store storages of the group
+	 *
+	 * @param groupName the group name to upload files to, can be empty
+	 * @param items     the files to upload, the next item is taken when there is a free upload slot
+	 * @return the file id(including group name and filename) of every item, in the input order
+	 * @throws FastDfsException if query the store storages fail or interrupted
+	 */
+	public List<StorageResult<String>> upload(String groupName, Iterator<? extends Item> items) throws IOException,
+			FastDfsException {
+		StorageServer[] nodes = trackerClient.getStoreStorages(null, groupName);
+		if (nodes == null || nodes.length == 0) {
+			throw new FastDfsException("getStoreStorages fail, errno code: " + trackerClient.getErrorCode());
+		}
+		return upload(nodes, groupName, items);
+	}
+
+	/**
+	 * upload the files to the given storage servers
+	 *
+	 * @param nodes     the storage servers to upload files to
+	 * @param groupName the group name to upload files to, can be empty
+	 * @param items     the files to upload, the next item is taken when there is a free upload slot
+	 * @return the file id(including group name and filename) of every item, in the input order
+	 * @throws FastDfsException if interrupted
+	 */
+	public List<StorageResult<String>> upload(StorageServer[] nodes, String groupName,
+	                                          Iterator<? extends Item> items) throws FastDfsException {
+		long startTime = System.currentTimeMillis();
+		int slotCount = nodes.length * concurrencyPerNode;
+		Semaphore slots = new Semaphore(slotCount);
+		Semaphore[] nodeSlots = new Semaphore[nodes.length];
+		for (int i = 0; i < nodes.length; i++) {
+			nodeSlots[i] = new Semaphore(concurrencyPerNode);
+		}
+		ByteBudget budget = new ByteBudget(maxInFlightBytes);
+
+		ExecutorService executor = Executors.newFixedThreadPool(slotCount, r -> {
+			Thread thread = new Thread(r, "fastdfs-bulk-upload");
+			thread.setDaemon(true);
+			return thread;
+		});
+		List<Future<StorageResult<String>>> futures = new ArrayList<>();
+		try {
+			int next = 0;
+			while (items.hasNext()) {
+				Item item = items.next();
+				long bytes = budget.acquire(item.getFileSize());
+				slots.acquire();
+				// the node slots are released before the global slots, so there must be a free node here
+				int index = selectNode(nodeSlots, next);
+				next = index + 1;
+				StorageServer node = nodes[index];
+				futures.add(executor.submit(() -> {
+					try {
+						return uploadItem(node, groupName, item);
+					} finally {
+						nodeSlots[index].release();
+						slots.release();
+						budget.release(bytes);
+					}
+				}));
+			}
+
+			List<StorageResult<String>> results = new ArrayList<>(futures.size());
+			for (Future<StorageResult<String>> future : futures) {
+				results.add(future.get());
+			}
+			LOGGER.info("bulk upload {} files to {} storages in {} ms", results.size(), nodes.length,
+					System.currentTimeMillis() - startTime);
+			return results;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new FastDfsException("bulk upload interrupted, " + futures.size() + " files submitted");
+		} catch (ExecutionException e) {
+			throw new FastDfsException("bulk upload fail, " + e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * take a slot of the node which has the most free slots, start from the next one of the last selected node
+	 */
+	private static int selectNode(Semaphore[] nodeSlots, int next) {
+		while (true) {
+			int selected = -1;
+			for (int i = 0; i < nodeSlots.length; i++) {
+				int index = (next + i) % nodeSlots.length;
+				if (selected < 0 || nodeSlots[index].availablePermits() > nodeSlots[selected].availablePermits()) {
+					selected = index;
+				}
+			}
+			if (nodeSlots[selected].tryAcquire()) {
+				return selected;
+			}
+		}
+	}
+
+	private static StorageResult<String> uploadItem(StorageServer node, String groupName, Item item) {
+		// StorageClient is not thread safe, every upload has its own client
+		StorageClient client = new StorageClient(null, node);
+		try {
+			String[] results = item.upload(client, groupName);
+			if (results == null) {
+				return StorageResult.fail(client.getErrorCode());
+			}
+			return StorageResult.success(results[0] + StorageClient1.SPLIT_GROUP_NAME_AND_FILENAME_SEPARATOR
+					+ results[1]);
+		} catch (IOException | FastDfsException e) {
+			LOGGER.warn("upload {} to {} fail", item, node.getInetSocketAddress(), e);
+			byte errno = e instanceof FastDfsException ? ((FastDfsException) e).getErrorCode() : 0;
+			return StorageResult.fail(errno != 0 ? errno : ProtoCommon.ERR_NO_EIO);
+		}
+	}
+
+	public int getConcurrencyPerNode() {
+		return concurrencyPerNode;
+	}
+
+	/**
+	 * @param concurrencyPerNode concurrent uploads to every storage server, default 4
+	 */
+	public void setConcurrencyPerNode(int concurrencyPerNode) {
+		if (concurrencyPerNode <= 0) {
+			throw new IllegalArgumentException("concurrencyPerNode must be positive");
+		}
+		this.concurrencyPerNode = concurrencyPerNode;
+	}
+
+	public long getMaxInFlightBytes() {
+		return maxInFlightBytes;
+	}
+
+	/**
+	 * @param maxInFlightBytes max total size of the files being uploaded, default 64MB
+	 */
+	public void setMaxInFlightBytes(long maxInFlightBytes) {
+		if (maxInFlightBytes <= 0) {
+			throw new IllegalArgumentException("maxInFlightBytes must be positive");
+		}
+		this.maxInFlightBytes = maxInFlightBytes;
+	}
+
+	/**
+	 * a file to upload
+	 */
+	public abstract static class Item {
+
+		protected final String fileExtName;
+
+		protected final NameValuePair[] metaList;
+
+		protected Item(String fileExtName, NameValuePair[] metaList) {
+			this.fileExtName = fileExtName;
+			this.metaList = metaList;
+		}
+
+		/**
+		 * @param localFilename local filename to upload, the file is opened when it is uploaded
+		 * @param fileExtName   file ext name, do not include dot(.), null to extract ext name from the local filename
+		 * @param metaList      meta info array
+		 * @return the item
+		 */
+		public static Item of(String localFilename, String fileExtName, NameValuePair[] metaList) {
+			long fileSize = new File(localFilename).length();
+			return new Item(fileExtName, metaList) {
+				@Override
+				public long getFileSize() {
+					return fileSize;
+				}
+
+				@Override
+				protected String[] upload(StorageClient client, String groupName) throws IOException,
+						FastDfsException {
+					return client.uploadFile(ProtoCommon.STORAGE_PROTO_CMD_UPLOAD_FILE, groupName, localFilename,
+							this.fileExtName, this.metaList);
+				}
+
+				@Override
+				public String toString() {
+					return localFilename;
+				}
+			};
+		}
+
+		/**
+		 * @param fileBuff    file content/buff
+		 * @param fileExtName file ext name, do not include dot(.)
+		 * @param metaList    meta info array
+		 * @return the item
+		 */
+		public static Item of(byte[] fileBuff, String fileExtName, NameValuePair[] metaList) {
+			return of(ByteBuffer.wrap(fileBuff), fileExtName, metaList);
+		}
+
+		/**
+		 * @param buffer      file content from the position to the limit, the position is not changed
+		 * @param fileExtName file ext name, do not include dot(.)
+		 * @param metaList    meta info array
+		 * @return the item
+		 */
+		public static Item of(ByteBuffer buffer, String fileExtName, NameValuePair[] metaList) {
+			return new Item(fileExtName, metaList) {
+				@Override
+				public long getFileSize() {
+					return buffer.remaining();
+				}
+
+				@Override
+				protected String[] upload(StorageClient client, String groupName) throws IOException,
+						FastDfsException {
+					return client.doUploadFile(ProtoCommon.STORAGE_PROTO_CMD_UPLOAD_FILE, groupName, null, null,
+							this.fileExtName, buffer.remaining(), new UploadByteBuffer(buffer.duplicate()),
+							this.metaList);
+				}
+
+				@Override
+				public String toString() {
+					return "buffer(" + buffer.remaining() + " bytes)";
+				}
+			};
+		}
+
+		/**
+		 * @return the file size
+		 */
+		public abstract long getFileSize();
+
+		/**
+		 * upload the file by the client of the selected storage server
+		 *
+		 * @param client    the storage client
+		 * @param groupName the group name to upload file to, can be empty
+		 * @return 2 elements string array if success, return null if fail
+		 */
+		protected abstract String[] upload(StorageClient client, String groupName) throws IOException,
+				FastDfsException;
+	}
+
+	/**
+	 * send the buffer content, gathered with the header for nio transport
+	 */
+	private static class UploadByteBuffer implements ChannelUploadCallback {
+
+		private static final int BUFF_SIZE = 64 * 1024;
+
+		private final ByteBuffer buffer;
+
+		UploadByteBuffer(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int send(OutputStream out) throws IOException {
+			if (buffer.hasArray()) {
+				out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+				return 0;
+			}
+			byte[] buff = BufferPool.acquireHeap(Math.min(buffer.remaining(), BUFF_SIZE));
+			try {
+				while (buffer.hasRemaining()) {
+					int bytes = Math.min(buff.length, buffer.remaining());
+					buffer.get(buff, 0, bytes);
+					out.write(buff, 0, bytes);
+				}
+			} finally {
+				BufferPool.releaseHeap(buff);
+			}
+			return 0;
+		}
+
+		@Override
+		public int send(Connection connection, ByteBuffer header) throws IOException {
+			connection.write(header, buffer);
+			return 0;
+		}
+	}
+
+	/**
+	 * the total bytes of the uploading files, a file larger than the budget waits until nothing is uploading
+	 */
+	private static class ByteBudget {
+
+		private final long maxBytes;
+
+		private long usedBytes;
+
+		ByteBudget(long maxBytes) {
+			this.maxBytes = maxBytes;
+		}
+
+		synchronized long acquire(long bytes) throws InterruptedException {
+			long need = Math.min(bytes, maxBytes);
+			while (usedBytes + need > maxBytes) {
+				wait();
+			}
+			usedBytes += need;
+			return need;
+		}
+
+		synchronized void release(long bytes) {
+			usedBytes -= bytes;
+			notifyAll();
+		}
+	}
+}
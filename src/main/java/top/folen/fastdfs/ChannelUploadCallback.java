@@ -0,0 +1,26 @@
+package top.folen.fastdfs;
+
+import top.folen.fastdfs.pool.Connection;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * upload file callback interface writing to the connection, the request header and the file content are written
+ * by gathering write, without copying through heap byte arrays for nio transport
+ *
+ * @author sec
+ * @version 1.0
+ */
+public interface ChannelUploadCallback extends UploadCallback {
+
+	/**
+	 * send the request header and the file content, be called only once when the file uploaded
+	 *
+	 * @param connection the storage connection
+	 * @param header     the request header not sent yet (direct buffer for nio transport), must be written with or
+	 *                   before the file content
+	 * @return 0 success, return none zero(errno) if fail
+	 */
+	int send(Connection connection, ByteBuffer header) throws IOException;
+}
@@ -1,5 +1,7 @@
 package top.folen.fastdfs;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import top.folen.common.FastDfsException;
 import top.folen.common.IniFileReader;
 import top.folen.fastdfs.util.StringUtils;
@@ -20,6 +22,8 @@ import java.util.Properties;
  */
 public class ClientGlobal {
 
+	private static final Logger LOGGER = LoggerFactory.getLogger(ClientGlobal.class);
+
 	// 配置文件对应的key值
 
 	/**
@@ -29,14 +33,31 @@ public class ClientGlobal {
 
 	private static final String CONF_KEY_NETWORK_TIMEOUT = "network_timeout";
 	private static final String CONF_KEY_CHARSET = "charset";
+	private static final String CONF_KEY_NETWORK_TRANSPORT = "network_transport";
 	private static final String CONF_KEY_HTTP_ANTI_STEAL_TOKEN = "http.anti_steal_token";
 	private static final String CONF_KEY_HTTP_SECRET_KEY = "http.secret_key";
 	private static final String CONF_KEY_HTTP_TRACKER_HTTP_PORT = "http.tracker_http_port";
 	private static final String CONF_KEY_TRACKER_SERVER = "tracker_server";
+	private static final String CONF_KEY_CONNECTION_POOL_TYPE = "connection_pool.type";
+	private static final String CONF_KEY_CONNECTION_POOL_MIN_IDLE = "connection_pool.min_idle";
+	private static final String CONF_KEY_CONNECTION_POOL_MAINTENANCE_INTERVAL = "connection_pool.maintenance_interval";
+	private static final String CONF_KEY_CONNECTION_POOL_WARM_UP_COUNT = "connection_pool.warm_up_count";
+	private static final String CONF_KEY_CONNECTION_POOL_WARM_UP_TIMEOUT_IN_MS = "connection_pool.warm_up_timeout_in_ms";
+	private static final String CONF_KEY_ROUTE_CACHE_TTL_IN_MS = "route_cache.ttl_in_ms";
+	private static final String CONF_KEY_ROUTE_CACHE_MAX_ENTRIES = "route_cache.max_entries";
+	private static final String CONF_KEY_ROUTE_CACHE_LOCAL_FETCH = "route_cache.local_fetch";
+	private static final String CONF_KEY_ROUTE_CACHE_STORAGE_LIST_TTL_IN_MS = "route_cache.storage_list_ttl_in_ms";
+	private static final String CONF_KEY_DOWNLOAD_BUFF_SIZE = "download.buff_size";
+	private static final String CONF_KEY_DOWNLOAD_ADAPTIVE_BUFF = "download.adaptive_buff";
+	private static final String CONF_KEY_SOCKET_TCP_NODELAY = "socket.tcp_nodelay";
+	private static final String CONF_KEY_SOCKET_SEND_BUFF_SIZE = "socket.send_buff_size";
+	private static final String CONF_KEY_SOCKET_RECEIVE_BUFF_SIZE = "socket.receive_buff_size";
+	private static final String CONF_KEY_READ_BALANCE_ENABLED = "read_balance.enabled";
 
 	private static final String PROP_KEY_CONNECT_TIMEOUT_IN_SECONDS = "fastdfs.connect_timeout_in_seconds";
 	private static final String PROP_KEY_NETWORK_TIMEOUT_IN_SECONDS = "fastdfs.network_timeout_in_seconds";
 	private static final String PROP_KEY_CHARSET = "fastdfs.charset";
+	private static final String PROP_KEY_NETWORK_TRANSPORT = "fastdfs.network_transport";
 	private static final String PROP_KEY_HTTP_ANTI_STEAL_TOKEN = "fastdfs.http_anti_steal_token";
 	private static final String PROP_KEY_HTTP_SECRET_KEY = "fastdfs.http_secret_key";
 	private static final String PROP_KEY_HTTP_TRACKER_HTTP_PORT = "fastdfs.http_tracker_http_port";
@@ -47,6 +68,24 @@ public class ClientGlobal {
 	private static final String PROP_KEY_CONNECTION_POOL_MAX_IDLE_TIME = "fastdfs.connection_pool.max_idle_time";
 	private static final String PROP_KEY_CONNECTION_POOL_MAX_WAIT_TIME_IN_MS = "fastdfs.connection_pool" +
 			".max_wait_time_in_ms";
+	private static final String PROP_KEY_CONNECTION_POOL_TYPE = "fastdfs.connection_pool.type";
+	private static final String PROP_KEY_CONNECTION_POOL_MIN_IDLE = "fastdfs.connection_pool.min_idle";
+	private static final String PROP_KEY_CONNECTION_POOL_MAINTENANCE_INTERVAL = "fastdfs.connection_pool" +
+			".maintenance_interval";
+	private static final String PROP_KEY_CONNECTION_POOL_WARM_UP_COUNT = "fastdfs.connection_pool.warm_up_count";
+	private static final String PROP_KEY_CONNECTION_POOL_WARM_UP_TIMEOUT_IN_MS = "fastdfs.connection_pool" +
+			".warm_up_timeout_in_ms";
+	private static final String PROP_KEY_ROUTE_CACHE_TTL_IN_MS = "fastdfs.route_cache.ttl_in_ms";
+	private static final String PROP_KEY_ROUTE_CACHE_MAX_ENTRIES = "fastdfs.route_cache.max_entries";
+	private static final String PROP_KEY_ROUTE_CACHE_LOCAL_FETCH = "fastdfs.route_cache.local_fetch";
+	private static final String PROP_KEY_ROUTE_CACHE_STORAGE_LIST_TTL_IN_MS = "fastdfs.route_cache" +
+			".storage_list_ttl_in_ms";
+	private static final String PROP_KEY_DOWNLOAD_BUFF_SIZE = "fastdfs.download.buff_size";
+	private static final String PROP_KEY_DOWNLOAD_ADAPTIVE_BUFF = "fastdfs.download.adaptive_buff";
+	private static final String PROP_KEY_SOCKET_TCP_NODELAY = "fastdfs.socket.tcp_nodelay";
+	private static final String PROP_KEY_SOCKET_SEND_BUFF_SIZE = "fastdfs.socket.send_buff_size";
+	private static final String PROP_KEY_SOCKET_RECEIVE_BUFF_SIZE = "fastdfs.socket.receive_buff_size";
+	private static final String PROP_KEY_READ_BALANCE_ENABLED = "fastdfs.read_balance.enabled";
 
 	// 配置的具体属性值
 	// second
@@ -54,6 +93,12 @@ public class ClientGlobal {
 	// second
 	public static final int DEFAULT_NETWORK_TIMEOUT = 30;
 	public static final String DEFAULT_CHARSET = "UTF-8";
+	/**
+	 * 网络传输方式：socket 为阻塞 Socket 流，nio 为基于 SocketChannel 和直接内存缓冲区的传输
+	 */
+	public static final String NETWORK_TRANSPORT_SOCKET = "socket";
+	public static final String NETWORK_TRANSPORT_NIO = "nio";
+	public static final String DEFAULT_NETWORK_TRANSPORT = NETWORK_TRANSPORT_SOCKET;
 	public static final boolean DEFAULT_HTTP_ANTI_STEAL_TOKEN = false;
 	public static final String DEFAULT_HTTP_SECRET_KEY = "FastDFS1234567890";
 	public static final int DEFAULT_HTTP_TRACKER_HTTP_PORT = 80;
@@ -64,11 +109,40 @@ public class ClientGlobal {
 	public static final int DEFAULT_CONNECTION_POOL_MAX_IDLE_TIME = 3600;
 	//millisecond
 	public static final int DEFAULT_CONNECTION_POOL_MAX_WAIT_TIME_IN_MS = 1000;
+	/**
+	 * 连接池类型：fair 为基于公平锁的连接池，concurrent 为无锁连接池
+	 */
+	public static final String CONNECTION_POOL_TYPE_FAIR = "fair";
+	public static final String CONNECTION_POOL_TYPE_CONCURRENT = "concurrent";
+	public static final String DEFAULT_CONNECTION_POOL_TYPE = CONNECTION_POOL_TYPE_FAIR;
+	public static final int DEFAULT_CONNECTION_POOL_MIN_IDLE = 0;
+	//second, 0 for disable the background maintainer
+	public static final int DEFAULT_CONNECTION_POOL_MAINTENANCE_INTERVAL = 60;
+	//connections per server, 0 for disable warm-up
+	public static final int DEFAULT_CONNECTION_POOL_WARM_UP_COUNT = 0;
+	//millisecond
+	public static final int DEFAULT_CONNECTION_POOL_WARM_UP_TIMEOUT_IN_MS = 10000;
+	//millisecond, 0 for disable the storage route cache
+	public static final int DEFAULT_ROUTE_CACHE_TTL_IN_MS = 0;
+	public static final int DEFAULT_ROUTE_CACHE_MAX_ENTRIES = 10000;
+	public static final boolean DEFAULT_ROUTE_CACHE_LOCAL_FETCH = false;
+	//millisecond
+	public static final int DEFAULT_ROUTE_CACHE_STORAGE_LIST_TTL_IN_MS = 30000;
+	//byte
+	public static final int DEFAULT_DOWNLOAD_BUFF_SIZE = 64 * 1024;
+	public static final boolean DEFAULT_DOWNLOAD_ADAPTIVE_BUFF = false;
+	public static final boolean DEFAULT_SOCKET_TCP_NODELAY = true;
+	//byte, 0 for the system default
+	public static final int DEFAULT_SOCKET_SEND_BUFF_SIZE = 0;
+	//byte, 0 for the system default
+	public static final int DEFAULT_SOCKET_RECEIVE_BUFF_SIZE = 0;
+	public static final boolean DEFAULT_READ_BALANCE_ENABLED = false;
 	//millisecond
 	public static int g_connect_timeout = DEFAULT_CONNECT_TIMEOUT * 1000;
 	//millisecond
 	public static int g_network_timeout = DEFAULT_NETWORK_TIMEOUT * 1000;
 	public static String G_CHARSET = DEFAULT_CHARSET;
+	public static String g_network_transport = DEFAULT_NETWORK_TRANSPORT;
 	//if anti-steal token
 	public static boolean g_anti_steal_token = DEFAULT_HTTP_ANTI_STEAL_TOKEN;
 	//generate token secret key
@@ -80,6 +154,28 @@ public class ClientGlobal {
 	//millisecond
 	public static int g_connection_pool_max_idle_time = DEFAULT_CONNECTION_POOL_MAX_IDLE_TIME * 1000;
 	public static int g_connection_pool_max_wait_time_in_ms = DEFAULT_CONNECTION_POOL_MAX_WAIT_TIME_IN_MS;
+	public static String g_connection_pool_type = DEFAULT_CONNECTION_POOL_TYPE;
+	public static int g_connection_pool_min_idle = DEFAULT_CONNECTION_POOL_MIN_IDLE;
+	//second
+	public static int g_connection_pool_maintenance_interval = DEFAULT_CONNECTION_POOL_MAINTENANCE_INTERVAL;
+	public static int g_connection_pool_warm_up_count = DEFAULT_CONNECTION_POOL_WARM_UP_COUNT;
+	//millisecond
+	public static int g_connection_pool_warm_up_timeout_in_ms = DEFAULT_CONNECTION_POOL_WARM_UP_TIMEOUT_IN_MS;
+	//millisecond
+	public static int g_route_cache_ttl_in_ms = DEFAULT_ROUTE_CACHE_TTL_IN_MS;
+	public static int g_route_cache_max_entries = DEFAULT_ROUTE_CACHE_MAX_ENTRIES;
+	public static boolean g_route_cache_local_fetch = DEFAULT_ROUTE_CACHE_LOCAL_FETCH;
+	//millisecond
+	public static int g_route_cache_storage_list_ttl_in_ms = DEFAULT_ROUTE_CACHE_STORAGE_LIST_TTL_IN_MS;
+	//byte
+	public static int g_download_buff_size = DEFAULT_DOWNLOAD_BUFF_SIZE;
+	public static boolean g_download_adaptive_buff = DEFAULT_DOWNLOAD_ADAPTIVE_BUFF;
+	public static boolean g_socket_tcp_nodelay = DEFAULT_SOCKET_TCP_NODELAY;
+	//byte
+	public static int g_socket_send_buff_size = DEFAULT_SOCKET_SEND_BUFF_SIZE;
+	//byte
+	public static int g_socket_receive_buff_size = DEFAULT_SOCKET_RECEIVE_BUFF_SIZE;
+	public static boolean g_read_balance_enabled = DEFAULT_READ_BALANCE_ENABLED;
 
 	//millisecond
 	public static TrackerGroup G_TRACKER_GROUP;
@@ -104,6 +200,9 @@ public class ClientGlobal {
 		if (G_CHARSET == null || G_CHARSET.length() == 0) {
 			G_CHARSET = "ISO8859-1";
 		}
+		String networkTransport = iniReader.getStrValue(CONF_KEY_NETWORK_TRANSPORT);
+		g_network_transport = StringUtils.isNotBlank(networkTransport) ? networkTransport.trim() :
+				DEFAULT_NETWORK_TRANSPORT;
 
 		String[] szTrackerServers = iniReader.getValues(CONF_KEY_TRACKER_SERVER);
 		if (szTrackerServers == null) {
@@ -136,6 +235,34 @@ public class ClientGlobal {
 
 		g_connection_pool_max_wait_time_in_ms = iniReader.getPositiveIntValue("connection_pool.max_wait_time_in_ms",
 				DEFAULT_CONNECTION_POOL_MAX_WAIT_TIME_IN_MS);
+		String poolType = iniReader.getStrValue(CONF_KEY_CONNECTION_POOL_TYPE);
+		g_connection_pool_type = StringUtils.isNotBlank(poolType) ? poolType.trim() : DEFAULT_CONNECTION_POOL_TYPE;
+		g_connection_pool_min_idle = iniReader.getPositiveIntValue(CONF_KEY_CONNECTION_POOL_MIN_IDLE,
+				DEFAULT_CONNECTION_POOL_MIN_IDLE);
+		g_connection_pool_maintenance_interval = iniReader.getPositiveIntValue(
+				CONF_KEY_CONNECTION_POOL_MAINTENANCE_INTERVAL, DEFAULT_CONNECTION_POOL_MAINTENANCE_INTERVAL);
+		g_connection_pool_warm_up_count = iniReader.getPositiveIntValue(CONF_KEY_CONNECTION_POOL_WARM_UP_COUNT,
+				DEFAULT_CONNECTION_POOL_WARM_UP_COUNT);
+		g_connection_pool_warm_up_timeout_in_ms = iniReader.getPositiveIntValue(
+				CONF_KEY_CONNECTION_POOL_WARM_UP_TIMEOUT_IN_MS, DEFAULT_CONNECTION_POOL_WARM_UP_TIMEOUT_IN_MS);
+		g_route_cache_ttl_in_ms = iniReader.getPositiveIntValue(
+				CONF_KEY_ROUTE_CACHE_TTL_IN_MS, DEFAULT_ROUTE_CACHE_TTL_IN_MS);
+		g_route_cache_max_entries = iniReader.getPositiveIntValue(
+				CONF_KEY_ROUTE_CACHE_MAX_ENTRIES, DEFAULT_ROUTE_CACHE_MAX_ENTRIES);
+		g_route_cache_local_fetch = iniReader.getBoolValue(CONF_KEY_ROUTE_CACHE_LOCAL_FETCH,
+				DEFAULT_ROUTE_CACHE_LOCAL_FETCH);
+		g_route_cache_storage_list_ttl_in_ms = iniReader.getPositiveIntValue(
+				CONF_KEY_ROUTE_CACHE_STORAGE_LIST_TTL_IN_MS, DEFAULT_ROUTE_CACHE_STORAGE_LIST_TTL_IN_MS);
+		g_download_buff_size = iniReader.getPositiveIntValue(CONF_KEY_DOWNLOAD_BUFF_SIZE, DEFAULT_DOWNLOAD_BUFF_SIZE);
+		g_download_adaptive_buff = iniReader.getBoolValue(CONF_KEY_DOWNLOAD_ADAPTIVE_BUFF, DEFAULT_DOWNLOAD_ADAPTIVE_BUFF);
+		g_socket_tcp_nodelay = iniReader.getBoolValue(CONF_KEY_SOCKET_TCP_NODELAY, DEFAULT_SOCKET_TCP_NODELAY);
+		g_socket_send_buff_size = iniReader.getPositiveIntValue(
+				CONF_KEY_SOCKET_SEND_BUFF_SIZE, DEFAULT_SOCKET_SEND_BUFF_SIZE);
+		g_socket_receive_buff_size = iniReader.getPositiveIntValue(
+				CONF_KEY_SOCKET_RECEIVE_BUFF_SIZE, DEFAULT_SOCKET_RECEIVE_BUFF_SIZE);
+		g_read_balance_enabled = iniReader.getBoolValue(CONF_KEY_READ_BALANCE_ENABLED, DEFAULT_READ_BALANCE_ENABLED);
+
+		warmUpConnectionPool();
 	}
 
 	/**
@@ -170,6 +297,7 @@ public class ClientGlobal {
 		String connectTimeoutInSecondsConf = props.getProperty(PROP_KEY_CONNECT_TIMEOUT_IN_SECONDS);
 		String networkTimeoutInSecondsConf = props.getProperty(PROP_KEY_NETWORK_TIMEOUT_IN_SECONDS);
 		String charsetConf = props.getProperty(PROP_KEY_CHARSET);
+		String networkTransportConf = props.getProperty(PROP_KEY_NETWORK_TRANSPORT);
 		String httpAntiStealTokenConf = props.getProperty(PROP_KEY_HTTP_ANTI_STEAL_TOKEN);
 		String httpSecretKeyConf = props.getProperty(PROP_KEY_HTTP_SECRET_KEY);
 		String httpTrackerHttpPortConf = props.getProperty(PROP_KEY_HTTP_TRACKER_HTTP_PORT);
@@ -177,6 +305,21 @@ public class ClientGlobal {
 		String poolMaxCountPerEntry = props.getProperty(PROP_KEY_CONNECTION_POOL_MAX_COUNT_PER_ENTRY);
 		String poolMaxIdleTime = props.getProperty(PROP_KEY_CONNECTION_POOL_MAX_IDLE_TIME);
 		String poolMaxWaitTimeInMs = props.getProperty(PROP_KEY_CONNECTION_POOL_MAX_WAIT_TIME_IN_MS);
+		String poolType = props.getProperty(PROP_KEY_CONNECTION_POOL_TYPE);
+		String poolMinIdle = props.getProperty(PROP_KEY_CONNECTION_POOL_MIN_IDLE);
+		String poolMaintenanceInterval = props.getProperty(PROP_KEY_CONNECTION_POOL_MAINTENANCE_INTERVAL);
+		String poolWarmUpCount = props.getProperty(PROP_KEY_CONNECTION_POOL_WARM_UP_COUNT);
+		String poolWarmUpTimeoutInMs = props.getProperty(PROP_KEY_CONNECTION_POOL_WARM_UP_TIMEOUT_IN_MS);
+		String routeCacheTtlInMsConf = props.getProperty(PROP_KEY_ROUTE_CACHE_TTL_IN_MS);
+		String routeCacheMaxEntriesConf = props.getProperty(PROP_KEY_ROUTE_CACHE_MAX_ENTRIES);
+		String routeCacheLocalFetchConf = props.getProperty(PROP_KEY_ROUTE_CACHE_LOCAL_FETCH);
+		String routeCacheStorageListTtlInMsConf = props.getProperty(PROP_KEY_ROUTE_CACHE_STORAGE_LIST_TTL_IN_MS);
+		String downloadBuffSizeConf = props.getProperty(PROP_KEY_DOWNLOAD_BUFF_SIZE);
+		String downloadAdaptiveBuffConf = props.getProperty(PROP_KEY_DOWNLOAD_ADAPTIVE_BUFF);
+		String socketTcpNodelayConf = props.getProperty(PROP_KEY_SOCKET_TCP_NODELAY);
+		String socketSendBuffSizeConf = props.getProperty(PROP_KEY_SOCKET_SEND_BUFF_SIZE);
+		String socketReceiveBuffSizeConf = props.getProperty(PROP_KEY_SOCKET_RECEIVE_BUFF_SIZE);
+		String readBalanceEnabledConf = props.getProperty(PROP_KEY_READ_BALANCE_ENABLED);
 
 		if (StringUtils.isNotBlank(connectTimeoutInSecondsConf)) {
 			g_connect_timeout = Integer.parseInt(connectTimeoutInSecondsConf.trim()) * 1000;
@@ -190,6 +333,10 @@ public class ClientGlobal {
 			G_CHARSET = charsetConf.trim();
 		}
 
+		if (StringUtils.isNotBlank(networkTransportConf)) {
+			g_network_transport = networkTransportConf.trim();
+		}
+
 		if (StringUtils.isNotBlank(httpAntiStealTokenConf)) {
 			g_anti_steal_token = Boolean.parseBoolean(httpAntiStealTokenConf);
 		}
@@ -214,6 +361,75 @@ public class ClientGlobal {
 		if (StringUtils.isNotBlank(poolMaxWaitTimeInMs)) {
 			g_connection_pool_max_wait_time_in_ms = Integer.parseInt(poolMaxWaitTimeInMs);
 		}
+		if (StringUtils.isNotBlank(poolType)) {
+			g_connection_pool_type = poolType.trim();
+		}
+		if (StringUtils.isNotBlank(poolMinIdle)) {
+			g_connection_pool_min_idle = Integer.parseInt(poolMinIdle.trim());
+		}
+		if (StringUtils.isNotBlank(poolMaintenanceInterval)) {
+			g_connection_pool_maintenance_interval = Integer.parseInt(poolMaintenanceInterval.trim());
+		}
+		if (StringUtils.isNotBlank(poolWarmUpCount)) {
+			g_connection_pool_warm_up_count = Integer.parseInt(poolWarmUpCount.trim());
+		}
+		if (StringUtils.isNotBlank(poolWarmUpTimeoutInMs)) {
+			g_connection_pool_warm_up_timeout_in_ms = Integer.parseInt(poolWarmUpTimeoutInMs.trim());
+		}
+		if (StringUtils.isNotBlank(routeCacheTtlInMsConf)) {
+			g_route_cache_ttl_in_ms = Integer.parseInt(routeCacheTtlInMsConf.trim());
+		}
+		if (StringUtils.isNotBlank(routeCacheMaxEntriesConf)) {
+			g_route_cache_max_entries = Integer.parseInt(routeCacheMaxEntriesConf.trim());
+		}
+		if (StringUtils.isNotBlank(routeCacheLocalFetchConf)) {
+			g_route_cache_local_fetch = Boolean.parseBoolean(routeCacheLocalFetchConf.trim());
+		}
+		if (StringUtils.isNotBlank(routeCacheStorageListTtlInMsConf)) {
+			g_route_cache_storage_list_ttl_in_ms = Integer.parseInt(routeCacheStorageListTtlInMsConf.trim());
+		}
+		if (StringUtils.isNotBlank(downloadBuffSizeConf)) {
+			g_download_buff_size = Integer.parseInt(downloadBuffSizeConf.trim());
+		}
+		if (StringUtils.isNotBlank(downloadAdaptiveBuffConf)) {
+			g_download_adaptive_buff = Boolean.parseBoolean(downloadAdaptiveBuffConf.trim());
+		}
+		if (StringUtils.isNotBlank(socketTcpNodelayConf)) {
+			g_socket_tcp_nodelay = Boolean.parseBoolean(socketTcpNodelayConf.trim());
+		}
+		if (StringUtils.isNotBlank(socketSendBuffSizeConf)) {
+			g_socket_send_buff_size = Integer.parseInt(socketSendBuffSizeConf.trim());
+		}
+		if (StringUtils.isNotBlank(socketReceiveBuffSizeConf)) {
+			g_socket_receive_buff_size = Integer.parseInt(socketReceiveBuffSizeConf.trim());
+		}
+		if (StringUtils.isNotBlank(readBalanceEnabledConf)) {
+			g_read_balance_enabled = Boolean.parseBoolean(readBalanceEnabledConf.trim());
+		}
+
+		warmUpConnectionPool();
+	}
+
+	/**
+	 * pre-open connection_pool.warm_up_count connections to every tracker server and active storage server,
+	 * do nothing if the connection pool is disabled or warm_up_count is 0
+	 *
+	 * @return warm-up result of every server
+	 */
+	public static List<ConnectionPoolWarmUp.Result> warmUpConnectionPool() {
+		if (!g_connection_pool_enabled || g_connection_pool_warm_up_count <= 0) {
+			return new ArrayList<>();
+		}
+		List<ConnectionPoolWarmUp.Result> results = ConnectionPoolWarmUp.warmUp(g_connection_pool_warm_up_count,
+				g_connection_pool_warm_up_timeout_in_ms);
+		for (ConnectionPoolWarmUp.Result result : results) {
+			if (result.isSuccess()) {
+				LOGGER.info("connection pool warm-up: {}", result);
+			} else {
+				LOGGER.warn("connection pool warm-up: {}", result);
+			}
+		}
+		return results;
 	}
 
 	/**
@@ -249,6 +465,7 @@ public class ClientGlobal {
 	 */
 	public static Socket getSocket(String ipAddr, int port) throws IOException {
 		Socket sock = new Socket();
+		configSocket(sock);
 		sock.setSoTimeout(ClientGlobal.g_network_timeout);
 		sock.connect(new InetSocketAddress(ipAddr, port), ClientGlobal.g_connect_timeout);
 		return sock;
@@ -263,11 +480,29 @@ public class ClientGlobal {
 	public static Socket getSocket(InetSocketAddress addr) throws IOException {
 		Socket sock = new Socket();
 		sock.setReuseAddress(true);
+		configSocket(sock);
 		sock.setSoTimeout(ClientGlobal.g_network_timeout);
 		sock.connect(addr, ClientGlobal.g_connect_timeout);
 		return sock;
 	}
 
+	/**
+	 * apply socket.tcp_nodelay, socket.send_buff_size and socket.receive_buff_size to the socket,
+	 * should be called before connect, the receive buffer size larger than 64KB needs window scaling
+	 * which is negotiated by the handshake
+	 *
+	 * @param sock the Socket object not connected
+	 */
+	public static void configSocket(Socket sock) throws IOException {
+		sock.setTcpNoDelay(g_socket_tcp_nodelay);
+		if (g_socket_send_buff_size > 0) {
+			sock.setSendBufferSize(g_socket_send_buff_size);
+		}
+		if (g_socket_receive_buff_size > 0) {
+			sock.setReceiveBufferSize(g_socket_receive_buff_size);
+		}
+	}
+
 	public static String configInfo() {
 		StringBuilder trackerServers = new StringBuilder();
 		if (G_TRACKER_GROUP != null) {
@@ -283,6 +518,7 @@ public class ClientGlobal {
 				+ "\n  g_connect_timeout(ms) = " + g_connect_timeout
 				+ "\n  g_network_timeout(ms) = " + g_network_timeout
 				+ "\n  G_CHARSET = " + G_CHARSET
+				+ "\n  g_network_transport = " + g_network_transport
 				+ "\n  g_anti_steal_token = " + g_anti_steal_token
 				+ "\n  g_secret_key = " + g_secret_key
 				+ "\n  g_tracker_http_port = " + g_tracker_http_port
@@ -290,6 +526,21 @@ public class ClientGlobal {
 				+ "\n  g_connection_pool_max_count_per_entry = " + g_connection_pool_max_count_per_entry
 				+ "\n  g_connection_pool_max_idle_time(ms) = " + g_connection_pool_max_idle_time
 				+ "\n  g_connection_pool_max_wait_time_in_ms(ms) = " + g_connection_pool_max_wait_time_in_ms
+				+ "\n  g_connection_pool_type = " + g_connection_pool_type
+				+ "\n  g_connection_pool_min_idle = " + g_connection_pool_min_idle
+				+ "\n  g_connection_pool_maintenance_interval(s) = " + g_connection_pool_maintenance_interval
+				+ "\n  g_connection_pool_warm_up_count = " + g_connection_pool_warm_up_count
+				+ "\n  g_connection_pool_warm_up_timeout_in_ms(ms) = " + g_connection_pool_warm_up_timeout_in_ms
+				+ "\n  g_route_cache_ttl_in_ms(ms) = " + g_route_cache_ttl_in_ms
+				+ "\n  g_route_cache_max_entries = " + g_route_cache_max_entries
+				+ "\n  g_route_cache_local_fetch = " + g_route_cache_local_fetch
+				+ "\n  g_route_cache_storage_list_ttl_in_ms(ms) = " + g_route_cache_storage_list_ttl_in_ms
+				+ "\n  g_download_buff_size(bytes) = " + g_download_buff_size
+				+ "\n  g_download_adaptive_buff = " + g_download_adaptive_buff
+				+ "\n  g_socket_tcp_nodelay = " + g_socket_tcp_nodelay
+				+ "\n  g_socket_send_buff_size(bytes) = " + g_socket_send_buff_size
+				+ "\n  g_socket_receive_buff_size(bytes) = " + g_socket_receive_buff_size
+				+ "\n  g_read_balance_enabled = " + g_read_balance_enabled
 				+ "\n  trackerServers = " + trackerServers
 				+ "\n}";
 	}
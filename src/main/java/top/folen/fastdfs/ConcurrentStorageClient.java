@@ -0,0 +1,417 @@
+package top.folen.fastdfs;
+
+import top.folen.common.FastDfsException;
+import top.folen.common.NameValuePair;
+
+import java.io.IOException;
+
+/**
+ * 线程安全、可复用的 storage 客户端，一个实例可以被所有线程共享
+ * <p>
+ * 每个操作返回 StorageResult（错误码 + 数据），实例上不保存任何单次请求的状态；
+ * 请求由当前线程复用的 StorageClient 执行，查询 storage 的 TrackerClient 也随之复用，不会每次请求都创建
+ * <p>
+ * Note: the instance of this class is thread safe
+ *
+ * @author sec
+ * @version 1.0
+ **/
+public class ConcurrentStorageClient {
+
+	private final TrackerServer trackerServer;
+
+	private final StorageServer storageServer;
+
+	/**
+	 * StorageClient is not thread safe, every thread has its own client
+	 */
+	private final ThreadLocal<StorageClient> clients;
+
+	/**
+	 * constructor, query the storage server from the tracker
+	 */
+	public ConcurrentStorageClient() {
+		this(null, null);
+	}
+
+	/**
+	 * constructor with the tracker server and storage server
+	 *
+	 * @param trackerServer the tracker server, can be null
+	 * @param storageServer the storage server, can be null
+	 */
+	public ConcurrentStorageClient(TrackerServer trackerServer, StorageServer storageServer) {
+		this.trackerServer = trackerServer;
+		this.storageServer = storageServer;
+		this.clients = ThreadLocal.withInitial(() -> new StorageClient(trackerServer, storageServer));
+	}
+
+	public TrackerServer getTrackerServer() {
+		return trackerServer;
+	}
+
+	public StorageServer getStorageServer() {
+		return storageServer;
+	}
+
+	/**
+	 * upload file to storage server (by file name)
+	 *
+	 * @param groupName     the group name to upload file to, can be empty
+	 * @param localFilename local filename to upload
+	 * @param fileExtName   file ext name, do not include dot(.), null to extract ext name from the local filename
+	 * @param metaList      meta info array
+	 * @return the group name and the new created filename
+	 */
+	public StorageResult<String[]> uploadFile(String groupName, String localFilename, String fileExtName,
+	                                          NameValuePair[] metaList) throws IOException, FastDfsException {
+		return data(client -> client.uploadFile(groupName, localFilename, fileExtName, metaList));
+	}
+
+	/**
+	 * upload file to storage server (by file buff)
+	 *
+	 * @param groupName   the group name to upload file to, can be empty
+	 * @param fileBuff    file content/buff
+	 * @param fileExtName file ext name, do not include dot(.)
+	 * @param metaList    meta info array
+	 * @return the group name and the new created filename
+	 */
+	public StorageResult<String[]> uploadFile(String groupName, byte[] fileBuff, String fileExtName,
+	                                          NameValuePair[] metaList) throws IOException, FastDfsException {
+		return data(client -> client.uploadFile(groupName, fileBuff, fileExtName, metaList));
+	}
+
+	/**
+	 * upload file to storage server (by callback)
+	 *
+	 * @param groupName   the group name to upload file to, can be empty
+	 * @param fileSize    the file size
+	 * @param callback    the write data callback object
+	 * @param fileExtName file ext name, do not include dot(.)
+	 * @param metaList    meta info array
+	 * @return the group name and the new created filename
+	 */
+	public StorageResult<String[]> uploadFile(String groupName, long fileSize, UploadCallback callback,
+	                                          String fileExtName, NameValuePair[] metaList) throws IOException,
+			FastDfsException {
+		return data(client -> client.uploadFile(groupName, fileSize, callback, fileExtName, metaList));
+	}
+
+	/**
+	 * upload slave file to storage server (by file name)
+	 *
+	 * @param groupName      the group name of the master file
+	 * @param masterFilename the master filename to generate the slave file
+	 * @param prefixName     the prefix name to generate the slave file
+	 * @param localFilename  local filename to upload
+	 * @param fileExtName    file ext name, do not include dot(.), null to extract ext name from the local filename
+	 * @param metaList       meta info array
+	 * @return the group name and the new created filename
+	 */
+	public StorageResult<String[]> uploadFile(String groupName, String masterFilename, String prefixName,
+	                                          String localFilename, String fileExtName,
+	                                          NameValuePair[] metaList) throws IOException, FastDfsException {
+		return data(client -> client.uploadFile(groupName, masterFilename, prefixName, localFilename, fileExtName,
+				metaList));
+	}
+
+	/**
+	 * upload slave file to storage server (by file buff)
+	 *
+	 * @param groupName      the group name of the master file
+	 * @param masterFilename the master filename to generate the slave file
+	 * @param prefixName     the prefix name to generate the slave file
+	 * @param fileBuff       file content/buff
+	 * @param fileExtName    file ext name, do not include dot(.)
+	 * @param metaList       meta info array
+	 * @return the group name and the new created filename
+	 */
+	public StorageResult<String[]> uploadFile(String groupName, String masterFilename, String prefixName,
+	                                          byte[] fileBuff, String fileExtName,
+	                                          NameValuePair[] metaList) throws IOException, FastDfsException {
+		return data(client -> client.uploadFile(groupName, masterFilename, prefixName, fileBuff, fileExtName,
+				metaList));
+	}
+
+	/**
+	 * upload appender file to storage server (by file name)
+	 *
+	 * @param groupName     the group name to upload file to, can be empty
+	 * @param localFilename local filename to upload
+	 * @param fileExtName   file ext name, do not include dot(.), null to extract ext name from the local filename
+	 * @param metaList      meta info array
+	 * @return the group name and the new created filename
+	 */
+	public StorageResult<String[]> uploadAppenderFile(String groupName, String localFilename, String fileExtName,
+	                                                  NameValuePair[] metaList) throws IOException,
+			FastDfsException {
+		return data(client -> client.uploadAppenderFile(groupName, localFilename, fileExtName, metaList));
+	}
+
+	/**
+	 * upload appender file to storage server (by file buff)
+	 *
+	 * @param groupName   the group name to upload file to, can be empty
+	 * @param fileBuff    file content/buff
+	 * @param fileExtName file ext name, do not include dot(.)
+	 * @param metaList    meta info array
+	 * @return the group name and the new created filename
+	 */
+	public StorageResult<String[]> uploadAppenderFile(String groupName, byte[] fileBuff, String fileExtName,
+	                                                  NameValuePair[] metaList) throws IOException,
+			FastDfsException {
+		return data(client -> client.uploadAppenderFile(groupName, fileBuff, fileExtName, metaList));
+	}
+
+	/**
+	 * upload appender file to storage server (by callback)
+	 *
+	 * @param groupName   the group name to upload file to, can be empty
+	 * @param fileSize    the file size
+	 * @param callback    the write data callback object
+	 * @param fileExtName file ext name, do not include dot(.)
+	 * @param metaList    meta info array
+	 * @return the group name and the new created filename
+	 */
+	public StorageResult<String[]> uploadAppenderFile(String groupName, long fileSize, UploadCallback callback,
+	                                                  String fileExtName, NameValuePair[] metaList) throws IOException,
+			FastDfsException {
+		return data(client -> client.uploadAppenderFile(groupName, fileSize, callback, fileExtName, metaList));
+	}
+
+	/**
+	 * append file to storage server (by file name)
+	 *
+	 * @param groupName        the group name of appender file
+	 * @param appenderFilename the appender filename
+	 * @param localFilename    local filename to append
+	 * @return the result without data
+	 */
+	public StorageResult<Void> appendFile(String groupName, String appenderFilename,
+	                                      String localFilename) throws IOException, FastDfsException {
+		return status(client -> client.appendFile(groupName, appenderFilename, localFilename));
+	}
+
+	/**
+	 * append file to storage server (by file buff)
+	 *
+	 * @param groupName        the group name of appender file
+	 * @param appenderFilename the appender filename
+	 * @param fileBuff         file content/buff
+	 * @return the result without data
+	 */
+	public StorageResult<Void> appendFile(String groupName, String appenderFilename,
+	                                      byte[] fileBuff) throws IOException, FastDfsException {
+		return status(client -> client.appendFile(groupName, appenderFilename, fileBuff));
+	}
+
+	/**
+	 * append file to storage server (by callback)
+	 *
+	 * @param groupName        the group name of appender file
+	 * @param appenderFilename the appender filename
+	 * @param fileSize         the file size
+	 * @param callback         the write data callback object
+	 * @return the result without data
+	 */
+	public StorageResult<Void> appendFile(String groupName, String appenderFilename, long fileSize,
+	                                      UploadCallback callback) throws IOException, FastDfsException {
+		return status(client -> client.appendFile(groupName, appenderFilename, fileSize, callback));
+	}
+
+	/**
+	 * modify appender file to storage server (by file name)
+	 *
+	 * @param groupName        the group name of appender file
+	 * @param appenderFilename the appender filename
+	 * @param fileOffset       the offset of appender file
+	 * @param localFilename    local filename to append
+	 * @return the result without data
+	 */
+	public StorageResult<Void> modifyFile(String groupName, String appenderFilename, long fileOffset,
+	                                      String localFilename) throws IOException, FastDfsException {
+		return status(client -> client.modifyFile(groupName, appenderFilename, fileOffset, localFilename));
+	}
+
+	/**
+	 * modify appender file to storage server (by file buff)
+	 *
+	 * @param groupName        the group name of appender file
+	 * @param appenderFilename the appender filename
+	 * @param fileOffset       the offset of appender file
+	 * @param fileBuff         file content/buff
+	 * @return the result without data
+	 */
+	public StorageResult<Void> modifyFile(String groupName, String appenderFilename, long fileOffset,
+	                                      byte[] fileBuff) throws IOException, FastDfsException {
+		return status(client -> client.modifyFile(groupName, appenderFilename, fileOffset, fileBuff));
+	}
+
+	/**
+	 * modify appender file to storage server (by callback)
+	 *
+	 * @param groupName        the group name of appender file
+	 * @param appenderFilename the appender filename
+	 * @param fileOffset       the offset of appender file
+	 * @param modifySize       the modify size
+	 * @param callback         the write data callback object
+	 * @return the result without data
+	 */
+	public StorageResult<Void> modifyFile(String groupName, String appenderFilename, long fileOffset,
+	                                      long modifySize, UploadCallback callback) throws IOException,
+			FastDfsException {
+		return status(client -> client.modifyFile(groupName, appenderFilename, fileOffset, modifySize, callback));
+	}
+
+	/**
+	 * regenerate filename for appender file
+	 *
+	 * @param groupName        the group name of appender file
+	 * @param appenderFilename the appender filename
+	 * @return the group name and the regenerated filename
+	 */
+	public StorageResult<String[]> regenerateAppenderFilename(String groupName,
+	                                                          String appenderFilename) throws IOException,
+			FastDfsException {
+		return data(client -> client.regenerateAppenderFilename(groupName, appenderFilename));
+	}
+
+	/**
+	 * truncate appender file from storage server
+	 *
+	 * @param groupName         the group name of appender file
+	 * @param appenderFilename  the appender filename
+	 * @param truncatedFileSize truncated file size
+	 * @return the result without data
+	 */
+	public StorageResult<Void> truncateFile(String groupName, String appenderFilename,
+	                                        long truncatedFileSize) throws IOException, FastDfsException {
+		return status(client -> client.truncateFile(groupName, appenderFilename, truncatedFileSize));
+	}
+
+	/**
+	 * delete file from storage server
+	 *
+	 * @param groupName      the group name of storage server
+	 * @param remoteFilename filename on storage server
+	 * @return the result without data
+	 */
+	public StorageResult<Void> deleteFile(String groupName, String remoteFilename) throws IOException,
+			FastDfsException {
+		return status(client -> client.deleteFile(groupName, remoteFilename));
+	}
+
+	/**
+	 * download file from storage server
+	 *
+	 * @param groupName      the group name of storage server
+	 * @param remoteFilename filename on storage server
+	 * @param fileOffset     the start offset of the file
+	 * @param downloadBytes  download bytes, 0 for remain bytes from offset
+	 * @return the file content
+	 */
+	public StorageResult<byte[]> downloadFile(String groupName, String remoteFilename, long fileOffset,
+	                                          long downloadBytes) throws IOException, FastDfsException {
+		return data(client -> client.downloadFile(groupName, remoteFilename, fileOffset, downloadBytes));
+	}
+
+	/**
+	 * download file from storage server to local file
+	 *
+	 * @param groupName      the group name of storage server
+	 * @param remoteFilename filename on storage server
+	 * @param fileOffset     the start offset of the file
+	 * @param downloadBytes  download bytes, 0 for remain bytes from offset
+	 * @param localFilename  filename on local
+	 * @return the result without data
+	 */
+	public StorageResult<Void> downloadFile(String groupName, String remoteFilename, long fileOffset,
+	                                        long downloadBytes, String localFilename) throws IOException,
+			FastDfsException {
+		return status(client -> client.downloadFile(groupName, remoteFilename, fileOffset, downloadBytes,
+				localFilename));
+	}
+
+	/**
+	 * download file from storage server
+	 *
+	 * @param groupName      the group name of storage server
+	 * @param remoteFilename filename on storage server
+	 * @param fileOffset     the start offset of the file
+	 * @param downloadBytes  download bytes, 0 for remain bytes from offset
+	 * @param callback       call callback.recv() when data arrive
+	 * @return the result without data
+	 */
+	public StorageResult<Void> downloadFile(String groupName, String remoteFilename, long fileOffset,
+	                                        long downloadBytes, DownloadCallback callback) throws IOException,
+			FastDfsException {
+		return status(client -> client.downloadFile(groupName, remoteFilename, fileOffset, downloadBytes, callback));
+	}
+
+	/**
+	 * get all metadata items from storage server
+	 *
+	 * @param groupName      the group name of storage server
+	 * @param remoteFilename filename on storage server
+	 * @return the meta info array
+	 */
+	public StorageResult<NameValuePair[]> getMetadata(String groupName, String remoteFilename) throws IOException,
+			FastDfsException {
+		return data(client -> client.getMetadata(groupName, remoteFilename));
+	}
+
+	/**
+	 * set metadata items to storage server
+	 *
+	 * @param groupName      the group name of storage server
+	 * @param remoteFilename filename on storage server
+	 * @param metaList       meta item array
+	 * @param opFlag         ProtoCommon.STORAGE_SET_METADATA_FLAG_OVERWRITE or ProtoCommon.STORAGE_SET_METADATA_FLAG_MERGE
+	 * @return the result without data
+	 */
+	public StorageResult<Void> setMetadata(String groupName, String remoteFilename, NameValuePair[] metaList,
+	                                       byte opFlag) throws IOException, FastDfsException {
+		return status(client -> client.setMetadata(groupName, remoteFilename, metaList, opFlag));
+	}
+
+	/**
+	 * get file info decoded from the filename, query the storage server for slave file and appender file
+	 *
+	 * @param groupName      the group name of storage server
+	 * @param remoteFilename filename on storage server
+	 * @return the file info
+	 */
+	public StorageResult<FileInfo> getFileInfo(String groupName, String remoteFilename) throws IOException,
+			FastDfsException {
+		return data(client -> client.getFileInfo(groupName, remoteFilename));
+	}
+
+	/**
+	 * get file info from storage server
+	 *
+	 * @param groupName      the group name of storage server
+	 * @param remoteFilename filename on storage server
+	 * @return the file info
+	 */
+	public StorageResult<FileInfo> queryFileInfo(String groupName, String remoteFilename) throws IOException,
+			FastDfsException {
+		return data(client -> client.queryFileInfo(groupName, remoteFilename));
+	}
+
+	private <T> StorageResult<T> data(StorageCall<T> call) throws IOException, FastDfsException {
+		StorageClient client = clients.get();
+		T data = call.call(client);
+		return data != null ? StorageResult.success(data) : StorageResult.fail(client.getErrorCode());
+	}
+
+	private StorageResult<Void> status(StorageCall<Integer> call) throws IOException, FastDfsException {
+		int result = call.call(clients.get());
+		return result == 0 ? StorageResult.success(null) : StorageResult.fail((byte) result);
+	}
+
+	private interface StorageCall<T> {
+
+		T call(StorageClient client) throws IOException, FastDfsException;
+	}
+}
@@ -0,0 +1,253 @@
+package top.folen.fastdfs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import top.folen.common.FastDfsException;
+import top.folen.fastdfs.pool.AbstractConnectionManager;
+import top.folen.fastdfs.pool.ConnectionPool;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Pre-open pooled connections to every tracker server and every active storage server,
+ * so the first requests after startup need not pay the TCP connect cost
+ *
+ * @author sec
+ * @version 1.0
+ **/
+public class ConnectionPoolWarmUp {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionPoolWarmUp.class);
+
+	/**
+	 * max threads to open connections in parallel
+	 */
+	private static final int MAX_THREADS = 32;
+
+	private ConnectionPoolWarmUp() {
+	}
+
+	/**
+	 * open connections to the trackers of ClientGlobal.G_TRACKER_GROUP and the active storages listed by them,
+	 * listing the storages runs in parallel with the tracker connections and within the deadline too
+	 *
+	 * @param countPerServer free connection count to open per server
+	 * @param timeoutMillis  the deadline of the whole warm-up, unit: millisecond
+	 * @return warm-up result of every server
+	 */
+	public static List<Result> warmUp(int countPerServer, long timeoutMillis) {
+		long startTime = System.currentTimeMillis();
+		long deadline = startTime + timeoutMillis;
+		Map<String, Result> results = new LinkedHashMap<>();
+		if (ClientGlobal.G_TRACKER_GROUP == null || countPerServer <= 0) {
+			return new ArrayList<>(results.values());
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(MAX_THREADS, r -> {
+			Thread thread = new Thread(r, "fastdfs-connection-pool-warm-up");
+			thread.setDaemon(true);
+			return thread;
+		});
+		List<Future<Void>> futures = new ArrayList<>();
+		List<Result> taskResults = new ArrayList<>();
+		try {
+			Future<List<InetSocketAddress>> storages = executor.submit(ConnectionPoolWarmUp::listStorageAddresses);
+			for (InetSocketAddress address : ClientGlobal.G_TRACKER_GROUP.trackerServers) {
+				Result result = new Result(address, countPerServer);
+				if (results.putIfAbsent(address.toString(), result) == null) {
+					submitOpen(executor, result, futures, taskResults);
+				}
+			}
+			for (InetSocketAddress address : getStorageAddresses(storages, deadline)) {
+				Result result = new Result(address, countPerServer);
+				if (results.putIfAbsent(address.toString(), result) == null) {
+					submitOpen(executor, result, futures, taskResults);
+				}
+			}
+			for (int i = 0; i < futures.size(); i++) {
+				taskResults.get(i).collect(futures.get(i), deadline);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			LOGGER.warn("connection pool warm-up interrupted");
+		} finally {
+			executor.shutdownNow();
+		}
+
+		List<Result> resultList = new ArrayList<>(results.values());
+		long elapsed = System.currentTimeMillis() - startTime;
+		for (Result result : resultList) {
+			result.elapsedMillis = elapsed;
+		}
+		return resultList;
+	}
+
+	/**
+	 * submit the tasks opening the free connections the server lacks
+	 */
+	private static void submitOpen(ExecutorService executor, Result result, List<Future<Void>> futures,
+	                               List<Result> taskResults) {
+		AbstractConnectionManager manager = ConnectionPool.getConnectionManager(result.address);
+		for (int i = manager.getFreeCount(); i < result.requested; i++) {
+			futures.add(executor.submit(() -> {
+				if (!manager.openIdleConnection()) {
+					throw new FastDfsException("max_count_per_entry reached");
+				}
+				return null;
+			}));
+			taskResults.add(result);
+		}
+	}
+
+	/**
+	 * @return the storage server addresses listed before the deadline, empty if list fail or time out
+	 */
+	private static List<InetSocketAddress> getStorageAddresses(Future<List<InetSocketAddress>> storages,
+	                                                           long deadline) throws InterruptedException {
+		try {
+			return storages.get(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			storages.cancel(true);
+			LOGGER.warn("warm-up list storage servers timed out");
+		} catch (ExecutionException e) {
+			LOGGER.warn("warm-up list storage servers fail, emsg: {}", e.getCause().getMessage());
+		}
+		return new ArrayList<>();
+	}
+
+	/**
+	 * list the active storage servers of all groups
+	 *
+	 * @return storage server addresses, empty if list fail
+	 */
+	private static List<InetSocketAddress> listStorageAddresses() {
+		List<InetSocketAddress> addresses = new ArrayList<>();
+		try {
+			TrackerClient trackerClient = new TrackerClient();
+			GroupStatStruct[] groupStats = trackerClient.listGroups(null);
+			if (groupStats == null) {
+				LOGGER.warn("warm-up list groups fail, error code: {}", trackerClient.getErrorCode());
+				return addresses;
+			}
+			for (GroupStatStruct groupStat : groupStats) {
+				StorageStatStruct[] storageStats = trackerClient.listStorages(null, groupStat.getGroupName());
+				if (storageStats == null) {
+					LOGGER.warn("warm-up list storages of group {} fail, error code: {}", groupStat.getGroupName(),
+							trackerClient.getErrorCode());
+					continue;
+				}
+				for (StorageStatStruct storageStat : storageStats) {
+					if (storageStat.getStatus() == ProtoCommon.FDFS_STORAGE_STATUS_ACTIVE) {
+						addresses.add(new InetSocketAddress(storageStat.getIpAddr(), storageStat.getStoragePort()));
+					}
+				}
+			}
+		} catch (Exception e) {
+			LOGGER.warn("warm-up list storage servers fail, emsg: {}", e.getMessage());
+		}
+		return addresses;
+	}
+
+	/**
+	 * warm-up result of a server
+	 */
+	public static class Result {
+
+		private final InetSocketAddress address;
+
+		private final int requested;
+
+		private int opened;
+
+		private int failed;
+
+		private int timedOut;
+
+		private String error;
+
+		private long elapsedMillis;
+
+		Result(InetSocketAddress address, int requested) {
+			this.address = address;
+			this.requested = requested;
+		}
+
+		private void collect(Future<Void> future, long deadline) throws InterruptedException {
+			try {
+				future.get(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+				opened++;
+			} catch (TimeoutException | CancellationException e) {
+				future.cancel(true);
+				timedOut++;
+			} catch (ExecutionException e) {
+				failed++;
+				error = e.getCause().getMessage();
+			}
+		}
+
+		public InetSocketAddress getAddress() {
+			return address;
+		}
+
+		public int getRequested() {
+			return requested;
+		}
+
+		/**
+		 * @return the connection count opened by this warm-up
+		 */
+		public int getOpened() {
+			return opened;
+		}
+
+		public int getFailed() {
+			return failed;
+		}
+
+		/**
+		 * @return the connection count not opened before the deadline
+		 */
+		public int getTimedOut() {
+			return timedOut;
+		}
+
+		/**
+		 * @return the last error message, null if no error
+		 */
+		public String getError() {
+			return error;
+		}
+
+		public long getElapsedMillis() {
+			return elapsedMillis;
+		}
+
+		public boolean isSuccess() {
+			return failed == 0 && timedOut == 0;
+		}
+
+		@Override
+		public String toString() {
+			return "WarmUpResult{" +
+					"ip:port=" + address.getAddress().getHostAddress() + ":" + address.getPort() +
+					", requested=" + requested +
+					", opened=" + opened +
+					", failed=" + failed +
+					", timedOut=" + timedOut +
+					", error=" + error +
+					", elapsedMillis=" + elapsedMillis +
+					'}';
+		}
+	}
+}
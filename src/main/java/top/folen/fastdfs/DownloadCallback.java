@@ -9,7 +9,9 @@ package top.folen.fastdfs;
 public interface DownloadCallback {
 
 	/**
-	 * recv file content callback function, may be called more than once when the file downloaded
+	 * recv file content callback function, may be called more than once when the file downloaded.
+	 * the data buff is taken from a shared pool and reused by other downloads after this method returns,
+	 * so copy the bytes if they are needed later
 	 *
 	 * @param fileSize file size
 	 * @param data     data buff
@@ -0,0 +1,86 @@
+package top.folen.fastdfs;
+
+import top.folen.fastdfs.pool.BufferPool;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 把请求包和 UploadCallback 写入的文件内容收集到池化的缓冲区中合并写入 socket，避免请求头单独成为一个小报文；
+ * 缓冲区写满后一起发出，较大的写入先补满缓冲区，剩余部分直接写入 socket
+ * <p>
+ * close 不关闭 socket，用完后调用 release 归还缓冲区
+ *
+ * @author sec
+ * @version 1.0
+ **/
+class GatheringOutputStream extends FilterOutputStream {
+
+	static final int BUFFER_SIZE = 64 * 1024;
+
+	private byte[] buff = BufferPool.acquireHeap(BUFFER_SIZE);
+
+	private int count;
+
+	GatheringOutputStream(OutputStream out) {
+		super(out);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (count == buff.length) {
+			flushBuffer();
+		}
+		buff[count++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (len <= buff.length - count) {
+			System.arraycopy(b, off, buff, count, len);
+			count += len;
+			return;
+		}
+		if (count > 0) {
+			int bytes = buff.length - count;
+			System.arraycopy(b, off, buff, count, bytes);
+			count += bytes;
+			off += bytes;
+			len -= bytes;
+			flushBuffer();
+		}
+		if (len >= buff.length) {
+			out.write(b, off, len);
+		} else {
+			System.arraycopy(b, off, buff, 0, len);
+			count = len;
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		flushBuffer();
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		flush();
+	}
+
+	/**
+	 * give back the buffer without writing the collected bytes, the stream can not be used any more
+	 */
+	void release() {
+		BufferPool.releaseHeap(buff);
+		buff = null;
+	}
+
+	private void flushBuffer() throws IOException {
+		if (count > 0) {
+			out.write(buff, 0, count);
+			count = 0;
+		}
+	}
+}
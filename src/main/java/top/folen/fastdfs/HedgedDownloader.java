@@ -0,0 +1,568 @@
+package top.folen.fastdfs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import top.folen.common.FastDfsException;
+import top.folen.fastdfs.pool.Connection;
+import top.folen.fastdfs.pool.ConnectionUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 小文件对冲下载：先向一个副本发起下载，若在对冲延迟内没有返回（或者返回失败），再向另一个副本发起同样的下载，
+ * 先成功返回的结果胜出，另一个请求的连接被中止（abort）并丢弃，不会放回连接池
+ * <p>
+ * 第一个请求在调用线程中执行，只有对冲的请求使用线程池：默认共享最多 DEFAULT_MAX_HEDGE_THREADS 个守护线程，
+ * 也可以通过构造函数传入有界的线程池；线程池已满（拒绝任务）时不对冲，第一个请求失败后在调用线程中请求另一个副本
+ * <p>
+ * 对冲延迟为最近 WINDOW_SIZE 次成功下载耗时的 delayPercentile 百分位（不小于 minDelayInMs），
+ * 样本不足 MIN_SAMPLES 时使用 initialDelayInMs；对冲会增加约 (100 - delayPercentile)% 的下载请求，只适合小文件
+ * <p>
+ * Note: the instance of this class is thread safe
+ *
+ * @author sec
+ * @version 1.0
+ **/
+public class HedgedDownloader {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(HedgedDownloader.class);
+
+	public static final double DEFAULT_DELAY_PERCENTILE = 95;
+
+	public static final int DEFAULT_MIN_DELAY_IN_MS = 1;
+
+	public static final int DEFAULT_INITIAL_DELAY_IN_MS = 50;
+
+	/**
+	 * max threads of the shared pool running the hedged requests
+	 */
+	public static final int DEFAULT_MAX_HEDGE_THREADS = 64;
+
+	/**
+	 * the recent download latencies to compute the percentile
+	 */
+	static final int WINDOW_SIZE = 1024;
+
+	static final int MIN_SAMPLES = 32;
+
+	/**
+	 * recompute the percentile after so many new samples
+	 */
+	private static final int PERCENTILE_UPDATE_INTERVAL = 32;
+
+	private static final ExecutorService HEDGE_EXECUTOR = new ThreadPoolExecutor(0, DEFAULT_MAX_HEDGE_THREADS,
+			60, TimeUnit.SECONDS, new SynchronousQueue<>(), daemonThreadFactory("fastdfs-hedged-download"));
+
+	/**
+	 * start the hedged requests after the delay, the timer thread only submits them to the executor
+	 */
+	private static final ScheduledThreadPoolExecutor TIMER = new ScheduledThreadPoolExecutor(1,
+			daemonThreadFactory("fastdfs-hedged-download-timer"));
+
+	static {
+		TIMER.setRemoveOnCancelPolicy(true);
+	}
+
+	private final TrackerClient trackerClient;
+
+	private final ExecutorService executor;
+
+	private final LatencyWindow latencies = new LatencyWindow(WINDOW_SIZE);
+
+	private final AtomicLong hedgedCount = new AtomicLong();
+
+	private volatile double delayPercentile = DEFAULT_DELAY_PERCENTILE;
+
+	private volatile int minDelayInMs = DEFAULT_MIN_DELAY_IN_MS;
+
+	private volatile int initialDelayInMs = DEFAULT_INITIAL_DELAY_IN_MS;
+
+	/**
+	 * constructor using global settings in class ClientGlobal
+	 */
+	public HedgedDownloader() {
+		this(new TrackerClient());
+	}
+
+	/**
+	 * constructor
+	 *
+	 * @param trackerClient the tracker client to query the replicas
+	 */
+	public HedgedDownloader(TrackerClient trackerClient) {
+		this(trackerClient, HEDGE_EXECUTOR);
+	}
+
+	/**
+	 * constructor with the caller's executor for the hedged requests, the executor is not shutdown by this class
+	 *
+	 * @param trackerClient the tracker client to query the replicas
+	 * @param executor      a bounded executor which rejects the requests when busy, the requests are not hedged
+	 *                      then; it should not run the requests in the submitting thread
+	 */
+	public HedgedDownloader(TrackerClient trackerClient, ExecutorService executor) {
+		this.trackerClient = trackerClient;
+		this.executor = executor;
+	}
+
+	/**
+	 * download the whole file
+	 *
+	 * @param groupName      the group name of storage server
+	 * @param remoteFilename filename on storage server
+	 * @return the file content, or the errno if fail on all the tried replicas
+	 */
+	public StorageResult<byte[]> downloadFile(String groupName, String remoteFilename) throws IOException,
+			FastDfsException {
+		return downloadFile(groupName, remoteFilename, 0, 0);
+	}
+
+	/**
+	 * download file
+	 *
+	 * @param groupName      the group name of storage server
+	 * @param remoteFilename filename on storage server
+	 * @param fileOffset     the start offset of the file
+	 * @param downloadBytes  download bytes, 0 for remain bytes from offset
+	 * @return the file content, or the errno if fail on all the tried replicas
+	 */
+	public StorageResult<byte[]> downloadFile(String groupName, String remoteFilename, long fileOffset,
+	                                          long downloadBytes) throws IOException, FastDfsException {
+		return downloadFile(getReplicas(groupName, remoteFilename), groupName, remoteFilename, fileOffset,
+				downloadBytes);
+	}
+
+	/**
+	 * download file from the given replicas, the first one (or selected by StorageLoadBalancer if read_balance
+	 * enabled) is requested first in the calling thread, another one is requested by the executor if it does not
+	 * respond within the hedge delay, or in the calling thread after it fails
+	 *
+	 * @param replicas       the storage servers which have the file
+	 * @param groupName      the group name of storage server
+	 * @param remoteFilename filename on storage server
+	 * @param fileOffset     the start offset of the file
+	 * @param downloadBytes  download bytes, 0 for remain bytes from offset
+	 * @return the file content, or the errno if fail on all the tried replicas
+	 * @throws IOException if the last tried replica fail by IOException
+	 */
+	public StorageResult<byte[]> downloadFile(StorageServer[] replicas, String groupName, String remoteFilename,
+	                                          long fileOffset, long downloadBytes) throws IOException,
+			FastDfsException {
+		int primary = selectReplica(replicas, -1);
+		Attempt first = new Attempt(replicas[primary], groupName, remoteFilename, fileOffset, downloadBytes, null);
+		if (replicas.length == 1) {
+			first.run();
+			return first.getResult();
+		}
+		Attempt second = new Attempt(replicas[selectReplica(replicas, primary)], groupName, remoteFilename,
+				fileOffset, downloadBytes, first);
+		Hedge hedge = new Hedge(first, second);
+		ScheduledFuture<?> timer = TIMER.schedule(hedge, getDelayNanos(), TimeUnit.NANOSECONDS);
+		try {
+			first.run();
+			if (first.isSuccess()) {
+				return first.getResult();
+			}
+			if (hedge.claim()) {
+				second.run();
+			} else {
+				second.await();
+			}
+			return second.getResult();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new FastDfsException("download file " + groupName + "/" + remoteFilename + " interrupted");
+		} finally {
+			timer.cancel(false);
+			hedge.claim();
+			first.cancel();
+			second.cancel();
+		}
+	}
+
+	private static ThreadFactory daemonThreadFactory(String name) {
+		return r -> {
+			Thread thread = new Thread(r, name);
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	/**
+	 * @param replicas the storage servers
+	 * @param exclude  the index of the replica already requested, -1 for none
+	 * @return the index of the replica to request
+	 */
+	private static int selectReplica(StorageServer[] replicas, int exclude) {
+		if (!StorageLoadBalancer.isEnabled() || (exclude >= 0 && replicas.length == 2)) {
+			return exclude < 0 ? 0 : (exclude + 1) % replicas.length;
+		}
+		StorageServer[] candidates = replicas;
+		if (exclude >= 0) {
+			candidates = new StorageServer[replicas.length - 1];
+			System.arraycopy(replicas, 0, candidates, 0, exclude);
+			System.arraycopy(replicas, exclude + 1, candidates, exclude, replicas.length - exclude - 1);
+		}
+		return Arrays.asList(replicas).indexOf(StorageLoadBalancer.select(candidates));
+	}
+
+	private StorageServer[] getReplicas(String groupName, String remoteFilename) throws IOException,
+			FastDfsException {
+		StorageServer[] replicas = StorageRouteCache.getAll(StorageRouteCache.ROUTE_FETCH_ALL, groupName,
+				remoteFilename);
+		if (replicas != null) {
+			return replicas;
+		}
+		ServerInfo[] servers = trackerClient.getFetchStorages(null, groupName, remoteFilename);
+		if (servers == null || servers.length == 0) {
+			throw new FastDfsException("getFetchStorages fail, errno code: " + trackerClient.getErrorCode());
+		}
+		replicas = StorageLoadBalancer.toStorageServers(servers);
+		StorageRouteCache.putAll(StorageRouteCache.ROUTE_FETCH_ALL, groupName, remoteFilename, replicas);
+		return replicas;
+	}
+
+	/**
+	 * @return the delay before requesting another replica, unit: nanosecond
+	 */
+	long getDelayNanos() {
+		long percentile = latencies.percentile(delayPercentile);
+		if (percentile < 0) {
+			return TimeUnit.MILLISECONDS.toNanos(initialDelayInMs);
+		}
+		return Math.max(percentile, TimeUnit.MILLISECONDS.toNanos(minDelayInMs));
+	}
+
+	/**
+	 * @return the downloads which requested another replica because the first one did not respond in time
+	 */
+	public long getHedgedCount() {
+		return hedgedCount.get();
+	}
+
+	public double getDelayPercentile() {
+		return delayPercentile;
+	}
+
+	/**
+	 * @param delayPercentile the percentile of the recent download latencies as the hedge delay, default 95
+	 */
+	public void setDelayPercentile(double delayPercentile) {
+		if (delayPercentile <= 0 || delayPercentile > 100) {
+			throw new IllegalArgumentException("delayPercentile must be in (0, 100]");
+		}
+		this.delayPercentile = delayPercentile;
+	}
+
+	public int getMinDelayInMs() {
+		return minDelayInMs;
+	}
+
+	/**
+	 * @param minDelayInMs the min hedge delay in milliseconds, default 1
+	 */
+	public void setMinDelayInMs(int minDelayInMs) {
+		if (minDelayInMs < 0) {
+			throw new IllegalArgumentException("minDelayInMs can not be negative");
+		}
+		this.minDelayInMs = minDelayInMs;
+	}
+
+	public int getInitialDelayInMs() {
+		return initialDelayInMs;
+	}
+
+	/**
+	 * @param initialDelayInMs the hedge delay in milliseconds before MIN_SAMPLES downloads, default 50
+	 */
+	public void setInitialDelayInMs(int initialDelayInMs) {
+		if (initialDelayInMs < 0) {
+			throw new IllegalArgumentException("initialDelayInMs can not be negative");
+		}
+		this.initialDelayInMs = initialDelayInMs;
+	}
+
+	/**
+	 * start the second attempt by the executor when the delay expires, unless the first one is finished or the
+	 * calling thread has claimed the second one
+	 */
+	private final class Hedge implements Runnable {
+
+		private final Attempt first;
+
+		private final Attempt second;
+
+		/**
+		 * the second attempt is run by the executor, guarded by this
+		 */
+		private boolean started;
+
+		/**
+		 * the second attempt is run by the calling thread or not needed, guarded by this
+		 */
+		private boolean claimed;
+
+		Hedge(Attempt first, Attempt second) {
+			this.first = first;
+			this.second = second;
+		}
+
+		@Override
+		public synchronized void run() {
+			if (claimed || first.isFinished()) {
+				return;
+			}
+			try {
+				executor.execute(second);
+				started = true;
+				hedgedCount.incrementAndGet();
+			} catch (RejectedExecutionException e) {
+				LOGGER.debug("hedged download of {}/{} rejected by the executor", first.groupName,
+						first.remoteFilename);
+			}
+		}
+
+		/**
+		 * @return true if the calling thread should run the second attempt, false if it is started by the executor
+		 */
+		synchronized boolean claim() {
+			if (started) {
+				return false;
+			}
+			claimed = true;
+			return true;
+		}
+	}
+
+	/**
+	 * a download request to a replica, can be cancelled by aborting the connection from another thread
+	 */
+	private final class Attempt implements Runnable {
+
+		private final StorageServer storageServer;
+
+		private final String groupName;
+
+		private final String remoteFilename;
+
+		private final long fileOffset;
+
+		private final long downloadBytes;
+
+		/**
+		 * the attempt to cancel when this one succeeds, null if none
+		 */
+		private final Attempt other;
+
+		private final CountDownLatch finished = new CountDownLatch(1);
+
+		/**
+		 * the connection in use, guarded by this
+		 */
+		private Connection connection;
+
+		/**
+		 * guarded by this
+		 */
+		private boolean cancelled;
+
+		/**
+		 * the results, visible to the waiting thread by the finished latch
+		 */
+		private byte errno;
+
+		private byte[] body;
+
+		private Exception exception;
+
+		/**
+		 * System.nanoTime() when the response header arrives, 0 if not arrived
+		 */
+		private long responseTime;
+
+		Attempt(StorageServer storageServer, String groupName, String remoteFilename, long fileOffset,
+		        long downloadBytes, Attempt other) {
+			this.storageServer = storageServer;
+			this.groupName = groupName;
+			this.remoteFilename = remoteFilename;
+			this.fileOffset = fileOffset;
+			this.downloadBytes = downloadBytes;
+			this.other = other;
+		}
+
+		@Override
+		public void run() {
+			StorageLoadBalancer.Node node = null;
+			if (StorageLoadBalancer.isEnabled()) {
+				node = StorageLoadBalancer.getNode(storageServer.getInetSocketAddress());
+				node.start();
+			}
+			long startTime = System.nanoTime();
+			boolean broken = false;
+			try {
+				download();
+			} catch (Exception e) {
+				exception = e;
+				broken = true;
+			} finally {
+				long latency = System.nanoTime() - startTime;
+				boolean aborted = isCancelled();
+				if (node != null) {
+					node.finish(responseTime == 0 ? -1 : responseTime - startTime, broken && !aborted);
+				}
+				if (isSuccess()) {
+					latencies.record(latency);
+					if (other != null) {
+						other.cancel();
+					}
+				} else if (!aborted) {
+					LOGGER.debug("download file {}/{} from {} fail, errno: {}", groupName, remoteFilename,
+							storageServer.getInetSocketAddress(), errno, exception);
+				}
+				finished.countDown();
+			}
+		}
+
+		private void download() throws IOException, FastDfsException {
+			Connection connection = storageServer.getConnection();
+			synchronized (this) {
+				if (cancelled) {
+					ConnectionUtil.release(connection);
+					throw new IOException("download cancelled");
+				}
+				this.connection = connection;
+			}
+			try {
+				new StorageClient(null, storageServer).sendDownloadPackage(groupName, remoteFilename, fileOffset,
+						downloadBytes, connection);
+				InputStream in = connection.getInputStream();
+				ProtoCommon.RecvHeaderInfo header = ProtoCommon.recvHeader(in, ProtoCommon.STORAGE_PROTO_CMD_RESP, -1);
+				responseTime = System.nanoTime();
+				errno = header.errno;
+				if (errno == 0) {
+					body = ProtoCommon.recvBody(in, header);
+				}
+			} catch (IOException ex) {
+				detach();
+				ConnectionUtil.close(connection);
+				throw ex;
+			} finally {
+				detach();
+				ConnectionUtil.release(connection);
+			}
+		}
+
+		/**
+		 * the connection is no longer aborted by cancel once detached
+		 */
+		private synchronized void detach() {
+			connection = null;
+		}
+
+		private synchronized boolean isCancelled() {
+			return cancelled;
+		}
+
+		/**
+		 * abort the connection if the download is in progress
+		 */
+		synchronized void cancel() {
+			cancelled = true;
+			if (connection != null) {
+				try {
+					connection.abort();
+				} catch (IOException e) {
+					LOGGER.debug("abort connection {} fail", connection, e);
+				}
+			}
+		}
+
+		boolean isSuccess() {
+			return exception == null && errno == 0;
+		}
+
+		boolean isFinished() {
+			return finished.getCount() == 0;
+		}
+
+		void await() throws InterruptedException {
+			finished.await();
+		}
+
+		StorageResult<byte[]> getResult() throws IOException, FastDfsException {
+			if (exception instanceof IOException) {
+				throw (IOException) exception;
+			}
+			if (exception instanceof FastDfsException) {
+				throw (FastDfsException) exception;
+			}
+			if (exception != null) {
+				throw new FastDfsException("download file " + groupName + "/" + remoteFilename + " fail, emsg: "
+						+ exception);
+			}
+			return errno == 0 ? StorageResult.success(body) : StorageResult.fail(errno);
+		}
+	}
+
+	/**
+	 * ring buffer of the recent latencies, the percentile is recomputed every PERCENTILE_UPDATE_INTERVAL samples
+	 */
+	private static final class LatencyWindow {
+
+		private final long[] samples;
+
+		private int count;
+
+		private int next;
+
+		private int updates;
+
+		private double cachedPercentile = -1;
+
+		private long cachedValue = -1;
+
+		LatencyWindow(int size) {
+			this.samples = new long[size];
+		}
+
+		synchronized void record(long latencyNanos) {
+			samples[next] = latencyNanos;
+			next = (next + 1) % samples.length;
+			if (count < samples.length) {
+				count++;
+			}
+			updates++;
+		}
+
+		/**
+		 * @param percentile the percentile, (0, 100]
+		 * @return the latency in nanoseconds, -1 if less than MIN_SAMPLES samples
+		 */
+		synchronized long percentile(double percentile) {
+			if (count < MIN_SAMPLES) {
+				return -1;
+			}
+			if (cachedValue < 0 || updates >= PERCENTILE_UPDATE_INTERVAL || cachedPercentile != percentile) {
+				long[] sorted = Arrays.copyOf(samples, count);
+				Arrays.sort(sorted);
+				int index = (int) Math.ceil(percentile / 100 * count) - 1;
+				cachedValue = sorted[Math.max(0, Math.min(index, count - 1))];
+				cachedPercentile = percentile;
+				updates = 0;
+			}
+			return cachedValue;
+		}
+	}
+}
@@ -0,0 +1,165 @@
+package top.folen.fastdfs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import top.folen.common.FastDfsException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 不经过 tracker，在本地为读文件选择 storage
+ * <p>
+ * 文件名的 base64 部分编码了源 storage 的 IP 和文件创建时间，结合缓存的 listStorages 结果（每个 group 缓存
+ * route_cache.storage_list_ttl_in_ms），在 ACTIVE 状态的 storage 中随机选择一个已经拥有该文件的：
+ * 源 storage，或者 last synced timestamp 晚于文件创建时间（即已同步到该文件）的其它 storage。
+ * 没有满足条件的 storage、文件名中是 storage ID 而不是 IP、或者查询 storage 列表失败时返回 null，由调用方回退到 tracker
+ *
+ * @author sec
+ * @version 1.0
+ **/
+public class LocalStorageResolver {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(LocalStorageResolver.class);
+
+	private static final Map<String, GroupStorages> GROUPS = new ConcurrentHashMap<>();
+
+	private LocalStorageResolver() {
+	}
+
+	public static boolean isEnabled() {
+		return ClientGlobal.g_route_cache_local_fetch;
+	}
+
+	/**
+	 * select a storage server which has the file
+	 *
+	 * @param trackerServer  the tracker server to list storages, can be null
+	 * @param groupName      the group name
+	 * @param remoteFilename the filename on storage server
+	 * @return the storage server, null if can not be resolved locally
+	 */
+	public static StorageServer resolve(TrackerServer trackerServer, String groupName, String remoteFilename) {
+		byte[] buff = decodeFilename(remoteFilename);
+		if (buff == null) {
+			return null;
+		}
+		String sourceIpAddr = ProtoCommon.getIpAddress(buff, 0);
+		long createTimestamp = ProtoCommon.buff2int(buff, 4) * 1000L;
+
+		GroupStorages storages = getGroupStorages(trackerServer, groupName);
+		if (storages == null) {
+			return null;
+		}
+		List<StorageServer> candidates = new ArrayList<>(storages.stats.length);
+		for (int i = 0; i < storages.stats.length; i++) {
+			StorageStatStruct stat = storages.stats[i];
+			if (stat.getStatus() != ProtoCommon.FDFS_STORAGE_STATUS_ACTIVE) {
+				continue;
+			}
+			if (sourceIpAddr.equals(stat.getIpAddr()) || (stat.getLastSyncedTimestamp() != null
+					&& stat.getLastSyncedTimestamp().getTime() > createTimestamp)) {
+				candidates.add(storages.servers[i]);
+			}
+		}
+		if (candidates.isEmpty()) {
+			return null;
+		}
+		if (StorageLoadBalancer.isEnabled()) {
+			return StorageLoadBalancer.select(candidates.toArray(new StorageServer[0]));
+		}
+		return candidates.get(ThreadLocalRandom.current().nextInt(candidates.size()));
+	}
+
+	/**
+	 * select the source storage server of the file, which the update requests (delete, set metadata etc.) go to
+	 *
+	 * @param trackerServer  the tracker server to list storages, can be null
+	 * @param groupName      the group name
+	 * @param remoteFilename the filename on storage server
+	 * @return the source storage server, null if it is not ACTIVE or can not be resolved locally
+	 */
+	public static StorageServer resolveSource(TrackerServer trackerServer, String groupName, String remoteFilename) {
+		byte[] buff = decodeFilename(remoteFilename);
+		if (buff == null) {
+			return null;
+		}
+		String sourceIpAddr = ProtoCommon.getIpAddress(buff, 0);
+		GroupStorages storages = getGroupStorages(trackerServer, groupName);
+		if (storages == null) {
+			return null;
+		}
+		for (int i = 0; i < storages.stats.length; i++) {
+			StorageStatStruct stat = storages.stats[i];
+			if (sourceIpAddr.equals(stat.getIpAddr())) {
+				return stat.getStatus() == ProtoCommon.FDFS_STORAGE_STATUS_ACTIVE ? storages.servers[i] : null;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the decoded base64 part of the filename, null if the filename is too short or
+	 * encodes the storage server ID instead of the ip address
+	 */
+	private static byte[] decodeFilename(String remoteFilename) {
+		if (remoteFilename.length() < ProtoCommon.FDFS_FILE_PATH_LEN + ProtoCommon.FDFS_FILENAME_BASE64_LENGTH) {
+			return null;
+		}
+		byte[] buff = StorageClient.base64.decodeAuto(remoteFilename.substring(ProtoCommon.FDFS_FILE_PATH_LEN,
+				ProtoCommon.FDFS_FILE_PATH_LEN + ProtoCommon.FDFS_FILENAME_BASE64_LENGTH));
+		return ProtoCommon.getIpAddress(buff, 0).isEmpty() ? null : buff;
+	}
+
+	/**
+	 * remove the cached storage list of the group, e.g. a resolved storage can not be connected
+	 *
+	 * @param groupName the group name
+	 */
+	public static void invalidate(String groupName) {
+		GROUPS.remove(groupName);
+	}
+
+	public static void clear() {
+		GROUPS.clear();
+	}
+
+	private static GroupStorages getGroupStorages(TrackerServer trackerServer, String groupName) {
+		GroupStorages storages = GROUPS.get(groupName);
+		if (storages != null && storages.expireAt - System.currentTimeMillis() > 0) {
+			return storages;
+		}
+		try {
+			StorageStatStruct[] stats = new TrackerClient().listStorages(trackerServer, groupName);
+			if (stats == null) {
+				return null;
+			}
+			storages = new GroupStorages(stats,
+					System.currentTimeMillis() + ClientGlobal.g_route_cache_storage_list_ttl_in_ms);
+			GROUPS.put(groupName, storages);
+			return storages;
+		} catch (IOException | FastDfsException e) {
+			LOGGER.warn("list storages of group {} fail, query the tracker instead", groupName, e);
+			return null;
+		}
+	}
+
+	private static final class GroupStorages {
+		private final StorageStatStruct[] stats;
+		private final StorageServer[] servers;
+		private final long expireAt;
+
+		GroupStorages(StorageStatStruct[] stats, long expireAt) {
+			this.stats = stats;
+			this.servers = new StorageServer[stats.length];
+			for (int i = 0; i < stats.length; i++) {
+				this.servers[i] = new StorageServer(stats[i].getIpAddr(), stats[i].getStoragePort(), 0);
+			}
+			this.expireAt = expireAt;
+		}
+	}
+}
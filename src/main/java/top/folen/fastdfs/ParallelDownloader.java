@@ -0,0 +1,429 @@
+package top.folen.fastdfs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import top.folen.common.FastDfsException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 大文件并行分片下载：把文件切分为固定大小的分片，从持有该文件的所有副本（每个副本多个连接）并发下载，
+ * 写入预分配的本地文件或 ByteBuffer，分片失败时换下一个副本重试
+ * <p>
+ * Note: the instance of this class is thread safe, every download uses its own threads and storage clients
+ *
+ * @author sec
+ * @version 1.0
+ **/
+public class ParallelDownloader {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ParallelDownloader.class);
+
+	public static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+
+	public static final int DEFAULT_CONNECTIONS_PER_REPLICA = 2;
+
+	public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+	private final TrackerClient trackerClient;
+
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+	private int connectionsPerReplica = DEFAULT_CONNECTIONS_PER_REPLICA;
+
+	private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+
+	/**
+	 * constructor using global settings in class ClientGlobal
+	 */
+	public ParallelDownloader() {
+		this(new TrackerClient());
+	}
+
+	/**
+	 * constructor
+	 *
+	 * @param trackerClient the tracker client to query the replicas
+	 */
+	public ParallelDownloader(TrackerClient trackerClient) {
+		this.trackerClient = trackerClient;
+	}
+
+	/**
+	 * download file from all replicas to the local file, the local file is preallocated to the file size
+	 * and deleted if download fail
+	 *
+	 * @param groupName      the group name of storage server
+	 * @param remoteFilename filename on storage server
+	 * @param localFilename  filename on local
+	 * @return the download result
+	 * @throws FastDfsException if a chunk fail on all attempts
+	 */
+	public Result downloadFile(String groupName, String remoteFilename,
+	                           String localFilename) throws IOException, FastDfsException {
+		StorageServer[] replicas = getReplicas(groupName, remoteFilename);
+		long fileSize = getFileSize(replicas[0], groupName, remoteFilename);
+		return downloadFile(replicas, fileSize, groupName, remoteFilename, localFilename);
+	}
+
+	/**
+	 * download file from the given replicas to the local file
+	 *
+	 * @param replicas       the storage servers which have the file
+	 * @param fileSize       the file size
+	 * @param groupName      the group name of storage server
+	 * @param remoteFilename filename on storage server
+	 * @param localFilename  filename on local
+	 * @return the download result
+	 * @throws FastDfsException if a chunk fail on all attempts
+	 */
+	public Result downloadFile(StorageServer[] replicas, long fileSize, String groupName, String remoteFilename,
+	                           String localFilename) throws IOException, FastDfsException {
+		boolean success = false;
+		try (RandomAccessFile file = new RandomAccessFile(localFilename, "rw")) {
+			file.setLength(fileSize);
+			FileChannel fileChannel = file.getChannel();
+			Result result = download(groupName, remoteFilename, fileSize, replicas, (client, offset, length) ->
+					client.doDownloadFile(groupName, remoteFilename, offset, length, bodyLen -> {
+						checkBodyLen(bodyLen, length);
+						return fileChannel;
+					}, offset));
+			success = true;
+			return result;
+		} finally {
+			if (!success) {
+				(new File(localFilename)).delete();
+			}
+		}
+	}
+
+	/**
+	 * download file from all replicas to the buffer, the content is put from the buffer position,
+	 * and the buffer position is increased by the file size on success
+	 *
+	 * @param groupName      the group name of storage server
+	 * @param remoteFilename filename on storage server
+	 * @param target         the target buffer, remaining must not be less than the file size
+	 * @return the download result
+	 * @throws FastDfsException if the buffer is too small or a chunk fail on all attempts
+	 */
+	public Result downloadFile(String groupName, String remoteFilename,
+	                           ByteBuffer target) throws IOException, FastDfsException {
+		StorageServer[] replicas = getReplicas(groupName, remoteFilename);
+		long fileSize = getFileSize(replicas[0], groupName, remoteFilename);
+		return downloadFile(replicas, fileSize, groupName, remoteFilename, target);
+	}
+
+	/**
+	 * download file from the given replicas to the buffer
+	 *
+	 * @param replicas       the storage servers which have the file
+	 * @param fileSize       the file size
+	 * @param groupName      the group name of storage server
+	 * @param remoteFilename filename on storage server
+	 * @param target         the target buffer, remaining must not be less than the file size
+	 * @return the download result
+	 * @throws FastDfsException if the buffer is too small or a chunk fail on all attempts
+	 */
+	public Result downloadFile(StorageServer[] replicas, long fileSize, String groupName, String remoteFilename,
+	                           ByteBuffer target) throws IOException, FastDfsException {
+		if (fileSize > target.remaining()) {
+			throw new FastDfsException("buffer remaining " + target.remaining() + " < file size " + fileSize);
+		}
+		int base = target.position();
+		Result result = download(groupName, remoteFilename, fileSize, replicas, (client, offset, length) -> {
+			byte[] content = client.downloadFile(groupName, remoteFilename, offset, length);
+			if (content == null) {
+				return client.getErrorCode();
+			}
+			checkBodyLen(content.length, length);
+			ByteBuffer buffer = target.duplicate();
+			((Buffer) buffer).position(base + (int) offset);
+			buffer.put(content);
+			return 0;
+		});
+		((Buffer) target).position(base + (int) fileSize);
+		return result;
+	}
+
+	/**
+	 * download the chunks concurrently, every replica has connectionsPerReplica workers,
+	 * a failed chunk is retried on the next replica by the same worker
+	 *
+	 * @param groupName      the group name of storage server
+	 * @param remoteFilename filename on storage server
+	 * @param fileSize       the file size
+	 * @param replicas       the storage servers which have the file
+	 * @param writer         download a chunk and write to the target
+	 * @return the download result
+	 */
+	protected Result download(String groupName, String remoteFilename, long fileSize, StorageServer[] replicas,
+	                          ChunkWriter writer) throws FastDfsException {
+		long startTime = System.currentTimeMillis();
+		ConcurrentLinkedQueue<long[]> chunks = new ConcurrentLinkedQueue<>();
+		for (long offset = 0; offset < fileSize; offset += chunkSize) {
+			chunks.offer(new long[]{offset, Math.min(chunkSize, fileSize - offset)});
+		}
+		int chunkCount = chunks.size();
+
+		AtomicLong[] replicaBytes = new AtomicLong[replicas.length];
+		for (int i = 0; i < replicas.length; i++) {
+			replicaBytes[i] = new AtomicLong();
+		}
+		AtomicInteger retryCount = new AtomicInteger();
+		AtomicReference<String> failure = new AtomicReference<>();
+
+		int workerCount = (int) Math.min(chunkCount, (long) replicas.length * connectionsPerReplica);
+		if (workerCount > 0) {
+			ExecutorService executor = Executors.newFixedThreadPool(workerCount, r -> {
+				Thread thread = new Thread(r, "fastdfs-parallel-download");
+				thread.setDaemon(true);
+				return thread;
+			});
+			try {
+				List<Future<?>> futures = new ArrayList<>();
+				for (int i = 0; i < workerCount; i++) {
+					int replicaIndex = i % replicas.length;
+					futures.add(executor.submit(() -> work(replicaIndex, replicas, chunks, writer, replicaBytes,
+							retryCount, failure)));
+				}
+				for (Future<?> future : futures) {
+					future.get();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				failure.compareAndSet(null, "interrupted");
+			} catch (ExecutionException e) {
+				failure.compareAndSet(null, String.valueOf(e.getCause()));
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+		if (failure.get() != null) {
+			throw new FastDfsException("parallel download " + groupName + "/" + remoteFilename + " fail, " + failure.get());
+		}
+
+		Map<String, Long> bytesPerReplica = new LinkedHashMap<>();
+		for (int i = 0; i < replicas.length; i++) {
+			bytesPerReplica.put(getAddressInfo(replicas[i]), replicaBytes[i].get());
+		}
+		Result result = new Result(fileSize, chunkCount, retryCount.get(), System.currentTimeMillis() - startTime,
+				bytesPerReplica);
+		LOGGER.info("parallel download {}/{}: {}", groupName, remoteFilename, result);
+		return result;
+	}
+
+	private void work(int replicaIndex, StorageServer[] replicas, ConcurrentLinkedQueue<long[]> chunks,
+	                  ChunkWriter writer, AtomicLong[] replicaBytes, AtomicInteger retryCount,
+	                  AtomicReference<String> failure) {
+		// StorageClient is not thread safe, every worker has its own clients
+		StorageClient[] clients = new StorageClient[replicas.length];
+		long[] chunk;
+		while (failure.get() == null && (chunk = chunks.poll()) != null) {
+			String error = null;
+			for (int attempt = 0; attempt < maxAttempts; attempt++) {
+				int index = (replicaIndex + attempt) % replicas.length;
+				if (clients[index] == null) {
+					clients[index] = new StorageClient(null, replicas[index]);
+				}
+				try {
+					int result = writer.write(clients[index], chunk[0], chunk[1]);
+					if (result == 0) {
+						replicaBytes[index].addAndGet(chunk[1]);
+						error = null;
+						break;
+					}
+					error = "errno: " + result;
+				} catch (IOException | FastDfsException e) {
+					error = e.getMessage();
+				}
+				retryCount.incrementAndGet();
+				LOGGER.warn("download chunk offset: {}, length: {} from {} fail, {}", chunk[0], chunk[1],
+						getAddressInfo(replicas[index]), error);
+			}
+			if (error != null) {
+				failure.compareAndSet(null, "chunk offset: " + chunk[0] + ", length: " + chunk[1] + " fail after "
+						+ maxAttempts + " attempts, " + error);
+			}
+		}
+	}
+
+	/**
+	 * @return the replicas which have the file, the first one is the server selected by tracker
+	 */
+	private StorageServer[] getReplicas(String groupName, String remoteFilename) throws IOException,
+			FastDfsException {
+		ServerInfo[] servers = trackerClient.getFetchStorages(null, groupName, remoteFilename);
+		if (servers == null || servers.length == 0) {
+			throw new FastDfsException("getFetchStorages fail, errno code: " + trackerClient.getErrorCode());
+		}
+		StorageServer[] replicas = new StorageServer[servers.length];
+		for (int i = 0; i < servers.length; i++) {
+			replicas[i] = new StorageServer(servers[i].getIpAddr(), servers[i].getPort(), 0);
+		}
+		return replicas;
+	}
+
+	private long getFileSize(StorageServer storageServer, String groupName, String remoteFilename) throws IOException,
+			FastDfsException {
+		StorageClient client = new StorageClient(null, storageServer);
+		FileInfo fileInfo = client.getFileInfo(groupName, remoteFilename);
+		if (fileInfo == null) {
+			throw new FastDfsException("get file info fail, errno code: " + client.getErrorCode());
+		}
+		return fileInfo.getFileSize();
+	}
+
+	private static void checkBodyLen(long bodyLen, long expectLen) throws IOException {
+		if (bodyLen != expectLen) {
+			throw new IOException("recv body length: " + bodyLen + " is not correct, expect length: " + expectLen);
+		}
+	}
+
+	private static String getAddressInfo(StorageServer storageServer) {
+		return storageServer.getInetSocketAddress().getAddress().getHostAddress() + ":"
+				+ storageServer.getInetSocketAddress().getPort();
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * @param chunkSize the chunk size in bytes, default 4MB
+	 */
+	public void setChunkSize(int chunkSize) {
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("chunkSize must be positive");
+		}
+		this.chunkSize = chunkSize;
+	}
+
+	public int getConnectionsPerReplica() {
+		return connectionsPerReplica;
+	}
+
+	/**
+	 * @param connectionsPerReplica concurrent connections to every replica, default 2
+	 */
+	public void setConnectionsPerReplica(int connectionsPerReplica) {
+		if (connectionsPerReplica <= 0) {
+			throw new IllegalArgumentException("connectionsPerReplica must be positive");
+		}
+		this.connectionsPerReplica = connectionsPerReplica;
+	}
+
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	/**
+	 * @param maxAttempts max attempts of a chunk, every attempt uses the next replica, default 3
+	 */
+	public void setMaxAttempts(int maxAttempts) {
+		if (maxAttempts <= 0) {
+			throw new IllegalArgumentException("maxAttempts must be positive");
+		}
+		this.maxAttempts = maxAttempts;
+	}
+
+	/**
+	 * download a chunk by the storage client and write it to the target
+	 */
+	protected interface ChunkWriter {
+
+		/**
+		 * @param client the storage client of a replica
+		 * @param offset the chunk offset of the file
+		 * @param length the chunk length
+		 * @return 0 success, return none zero errno if fail
+		 */
+		int write(StorageClient client, long offset, long length) throws IOException, FastDfsException;
+	}
+
+	/**
+	 * result of a parallel download
+	 */
+	public static class Result {
+
+		private final long fileSize;
+
+		private final int chunkCount;
+
+		private final int retryCount;
+
+		private final long elapsedMillis;
+
+		private final Map<String, Long> bytesPerReplica;
+
+		Result(long fileSize, int chunkCount, int retryCount, long elapsedMillis, Map<String, Long> bytesPerReplica) {
+			this.fileSize = fileSize;
+			this.chunkCount = chunkCount;
+			this.retryCount = retryCount;
+			this.elapsedMillis = elapsedMillis;
+			this.bytesPerReplica = bytesPerReplica;
+		}
+
+		public long getFileSize() {
+			return fileSize;
+		}
+
+		public int getChunkCount() {
+			return chunkCount;
+		}
+
+		/**
+		 * @return the failed chunk attempts
+		 */
+		public int getRetryCount() {
+			return retryCount;
+		}
+
+		public long getElapsedMillis() {
+			return elapsedMillis;
+		}
+
+		/**
+		 * @return downloaded bytes of every replica, key is ip:port
+		 */
+		public Map<String, Long> getBytesPerReplica() {
+			return bytesPerReplica;
+		}
+
+		/**
+		 * @return aggregate throughput, unit: bytes per second
+		 */
+		public double getThroughput() {
+			return fileSize * 1000.0 / Math.max(elapsedMillis, 1);
+		}
+
+		@Override
+		public String toString() {
+			return "Result{" +
+					"fileSize=" + fileSize +
+					", chunkCount=" + chunkCount +
+					", retryCount=" + retryCount +
+					", elapsedMillis=" + elapsedMillis +
+					", throughput=" + String.format("%.2fMB/s", getThroughput() / (1024 * 1024)) +
+					", bytesPerReplica=" + bytesPerReplica +
+					'}';
+		}
+	}
+}
@@ -5,10 +5,12 @@ import top.folen.common.NameValuePair;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.Socket;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
 import java.security.NoSuchAlgorithmException;
-import java.util.Arrays;
 
 /**
  * protocol common functions
@@ -96,6 +98,7 @@ public class ProtoCommon {
 	public static final long TRUNK_LOGIC_FILENAME_LENGTH = NORMAL_LOGIC_FILENAME_LENGTH + FDFS_TRUNK_FILE_INFO_LEN;
 	protected static final int PROTO_HEADER_CMD_INDEX = FDFS_PROTO_PKG_LEN_SIZE;
 	protected static final int PROTO_HEADER_STATUS_INDEX = FDFS_PROTO_PKG_LEN_SIZE + 1;
+	public static final int FDFS_PROTO_HEADER_SIZE = FDFS_PROTO_PKG_LEN_SIZE + 2;
 
 	private ProtoCommon() {
 	}
@@ -125,6 +128,14 @@ public class ProtoCommon {
 		}
 	}
 
+	/**
+	 * per thread header buffer, the requests and responses of a thread are sent and received one by one
+	 */
+	private static final ThreadLocal<ByteBuffer> HEADER_BUFFER =
+			ThreadLocal.withInitial(() -> ByteBuffer.allocate(FDFS_PROTO_HEADER_SIZE));
+
+	private static final ThreadLocal<RecvHeaderInfo> HEADER_INFO = ThreadLocal.withInitial(RecvHeaderInfo::new);
+
 	/**
 	 * pack header by FastDFS transfer protocol
 	 *
@@ -134,17 +145,68 @@ public class ProtoCommon {
 	 * @return packed byte buffer
 	 */
 	public static byte[] packHeader(byte cmd, long pkg_len, byte errno) {
-		byte[] header;
-		byte[] hexLen;
+		byte[] header = new byte[FDFS_PROTO_HEADER_SIZE];
+		packHeader(header, 0, cmd, pkg_len, errno);
+		return header;
+	}
 
-		header = new byte[FDFS_PROTO_PKG_LEN_SIZE + 2];
-		Arrays.fill(header, (byte) 0);
+	/**
+	 * pack header into the buff, usually the front of the whole package
+	 *
+	 * @param buff    the buff to write
+	 * @param offset  the start position of the header in buff
+	 * @param cmd     which command to send
+	 * @param pkg_len package body length
+	 * @param errno   status code, should be (byte)0
+	 * @return the position after the header
+	 */
+	public static int packHeader(byte[] buff, int offset, byte cmd, long pkg_len, byte errno) {
+		long2buff(pkg_len, buff, offset);
+		buff[offset + PROTO_HEADER_CMD_INDEX] = cmd;
+		buff[offset + PROTO_HEADER_STATUS_INDEX] = errno;
+		return offset + FDFS_PROTO_HEADER_SIZE;
+	}
 
-		hexLen = ProtoCommon.long2buff(pkg_len);
-		System.arraycopy(hexLen, 0, header, 0, hexLen.length);
-		header[PROTO_HEADER_CMD_INDEX] = cmd;
-		header[PROTO_HEADER_STATUS_INDEX] = errno;
-		return header;
+	/**
+	 * pack header into the buffer at its position, the position is advanced by FDFS_PROTO_HEADER_SIZE
+	 *
+	 * @param buffer  the buffer to write
+	 * @param cmd     which command to send
+	 * @param pkg_len package body length
+	 * @param errno   status code, should be (byte)0
+	 */
+	public static void packHeader(ByteBuffer buffer, byte cmd, long pkg_len, byte errno) {
+		for (int shift = 56; shift >= 0; shift -= 8) {
+			buffer.put((byte) (pkg_len >> shift));
+		}
+		buffer.put(cmd);
+		buffer.put(errno);
+	}
+
+	/**
+	 * pack header into the per thread buffer and write it
+	 *
+	 * @param out     output stream
+	 * @param cmd     which command to send
+	 * @param pkg_len package body length
+	 * @param errno   status code, should be (byte)0
+	 */
+	public static void writeHeader(OutputStream out, byte cmd, long pkg_len, byte errno) throws IOException {
+		byte[] header = HEADER_BUFFER.get().array();
+		packHeader(header, 0, cmd, pkg_len, errno);
+		out.write(header);
+	}
+
+	/**
+	 * the per thread header buffer to receive a header by channel, decode it by
+	 * {@link #decodeHeader(ByteBuffer, byte, long, RecvHeaderInfo)} after flip
+	 *
+	 * @return the cleared buffer, remaining is FDFS_PROTO_HEADER_SIZE
+	 */
+	public static ByteBuffer headerBuffer() {
+		ByteBuffer buffer = HEADER_BUFFER.get();
+		((Buffer) buffer).clear();
+		return buffer;
 	}
 
 	/**
@@ -156,25 +218,89 @@ public class ProtoCommon {
 	 * @return RecvHeaderInfo: errno and pkg body length
 	 */
 	public static RecvHeaderInfo recvHeader(InputStream in, byte expectCmd, long expectBodyLen) throws IOException {
-		byte[] header;
-		int bytes;
-		long pkgLen;
+		return recvHeader(in, expectCmd, expectBodyLen, new RecvHeaderInfo());
+	}
+
+	/**
+	 * receive pack header into the per thread buffer, read again until the whole header is received
+	 *
+	 * @param in            input stream
+	 * @param expectCmd     expect response command
+	 * @param expectBodyLen expect response package body length
+	 * @param info          the object to save the result
+	 * @return info: errno and pkg body length
+	 */
+	public static RecvHeaderInfo recvHeader(InputStream in, byte expectCmd, long expectBodyLen,
+	                                        RecvHeaderInfo info) throws IOException {
+		byte[] header = HEADER_BUFFER.get().array();
+		readFully(in, header, 0, header.length);
+		return decodeHeader(header, 0, expectCmd, expectBodyLen, info);
+	}
+
+	/**
+	 * decode the received pack header
+	 *
+	 * @param header        the header buff, length is FDFS_PROTO_PKG_LEN_SIZE + 2
+	 * @param expectCmd     expect response command
+	 * @param expectBodyLen expect response package body length
+	 * @return RecvHeaderInfo: errno and pkg body length
+	 */
+	public static RecvHeaderInfo decodeHeader(byte[] header, byte expectCmd, long expectBodyLen) throws IOException {
+		return decodeHeader(header, 0, expectCmd, expectBodyLen, new RecvHeaderInfo());
+	}
 
-		header = new byte[FDFS_PROTO_PKG_LEN_SIZE + 2];
+	/**
+	 * decode the received pack header
+	 *
+	 * @param buff          the buff contains the header
+	 * @param offset        the start position of the header in buff
+	 * @param expectCmd     expect response command
+	 * @param expectBodyLen expect response package body length
+	 * @param info          the object to save the result
+	 * @return info: errno and pkg body length
+	 */
+	public static RecvHeaderInfo decodeHeader(byte[] buff, int offset, byte expectCmd, long expectBodyLen,
+	                                          RecvHeaderInfo info) throws IOException {
+		return checkHeader(buff2long(buff, offset), buff[offset + PROTO_HEADER_CMD_INDEX],
+				buff[offset + PROTO_HEADER_STATUS_INDEX], expectCmd, expectBodyLen, info);
+	}
 
-		if ((bytes = in.read(header)) != header.length) {
-			throw new IOException("recv package size " + bytes + " != " + header.length);
+	/**
+	 * decode the received pack header from the buffer at its position, the position is advanced by
+	 * FDFS_PROTO_HEADER_SIZE
+	 *
+	 * @param buffer        the buffer contains the header
+	 * @param expectCmd     expect response command
+	 * @param expectBodyLen expect response package body length
+	 * @param info          the object to save the result
+	 * @return info: errno and pkg body length
+	 */
+	public static RecvHeaderInfo decodeHeader(ByteBuffer buffer, byte expectCmd, long expectBodyLen,
+	                                          RecvHeaderInfo info) throws IOException {
+		if (buffer.remaining() < FDFS_PROTO_HEADER_SIZE) {
+			throw new IOException("recv package size " + buffer.remaining() + " != " + FDFS_PROTO_HEADER_SIZE);
 		}
+		long pkgLen = 0;
+		for (int i = 0; i < FDFS_PROTO_PKG_LEN_SIZE; i++) {
+			pkgLen = (pkgLen << 8) | (buffer.get() & 0xFF);
+		}
+		byte cmd = buffer.get();
+		byte status = buffer.get();
+		return checkHeader(pkgLen, cmd, status, expectCmd, expectBodyLen, info);
+	}
 
-		if (header[PROTO_HEADER_CMD_INDEX] != expectCmd) {
-			throw new IOException("recv cmd: " + header[PROTO_HEADER_CMD_INDEX] + " is not correct, expect cmd: " + expectCmd);
+	private static RecvHeaderInfo checkHeader(long pkgLen, byte cmd, byte status, byte expectCmd, long expectBodyLen,
+	                                          RecvHeaderInfo info) throws IOException {
+		if (cmd != expectCmd) {
+			throw new IOException("recv cmd: " + cmd + " is not correct, expect cmd: " + expectCmd);
 		}
 
-		if (header[PROTO_HEADER_STATUS_INDEX] != 0) {
-			return new RecvHeaderInfo(header[PROTO_HEADER_STATUS_INDEX], 0);
+		if (status != 0) {
+			info.errno = status;
+			info.bodyLen = 0;
+			return info;
 		}
 
-		pkgLen = ProtoCommon.buff2long(header, 0);
 		if (pkgLen < 0) {
 			throw new IOException("recv body length: " + pkgLen + " < 0!");
 		}
@@ -183,7 +309,25 @@ public class ProtoCommon {
 			throw new IOException("recv body length: " + pkgLen + " is not correct, expect length: " + expectBodyLen);
 		}
 
-		return new RecvHeaderInfo((byte) 0, pkgLen);
+		info.errno = 0;
+		info.bodyLen = pkgLen;
+		return info;
+	}
+
+	/**
+	 * read until len bytes are received
+	 *
+	 * @throws IOException the stream ends before len bytes
+	 */
+	private static void readFully(InputStream in, byte[] buff, int offset, int len) throws IOException {
+		int totalBytes = 0;
+		int bytes;
+		while (totalBytes < len) {
+			if ((bytes = in.read(buff, offset + totalBytes, len - totalBytes)) < 0) {
+				throw new IOException("recv package size " + totalBytes + " != " + len);
+			}
+			totalBytes += bytes;
+		}
 	}
 
 	/**
@@ -195,30 +339,25 @@ public class ProtoCommon {
 	 * @return RecvPackageInfo: errno and reponse body(byte buff)
 	 */
 	public static RecvPackageInfo recvPackage(InputStream in, byte expectCmd, long expectBodyLen) throws IOException {
-		RecvHeaderInfo header = recvHeader(in, expectCmd, expectBodyLen);
+		RecvHeaderInfo header = recvHeader(in, expectCmd, expectBodyLen, HEADER_INFO.get());
 		if (header.errno != 0) {
 			return new RecvPackageInfo(header.errno, null);
 		}
 
-		byte[] body = new byte[(int) header.bodyLen];
-		int totalBytes = 0;
-		int remainBytes = (int) header.bodyLen;
-		int bytes;
-
-		while (totalBytes < header.bodyLen) {
-			if ((bytes = in.read(body, totalBytes, remainBytes)) < 0) {
-				break;
-			}
-
-			totalBytes += bytes;
-			remainBytes -= bytes;
-		}
-
-		if (totalBytes != header.bodyLen) {
-			throw new IOException("recv package size " + totalBytes + " != " + header.bodyLen);
-		}
+		return new RecvPackageInfo((byte) 0, recvBody(in, header));
+	}
 
-		return new RecvPackageInfo((byte) 0, body);
+	/**
+	 * receive the package body after the header
+	 *
+	 * @param in     input stream
+	 * @param header the header received, errno must be 0
+	 * @return the body
+	 */
+	public static byte[] recvBody(InputStream in, RecvHeaderInfo header) throws IOException {
+		byte[] body = new byte[(int) header.bodyLen];
+		readFully(in, body, 0, body.length);
+		return body;
 	}
 
 	/**
@@ -285,9 +424,7 @@ public class ProtoCommon {
 	 * @param sock the Socket object
 	 */
 	public static void closeSocket(Socket sock) throws IOException {
-		byte[] header;
-		header = packHeader(FDFS_PROTO_CMD_QUIT, 0, (byte) 0);
-		sock.getOutputStream().write(header);
+		writeHeader(sock.getOutputStream(), FDFS_PROTO_CMD_QUIT, 0, (byte) 0);
 		sock.close();
 	}
 
@@ -297,12 +434,8 @@ public class ProtoCommon {
 	 * @param sock the Socket object
 	 */
 	public static boolean activeTest(Socket sock) throws IOException {
-		byte[] header;
-		header = packHeader(FDFS_PROTO_CMD_ACTIVE_TEST, 0, (byte) 0);
-		sock.getOutputStream().write(header);
-
-		RecvHeaderInfo headerInfo = recvHeader(sock.getInputStream(), TRACKER_PROTO_CMD_RESP, 0);
-		return headerInfo.errno == 0;
+		writeHeader(sock.getOutputStream(), FDFS_PROTO_CMD_ACTIVE_TEST, 0, (byte) 0);
+		return recvHeader(sock.getInputStream(), TRACKER_PROTO_CMD_RESP, 0, HEADER_INFO.get()).errno == 0;
 	}
 
 	/**
@@ -312,21 +445,29 @@ public class ProtoCommon {
 	 * @return 8 bytes buff
 	 */
 	public static byte[] long2buff(long n) {
-		byte[] bs;
-
-		bs = new byte[8];
-		bs[0] = (byte) ((n >> 56) & 0xFF);
-		bs[1] = (byte) ((n >> 48) & 0xFF);
-		bs[2] = (byte) ((n >> 40) & 0xFF);
-		bs[3] = (byte) ((n >> 32) & 0xFF);
-		bs[4] = (byte) ((n >> 24) & 0xFF);
-		bs[5] = (byte) ((n >> 16) & 0xFF);
-		bs[6] = (byte) ((n >> 8) & 0xFF);
-		bs[7] = (byte) (n & 0xFF);
-
+		byte[] bs = new byte[8];
+		long2buff(n, bs, 0);
 		return bs;
 	}
 
+	/**
+	 * long convert to buff (big-endian) in place
+	 *
+	 * @param n      long number
+	 * @param bs     the buffer to write 8 bytes
+	 * @param offset the start position based 0
+	 */
+	public static void long2buff(long n, byte[] bs, int offset) {
+		bs[offset] = (byte) ((n >> 56) & 0xFF);
+		bs[offset + 1] = (byte) ((n >> 48) & 0xFF);
+		bs[offset + 2] = (byte) ((n >> 40) & 0xFF);
+		bs[offset + 3] = (byte) ((n >> 32) & 0xFF);
+		bs[offset + 4] = (byte) ((n >> 24) & 0xFF);
+		bs[offset + 5] = (byte) ((n >> 16) & 0xFF);
+		bs[offset + 6] = (byte) ((n >> 8) & 0xFF);
+		bs[offset + 7] = (byte) (n & 0xFF);
+	}
+
 	/**
 	 * buff convert to long
 	 *
@@ -493,6 +634,9 @@ public class ProtoCommon {
 		public byte errno;
 		public long bodyLen;
 
+		public RecvHeaderInfo() {
+		}
+
 		public RecvHeaderInfo(byte errno, long bodyLen) {
 			this.errno = errno;
 			this.bodyLen = bodyLen;
@@ -0,0 +1,452 @@
+package top.folen.fastdfs;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import top.folen.common.FastDfsException;
+import top.folen.common.NameValuePair;
+import top.folen.fastdfs.pool.Connection;
+import top.folen.fastdfs.pool.ConnectionUtil;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 基于 Reactive Streams 的流式 storage 客户端，下载返回支持背压的 Publisher&lt;ByteBuffer&gt;，上传接受 Publisher&lt;ByteBuffer&gt;
+ * <p>
+ * 下载：只在订阅者有需求时才从 socket 读取，需求为 0 时不占用线程也不读 socket，由 TCP 窗口把背压传回 storage server；
+ * 注意长时间不请求数据会超过 storage server 的 network_timeout 而被断开。
+ * 上传：最多预取 prefetch 个 buffer，每发送完一个再向 Publisher 请求一个，buffer 的字节数之和必须等于声明的文件大小
+ * <p>
+ * 需要依赖 org.reactivestreams:reactive-streams，Java 9+ 可以用 org.reactivestreams.FlowAdapters 转换为 java.util.concurrent.Flow
+ *
+ * @author sec
+ * @version 1.0
+ **/
+public class ReactiveStorageClient {
+
+	public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+	public static final int DEFAULT_UPLOAD_PREFETCH = 4;
+
+	private final TrackerServer trackerServer;
+
+	private final StorageServer storageServer;
+
+	/**
+	 * the executor to read and write the connections, no thread is held while the subscriber has no demand
+	 */
+	private final Executor executor;
+
+	/**
+	 * the max bytes of a download buffer
+	 */
+	private volatile int chunkSize = DEFAULT_CHUNK_SIZE;
+
+	/**
+	 * the max buffers requested from the upload publisher but not sent yet
+	 */
+	private volatile int uploadPrefetch = DEFAULT_UPLOAD_PREFETCH;
+
+	/**
+	 * constructor, query the storage server from the tracker
+	 *
+	 * @param executor the executor to read and write the connections
+	 */
+	public ReactiveStorageClient(Executor executor) {
+		this(null, null, executor);
+	}
+
+	/**
+	 * constructor with the tracker server and storage server
+	 *
+	 * @param trackerServer the tracker server, can be null
+	 * @param storageServer the storage server, can be null
+	 * @param executor      the executor to read and write the connections
+	 */
+	public ReactiveStorageClient(TrackerServer trackerServer, StorageServer storageServer, Executor executor) {
+		this.trackerServer = trackerServer;
+		this.storageServer = storageServer;
+		this.executor = executor;
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	public void setChunkSize(int chunkSize) {
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+		}
+		this.chunkSize = chunkSize;
+	}
+
+	public int getUploadPrefetch() {
+		return uploadPrefetch;
+	}
+
+	public void setUploadPrefetch(int uploadPrefetch) {
+		if (uploadPrefetch <= 0) {
+			throw new IllegalArgumentException("uploadPrefetch must be positive: " + uploadPrefetch);
+		}
+		this.uploadPrefetch = uploadPrefetch;
+	}
+
+	/**
+	 * download file from storage server, every subscription downloads the file again
+	 *
+	 * @param groupName      the group name of storage server
+	 * @param remoteFilename filename on storage server
+	 * @return publisher of the file content, signals FastDfsException if the storage server returns an errno
+	 */
+	public Publisher<ByteBuffer> downloadFile(String groupName, String remoteFilename) {
+		return downloadFile(groupName, remoteFilename, 0, 0);
+	}
+
+	/**
+	 * download file from storage server, every subscription downloads the file again
+	 *
+	 * @param groupName      the group name of storage server
+	 * @param remoteFilename filename on storage server
+	 * @param fileOffset     the start offset of the file
+	 * @param downloadBytes  download bytes, 0 for remain bytes from offset
+	 * @return publisher of the file content, signals FastDfsException if the storage server returns an errno
+	 */
+	public Publisher<ByteBuffer> downloadFile(String groupName, String remoteFilename,
+	                                          long fileOffset, long downloadBytes) {
+		return subscriber -> {
+			DownloadSubscription subscription = new DownloadSubscription(subscriber, groupName, remoteFilename,
+					fileOffset, downloadBytes, chunkSize);
+			subscriber.onSubscribe(subscription);
+		};
+	}
+
+	/**
+	 * upload file to storage server
+	 *
+	 * @param groupName   the group name to upload file to, can be empty
+	 * @param content     the file content, the sum of the buffer bytes must be fileSize
+	 * @param fileSize    the file size
+	 * @param fileExtName file ext name, do not include dot(.)
+	 * @param metaList    meta info array
+	 * @return future of the group name and remote filename,
+	 * completed with FastDfsException if the storage server returns an errno
+	 */
+	public CompletableFuture<String[]> uploadFile(String groupName, Publisher<ByteBuffer> content, long fileSize,
+	                                              String fileExtName, NameValuePair[] metaList) {
+		CompletableFuture<String[]> future = new CompletableFuture<>();
+		UploadSubscriber subscriber = new UploadSubscriber(fileSize, uploadPrefetch);
+		try {
+			executor.execute(() -> {
+				try {
+					content.subscribe(subscriber);
+					StorageClient client = new StorageClient(trackerServer, storageServer);
+					String[] results = client.uploadFile(groupName, fileSize, subscriber, fileExtName, metaList);
+					if (results == null) {
+						throw new FastDfsException("upload file fail, errno code: " + client.getErrorCode(),
+								client.getErrorCode());
+					}
+					future.complete(results);
+				} catch (Throwable e) {
+					future.completeExceptionally(e);
+				} finally {
+					subscriber.cancel();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	/**
+	 * the download of one subscriber, all the signals are serialized by the drain loop on the executor
+	 */
+	private class DownloadSubscription implements Subscription, Runnable {
+
+		private final Subscriber<? super ByteBuffer> subscriber;
+
+		private final String groupName;
+
+		private final String remoteFilename;
+
+		private final long fileOffset;
+
+		private final long downloadBytes;
+
+		private final int chunkSize;
+
+		private final AtomicLong requested = new AtomicLong();
+
+		private final AtomicInteger wip = new AtomicInteger();
+
+		private volatile boolean cancelled;
+
+		private volatile Throwable invalidRequest;
+
+		/**
+		 * the fields below are only accessed by the drain loop
+		 */
+		private StorageClient client;
+
+		private Connection connection;
+
+		private boolean bNewStorageServer;
+
+		private long bodyLen;
+
+		private long remainBytes;
+
+		private boolean done;
+
+		DownloadSubscription(Subscriber<? super ByteBuffer> subscriber, String groupName, String remoteFilename,
+		                     long fileOffset, long downloadBytes, int chunkSize) {
+			this.subscriber = subscriber;
+			this.groupName = groupName;
+			this.remoteFilename = remoteFilename;
+			this.fileOffset = fileOffset;
+			this.downloadBytes = downloadBytes;
+			this.chunkSize = chunkSize;
+		}
+
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				invalidRequest = new IllegalArgumentException("request must be positive: " + n);
+			} else {
+				long current;
+				long next;
+				do {
+					current = requested.get();
+					next = current + n < 0 ? Long.MAX_VALUE : current + n;
+				} while (!requested.compareAndSet(current, next));
+			}
+			schedule();
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+			schedule();
+		}
+
+		private void schedule() {
+			if (wip.getAndIncrement() == 0) {
+				try {
+					executor.execute(this);
+				} catch (RejectedExecutionException e) {
+					invalidRequest = e;
+					run();
+				}
+			}
+		}
+
+		@Override
+		public void run() {
+			int missed = 1;
+			do {
+				drain();
+				missed = wip.addAndGet(-missed);
+			} while (missed != 0);
+		}
+
+		private void drain() {
+			if (done) {
+				return;
+			}
+			if (cancelled) {
+				finish(false);
+				return;
+			}
+			if (invalidRequest != null) {
+				finish(false);
+				subscriber.onError(invalidRequest);
+				return;
+			}
+			try {
+				if (connection == null) {
+					if (requested.get() == 0) {
+						return;
+					}
+					open();
+				}
+				while (remainBytes > 0 && requested.get() > 0 && !cancelled) {
+					ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(chunkSize, remainBytes));
+					if (connection.read(buffer) < 0) {
+						throw new IOException("recv package size " + (bodyLen - remainBytes) + " != " + bodyLen);
+					}
+					((Buffer) buffer).flip();
+					remainBytes -= buffer.remaining();
+					if (requested.get() != Long.MAX_VALUE) {
+						requested.decrementAndGet();
+					}
+					subscriber.onNext(buffer);
+				}
+				if (cancelled) {
+					finish(false);
+				} else if (remainBytes == 0) {
+					finish(true);
+					subscriber.onComplete();
+				}
+			} catch (Throwable e) {
+				finish(false);
+				subscriber.onError(e);
+			}
+		}
+
+		private void open() throws IOException, FastDfsException {
+			client = new StorageClient(trackerServer, storageServer);
+			bNewStorageServer = client.newReadableStorageConnection(groupName, remoteFilename);
+			connection = client.storageServer.getConnection();
+			client.sendDownloadPackage(groupName, remoteFilename, fileOffset, downloadBytes, connection);
+
+			ByteBuffer headerBuffer = ProtoCommon.headerBuffer();
+			connection.readFully(headerBuffer);
+			((Buffer) headerBuffer).flip();
+			ProtoCommon.RecvHeaderInfo header = ProtoCommon.decodeHeader(headerBuffer,
+					ProtoCommon.STORAGE_PROTO_CMD_RESP, -1, new ProtoCommon.RecvHeaderInfo());
+			if (header.errno != 0) {
+				remainBytes = 0;
+				if (bNewStorageServer) {
+					StorageRouteCache.invalidate(groupName, remoteFilename);
+				}
+				finish(true);
+				throw new FastDfsException("download file fail, errno code: " + header.errno, header.errno);
+			}
+			bodyLen = header.bodyLen;
+			remainBytes = header.bodyLen;
+		}
+
+		/**
+		 * @param reusable the response is read completely, the connection can go back to the pool
+		 */
+		private void finish(boolean reusable) {
+			done = true;
+			if (connection != null) {
+				if (!reusable) {
+					ConnectionUtil.close(connection);
+				}
+				ConnectionUtil.release(connection);
+				connection = null;
+			}
+			if (bNewStorageServer) {
+				if (!reusable) {
+					StorageRouteCache.invalidate(groupName, remoteFilename);
+				}
+				client.storageServer = null;
+				bNewStorageServer = false;
+			}
+		}
+	}
+
+	/**
+	 * bridge the publisher to UploadCallback, the buffers are sent in the upload thread
+	 */
+	private static class UploadSubscriber implements Subscriber<ByteBuffer>, UploadCallback {
+
+		private static final Object COMPLETE = new Object();
+
+		private final long fileSize;
+
+		private final int prefetch;
+
+		/**
+		 * at most prefetch buffers and one terminal signal, bounded by the demand
+		 */
+		private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+
+		private final CompletableFuture<Subscription> subscription = new CompletableFuture<>();
+
+		UploadSubscriber(long fileSize, int prefetch) {
+			this.fileSize = fileSize;
+			this.prefetch = prefetch;
+		}
+
+		@Override
+		public void onSubscribe(Subscription s) {
+			if (!subscription.complete(s)) {
+				s.cancel();
+				return;
+			}
+			s.request(prefetch);
+		}
+
+		@Override
+		public void onNext(ByteBuffer buffer) {
+			queue.offer(buffer);
+		}
+
+		@Override
+		public void onError(Throwable t) {
+			queue.offer(t);
+		}
+
+		@Override
+		public void onComplete() {
+			queue.offer(COMPLETE);
+		}
+
+		@Override
+		public int send(OutputStream out) throws IOException {
+			byte[] buff = null;
+			long sentBytes = 0;
+			while (true) {
+				Object signal;
+				try {
+					signal = ClientGlobal.g_network_timeout > 0
+							? queue.poll(ClientGlobal.g_network_timeout, TimeUnit.MILLISECONDS) : queue.take();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("upload interrupted", e);
+				}
+				if (signal == null) {
+					throw new SocketTimeoutException("wait for upload publisher timed out");
+				}
+				if (signal == COMPLETE) {
+					if (sentBytes != fileSize) {
+						throw new IOException("publisher sent " + sentBytes + " bytes != file size " + fileSize);
+					}
+					return 0;
+				}
+				if (signal instanceof Throwable) {
+					throw new IOException("upload publisher fail", (Throwable) signal);
+				}
+
+				ByteBuffer buffer = (ByteBuffer) signal;
+				int bytes = buffer.remaining();
+				sentBytes += bytes;
+				if (sentBytes > fileSize) {
+					throw new IOException("publisher sent more than file size " + fileSize);
+				}
+				if (buffer.hasArray()) {
+					out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), bytes);
+				} else {
+					if (buff == null || buff.length < bytes) {
+						buff = new byte[bytes];
+					}
+					buffer.duplicate().get(buff, 0, bytes);
+					out.write(buff, 0, bytes);
+				}
+				subscription.join().request(1);
+			}
+		}
+
+		void cancel() {
+			Subscription s = subscription.getNow(null);
+			if (s != null) {
+				s.cancel();
+			}
+		}
+	}
+}
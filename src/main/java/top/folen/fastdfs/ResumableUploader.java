@@ -0,0 +1,297 @@
+package top.folen.fastdfs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import top.folen.common.FastDfsException;
+import top.folen.common.NameValuePair;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * 可断点续传的上传：先以第一个分片创建 appender 文件，再按顺序用 modifyFile 在计算出的 offset 写入后续的固定大小分片，
+ * 每个分片成功后把已确认的 offset 写入本地的 checkpoint 日志；进程崩溃或上传失败后再次上传同一个本地文件时，
+ * 从日志中的 offset 继续，最后调用 regenerateAppenderFilename 把 appender 文件转为普通文件并删除日志
+ * <p>
+ * storage 只接受 offset 不超过 appender 文件当前大小的 modify，所以同一个文件的分片按顺序上传；
+ * modify 按 offset 写入，重试分片不会像 append 那样重复写入数据
+ * <p>
+ * Note: the instance of this class is thread safe, but the same local file can not be uploaded concurrently
+ *
+ * @author sec
+ * @version 1.0
+ **/
+public class ResumableUploader {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ResumableUploader.class);
+
+	public static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+
+	public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+	/**
+	 * ext name of the journal file, appended to the local filename
+	 */
+	public static final String JOURNAL_EXT_NAME = ".fdfs-upload";
+
+	private static final String KEY_GROUP_NAME = "group_name";
+	private static final String KEY_APPENDER_FILENAME = "appender_filename";
+	private static final String KEY_FILE_SIZE = "file_size";
+	private static final String KEY_LAST_MODIFIED = "last_modified";
+	private static final String KEY_OFFSET = "offset";
+
+	private final TrackerServer trackerServer;
+
+	private final StorageServer storageServer;
+
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+	private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+
+	private File journalDir;
+
+	/**
+	 * constructor using global settings in class ClientGlobal
+	 */
+	public ResumableUploader() {
+		this(null, null);
+	}
+
+	/**
+	 * constructor with tracker server and storage server
+	 *
+	 * @param trackerServer the tracker server, can be null
+	 * @param storageServer the storage server, can be null
+	 */
+	public ResumableUploader(TrackerServer trackerServer, StorageServer storageServer) {
+		this.trackerServer = trackerServer;
+		this.storageServer = storageServer;
+	}
+
+	/**
+	 * upload the local file, resume from the checkpoint journal if the last upload of the file was not finished
+	 *
+	 * @param groupName     the group name to upload file to, can be empty, ignored when resume
+	 * @param localFilename local filename to upload
+	 * @param fileExtName   file ext name, do not include dot(.), ignored when resume
+	 * @param metaList      meta info array, ignored when resume
+	 * @return 2 elements string array:<br>
+	 * <ul><li>results[0]: the group name to store the file</li></ul>
+	 * <ul><li>results[1]: the new created filename</li></ul>
+	 * @throws FastDfsException if a chunk fail on all attempts, upload again to resume
+	 */
+	public String[] uploadFile(String groupName, String localFilename, String fileExtName,
+	                           NameValuePair[] metaList) throws IOException, FastDfsException {
+		File file = new File(localFilename);
+		File journalFile = getJournalFile(file);
+		long fileSize = file.length();
+		long lastModified = file.lastModified();
+		StorageClient client = new StorageClient(trackerServer, storageServer);
+
+		try (FileInputStream fis = new FileInputStream(file)) {
+			FileChannel fileChannel = fis.getChannel();
+			Checkpoint checkpoint = resume(client, journalFile, fileSize, lastModified);
+			if (checkpoint == null) {
+				long length = Math.min(chunkSize, fileSize);
+				String[] results = client.uploadAppenderFile(groupName, length,
+						new UploadFileChannel(fileChannel, 0, length), fileExtName, metaList);
+				if (results == null) {
+					throw new FastDfsException("upload appender file fail, errno code: " + client.getErrorCode(),
+							client.getErrorCode());
+				}
+				checkpoint = new Checkpoint(results[0], results[1], fileSize, lastModified, length);
+				save(journalFile, checkpoint);
+			}
+
+			while (checkpoint.offset < fileSize) {
+				long length = Math.min(chunkSize, fileSize - checkpoint.offset);
+				modifyChunk(client, checkpoint, fileChannel, length);
+				checkpoint.offset += length;
+				save(journalFile, checkpoint);
+			}
+
+			String[] results = client.regenerateAppenderFilename(checkpoint.groupName,
+					checkpoint.appenderFilename);
+			if (results == null) {
+				throw new FastDfsException("regenerate appender filename fail, errno code: " + client.getErrorCode(),
+						client.getErrorCode());
+			}
+			Files.deleteIfExists(journalFile.toPath());
+			return results;
+		}
+	}
+
+	/**
+	 * @return the checkpoint to resume from, null if there is no journal, the local file is changed
+	 * or the appender file does not exist
+	 */
+	private Checkpoint resume(StorageClient client, File journalFile, long fileSize,
+	                          long lastModified) throws IOException, FastDfsException {
+		Checkpoint checkpoint = load(journalFile);
+		if (checkpoint == null) {
+			return null;
+		}
+		if (checkpoint.fileSize != fileSize || checkpoint.lastModified != lastModified) {
+			LOGGER.info("local file changed since last upload, delete appender file {}/{} and upload again",
+					checkpoint.groupName, checkpoint.appenderFilename);
+			try {
+				client.deleteFile(checkpoint.groupName, checkpoint.appenderFilename);
+			} catch (IOException | FastDfsException e) {
+				LOGGER.warn("delete appender file {}/{} fail", checkpoint.groupName, checkpoint.appenderFilename, e);
+			}
+			return null;
+		}
+
+		FileInfo fileInfo = client.queryFileInfo(checkpoint.groupName, checkpoint.appenderFilename);
+		if (fileInfo == null) {
+			if (client.getErrorCode() == ProtoCommon.ERR_NO_ENOENT) {
+				LOGGER.info("appender file {}/{} not exist, upload again", checkpoint.groupName,
+						checkpoint.appenderFilename);
+				return null;
+			}
+			throw new FastDfsException("query appender file info fail, errno code: " + client.getErrorCode(),
+					client.getErrorCode());
+		}
+		// the storage may have less than the journal if the last chunk was not flushed
+		checkpoint.offset = Math.min(checkpoint.offset, fileInfo.getFileSize());
+		LOGGER.info("resume upload {}/{} from offset {}", checkpoint.groupName, checkpoint.appenderFilename,
+				checkpoint.offset);
+		return checkpoint;
+	}
+
+	private void modifyChunk(StorageClient client, Checkpoint checkpoint, FileChannel fileChannel,
+	                         long length) throws FastDfsException {
+		String error = null;
+		for (int attempt = 0; attempt < maxAttempts; attempt++) {
+			try {
+				int result = client.modifyFile(checkpoint.groupName, checkpoint.appenderFilename, checkpoint.offset,
+						length, new UploadFileChannel(fileChannel, checkpoint.offset, length));
+				if (result == 0) {
+					return;
+				}
+				error = "errno: " + result;
+			} catch (IOException | FastDfsException e) {
+				error = e.getMessage();
+			}
+			LOGGER.warn("modify chunk offset: {}, length: {} of {}/{} fail, {}", checkpoint.offset, length,
+					checkpoint.groupName, checkpoint.appenderFilename, error);
+		}
+		throw new FastDfsException("chunk offset: " + checkpoint.offset + ", length: " + length + " fail after "
+				+ maxAttempts + " attempts, " + error);
+	}
+
+	/**
+	 * @param localFilename the local filename
+	 * @return the checkpoint journal file of the local file
+	 */
+	public File getJournalFile(String localFilename) {
+		return getJournalFile(new File(localFilename));
+	}
+
+	private File getJournalFile(File file) {
+		File dir = journalDir != null ? journalDir : file.getAbsoluteFile().getParentFile();
+		return new File(dir, file.getName() + JOURNAL_EXT_NAME);
+	}
+
+	private static Checkpoint load(File journalFile) {
+		if (!journalFile.exists()) {
+			return null;
+		}
+		Properties props = new Properties();
+		try (InputStream in = new FileInputStream(journalFile)) {
+			props.load(in);
+			return new Checkpoint(props.getProperty(KEY_GROUP_NAME), props.getProperty(KEY_APPENDER_FILENAME),
+					Long.parseLong(props.getProperty(KEY_FILE_SIZE)),
+					Long.parseLong(props.getProperty(KEY_LAST_MODIFIED)),
+					Long.parseLong(props.getProperty(KEY_OFFSET)));
+		} catch (IOException | RuntimeException e) {
+			LOGGER.warn("read journal file {} fail, upload again", journalFile, e);
+			return null;
+		}
+	}
+
+	/**
+	 * write the journal to a temp file then rename it, so a crash never leaves a half written journal
+	 */
+	private static void save(File journalFile, Checkpoint checkpoint) throws IOException {
+		Properties props = new Properties();
+		props.setProperty(KEY_GROUP_NAME, checkpoint.groupName);
+		props.setProperty(KEY_APPENDER_FILENAME, checkpoint.appenderFilename);
+		props.setProperty(KEY_FILE_SIZE, String.valueOf(checkpoint.fileSize));
+		props.setProperty(KEY_LAST_MODIFIED, String.valueOf(checkpoint.lastModified));
+		props.setProperty(KEY_OFFSET, String.valueOf(checkpoint.offset));
+
+		File tmpFile = new File(journalFile.getPath() + ".tmp");
+		try (FileOutputStream out = new FileOutputStream(tmpFile)) {
+			props.store(out, null);
+			out.getFD().sync();
+		}
+		Files.move(tmpFile.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * @param chunkSize the chunk size in bytes, default 4MB
+	 */
+	public void setChunkSize(int chunkSize) {
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("chunkSize must be positive");
+		}
+		this.chunkSize = chunkSize;
+	}
+
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	/**
+	 * @param maxAttempts max attempts of a chunk, default 3
+	 */
+	public void setMaxAttempts(int maxAttempts) {
+		if (maxAttempts <= 0) {
+			throw new IllegalArgumentException("maxAttempts must be positive");
+		}
+		this.maxAttempts = maxAttempts;
+	}
+
+	public File getJournalDir() {
+		return journalDir;
+	}
+
+	/**
+	 * @param journalDir the directory of the journal files, null to put the journal file beside the local file
+	 */
+	public void setJournalDir(File journalDir) {
+		this.journalDir = journalDir;
+	}
+
+	/**
+	 * the appender file and the confirmed offset of an upload
+	 */
+	private static final class Checkpoint {
+		private final String groupName;
+		private final String appenderFilename;
+		private final long fileSize;
+		private final long lastModified;
+		private long offset;
+
+		Checkpoint(String groupName, String appenderFilename, long fileSize, long lastModified, long offset) {
+			this.groupName = groupName;
+			this.appenderFilename = appenderFilename;
+			this.fileSize = fileSize;
+			this.lastModified = lastModified;
+			this.offset = offset;
+		}
+	}
+}
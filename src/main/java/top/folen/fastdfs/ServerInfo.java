@@ -53,6 +53,7 @@ public class ServerInfo {
 	public Socket connect() throws IOException {
 		Socket sock = new Socket();
 		sock.setReuseAddress(true);
+		ClientGlobal.configSocket(sock);
 		sock.setSoTimeout(ClientGlobal.g_network_timeout);
 		sock.connect(new InetSocketAddress(this.ipAddr, this.port), ClientGlobal.g_connect_timeout);
 		return sock;
@@ -7,8 +7,12 @@ import top.folen.common.FastDfsException;
 import top.folen.common.NameValuePair;
 import top.folen.fastdfs.pool.Connection;
 import top.folen.fastdfs.pool.ConnectionUtil;
+import top.folen.fastdfs.pool.BufferPool;
 
 import java.io.*;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
 
 /**
@@ -27,6 +31,25 @@ public class StorageClient {
 	protected TrackerServer trackerServer;
 	protected StorageServer storageServer;
 	protected byte errno;
+	/**
+	 * the file of the storage server queried from the tracker or the route cache, for invalidating the route cache
+	 */
+	private String routeGroupName;
+	private String routeFilename;
+	/**
+	 * reused to query the storage servers, created on first use
+	 */
+	private TrackerClient trackerClient;
+	/**
+	 * reused to decode the response headers
+	 */
+	private final ProtoCommon.RecvHeaderInfo headerInfo = new ProtoCommon.RecvHeaderInfo();
+	/**
+	 * the load statistics of the storage server which the current request goes to, null if read_balance disabled
+	 */
+	private StorageLoadBalancer.Node balanceNode;
+	private long requestStartTime;
+	private long responseTime;
 
 	/**
 	 * constructor using global settings in class ClientGlobal
@@ -128,7 +151,7 @@ public class StorageClient {
 
 		try {
 			return this.doUploadFile(cmd, groupName, null, null, fileExtName,
-					f.length(), new UploadStream(fis, f.length()), metaList);
+					f.length(), new UploadFileChannel(fis.getChannel(), 0, f.length()), metaList);
 		} finally {
 			fis.close();
 		}
@@ -226,6 +249,38 @@ public class StorageClient {
 				null, null, fileExtName, fileSize, callback, metaList);
 	}
 
+	/**
+	 * upload file to storage server (by input stream of unknown length), the stream is sent in chunks
+	 * of AppenderOutputStream.DEFAULT_CHUNK_SIZE by an appender file, which is regenerated to a normal file at last,
+	 * the partial appender file is deleted on failure
+	 *
+	 * @param groupName   the group name to upload file to, can be empty
+	 * @param inputStream the input stream to read until end of stream, not closed by this method
+	 * @param fileExtName file ext name, do not include dot(.)
+	 * @param metaList    meta info array
+	 * @return 2 elements string array:<br>
+	 * <ul><li>results[0]: the group name to store the file</li></ul>
+	 * <ul><li>results[1]: the new created filename</li></ul>
+	 */
+	public String[] uploadFile(String groupName, InputStream inputStream, String fileExtName,
+	                           NameValuePair[] metaList) throws IOException {
+		AppenderOutputStream out = new AppenderOutputStream(this, groupName, fileExtName, metaList);
+		byte[] buff = BufferPool.acquireHeap(64 * 1024);
+		try {
+			int bytes;
+			while ((bytes = inputStream.read(buff)) >= 0) {
+				out.write(buff, 0, bytes);
+			}
+			out.close();
+		} catch (IOException | RuntimeException e) {
+			out.abort();
+			throw e;
+		} finally {
+			BufferPool.releaseHeap(buff);
+		}
+		return new String[]{out.getGroupName(), out.getRemoteFilename()};
+	}
+
 	/**
 	 * upload file to storage server (by file name, slave file mode)
 	 *
@@ -261,7 +316,7 @@ public class StorageClient {
 
 		try {
 			return this.doUploadFile(ProtoCommon.STORAGE_PROTO_CMD_UPLOAD_SLAVE_FILE, groupName, masterFilename,
-					prefixName, fileExtName, f.length(), new UploadStream(fis, f.length()), metaList);
+					prefixName, fileExtName, f.length(), new UploadFileChannel(fis.getChannel(), 0, f.length()), metaList);
 		} finally {
 			fis.close();
 		}
@@ -487,7 +542,7 @@ public class StorageClient {
 		File f = new File(localFilename);
 		FileInputStream fis = new FileInputStream(f);
 		try {
-			return this.doAppendFile(groupName, appenderFilename, f.length(), new UploadStream(fis, f.length()));
+			return this.doAppendFile(groupName, appenderFilename, f.length(), new UploadFileChannel(fis.getChannel(), 0, f.length()));
 		} finally {
 			fis.close();
 		}
@@ -552,7 +607,7 @@ public class StorageClient {
 
 		try {
 			return this.doModifyFile(groupName, appenderFilename, fileOffset,
-					f.length(), new UploadStream(fis, f.length()));
+					f.length(), new UploadFileChannel(fis.getChannel(), 0, f.length()));
 		} finally {
 			fis.close();
 		}
@@ -620,7 +675,6 @@ public class StorageClient {
 	 */
 	public String[] regenerateAppenderFilename(String groupName, String appenderFilename) throws IOException,
 			FastDfsException {
-		byte[] header;
 		boolean bNewStorageServer;
 		Connection connection = null;
 		byte[] appenderFilenameBytes;
@@ -636,16 +690,15 @@ public class StorageClient {
 		bNewStorageServer = this.newUpdatableStorageConnection(groupName, appenderFilename);
 
 		try {
-			connection = this.storageServer.getConnection();
+			connection = this.getStorageConnection(bNewStorageServer);
 
 			appenderFilenameBytes = appenderFilename.getBytes(ClientGlobal.G_CHARSET);
 			bodyLen = appenderFilenameBytes.length;
 
-			header = ProtoCommon.packHeader(ProtoCommon.STORAGE_PROTO_CMD_REGENERATE_APPENDER_FILENAME, bodyLen,
+			byte[] wholePkg = new byte[(int) (ProtoCommon.FDFS_PROTO_HEADER_SIZE + bodyLen)];
+			ProtoCommon.packHeader(wholePkg, 0, ProtoCommon.STORAGE_PROTO_CMD_REGENERATE_APPENDER_FILENAME, bodyLen,
 					(byte) 0);
-			byte[] wholePkg = new byte[(int) (header.length + bodyLen)];
-			System.arraycopy(header, 0, wholePkg, 0, header.length);
-			offset = header.length;
+			offset = ProtoCommon.FDFS_PROTO_HEADER_SIZE;
 
 			System.arraycopy(appenderFilenameBytes, 0, wholePkg, offset, appenderFilenameBytes.length);
 			offset += appenderFilenameBytes.length;
@@ -700,14 +753,12 @@ public class StorageClient {
 	                                String prefixName, String fileExtName, long fileSize,
 	                                UploadCallback callback,
 	                                NameValuePair[] metaList) throws IOException, FastDfsException {
-		byte[] header;
 		byte[] extNameBs;
 		String newGroupName;
 		String remoteFilename;
 		boolean bNewStorageServer;
 		Connection connection = null;
 		byte[] sizeBytes;
-		byte[] hexLenBytes;
 		byte[] masterFilenameBytes;
 		boolean bUploadSlave;
 		int offset;
@@ -723,7 +774,7 @@ public class StorageClient {
 		}
 
 		try {
-			connection = this.storageServer.getConnection();
+			connection = this.getStorageConnection(bNewStorageServer);
 
 			extNameBs = new byte[ProtoCommon.FDFS_FILE_EXT_NAME_MAX_LEN];
 			Arrays.fill(extNameBs, (byte) 0);
@@ -744,9 +795,8 @@ public class StorageClient {
 						sizeBytes.length + ProtoCommon.FDFS_FILE_PREFIX_MAX_LEN + ProtoCommon.FDFS_FILE_EXT_NAME_MAX_LEN
 								+ masterFilenameBytes.length + fileSize;
 
-				hexLenBytes = ProtoCommon.long2buff(masterFilename.length());
-				System.arraycopy(hexLenBytes, 0, sizeBytes, 0, hexLenBytes.length);
-				offset = hexLenBytes.length;
+				ProtoCommon.long2buff(masterFilename.length(), sizeBytes, 0);
+				offset = ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE;
 			} else {
 				masterFilenameBytes = null;
 				sizeBytes = new byte[1 + ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE];
@@ -756,15 +806,12 @@ public class StorageClient {
 				offset = 1;
 			}
 
-			hexLenBytes = ProtoCommon.long2buff(fileSize);
-			System.arraycopy(hexLenBytes, 0, sizeBytes, offset, hexLenBytes.length);
+			ProtoCommon.long2buff(fileSize, sizeBytes, offset);
 
-			OutputStream out = connection.getOutputStream();
-			header = ProtoCommon.packHeader(cmd, bodyLen, (byte) 0);
-			byte[] wholePkg = new byte[(int) (header.length + bodyLen - fileSize)];
-			System.arraycopy(header, 0, wholePkg, 0, header.length);
-			System.arraycopy(sizeBytes, 0, wholePkg, header.length, sizeBytes.length);
-			offset = header.length + sizeBytes.length;
+			byte[] wholePkg = new byte[(int) (ProtoCommon.FDFS_PROTO_HEADER_SIZE + bodyLen - fileSize)];
+			ProtoCommon.packHeader(wholePkg, 0, cmd, bodyLen, (byte) 0);
+			System.arraycopy(sizeBytes, 0, wholePkg, ProtoCommon.FDFS_PROTO_HEADER_SIZE, sizeBytes.length);
+			offset = ProtoCommon.FDFS_PROTO_HEADER_SIZE + sizeBytes.length;
 			if (bUploadSlave) {
 				byte[] prefix_name_bs = new byte[ProtoCommon.FDFS_FILE_PREFIX_MAX_LEN];
 				byte[] bs = prefixName.getBytes(ClientGlobal.G_CHARSET);
@@ -789,9 +836,7 @@ public class StorageClient {
 				offset += masterFilenameBytes.length;
 			}
 
-			out.write(wholePkg);
-
-			if ((this.errno = (byte) callback.send(out)) != 0) {
+			if ((this.errno = (byte) this.sendUploadPackage(connection, wholePkg, callback)) != 0) {
 				return null;
 			}
 
@@ -851,10 +896,8 @@ public class StorageClient {
 	 */
 	protected int doAppendFile(String groupName, String appenderFilename,
 	                           long fileSize, UploadCallback callback) throws IOException, FastDfsException {
-		byte[] header;
 		boolean bNewStorageServer;
 		Connection connection = null;
-		byte[] hexLenBytes;
 		byte[] appenderFilenameBytes;
 		int offset;
 		long bodyLen;
@@ -868,31 +911,25 @@ public class StorageClient {
 		bNewStorageServer = this.newUpdatableStorageConnection(groupName, appenderFilename);
 
 		try {
-			connection = this.storageServer.getConnection();
+			connection = this.getStorageConnection(bNewStorageServer);
 
 			appenderFilenameBytes = appenderFilename.getBytes(ClientGlobal.G_CHARSET);
 			bodyLen = 2 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE + appenderFilenameBytes.length + fileSize;
 
-			header = ProtoCommon.packHeader(ProtoCommon.STORAGE_PROTO_CMD_APPEND_FILE, bodyLen, (byte) 0);
-			byte[] wholePkg = new byte[(int) (header.length + bodyLen - fileSize)];
-			System.arraycopy(header, 0, wholePkg, 0, header.length);
-			offset = header.length;
+			byte[] wholePkg = new byte[(int) (ProtoCommon.FDFS_PROTO_HEADER_SIZE + bodyLen - fileSize)];
+			ProtoCommon.packHeader(wholePkg, 0, ProtoCommon.STORAGE_PROTO_CMD_APPEND_FILE, bodyLen, (byte) 0);
+			offset = ProtoCommon.FDFS_PROTO_HEADER_SIZE;
 
-			hexLenBytes = ProtoCommon.long2buff(appenderFilename.length());
-			System.arraycopy(hexLenBytes, 0, wholePkg, offset, hexLenBytes.length);
-			offset += hexLenBytes.length;
+			ProtoCommon.long2buff(appenderFilename.length(), wholePkg, offset);
+			offset += ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE;
 
-			hexLenBytes = ProtoCommon.long2buff(fileSize);
-			System.arraycopy(hexLenBytes, 0, wholePkg, offset, hexLenBytes.length);
-			offset += hexLenBytes.length;
-
-			OutputStream out = connection.getOutputStream();
+			ProtoCommon.long2buff(fileSize, wholePkg, offset);
+			offset += ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE;
 
 			System.arraycopy(appenderFilenameBytes, 0, wholePkg, offset, appenderFilenameBytes.length);
 			offset += appenderFilenameBytes.length;
 
-			out.write(wholePkg);
-			if ((this.errno = (byte) callback.send(out)) != 0) {
+			if ((this.errno = (byte) this.sendUploadPackage(connection, wholePkg, callback)) != 0) {
 				return this.errno;
 			}
 
@@ -912,7 +949,80 @@ public class StorageClient {
 		}
 	}
 
+	/**
+	 * send the request package and the file content, the package and the front of the content are written
+	 * together: by gathering write when the callback is a ChannelUploadCallback on nio transport, otherwise
+	 * through a GatheringOutputStream, so the request is not split into a small segment waiting for the delayed ACK
+	 *
+	 * @param connection the storage connection
+	 * @param wholePkg   the request package before the file content
+	 * @param callback   the write data callback object
+	 * @return 0 success, return none zero(errno) if fail
+	 */
+	private int sendUploadPackage(Connection connection, byte[] wholePkg, UploadCallback callback) throws IOException {
+		if (callback instanceof ChannelUploadCallback && connection.isChannelTransport()) {
+			if (wholePkg.length > BufferPool.MAX_SIZE) {
+				return ((ChannelUploadCallback) callback).send(connection, ByteBuffer.wrap(wholePkg));
+			}
+			ByteBuffer header = BufferPool.acquireDirect(wholePkg.length);
+			try {
+				header.put(wholePkg);
+				((Buffer) header).flip();
+				return ((ChannelUploadCallback) callback).send(connection, header);
+			} finally {
+				BufferPool.releaseDirect(header);
+			}
+		}
+		GatheringOutputStream out = new GatheringOutputStream(connection.getOutputStream());
+		try {
+			out.write(wholePkg);
+			int result = callback.send(out);
+			out.flush();
+			return result;
+		} finally {
+			out.release();
+		}
+	}
+
+	/**
+	 * get a connection of the storage server, reset the storage server queried from the tracker if fail
+	 *
+	 * @param bNewStorageServer if the storage server is queried from the tracker by this call
+	 * @return the connection
+	 */
+	private Connection getStorageConnection(boolean bNewStorageServer) throws FastDfsException {
+		if (StorageLoadBalancer.isEnabled()) {
+			this.balanceNode = StorageLoadBalancer.getNode(this.storageServer.getInetSocketAddress());
+			this.balanceNode.start();
+			this.requestStartTime = System.nanoTime();
+		}
+		try {
+			return this.storageServer.getConnection();
+		} catch (FastDfsException e) {
+			releaseConnection(null, bNewStorageServer);
+			throw e;
+		}
+	}
+
+	/**
+	 * the response header of the download arrives, the time to the first byte is reported to the load balancer,
+	 * so the latency does not grow with the file size and the callback time
+	 */
+	private void onResponseHeader() {
+		if (this.balanceNode != null) {
+			this.responseTime = System.nanoTime();
+		}
+	}
+
 	private void releaseConnection(Connection connection, boolean bNewStorageServer) {
+		boolean broken = connection == null || !connection.isConnected();
+		boolean failed = broken || this.errno != 0;
+		if (this.balanceNode != null) {
+			long latencyNanos = this.responseTime == 0 ? -1 : this.responseTime - this.requestStartTime;
+			this.balanceNode.finish(latencyNanos, broken);
+			this.balanceNode = null;
+			this.responseTime = 0;
+		}
 		try {
 			if (connection != null) {
 				connection.release();
@@ -921,7 +1031,16 @@ public class StorageClient {
 			LOGGER.error("释放连接异常", e);
 		} finally {
 			if (bNewStorageServer) {
+				if (failed && this.routeFilename != null) {
+					StorageRouteCache.invalidate(this.routeGroupName, this.routeFilename);
+					if (broken) {
+						// the storage status may be changed, list the storages again
+						LocalStorageResolver.invalidate(this.routeGroupName);
+					}
+				}
 				this.storageServer = null;
+				this.routeGroupName = null;
+				this.routeFilename = null;
 			}
 		}
 	}
@@ -939,10 +1058,8 @@ public class StorageClient {
 	protected int doModifyFile(String groupName, String appenderFilename,
 	                           long fileOffset, long modifySize, UploadCallback callback) throws IOException,
 			FastDfsException {
-		byte[] header;
 		boolean bNewStorageServer;
 		Connection connection = null;
-		byte[] hexLenBytes;
 		byte[] appenderFilenameBytes;
 		int offset;
 		long bodyLen;
@@ -956,35 +1073,28 @@ public class StorageClient {
 		bNewStorageServer = this.newUpdatableStorageConnection(groupName, appenderFilename);
 
 		try {
-			connection = this.storageServer.getConnection();
+			connection = this.getStorageConnection(bNewStorageServer);
 
 			appenderFilenameBytes = appenderFilename.getBytes(ClientGlobal.G_CHARSET);
 			bodyLen = 3 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE + appenderFilenameBytes.length + modifySize;
 
-			header = ProtoCommon.packHeader(ProtoCommon.STORAGE_PROTO_CMD_MODIFY_FILE, bodyLen, (byte) 0);
-			byte[] wholePkg = new byte[(int) (header.length + bodyLen - modifySize)];
-			System.arraycopy(header, 0, wholePkg, 0, header.length);
-			offset = header.length;
-
-			hexLenBytes = ProtoCommon.long2buff(appenderFilename.length());
-			System.arraycopy(hexLenBytes, 0, wholePkg, offset, hexLenBytes.length);
-			offset += hexLenBytes.length;
+			byte[] wholePkg = new byte[(int) (ProtoCommon.FDFS_PROTO_HEADER_SIZE + bodyLen - modifySize)];
+			ProtoCommon.packHeader(wholePkg, 0, ProtoCommon.STORAGE_PROTO_CMD_MODIFY_FILE, bodyLen, (byte) 0);
+			offset = ProtoCommon.FDFS_PROTO_HEADER_SIZE;
 
-			hexLenBytes = ProtoCommon.long2buff(fileOffset);
-			System.arraycopy(hexLenBytes, 0, wholePkg, offset, hexLenBytes.length);
-			offset += hexLenBytes.length;
+			ProtoCommon.long2buff(appenderFilename.length(), wholePkg, offset);
+			offset += ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE;
 
-			hexLenBytes = ProtoCommon.long2buff(modifySize);
-			System.arraycopy(hexLenBytes, 0, wholePkg, offset, hexLenBytes.length);
-			offset += hexLenBytes.length;
+			ProtoCommon.long2buff(fileOffset, wholePkg, offset);
+			offset += ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE;
 
-			OutputStream out = connection.getOutputStream();
+			ProtoCommon.long2buff(modifySize, wholePkg, offset);
+			offset += ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE;
 
 			System.arraycopy(appenderFilenameBytes, 0, wholePkg, offset, appenderFilenameBytes.length);
 			offset += appenderFilenameBytes.length;
 
-			out.write(wholePkg);
-			if ((this.errno = (byte) callback.send(out)) != 0) {
+			if ((this.errno = (byte) this.sendUploadPackage(connection, wholePkg, callback)) != 0) {
 				return this.errno;
 			}
 
@@ -1013,7 +1123,7 @@ public class StorageClient {
 	 */
 	public int deleteFile(String groupName, String remoteFilename) throws IOException, FastDfsException {
 		boolean bNewStorageServer = this.newUpdatableStorageConnection(groupName, remoteFilename);
-		Connection connection = this.storageServer.getConnection();
+		Connection connection = this.getStorageConnection(bNewStorageServer);
 
 		try {
 			this.sendPackage(ProtoCommon.STORAGE_PROTO_CMD_DELETE_FILE, groupName, remoteFilename, connection);
@@ -1051,10 +1161,8 @@ public class StorageClient {
 	 */
 	public int truncateFile(String groupName, String appenderFilename,
 	                        long truncatedFileSize) throws IOException, FastDfsException {
-		byte[] header;
 		boolean bNewStorageServer;
 		Connection connection = null;
-		byte[] hexLenBytes;
 		byte[] appenderFilenameBytes;
 		int offset;
 		int bodyLen;
@@ -1068,23 +1176,20 @@ public class StorageClient {
 		bNewStorageServer = this.newUpdatableStorageConnection(groupName, appenderFilename);
 
 		try {
-			connection = this.storageServer.getConnection();
+			connection = this.getStorageConnection(bNewStorageServer);
 
 			appenderFilenameBytes = appenderFilename.getBytes(ClientGlobal.G_CHARSET);
 			bodyLen = 2 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE + appenderFilenameBytes.length;
 
-			header = ProtoCommon.packHeader(ProtoCommon.STORAGE_PROTO_CMD_TRUNCATE_FILE, bodyLen, (byte) 0);
-			byte[] wholePkg = new byte[header.length + bodyLen];
-			System.arraycopy(header, 0, wholePkg, 0, header.length);
-			offset = header.length;
+			byte[] wholePkg = new byte[ProtoCommon.FDFS_PROTO_HEADER_SIZE + bodyLen];
+			ProtoCommon.packHeader(wholePkg, 0, ProtoCommon.STORAGE_PROTO_CMD_TRUNCATE_FILE, bodyLen, (byte) 0);
+			offset = ProtoCommon.FDFS_PROTO_HEADER_SIZE;
 
-			hexLenBytes = ProtoCommon.long2buff(appenderFilename.length());
-			System.arraycopy(hexLenBytes, 0, wholePkg, offset, hexLenBytes.length);
-			offset += hexLenBytes.length;
+			ProtoCommon.long2buff(appenderFilename.length(), wholePkg, offset);
+			offset += ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE;
 
-			hexLenBytes = ProtoCommon.long2buff(truncatedFileSize);
-			System.arraycopy(hexLenBytes, 0, wholePkg, offset, hexLenBytes.length);
-			offset += hexLenBytes.length;
+			ProtoCommon.long2buff(truncatedFileSize, wholePkg, offset);
+			offset += ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE;
 
 			OutputStream out = connection.getOutputStream();
 
@@ -1126,21 +1231,21 @@ public class StorageClient {
 	 */
 	public byte[] downloadFile(String groupName, String remoteFilename, long fileOffset, long downloadBytes) throws IOException, FastDfsException {
 		boolean bNewStorageServer = this.newReadableStorageConnection(groupName, remoteFilename);
-		Connection connection = this.storageServer.getConnection();
+		Connection connection = this.getStorageConnection(bNewStorageServer);
 
 		try {
-			ProtoCommon.RecvPackageInfo pkgInfo;
-
 			this.sendDownloadPackage(groupName, remoteFilename, fileOffset, downloadBytes, connection);
-			pkgInfo = ProtoCommon.recvPackage(connection.getInputStream(),
-					ProtoCommon.STORAGE_PROTO_CMD_RESP, -1);
+			InputStream in = connection.getInputStream();
+			ProtoCommon.RecvHeaderInfo header = ProtoCommon.recvHeader(in, ProtoCommon.STORAGE_PROTO_CMD_RESP, -1,
+					this.headerInfo);
+			this.onResponseHeader();
 
-			this.errno = pkgInfo.errno;
-			if (pkgInfo.errno != 0) {
+			this.errno = header.errno;
+			if (header.errno != 0) {
 				return null;
 			}
 
-			return pkgInfo.body;
+			return ProtoCommon.recvBody(in, header);
 		} catch (IOException ex) {
 			ConnectionUtil.close(connection);
 			throw ex;
@@ -1164,7 +1269,8 @@ public class StorageClient {
 	}
 
 	/**
-	 * download file from storage server
+	 * download file from storage server, the local file is created only after the storage server responds success,
+	 * and is preallocated to the download size before receiving the content
 	 *
 	 * @param groupName      the group name of storage server
 	 * @param remoteFilename filename on storage server
@@ -1176,49 +1282,77 @@ public class StorageClient {
 	public int downloadFile(String groupName, String remoteFilename,
 	                        long fileOffset, long downloadBytes,
 	                        String localFilename) throws IOException, FastDfsException {
-		boolean bNewStorageServer = this.newReadableStorageConnection(groupName, remoteFilename);
-		Connection connection = this.storageServer.getConnection();
+		LocalFileTarget target = new LocalFileTarget(localFilename);
+		boolean success = false;
 		try {
-			ProtoCommon.RecvHeaderInfo header;
-			FileOutputStream out = new FileOutputStream(localFilename);
-			try {
-				this.errno = 0;
-				this.sendDownloadPackage(groupName, remoteFilename, fileOffset, downloadBytes, connection);
-
-				InputStream in = connection.getInputStream();
-				header = ProtoCommon.recvHeader(in, ProtoCommon.STORAGE_PROTO_CMD_RESP, -1);
-				this.errno = header.errno;
-				if (header.errno != 0) {
-					return header.errno;
-				}
-
-				byte[] buff = new byte[256 * 1024];
-				long remainBytes = header.bodyLen;
-				int bytes;
-
-				while (remainBytes > 0) {
-					if ((bytes = in.read(buff, 0, remainBytes > buff.length ? buff.length : (int) remainBytes)) < 0) {
-						throw new IOException("recv package size " + (header.bodyLen - remainBytes) + " != " + header.bodyLen);
-					}
+			int result = this.doDownloadFile(groupName, remoteFilename, fileOffset, downloadBytes, target, 0);
+			success = true;
+			return result;
+		} finally {
+			target.close();
+			if (!success) {
+				target.delete();
+			}
+		}
+	}
 
-					out.write(buff, 0, bytes);
-					remainBytes -= bytes;
-				}
+	/**
+	 * download file from storage server to the file channel, the content is written at the given position
+	 * and the channel position is not changed
+	 *
+	 * @param groupName      the group name of storage server
+	 * @param remoteFilename filename on storage server
+	 * @param fileOffset     the start offset of the file
+	 * @param downloadBytes  download bytes, 0 for remain bytes from offset
+	 * @param fileChannel    the local file channel to write, must be opened for writing
+	 * @param position       the position of the file channel to write, can not be greater than the file size
+	 * @return 0 success, return none zero errno if fail
+	 */
+	public int downloadFile(String groupName, String remoteFilename,
+	                        long fileOffset, long downloadBytes,
+	                        FileChannel fileChannel, long position) throws IOException, FastDfsException {
+		return this.doDownloadFile(groupName, remoteFilename, fileOffset, downloadBytes,
+				bodyLen -> fileChannel, position);
+	}
 
-				return 0;
-			} catch (IOException ex) {
-				if (this.errno == 0) {
-					this.errno = ProtoCommon.ERR_NO_EIO;
-				}
+	/**
+	 * download file from storage server to a file channel, zero-copy by FileChannel.transferFrom for nio transport
+	 *
+	 * @param groupName      the group name of storage server
+	 * @param remoteFilename filename on storage server
+	 * @param fileOffset     the start offset of the file
+	 * @param downloadBytes  download bytes, 0 for remain bytes from offset
+	 * @param target         open the file channel after the storage server responds success
+	 * @param position       the position of the file channel to write
+	 * @return 0 success, return none zero errno if fail
+	 */
+	protected int doDownloadFile(String groupName, String remoteFilename,
+	                             long fileOffset, long downloadBytes,
+	                             DownloadTarget target, long position) throws IOException, FastDfsException {
+		boolean bNewStorageServer = this.newReadableStorageConnection(groupName, remoteFilename);
+		Connection connection = this.getStorageConnection(bNewStorageServer);
+		try {
+			this.errno = 0;
+			this.sendDownloadPackage(groupName, remoteFilename, fileOffset, downloadBytes, connection);
 
-				throw ex;
-			} finally {
-				out.close();
-				if (this.errno != 0) {
-					(new File(localFilename)).delete();
-				}
+			ByteBuffer headerBuffer = ProtoCommon.headerBuffer();
+			connection.readFully(headerBuffer);
+			((Buffer) headerBuffer).flip();
+			ProtoCommon.RecvHeaderInfo header = ProtoCommon.decodeHeader(headerBuffer,
+					ProtoCommon.STORAGE_PROTO_CMD_RESP, -1, this.headerInfo);
+			this.onResponseHeader();
+			this.errno = header.errno;
+			if (header.errno != 0) {
+				return header.errno;
 			}
+
+			FileChannel fileChannel = target.open(header.bodyLen);
+			connection.transferTo(fileChannel, position, header.bodyLen);
+			return 0;
 		} catch (IOException ex) {
+			if (this.errno == 0) {
+				this.errno = ProtoCommon.ERR_NO_EIO;
+			}
 			ConnectionUtil.close(connection);
 			throw ex;
 		} finally {
@@ -1252,36 +1386,69 @@ public class StorageClient {
 	public int downloadFile(String groupName, String remoteFilename,
 	                        long fileOffset, long downloadBytes,
 	                        DownloadCallback callback) throws IOException, FastDfsException {
+		return this.downloadFile(groupName, remoteFilename, fileOffset, downloadBytes, callback,
+				ClientGlobal.g_download_buff_size, ClientGlobal.g_download_adaptive_buff);
+	}
+
+	/**
+	 * download file from storage server
+	 *
+	 * @param groupName      the group name of storage server
+	 * @param remoteFilename filename on storage server
+	 * @param fileOffset     the start offset of the file
+	 * @param downloadBytes  download bytes, 0 for remain bytes from offset
+	 * @param callback       call callback.recv() when data arrive, the buff passed is reused after recv returns
+	 * @param buffSize       max bytes read from the socket and passed to callback.recv() once
+	 * @param adaptive       grow the buff size toward the socket receive buffer size while the throughput
+	 *                       keeps improving
+	 * @return 0 success, return none zero errno if fail
+	 */
+	public int downloadFile(String groupName, String remoteFilename,
+	                        long fileOffset, long downloadBytes,
+	                        DownloadCallback callback, int buffSize, boolean adaptive) throws IOException,
+			FastDfsException {
+		if (buffSize <= 0) {
+			throw new IllegalArgumentException("invalid buff size: " + buffSize);
+		}
 		int result;
 		boolean bNewStorageServer = this.newReadableStorageConnection(groupName, remoteFilename);
-		Connection connection = this.storageServer.getConnection();
+		Connection connection = this.getStorageConnection(bNewStorageServer);
 
 		try {
 			ProtoCommon.RecvHeaderInfo header;
 			this.sendDownloadPackage(groupName, remoteFilename, fileOffset, downloadBytes, connection);
 
 			InputStream in = connection.getInputStream();
-			header = ProtoCommon.recvHeader(in, ProtoCommon.STORAGE_PROTO_CMD_RESP, -1);
+			header = ProtoCommon.recvHeader(in, ProtoCommon.STORAGE_PROTO_CMD_RESP, -1, this.headerInfo);
+			this.onResponseHeader();
 			this.errno = header.errno;
 			if (header.errno != 0) {
 				return header.errno;
 			}
 
-			byte[] buff = new byte[2 * 1024];
-			long remainBytes = header.bodyLen;
-			int bytes;
+			int maxBuffSize = adaptive ? Math.min(connection.getReceiveBufferSize(), BufferPool.MAX_SIZE) : buffSize;
+			AdaptiveBuffSize readSize = new AdaptiveBuffSize(buffSize, maxBuffSize);
+			// pooled, the callback must not keep the buff after recv returns
+			byte[] buff = BufferPool.acquireHeap(Math.max(buffSize, maxBuffSize));
+			try {
+				long remainBytes = header.bodyLen;
+				int bytes;
 
-			while (remainBytes > 0) {
-				if ((bytes = in.read(buff, 0, remainBytes > buff.length ? buff.length : (int) remainBytes)) < 0) {
-					throw new IOException("recv package size " + (header.bodyLen - remainBytes) + " != " + header.bodyLen);
-				}
+				while (remainBytes > 0) {
+					if ((bytes = in.read(buff, 0, remainBytes > readSize.get() ? readSize.get() : (int) remainBytes)) < 0) {
+						throw new IOException("recv package size " + (header.bodyLen - remainBytes) + " != " + header.bodyLen);
+					}
 
-				if ((result = callback.recv(header.bodyLen, buff, bytes)) != 0) {
-					this.errno = (byte) result;
-					return result;
-				}
+					if ((result = callback.recv(header.bodyLen, buff, bytes)) != 0) {
+						this.errno = (byte) result;
+						return result;
+					}
 
-				remainBytes -= bytes;
+					remainBytes -= bytes;
+					readSize.onRead(bytes);
+				}
+			} finally {
+				BufferPool.releaseHeap(buff);
 			}
 
 			return 0;
@@ -1302,7 +1469,7 @@ public class StorageClient {
 	 */
 	public NameValuePair[] getMetadata(String groupName, String remoteFilename) throws IOException, FastDfsException {
 		boolean bNewStorageServer = this.newUpdatableStorageConnection(groupName, remoteFilename);
-		Connection connection = this.storageServer.getConnection();
+		Connection connection = this.getStorageConnection(bNewStorageServer);
 		try {
 			ProtoCommon.RecvPackageInfo pkgInfo;
 
@@ -1340,9 +1507,8 @@ public class StorageClient {
 	public int setMetadata(String groupName, String remoteFilename,
 	                       NameValuePair[] metaList, byte opFlag) throws IOException, FastDfsException {
 		boolean bNewStorageServer = this.newUpdatableStorageConnection(groupName, remoteFilename);
-		Connection connection = this.storageServer.getConnection();
+		Connection connection = this.getStorageConnection(bNewStorageServer);
 		try {
-			byte[] header;
 			byte[] groupBytes;
 			byte[] filenameBytes;
 			byte[] meta_buff;
@@ -1377,22 +1543,21 @@ public class StorageClient {
 			}
 			System.arraycopy(bs, 0, groupBytes, 0, groupLen);
 
-			header = ProtoCommon.packHeader(ProtoCommon.STORAGE_PROTO_CMD_SET_METADATA,
+			OutputStream out = connection.getOutputStream();
+			byte[] wholePkg = new byte[ProtoCommon.FDFS_PROTO_HEADER_SIZE + sizeBytes.length + 1
+					+ groupBytes.length + filenameBytes.length + meta_buff.length];
+			int offset = ProtoCommon.packHeader(wholePkg, 0, ProtoCommon.STORAGE_PROTO_CMD_SET_METADATA,
 					2 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE + 1 + groupBytes.length
 							+ filenameBytes.length + meta_buff.length, (byte) 0);
-			OutputStream out = connection.getOutputStream();
-			byte[] wholePkg =
-					new byte[header.length + sizeBytes.length + 1 + groupBytes.length + filenameBytes.length];
-			System.arraycopy(header, 0, wholePkg, 0, header.length);
-			System.arraycopy(sizeBytes, 0, wholePkg, header.length, sizeBytes.length);
-			wholePkg[header.length + sizeBytes.length] = opFlag;
-			System.arraycopy(groupBytes, 0, wholePkg, header.length + sizeBytes.length + 1, groupBytes.length);
-			System.arraycopy(filenameBytes, 0, wholePkg, header.length + sizeBytes.length + 1 + groupBytes.length,
-					filenameBytes.length);
+			System.arraycopy(sizeBytes, 0, wholePkg, offset, sizeBytes.length);
+			offset += sizeBytes.length;
+			wholePkg[offset++] = opFlag;
+			System.arraycopy(groupBytes, 0, wholePkg, offset, groupBytes.length);
+			offset += groupBytes.length;
+			System.arraycopy(filenameBytes, 0, wholePkg, offset, filenameBytes.length);
+			offset += filenameBytes.length;
+			System.arraycopy(meta_buff, 0, wholePkg, offset, meta_buff.length);
 			out.write(wholePkg);
-			if (meta_buff.length > 0) {
-				out.write(meta_buff);
-			}
 
 			pkgInfo = ProtoCommon.recvPackage(connection.getInputStream(),
 					ProtoCommon.STORAGE_PROTO_CMD_RESP, 0);
@@ -1466,9 +1631,8 @@ public class StorageClient {
 	 */
 	public FileInfo queryFileInfo(String groupName, String remoteFilename) throws IOException, FastDfsException {
 		boolean bNewStorageServer = this.newUpdatableStorageConnection(groupName, remoteFilename);
-		Connection connection = this.storageServer.getConnection();
+		Connection connection = this.getStorageConnection(bNewStorageServer);
 		try {
-			byte[] header;
 			byte[] groupBytes;
 			byte[] filenameBytes;
 			byte[] bs;
@@ -1487,13 +1651,12 @@ public class StorageClient {
 			}
 			System.arraycopy(bs, 0, groupBytes, 0, groupLen);
 
-			header = ProtoCommon.packHeader(ProtoCommon.STORAGE_PROTO_CMD_QUERY_FILE_INFO,
-					+groupBytes.length + filenameBytes.length, (byte) 0);
 			OutputStream out = connection.getOutputStream();
-			byte[] wholePkg = new byte[header.length + groupBytes.length + filenameBytes.length];
-			System.arraycopy(header, 0, wholePkg, 0, header.length);
-			System.arraycopy(groupBytes, 0, wholePkg, header.length, groupBytes.length);
-			System.arraycopy(filenameBytes, 0, wholePkg, header.length + groupBytes.length, filenameBytes.length);
+			byte[] wholePkg = new byte[ProtoCommon.FDFS_PROTO_HEADER_SIZE + groupBytes.length + filenameBytes.length];
+			int offset = ProtoCommon.packHeader(wholePkg, 0, ProtoCommon.STORAGE_PROTO_CMD_QUERY_FILE_INFO,
+					groupBytes.length + filenameBytes.length, (byte) 0);
+			System.arraycopy(groupBytes, 0, wholePkg, offset, groupBytes.length);
+			System.arraycopy(filenameBytes, 0, wholePkg, offset + groupBytes.length, filenameBytes.length);
 			out.write(wholePkg);
 
 			pkgInfo = ProtoCommon.recvPackage(connection.getInputStream(),
@@ -1531,7 +1694,7 @@ public class StorageClient {
 		if (this.storageServer != null) {
 			return false;
 		} else {
-			TrackerClient tracker = new TrackerClient();
+			TrackerClient tracker = this.getTrackerClient();
 			this.storageServer = tracker.getStoreStorage(this.trackerServer, groupName);
 			if (this.storageServer == null) {
 				throw new FastDfsException("getStoreStorage fail, errno code: " + tracker.getErrorCode());
@@ -1552,15 +1715,52 @@ public class StorageClient {
 		if (this.storageServer != null) {
 			return false;
 		} else {
-			TrackerClient tracker = new TrackerClient();
-			this.storageServer = tracker.getFetchStorage(this.trackerServer, groupName, remoteFilename);
+			if (LocalStorageResolver.isEnabled()) {
+				this.storageServer = LocalStorageResolver.resolve(this.trackerServer, groupName, remoteFilename);
+			}
+			if (this.storageServer == null && StorageLoadBalancer.isEnabled()) {
+				this.storageServer = selectFetchStorage(groupName, remoteFilename);
+			}
 			if (this.storageServer == null) {
-				throw new FastDfsException("getStoreStorage fail, errno code: " + tracker.getErrorCode());
+				this.storageServer = StorageRouteCache.get(StorageRouteCache.ROUTE_FETCH, groupName, remoteFilename);
+			}
+			if (this.storageServer == null) {
+				TrackerClient tracker = this.getTrackerClient();
+				this.storageServer = tracker.getFetchStorage(this.trackerServer, groupName, remoteFilename);
+				if (this.storageServer == null) {
+					throw new FastDfsException("getStoreStorage fail, errno code: " + tracker.getErrorCode());
+				}
+				StorageRouteCache.put(StorageRouteCache.ROUTE_FETCH, groupName, remoteFilename, this.storageServer);
 			}
+			this.routeGroupName = groupName;
+			this.routeFilename = remoteFilename;
 			return true;
 		}
 	}
 
+	/**
+	 * select the storage server with the lower load from all the replicas of the file
+	 *
+	 * @param groupName      the group name of storage server
+	 * @param remoteFilename filename on storage server
+	 * @return the storage server
+	 */
+	private StorageServer selectFetchStorage(String groupName, String remoteFilename) throws IOException,
+			FastDfsException {
+		StorageServer[] servers = StorageRouteCache.getAll(StorageRouteCache.ROUTE_FETCH_ALL, groupName,
+				remoteFilename);
+		if (servers == null) {
+			TrackerClient tracker = this.getTrackerClient();
+			ServerInfo[] serverInfos = tracker.getFetchStorages(this.trackerServer, groupName, remoteFilename);
+			if (serverInfos == null) {
+				throw new FastDfsException("getFetchStorages fail, errno code: " + tracker.getErrorCode());
+			}
+			servers = StorageLoadBalancer.toStorageServers(serverInfos);
+			StorageRouteCache.putAll(StorageRouteCache.ROUTE_FETCH_ALL, groupName, remoteFilename, servers);
+		}
+		return StorageLoadBalancer.select(servers);
+	}
+
 	/**
 	 * check storage socket, if null create a new connection
 	 *
@@ -1573,11 +1773,17 @@ public class StorageClient {
 		if (this.storageServer != null) {
 			return false;
 		} else {
-			TrackerClient tracker = new TrackerClient();
-			this.storageServer = tracker.getUpdateStorage(this.trackerServer, groupName, remoteFilename);
+			this.storageServer = StorageRouteCache.get(StorageRouteCache.ROUTE_UPDATE, groupName, remoteFilename);
 			if (this.storageServer == null) {
-				throw new FastDfsException("getStoreStorage fail, errno code: " + tracker.getErrorCode());
+				TrackerClient tracker = this.getTrackerClient();
+				this.storageServer = tracker.getUpdateStorage(this.trackerServer, groupName, remoteFilename);
+				if (this.storageServer == null) {
+					throw new FastDfsException("getStoreStorage fail, errno code: " + tracker.getErrorCode());
+				}
+				StorageRouteCache.put(StorageRouteCache.ROUTE_UPDATE, groupName, remoteFilename, this.storageServer);
 			}
+			this.routeGroupName = groupName;
+			this.routeFilename = remoteFilename;
 			return true;
 		}
 	}
@@ -1590,7 +1796,18 @@ public class StorageClient {
 	 * @param remoteFilename filename on storage server
 	 */
 	protected void sendPackage(byte cmd, String groupName, String remoteFilename, Connection connection) throws IOException {
-		byte[] header;
+		connection.getOutputStream().write(packFilePackage(cmd, groupName, remoteFilename));
+	}
+
+	/**
+	 * pack the request package with the group name and filename as body
+	 *
+	 * @param cmd            which command to send
+	 * @param groupName      the group name of storage server
+	 * @param remoteFilename filename on storage server
+	 * @return the whole package, including the header
+	 */
+	protected static byte[] packFilePackage(byte cmd, String groupName, String remoteFilename) throws IOException {
 		byte[] groupBytes;
 		byte[] filenameBytes;
 		byte[] bs;
@@ -1608,12 +1825,11 @@ public class StorageClient {
 		}
 		System.arraycopy(bs, 0, groupBytes, 0, groupLen);
 
-		header = ProtoCommon.packHeader(cmd, groupBytes.length + filenameBytes.length, (byte) 0);
-		byte[] wholePkg = new byte[header.length + groupBytes.length + filenameBytes.length];
-		System.arraycopy(header, 0, wholePkg, 0, header.length);
-		System.arraycopy(groupBytes, 0, wholePkg, header.length, groupBytes.length);
-		System.arraycopy(filenameBytes, 0, wholePkg, header.length + groupBytes.length, filenameBytes.length);
-		connection.getOutputStream().write(wholePkg);
+		byte[] wholePkg = new byte[ProtoCommon.FDFS_PROTO_HEADER_SIZE + groupBytes.length + filenameBytes.length];
+		int offset = ProtoCommon.packHeader(wholePkg, 0, cmd, groupBytes.length + filenameBytes.length, (byte) 0);
+		System.arraycopy(groupBytes, 0, wholePkg, offset, groupBytes.length);
+		System.arraycopy(filenameBytes, 0, wholePkg, offset + groupBytes.length, filenameBytes.length);
+		return wholePkg;
 	}
 
 	/**
@@ -1626,40 +1842,39 @@ public class StorageClient {
 	 */
 	protected void sendDownloadPackage(String groupName, String remoteFilename, long fileOffset,
 	                                   long downloadBytes, Connection connection) throws IOException {
-		byte[] header;
-		byte[] bsOffset;
-		byte[] bsDownBytes;
-		byte[] groupBytes;
-		byte[] filenameBytes;
 		byte[] bs;
+		byte[] filenameBytes;
 		int groupLen;
+		int offset;
 
-		bsOffset = ProtoCommon.long2buff(fileOffset);
-		bsDownBytes = ProtoCommon.long2buff(downloadBytes);
-		groupBytes = new byte[ProtoCommon.FDFS_GROUP_NAME_MAX_LEN];
 		bs = groupName.getBytes(ClientGlobal.G_CHARSET);
 		filenameBytes = remoteFilename.getBytes(ClientGlobal.G_CHARSET);
+		groupLen = Math.min(bs.length, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN);
+
+		int bodyLen = 2 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE + ProtoCommon.FDFS_GROUP_NAME_MAX_LEN
+				+ filenameBytes.length;
+		byte[] wholePkg = new byte[ProtoCommon.FDFS_PROTO_HEADER_SIZE + bodyLen];
+		offset = ProtoCommon.packHeader(wholePkg, 0, ProtoCommon.STORAGE_PROTO_CMD_DOWNLOAD_FILE, bodyLen, (byte) 0);
+		ProtoCommon.long2buff(fileOffset, wholePkg, offset);
+		offset += ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE;
+		ProtoCommon.long2buff(downloadBytes, wholePkg, offset);
+		offset += ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE;
+		System.arraycopy(bs, 0, wholePkg, offset, groupLen);
+		offset += ProtoCommon.FDFS_GROUP_NAME_MAX_LEN;
+		System.arraycopy(filenameBytes, 0, wholePkg, offset, filenameBytes.length);
+		connection.getOutputStream().write(wholePkg);
+	}
 
-		Arrays.fill(groupBytes, (byte) 0);
-		if (bs.length <= groupBytes.length) {
-			groupLen = bs.length;
-		} else {
-			groupLen = groupBytes.length;
+	/**
+	 * get the tracker client to query the storage servers, recreated if ClientGlobal is initialized again
+	 *
+	 * @return the tracker client
+	 */
+	protected TrackerClient getTrackerClient() {
+		if (this.trackerClient == null || this.trackerClient.trackerGroup != ClientGlobal.G_TRACKER_GROUP) {
+			this.trackerClient = new TrackerClient();
 		}
-		System.arraycopy(bs, 0, groupBytes, 0, groupLen);
-
-		header = ProtoCommon.packHeader(ProtoCommon.STORAGE_PROTO_CMD_DOWNLOAD_FILE,
-				bsOffset.length + bsDownBytes.length + groupBytes.length + filenameBytes.length, (byte) 0);
-		byte[] wholePkg =
-				new byte[header.length + bsOffset.length + bsDownBytes.length + groupBytes.length + filenameBytes.length];
-		System.arraycopy(header, 0, wholePkg, 0, header.length);
-		System.arraycopy(bsOffset, 0, wholePkg, header.length, bsOffset.length);
-		System.arraycopy(bsDownBytes, 0, wholePkg, header.length + bsOffset.length, bsDownBytes.length);
-		System.arraycopy(groupBytes, 0, wholePkg, header.length + bsOffset.length + bsDownBytes.length,
-				groupBytes.length);
-		System.arraycopy(filenameBytes, 0, wholePkg,
-				header.length + bsOffset.length + bsDownBytes.length + groupBytes.length, filenameBytes.length);
-		connection.getOutputStream().write(wholePkg);
+		return this.trackerClient;
 	}
 
 	public boolean isConnected() {
@@ -1696,7 +1911,7 @@ public class StorageClient {
 	 * @author Happy Fish / YuQing
 	 * @version Version 1.12
 	 */
-	public static class UploadBuff implements UploadCallback {
+	public static class UploadBuff implements ChannelUploadCallback {
 		private byte[] fileBuff;
 		private int offset;
 		private int length;
@@ -1724,5 +1939,66 @@ public class StorageClient {
 			out.write(this.fileBuff, this.offset, this.length);
 			return 0;
 		}
+
+		/**
+		 * send the header and the file buff by one gathering write
+		 *
+		 * @param connection the nio transport connection
+		 * @param header     the request header not sent yet
+		 * @return 0 success, return none zero(errno) if fail
+		 */
+		@Override
+		public int send(Connection connection, ByteBuffer header) throws IOException {
+			connection.write(header, ByteBuffer.wrap(this.fileBuff, this.offset, this.length));
+			return 0;
+		}
+	}
+
+	/**
+	 * the target file of download, opened after the storage server responds success
+	 */
+	protected interface DownloadTarget {
+
+		/**
+		 * open the file channel to write the download content
+		 *
+		 * @param bodyLen the download content length
+		 * @return the file channel
+		 */
+		FileChannel open(long bodyLen) throws IOException;
+	}
+
+	/**
+	 * download to a local file, the file is created and preallocated to the content length when opened
+	 */
+	private static class LocalFileTarget implements DownloadTarget {
+		private final String localFilename;
+		private RandomAccessFile file;
+
+		LocalFileTarget(String localFilename) {
+			this.localFilename = localFilename;
+		}
+
+		@Override
+		public FileChannel open(long bodyLen) throws IOException {
+			this.file = new RandomAccessFile(this.localFilename, "rw");
+			this.file.setLength(bodyLen);
+			return this.file.getChannel();
+		}
+
+		void close() throws IOException {
+			if (this.file != null) {
+				this.file.close();
+			}
+		}
+
+		/**
+		 * delete the incomplete file, do nothing if the file was not opened
+		 */
+		void delete() {
+			if (this.file != null) {
+				(new File(this.localFilename)).delete();
+			}
+		}
 	}
 }
@@ -0,0 +1,184 @@
+package top.folen.fastdfs;
+
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 读文件时在多个副本 storage 中选择负载最低的一个
+ * <p>
+ * 按 storage 地址统计进行中的请求数和下载首字节耗时的指数移动平均，power of two choices：随机取两个候选，
+ * 选择 （进行中的请求数 + 1） × 平均耗时 较小的；没有统计数据的 storage 优先被选中。
+ * 连接失败或通信异常按 network_timeout 计入耗时；平均耗时随未更新的时间衰减（半衰期 5 秒），
+ * 失败过的 storage 一段时间后会再被选中探测，恢复后重新分到请求
+ *
+ * @author sec
+ * @version 1.0
+ **/
+public class StorageLoadBalancer {
+
+	/**
+	 * weight of the latest request in the moving average
+	 */
+	private static final double ALPHA = 0.2;
+
+	/**
+	 * the half life of the moving average not updated
+	 */
+	private static final long HALF_LIFE_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+	private static final Map<InetSocketAddress, Node> NODES = new ConcurrentHashMap<>();
+
+	private StorageLoadBalancer() {
+	}
+
+	public static boolean isEnabled() {
+		return ClientGlobal.g_read_balance_enabled;
+	}
+
+	/**
+	 * select the storage server with the lower load of two random ones
+	 *
+	 * @param servers the candidate storage servers, can not be empty
+	 * @return the storage server
+	 */
+	public static StorageServer select(StorageServer[] servers) {
+		return select(servers, System.nanoTime());
+	}
+
+	/**
+	 * @param servers the candidate storage servers, can not be empty
+	 * @param now     System.nanoTime()
+	 * @return the storage server
+	 */
+	static StorageServer select(StorageServer[] servers, long now) {
+		if (servers.length == 1) {
+			return servers[0];
+		}
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int first = random.nextInt(servers.length);
+		int second = random.nextInt(servers.length - 1);
+		if (second >= first) {
+			second++;
+		}
+		StorageServer a = servers[first];
+		StorageServer b = servers[second];
+		return getNode(a.getInetSocketAddress()).cost(now) <= getNode(b.getInetSocketAddress()).cost(now) ? a : b;
+	}
+
+	/**
+	 * @param servers the storage servers returned by the tracker
+	 * @return the storage servers
+	 */
+	static StorageServer[] toStorageServers(ServerInfo[] servers) {
+		StorageServer[] storageServers = new StorageServer[servers.length];
+		for (int i = 0; i < servers.length; i++) {
+			storageServers[i] = new StorageServer(servers[i].getIpAddr(), servers[i].getPort(), 0);
+		}
+		return storageServers;
+	}
+
+	/**
+	 * @param address the address of the storage server
+	 * @return the statistics of the storage server
+	 */
+	public static Node getNode(InetSocketAddress address) {
+		Node node = NODES.get(address);
+		if (node == null) {
+			node = NODES.computeIfAbsent(address, key -> new Node());
+		}
+		return node;
+	}
+
+	/**
+	 * remove all the statistics
+	 */
+	public static void clear() {
+		NODES.clear();
+	}
+
+	/**
+	 * the statistics of a storage server
+	 */
+	public static class Node {
+
+		private final AtomicInteger outstanding = new AtomicInteger();
+
+		/**
+		 * the moving average when updated, guarded by this
+		 */
+		private double latencyInMs;
+
+		private long updateTime;
+
+		/**
+		 * a request to the storage server starts, must be followed by finish
+		 */
+		void start() {
+			outstanding.incrementAndGet();
+		}
+
+		/**
+		 * @param latencyNanos the time to the first byte of the response, -1 if not measured by the request
+		 * @param failed       true if fail to connect or communicate with the storage server
+		 */
+		void finish(long latencyNanos, boolean failed) {
+			finish(latencyNanos, failed, System.nanoTime());
+		}
+
+		void finish(long latencyNanos, boolean failed, long now) {
+			outstanding.decrementAndGet();
+			if (!failed && latencyNanos < 0) {
+				return;
+			}
+			double latency = failed ? ClientGlobal.g_network_timeout
+					: latencyNanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+			synchronized (this) {
+				double current = decay(now);
+				latencyInMs = current == 0 ? latency : current + ALPHA * (latency - current);
+				updateTime = now;
+			}
+		}
+
+		double cost(long now) {
+			return (outstanding.get() + 1) * getLatencyInMs(now);
+		}
+
+		private double decay(long now) {
+			if (latencyInMs == 0) {
+				return 0;
+			}
+			return latencyInMs * Math.pow(0.5, (now - updateTime) / (double) HALF_LIFE_NANOS);
+		}
+
+		synchronized double getLatencyInMs(long now) {
+			return decay(now);
+		}
+
+		/**
+		 * @return the requests in progress
+		 */
+		public int getOutstanding() {
+			return outstanding.get();
+		}
+
+		/**
+		 * @return the moving average of the time to the first byte decayed by the time not updated,
+		 * unit: millisecond
+		 */
+		public double getLatencyInMs() {
+			return getLatencyInMs(System.nanoTime());
+		}
+
+		@Override
+		public String toString() {
+			return "Node{" +
+					"outstanding=" + getOutstanding() +
+					", latencyInMs=" + String.format("%.3f", getLatencyInMs()) +
+					'}';
+		}
+	}
+}
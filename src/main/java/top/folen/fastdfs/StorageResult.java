@@ -0,0 +1,53 @@
+package top.folen.fastdfs;
+
+/**
+ * storage 请求的结果，包含错误码和数据，替代 StorageClient 中保存在实例上的 errno
+ *
+ * @author sec
+ * @version 1.0
+ **/
+public class StorageResult<T> {
+
+	private final byte errno;
+
+	private final T data;
+
+	private StorageResult(byte errno, T data) {
+		this.errno = errno;
+		this.data = data;
+	}
+
+	public static <T> StorageResult<T> success(T data) {
+		return new StorageResult<>((byte) 0, data);
+	}
+
+	public static <T> StorageResult<T> fail(byte errno) {
+		return new StorageResult<>(errno, null);
+	}
+
+	/**
+	 * @return 0 for success, none zero errno if fail
+	 */
+	public byte getErrno() {
+		return errno;
+	}
+
+	public boolean isSuccess() {
+		return errno == 0;
+	}
+
+	/**
+	 * @return the data, null if fail or the request has no data
+	 */
+	public T getData() {
+		return data;
+	}
+
+	@Override
+	public String toString() {
+		return "StorageResult{" +
+				"errno=" + errno +
+				", data=" + data +
+				'}';
+	}
+}
@@ -0,0 +1,215 @@
+package top.folen.fastdfs;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * tracker 路由结果缓存，缓存 getFetchStorage/getUpdateStorage 为某个文件返回的 storage（开启 read_balance 时缓存
+ * getFetchStorages 返回的全部 storage），
+ * 有效期为 route_cache.ttl_in_ms（0 为关闭），最多缓存 route_cache.max_entries 个文件，
+ * 超出时由一个线程清理过期条目，仍超出则按最近访问时间淘汰最久未使用的（近似 LRU，一次淘汰到上限的 3/4），
+ * 读写不加全局锁
+ * <p>
+ * 连接 storage 失败、通信异常或 storage 返回错误码时由调用方调用 invalidate 使对应条目失效
+ *
+ * @author sec
+ * @version 1.0
+ **/
+public class StorageRouteCache {
+
+	/**
+	 * route for reading a file, by getFetchStorage
+	 */
+	public static final byte ROUTE_FETCH = 0;
+
+	/**
+	 * route for updating a file, by getUpdateStorage
+	 */
+	public static final byte ROUTE_UPDATE = 1;
+
+	/**
+	 * route for reading a file from all the replicas, by getFetchStorages
+	 */
+	public static final byte ROUTE_FETCH_ALL = 2;
+
+	private static final Map<Key, Entry> CACHE = new ConcurrentHashMap<>();
+
+	/**
+	 * only one thread evicts the entries at a time, the others go on putting
+	 */
+	private static final AtomicBoolean EVICTING = new AtomicBoolean();
+
+	private StorageRouteCache() {
+	}
+
+	public static boolean isEnabled() {
+		return ClientGlobal.g_route_cache_ttl_in_ms > 0 && ClientGlobal.g_route_cache_max_entries > 0;
+	}
+
+	/**
+	 * get the cached storage server
+	 *
+	 * @param route          ROUTE_FETCH or ROUTE_UPDATE
+	 * @param groupName      the group name
+	 * @param remoteFilename the filename on storage server
+	 * @return the storage server, null if not cached or expired
+	 */
+	public static StorageServer get(byte route, String groupName, String remoteFilename) {
+		StorageServer[] storageServers = getAll(route, groupName, remoteFilename);
+		return storageServers != null ? storageServers[0] : null;
+	}
+
+	/**
+	 * get the cached storage servers
+	 *
+	 * @param route          ROUTE_FETCH, ROUTE_UPDATE or ROUTE_FETCH_ALL
+	 * @param groupName      the group name
+	 * @param remoteFilename the filename on storage server
+	 * @return the storage servers, null if not cached or expired
+	 */
+	public static StorageServer[] getAll(byte route, String groupName, String remoteFilename) {
+		if (!isEnabled()) {
+			return null;
+		}
+		Key key = new Key(route, groupName, remoteFilename);
+		Entry entry = CACHE.get(key);
+		if (entry == null) {
+			return null;
+		}
+		if (entry.expireAt - System.currentTimeMillis() <= 0) {
+			CACHE.remove(key, entry);
+			return null;
+		}
+		entry.accessAt = System.nanoTime();
+		return entry.storageServers;
+	}
+
+	/**
+	 * cache the storage server returned by the tracker
+	 *
+	 * @param route          ROUTE_FETCH or ROUTE_UPDATE
+	 * @param groupName      the group name
+	 * @param remoteFilename the filename on storage server
+	 * @param storageServer  the storage server
+	 */
+	public static void put(byte route, String groupName, String remoteFilename, StorageServer storageServer) {
+		putAll(route, groupName, remoteFilename, new StorageServer[]{storageServer});
+	}
+
+	/**
+	 * cache the storage servers returned by the tracker
+	 *
+	 * @param route          ROUTE_FETCH, ROUTE_UPDATE or ROUTE_FETCH_ALL
+	 * @param groupName      the group name
+	 * @param remoteFilename the filename on storage server
+	 * @param storageServers the storage servers, can not be empty
+	 */
+	public static void putAll(byte route, String groupName, String remoteFilename, StorageServer[] storageServers) {
+		if (!isEnabled()) {
+			return;
+		}
+		Entry entry = new Entry(storageServers, System.currentTimeMillis() + ClientGlobal.g_route_cache_ttl_in_ms);
+		CACHE.put(new Key(route, groupName, remoteFilename), entry);
+		if (CACHE.size() > ClientGlobal.g_route_cache_max_entries) {
+			evict();
+		}
+	}
+
+	/**
+	 * remove the expired entries, then the least recently used ones down to 3/4 of route_cache.max_entries,
+	 * so the sort is amortized over the following puts
+	 */
+	private static void evict() {
+		if (!EVICTING.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			long now = System.currentTimeMillis();
+			CACHE.values().removeIf(entry -> entry.expireAt - now <= 0);
+			int maxEntries = ClientGlobal.g_route_cache_max_entries;
+			int excess = CACHE.size() - (maxEntries - maxEntries / 4);
+			if (excess <= 0) {
+				return;
+			}
+			List<Map.Entry<Key, Entry>> entries = new ArrayList<>(CACHE.entrySet());
+			entries.sort(Comparator.comparingLong(e -> e.getValue().accessAt));
+			for (int i = 0; i < excess && i < entries.size(); i++) {
+				CACHE.remove(entries.get(i).getKey(), entries.get(i).getValue());
+			}
+		} finally {
+			EVICTING.set(false);
+		}
+	}
+
+	/**
+	 * remove the cached storage servers of the file, for all the routes
+	 *
+	 * @param groupName      the group name
+	 * @param remoteFilename the filename on storage server
+	 */
+	public static void invalidate(String groupName, String remoteFilename) {
+		CACHE.remove(new Key(ROUTE_FETCH, groupName, remoteFilename));
+		CACHE.remove(new Key(ROUTE_UPDATE, groupName, remoteFilename));
+		CACHE.remove(new Key(ROUTE_FETCH_ALL, groupName, remoteFilename));
+	}
+
+	/**
+	 * remove all the cached storage servers
+	 */
+	public static void clear() {
+		CACHE.clear();
+	}
+
+	public static int size() {
+		return CACHE.size();
+	}
+
+	private static final class Key {
+		private final byte route;
+		private final String groupName;
+		private final String remoteFilename;
+
+		Key(byte route, String groupName, String remoteFilename) {
+			this.route = route;
+			this.groupName = groupName;
+			this.remoteFilename = remoteFilename;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key key = (Key) o;
+			return route == key.route && groupName.equals(key.groupName) && remoteFilename.equals(key.remoteFilename);
+		}
+
+		@Override
+		public int hashCode() {
+			return (31 * route + groupName.hashCode()) * 31 + remoteFilename.hashCode();
+		}
+	}
+
+	private static final class Entry {
+		private final StorageServer[] storageServers;
+		private final long expireAt;
+
+		/**
+		 * System.nanoTime of the last put or get, for the approximate LRU eviction
+		 */
+		private volatile long accessAt;
+
+		Entry(StorageServer[] storageServers, long expireAt) {
+			this.storageServers = storageServers;
+			this.expireAt = expireAt;
+			this.accessAt = System.nanoTime();
+		}
+	}
+}
@@ -78,7 +78,6 @@ public class TrackerClient {
 	 */
 	public StorageServer getStoreStorage(TrackerServer trackerServer, String groupName) throws IOException,
 			FastDfsException {
-		byte[] header;
 		String ipAddr;
 		int port;
 		byte cmd;
@@ -90,6 +89,7 @@ public class TrackerClient {
 			trackerServer = getTrackerServer();
 		}
 		connection = trackerServer.getConnection();
+		long startTime = System.nanoTime();
 		OutputStream out = connection.getOutputStream();
 
 		try {
@@ -100,31 +100,19 @@ public class TrackerClient {
 				cmd = ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_STORE_WITH_GROUP_ONE;
 				outLen = ProtoCommon.FDFS_GROUP_NAME_MAX_LEN;
 			}
-			header = ProtoCommon.packHeader(cmd, outLen, (byte) 0);
-			out.write(header);
-
-			if (groupName != null && groupName.length() > 0) {
-				byte[] bGroupName;
-				byte[] bs;
-				int group_len;
-
-				bs = groupName.getBytes(ClientGlobal.G_CHARSET);
-				bGroupName = new byte[ProtoCommon.FDFS_GROUP_NAME_MAX_LEN];
-
-				if (bs.length <= ProtoCommon.FDFS_GROUP_NAME_MAX_LEN) {
-					group_len = bs.length;
-				} else {
-					group_len = ProtoCommon.FDFS_GROUP_NAME_MAX_LEN;
-				}
-				Arrays.fill(bGroupName, (byte) 0);
-				System.arraycopy(bs, 0, bGroupName, 0, group_len);
-				out.write(bGroupName);
+			byte[] wholePkg = new byte[ProtoCommon.FDFS_PROTO_HEADER_SIZE + outLen];
+			int bodyOffset = ProtoCommon.packHeader(wholePkg, 0, cmd, outLen, (byte) 0);
+			if (outLen > 0) {
+				byte[] bs = groupName.getBytes(ClientGlobal.G_CHARSET);
+				System.arraycopy(bs, 0, wholePkg, bodyOffset, Math.min(bs.length, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN));
 			}
+			out.write(wholePkg);
 
 			ProtoCommon.RecvPackageInfo pkgInfo = ProtoCommon.recvPackage(connection.getInputStream(),
 					ProtoCommon.TRACKER_PROTO_CMD_RESP,
 					ProtoCommon.TRACKER_QUERY_STORAGE_STORE_BODY_LEN);
 			this.errno = pkgInfo.errno;
+			trackerServer.onSuccess(connection, startTime);
 			if (pkgInfo.errno != 0) {
 				return null;
 			}
@@ -138,6 +126,7 @@ public class TrackerClient {
 
 			return new StorageServer(ipAddr, port, storePath);
 		} catch (IOException ex) {
+			trackerServer.onFailure(connection);
 			ConnectionUtil.close(connection);
 			throw ex;
 		} finally {
@@ -154,7 +143,6 @@ public class TrackerClient {
 	 */
 	public StorageServer[] getStoreStorages(TrackerServer trackerServer, String groupName) throws IOException,
 			FastDfsException {
-		byte[] header;
 		String ipAddr;
 		int port;
 		byte cmd;
@@ -169,6 +157,7 @@ public class TrackerClient {
 		}
 
 		connection = trackerServer.getConnection();
+		long startTime = System.nanoTime();
 		OutputStream out = connection.getOutputStream();
 
 		try {
@@ -179,30 +168,18 @@ public class TrackerClient {
 				cmd = ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_STORE_WITH_GROUP_ALL;
 				outLen = ProtoCommon.FDFS_GROUP_NAME_MAX_LEN;
 			}
-			header = ProtoCommon.packHeader(cmd, outLen, (byte) 0);
-			out.write(header);
-
-			if (groupName != null && groupName.length() > 0) {
-				byte[] bGroupName;
-				byte[] bs;
-				int group_len;
-
-				bs = groupName.getBytes(ClientGlobal.G_CHARSET);
-				bGroupName = new byte[ProtoCommon.FDFS_GROUP_NAME_MAX_LEN];
-
-				if (bs.length <= ProtoCommon.FDFS_GROUP_NAME_MAX_LEN) {
-					group_len = bs.length;
-				} else {
-					group_len = ProtoCommon.FDFS_GROUP_NAME_MAX_LEN;
-				}
-				Arrays.fill(bGroupName, (byte) 0);
-				System.arraycopy(bs, 0, bGroupName, 0, group_len);
-				out.write(bGroupName);
+			byte[] wholePkg = new byte[ProtoCommon.FDFS_PROTO_HEADER_SIZE + outLen];
+			int bodyOffset = ProtoCommon.packHeader(wholePkg, 0, cmd, outLen, (byte) 0);
+			if (outLen > 0) {
+				byte[] bs = groupName.getBytes(ClientGlobal.G_CHARSET);
+				System.arraycopy(bs, 0, wholePkg, bodyOffset, Math.min(bs.length, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN));
 			}
+			out.write(wholePkg);
 
 			ProtoCommon.RecvPackageInfo pkgInfo = ProtoCommon.recvPackage(connection.getInputStream(),
 					ProtoCommon.TRACKER_PROTO_CMD_RESP, -1);
 			this.errno = pkgInfo.errno;
+			trackerServer.onSuccess(connection, startTime);
 			if (pkgInfo.errno != 0) {
 				return null;
 			}
@@ -242,6 +219,7 @@ public class TrackerClient {
 
 			return results;
 		} catch (IOException ex) {
+			trackerServer.onFailure(connection);
 			ConnectionUtil.close(connection);
 			throw ex;
 		} finally {
@@ -312,7 +290,6 @@ public class TrackerClient {
 	protected ServerInfo[] getStorages(TrackerServer trackerServer,
 	                                   byte cmd, String groupName, String filename) throws IOException,
 			FastDfsException {
-		byte[] header;
 		byte[] bFileName;
 		byte[] bGroupName;
 		byte[] bs;
@@ -328,6 +305,7 @@ public class TrackerClient {
 			}
 		}
 		connection = trackerServer.getConnection();
+		long startTime = System.nanoTime();
 		OutputStream out = connection.getOutputStream();
 
 		try {
@@ -343,16 +321,17 @@ public class TrackerClient {
 			Arrays.fill(bGroupName, (byte) 0);
 			System.arraycopy(bs, 0, bGroupName, 0, len);
 
-			header = ProtoCommon.packHeader(cmd, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN + bFileName.length, (byte) 0);
-			byte[] wholePkg = new byte[header.length + bGroupName.length + bFileName.length];
-			System.arraycopy(header, 0, wholePkg, 0, header.length);
-			System.arraycopy(bGroupName, 0, wholePkg, header.length, bGroupName.length);
-			System.arraycopy(bFileName, 0, wholePkg, header.length + bGroupName.length, bFileName.length);
+			byte[] wholePkg = new byte[ProtoCommon.FDFS_PROTO_HEADER_SIZE + bGroupName.length + bFileName.length];
+			int bodyOffset = ProtoCommon.packHeader(wholePkg, 0, cmd,
+					ProtoCommon.FDFS_GROUP_NAME_MAX_LEN + bFileName.length, (byte) 0);
+			System.arraycopy(bGroupName, 0, wholePkg, bodyOffset, bGroupName.length);
+			System.arraycopy(bFileName, 0, wholePkg, bodyOffset + bGroupName.length, bFileName.length);
 			out.write(wholePkg);
 
 			ProtoCommon.RecvPackageInfo pkgInfo = ProtoCommon.recvPackage(connection.getInputStream(),
 					ProtoCommon.TRACKER_PROTO_CMD_RESP, -1);
 			this.errno = pkgInfo.errno;
+			trackerServer.onSuccess(connection, startTime);
 			if (pkgInfo.errno != 0) {
 				return null;
 			}
@@ -385,6 +364,7 @@ public class TrackerClient {
 
 			return servers;
 		} catch (IOException ex) {
+			trackerServer.onFailure(connection);
 			ConnectionUtil.close(connection);
 			throw ex;
 		} finally {
@@ -434,7 +414,6 @@ public class TrackerClient {
 	 * @return group stat array, return null if fail
 	 */
 	public GroupStatStruct[] listGroups(TrackerServer trackerServer) throws IOException, FastDfsException {
-		byte[] header;
 		if (trackerServer == null) {
 			trackerServer = getTrackerServer();
 			if (trackerServer == null) {
@@ -443,15 +422,16 @@ public class TrackerClient {
 		}
 
 		Connection connection = trackerServer.getConnection();
+		long startTime = System.nanoTime();
 		OutputStream out = connection.getOutputStream();
 
 		try {
-			header = ProtoCommon.packHeader(ProtoCommon.TRACKER_PROTO_CMD_SERVER_LIST_GROUP, 0, (byte) 0);
-			out.write(header);
+			ProtoCommon.writeHeader(out, ProtoCommon.TRACKER_PROTO_CMD_SERVER_LIST_GROUP, 0, (byte) 0);
 
 			ProtoCommon.RecvPackageInfo pkgInfo = ProtoCommon.recvPackage(connection.getInputStream(),
 					ProtoCommon.TRACKER_PROTO_CMD_RESP, -1);
 			this.errno = pkgInfo.errno;
+			trackerServer.onSuccess(connection, startTime);
 			if (pkgInfo.errno != 0) {
 				return null;
 			}
@@ -459,6 +439,7 @@ public class TrackerClient {
 			ProtoStructDecoder<GroupStatStruct> decoder = new ProtoStructDecoder<GroupStatStruct>();
 			return decoder.decode(pkgInfo.body, GroupStatStruct.class, GroupStatStruct.getFieldsTotalSize());
 		} catch (IOException ex) {
+			trackerServer.onFailure(connection);
 			ConnectionUtil.close(connection);
 			throw ex;
 		} catch (Exception ex) {
@@ -493,7 +474,6 @@ public class TrackerClient {
 	public StorageStatStruct[] listStorages(TrackerServer trackerServer,
 	                                        String groupName, String storageIpAddr) throws IOException,
 			FastDfsException {
-		byte[] header;
 		byte[] bGroupName;
 		byte[] bs;
 		int len;
@@ -506,6 +486,7 @@ public class TrackerClient {
 			}
 		}
 		connection = trackerServer.getConnection();
+		long startTime = System.nanoTime();
 		OutputStream out = connection.getOutputStream();
 
 		try {
@@ -534,19 +515,19 @@ public class TrackerClient {
 				ipAddrLen = 0;
 			}
 
-			header = ProtoCommon.packHeader(ProtoCommon.TRACKER_PROTO_CMD_SERVER_LIST_STORAGE,
+			byte[] wholePkg = new byte[ProtoCommon.FDFS_PROTO_HEADER_SIZE + bGroupName.length + ipAddrLen];
+			int offset = ProtoCommon.packHeader(wholePkg, 0, ProtoCommon.TRACKER_PROTO_CMD_SERVER_LIST_STORAGE,
 					ProtoCommon.FDFS_GROUP_NAME_MAX_LEN + ipAddrLen, (byte) 0);
-			byte[] wholePkg = new byte[header.length + bGroupName.length + ipAddrLen];
-			System.arraycopy(header, 0, wholePkg, 0, header.length);
-			System.arraycopy(bGroupName, 0, wholePkg, header.length, bGroupName.length);
+			System.arraycopy(bGroupName, 0, wholePkg, offset, bGroupName.length);
 			if (ipAddrLen > 0) {
-				System.arraycopy(bIpAddr, 0, wholePkg, header.length + bGroupName.length, ipAddrLen);
+				System.arraycopy(bIpAddr, 0, wholePkg, offset + bGroupName.length, ipAddrLen);
 			}
 			out.write(wholePkg);
 
 			ProtoCommon.RecvPackageInfo pkgInfo = ProtoCommon.recvPackage(connection.getInputStream(),
 					ProtoCommon.TRACKER_PROTO_CMD_RESP, -1);
 			this.errno = pkgInfo.errno;
+			trackerServer.onSuccess(connection, startTime);
 			if (pkgInfo.errno != 0) {
 				return null;
 			}
@@ -554,6 +535,7 @@ public class TrackerClient {
 			ProtoStructDecoder<StorageStatStruct> decoder = new ProtoStructDecoder<StorageStatStruct>();
 			return decoder.decode(pkgInfo.body, StorageStatStruct.class, StorageStatStruct.getFieldsTotalSize());
 		} catch (IOException ex) {
+			trackerServer.onFailure(connection);
 			ConnectionUtil.close(connection);
 			throw ex;
 		} catch (Exception ex) {
@@ -575,13 +557,13 @@ public class TrackerClient {
 	 */
 	private boolean deleteStorage(TrackerServer trackerServer,
 	                              String groupName, String storageIpAddr) throws IOException, FastDfsException {
-		byte[] header;
 		byte[] bGroupName;
 		byte[] bs;
 		int len;
 		Connection connection;
 
 		connection = trackerServer.getConnection();
+		long startTime = System.nanoTime();
 		OutputStream out = connection.getOutputStream();
 
 		try {
@@ -604,19 +586,20 @@ public class TrackerClient {
 				ipAddrLen = ProtoCommon.FDFS_IPADDR_SIZE - 1;
 			}
 
-			header = ProtoCommon.packHeader(ProtoCommon.TRACKER_PROTO_CMD_SERVER_DELETE_STORAGE,
+			byte[] wholePkg = new byte[ProtoCommon.FDFS_PROTO_HEADER_SIZE + bGroupName.length + ipAddrLen];
+			int offset = ProtoCommon.packHeader(wholePkg, 0, ProtoCommon.TRACKER_PROTO_CMD_SERVER_DELETE_STORAGE,
 					ProtoCommon.FDFS_GROUP_NAME_MAX_LEN + ipAddrLen, (byte) 0);
-			byte[] wholePkg = new byte[header.length + bGroupName.length + ipAddrLen];
-			System.arraycopy(header, 0, wholePkg, 0, header.length);
-			System.arraycopy(bGroupName, 0, wholePkg, header.length, bGroupName.length);
-			System.arraycopy(bIpAddr, 0, wholePkg, header.length + bGroupName.length, ipAddrLen);
+			System.arraycopy(bGroupName, 0, wholePkg, offset, bGroupName.length);
+			System.arraycopy(bIpAddr, 0, wholePkg, offset + bGroupName.length, ipAddrLen);
 			out.write(wholePkg);
 
 			ProtoCommon.RecvPackageInfo pkgInfo = ProtoCommon.recvPackage(connection.getInputStream(),
 					ProtoCommon.TRACKER_PROTO_CMD_RESP, 0);
 			this.errno = pkgInfo.errno;
+			trackerServer.onSuccess(connection, startTime);
 			return pkgInfo.errno == 0;
 		} catch (IOException e) {
+			trackerServer.onFailure(connection);
 			ConnectionUtil.close(connection);
 			throw e;
 		} finally {
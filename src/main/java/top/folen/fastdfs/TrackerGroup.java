@@ -1,6 +1,7 @@
 package top.folen.fastdfs;
 
 import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Tracker server group
@@ -10,11 +11,14 @@ import java.net.InetSocketAddress;
  */
 public class TrackerGroup {
 
-	public int trackerServerIndex;
-
 	public InetSocketAddress[] trackerServers;
 
-	protected final Integer lock;
+	/**
+	 * the health of trackerServers, same order
+	 */
+	private final TrackerHealth[] healths;
+
+	private final AtomicInteger trackerServerIndex = new AtomicInteger();
 
 	/**
 	 * Constructor
@@ -23,8 +27,10 @@ public class TrackerGroup {
 	 */
 	public TrackerGroup(InetSocketAddress[] trackerServers) {
 		this.trackerServers = trackerServers;
-		this.lock = 0;
-		this.trackerServerIndex = 0;
+		this.healths = new TrackerHealth[trackerServers == null ? 0 : trackerServers.length];
+		for (int i = 0; i < this.healths.length; i++) {
+			this.healths[i] = new TrackerHealth();
+		}
 	}
 
 	/**
@@ -37,21 +43,64 @@ public class TrackerGroup {
 	}
 
 	/**
-	 * return connected tracker server
+	 * return the next tracker server in turn whose circuit is not open, the returned tracker server fails over
+	 * to the other trackers if fail to connect, and reports the request results to the tracker health
 	 *
-	 * @return connected tracker server, null for fail
+	 * @return tracker server, null if no tracker server
 	 */
 	public TrackerServer getTrackerServer() {
 		if (trackerServers == null || trackerServers.length == 0) {
 			return null;
 		}
-		synchronized (this.lock) {
-			this.trackerServerIndex++;
-			if (this.trackerServerIndex >= this.trackerServers.length) {
-				this.trackerServerIndex = 0;
+		int index = select(null);
+		return new TrackerServer(this, index);
+	}
+
+	/**
+	 * @param serverIndex the index of trackerServers
+	 * @return the health of the tracker server
+	 */
+	public TrackerHealth getHealth(int serverIndex) {
+		return this.healths[serverIndex];
+	}
+
+	/**
+	 * @param address the tracker server address
+	 * @return the index of trackerServers, -1 if not in the group
+	 */
+	int indexOf(InetSocketAddress address) {
+		for (int i = 0; i < trackerServers.length; i++) {
+			if (trackerServers[i].equals(address)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * select the next tracker server in turn whose circuit allows a request
+	 *
+	 * @param tried the tracker servers already tried by the request, null for none
+	 * @return the index of trackerServers, the untried one whose circuit allows a probe soonest if the circuits
+	 * are all open, -1 if all are tried
+	 */
+	int select(boolean[] tried) {
+		int count = trackerServers.length;
+		int start = Math.floorMod(trackerServerIndex.getAndIncrement(), count);
+		int fallback = -1;
+		for (int i = 0; i < count; i++) {
+			int index = (start + i) % count;
+			if (tried != null && tried[index]) {
+				continue;
+			}
+			if (healths[index].tryAcquire()) {
+				return index;
+			}
+			if (fallback < 0 || healths[index].getOpenUntil() - healths[fallback].getOpenUntil() < 0) {
+				fallback = index;
 			}
 		}
-		return this.getTrackerServer(trackerServerIndex);
+		return fallback;
 	}
 
 	@Override
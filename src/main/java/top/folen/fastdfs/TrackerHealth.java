@@ -0,0 +1,180 @@
+package top.folen.fastdfs;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单个 tracker 的健康状态：请求错误率和延迟的指数移动平均，以及熔断器
+ * <p>
+ * 连接失败或错误率达到 MAX_ERROR_RATE 时熔断（OPEN），熔断期间不再选择该 tracker；熔断时间到后放行一个探测请求
+ * （HALF_OPEN），探测成功即恢复（CLOSED），失败则熔断时间加倍，最长 maxOpenTimeInMs
+ *
+ * @author sec
+ * @version 1.0
+ **/
+public class TrackerHealth {
+
+	public static final double MAX_ERROR_RATE = 0.5;
+
+	public static final long DEFAULT_MIN_OPEN_TIME_IN_MS = 1000;
+
+	public static final long DEFAULT_MAX_OPEN_TIME_IN_MS = 60 * 1000;
+
+	/**
+	 * weight of the latest request in the moving averages
+	 */
+	private static final double ALPHA = 0.2;
+
+	private static final int CLOSED = 0;
+
+	private static final int OPEN = 1;
+
+	private static final int HALF_OPEN = 2;
+
+	private final long minOpenTimeInMs;
+
+	private final long maxOpenTimeInMs;
+
+	private final AtomicInteger state = new AtomicInteger(CLOSED);
+
+	private final AtomicLong successCount = new AtomicLong();
+
+	private final AtomicLong failureCount = new AtomicLong();
+
+	/**
+	 * System.nanoTime() when the probe is allowed
+	 */
+	private volatile long openUntil;
+
+	private volatile long probeStart;
+
+	private volatile double errorRate;
+
+	private volatile double latencyInMs;
+
+	/**
+	 * guarded by this
+	 */
+	private long openTimeInMs;
+
+	public TrackerHealth() {
+		this(DEFAULT_MIN_OPEN_TIME_IN_MS, DEFAULT_MAX_OPEN_TIME_IN_MS);
+	}
+
+	TrackerHealth(long minOpenTimeInMs, long maxOpenTimeInMs) {
+		this.minOpenTimeInMs = minOpenTimeInMs;
+		this.maxOpenTimeInMs = maxOpenTimeInMs;
+		this.openTimeInMs = minOpenTimeInMs;
+	}
+
+	/**
+	 * @return true if the circuit is closed, or it is time to probe the open circuit, the caller must report the
+	 * result by onSuccess or onFailure
+	 */
+	boolean tryAcquire() {
+		int current = state.get();
+		if (current == CLOSED) {
+			return true;
+		}
+		long now = System.nanoTime();
+		if (current == OPEN) {
+			if (now - openUntil < 0 || !state.compareAndSet(OPEN, HALF_OPEN)) {
+				return false;
+			}
+			probeStart = now;
+			return true;
+		}
+		// the probe did not report in time, let another request probe
+		long probeTimeout = TimeUnit.MILLISECONDS.toNanos(
+				(long) ClientGlobal.g_connect_timeout + ClientGlobal.g_network_timeout);
+		if (now - probeStart > probeTimeout) {
+			probeStart = now;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @param latencyNanos the time of the request
+	 */
+	synchronized void onSuccess(long latencyNanos) {
+		successCount.incrementAndGet();
+		double latency = latencyNanos / 1e6;
+		latencyInMs = latencyInMs == 0 ? latency : latencyInMs + ALPHA * (latency - latencyInMs);
+		if (state.get() == CLOSED) {
+			errorRate -= ALPHA * errorRate;
+		} else {
+			errorRate = 0;
+			openTimeInMs = minOpenTimeInMs;
+			state.set(CLOSED);
+		}
+	}
+
+	/**
+	 * @param connectFailure true if fail to connect the tracker, the circuit opens at once
+	 */
+	synchronized void onFailure(boolean connectFailure) {
+		failureCount.incrementAndGet();
+		errorRate += ALPHA * (1 - errorRate);
+		int current = state.get();
+		if (current == HALF_OPEN) {
+			open(Math.min(openTimeInMs * 2, maxOpenTimeInMs));
+		} else if (current == CLOSED && (connectFailure || errorRate >= MAX_ERROR_RATE)) {
+			open(openTimeInMs);
+		}
+	}
+
+	private void open(long timeInMs) {
+		openTimeInMs = timeInMs;
+		openUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeInMs);
+		state.set(OPEN);
+	}
+
+	/**
+	 * @return System.nanoTime() when the open circuit allows a probe
+	 */
+	long getOpenUntil() {
+		return openUntil;
+	}
+
+	/**
+	 * @return true if the circuit is open or half-open
+	 */
+	public boolean isOpen() {
+		return state.get() != CLOSED;
+	}
+
+	/**
+	 * @return the moving average of the failed requests ratio
+	 */
+	public double getErrorRate() {
+		return errorRate;
+	}
+
+	/**
+	 * @return the moving average of the request latency, unit: millisecond
+	 */
+	public double getLatencyInMs() {
+		return latencyInMs;
+	}
+
+	public long getSuccessCount() {
+		return successCount.get();
+	}
+
+	public long getFailureCount() {
+		return failureCount.get();
+	}
+
+	@Override
+	public String toString() {
+		return "TrackerHealth{" +
+				"open=" + isOpen() +
+				", errorRate=" + String.format("%.3f", errorRate) +
+				", latencyInMs=" + String.format("%.3f", latencyInMs) +
+				", successCount=" + getSuccessCount() +
+				", failureCount=" + getFailureCount() +
+				'}';
+	}
+}
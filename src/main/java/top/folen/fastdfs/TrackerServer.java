@@ -1,11 +1,15 @@
 package top.folen.fastdfs;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import top.folen.common.FastDfsException;
 import top.folen.fastdfs.pool.Connection;
 import top.folen.fastdfs.pool.ConnectionPool;
+import top.folen.fastdfs.pool.ConnectionPoolExhaustedException;
 import top.folen.fastdfs.pool.ConnectionUtil;
 
 import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Tracker Server Info
@@ -15,17 +19,114 @@ import java.net.InetSocketAddress;
  */
 public class TrackerServer {
 
+	private static final Logger LOGGER = LoggerFactory.getLogger(TrackerServer.class);
+
 	protected InetSocketAddress inetSockAddr;
 
+	/**
+	 * the group which the tracker server selected from, null if not selected from a group
+	 */
+	private final TrackerGroup group;
+
+	/**
+	 * the index of the group trackerServers to connect first
+	 */
+	private final int index;
+
+	/**
+	 * the circuit of the index tracker is acquired by the group selection, the first connection skips the check
+	 */
+	private final AtomicBoolean acquired;
+
 	public TrackerServer(InetSocketAddress inetSockAddr) {
 		this.inetSockAddr = inetSockAddr;
+		this.group = null;
+		this.index = -1;
+		this.acquired = null;
+	}
+
+	TrackerServer(TrackerGroup group, int index) {
+		this.inetSockAddr = group.trackerServers[index];
+		this.group = group;
+		this.index = index;
+		this.acquired = new AtomicBoolean(true);
 	}
 
+	/**
+	 * get the connection, if selected from a tracker group and fail to connect, open the circuit of the tracker
+	 * and fail over to the next tracker of the group. the tracker server object is not changed by the fail over,
+	 * it may be shared by the threads, the tracker connected is the address of the connection returned.
+	 * the connection pool exhausted is not a failure of the tracker, it is thrown without fail over
+	 *
+	 * @return the connection
+	 */
 	public Connection getConnection() throws FastDfsException {
+		if (this.group == null) {
+			return connect(this.inetSockAddr);
+		}
+		boolean[] tried = new boolean[this.group.trackerServers.length];
+		int current = this.index;
+		if (!this.acquired.compareAndSet(true, false) && !this.group.getHealth(current).tryAcquire()) {
+			// reused after the circuit of the tracker opened
+			current = this.group.select(null);
+		}
+		while (true) {
+			InetSocketAddress address = this.group.trackerServers[current];
+			try {
+				return connect(address);
+			} catch (ConnectionPoolExhaustedException ex) {
+				throw ex;
+			} catch (FastDfsException ex) {
+				this.group.getHealth(current).onFailure(true);
+				tried[current] = true;
+				int next = this.group.select(tried);
+				if (next < 0) {
+					throw ex;
+				}
+				LOGGER.warn("连接 tracker {} 失败，切换到 {}", address, this.group.trackerServers[next], ex);
+				current = next;
+			}
+		}
+	}
+
+	/**
+	 * report the request succeeds to the health of the tracker connected
+	 *
+	 * @param connection the connection returned by getConnection
+	 * @param startTime  System.nanoTime() when the request starts
+	 */
+	void onSuccess(Connection connection, long startTime) {
+		TrackerHealth health = getHealth(connection);
+		if (health != null) {
+			health.onSuccess(System.nanoTime() - startTime);
+		}
+	}
+
+	/**
+	 * report the request fails by IOException to the health of the tracker connected
+	 *
+	 * @param connection the connection returned by getConnection
+	 */
+	void onFailure(Connection connection) {
+		TrackerHealth health = getHealth(connection);
+		if (health != null) {
+			health.onFailure(false);
+		}
+	}
+
+	private TrackerHealth getHealth(Connection connection) {
+		if (this.group == null) {
+			return null;
+		}
+		int serverIndex = this.group.indexOf(connection.getInetSocketAddress());
+		return serverIndex < 0 ? null : this.group.getHealth(serverIndex);
+	}
+
+	private static Connection connect(InetSocketAddress address) throws FastDfsException {
 		if (ClientGlobal.g_connection_pool_enabled) {
-			return ConnectionPool.getConnection(this.inetSockAddr);
+			return ConnectionPool.getConnection(address);
 		} else {
-			return ConnectionUtil.create(this.inetSockAddr);
+			return ConnectionUtil.create(address);
 		}
 	}
 
@@ -0,0 +1,80 @@
+package top.folen.fastdfs;
+
+import top.folen.fastdfs.pool.BufferPool;
+import top.folen.fastdfs.pool.Connection;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Upload a region of local file by FileChannel, for nio transport the region is sent by FileChannel.transferTo,
+ * so the kernel sends the file with sendfile without copying it to user space
+ *
+ * @author sec
+ * @version 1.0
+ */
+public class UploadFileChannel implements ChannelUploadCallback {
+
+	private final FileChannel fileChannel;
+
+	private final long position;
+
+	private final long count;
+
+	/**
+	 * constructor
+	 *
+	 * @param fileChannel the file channel to upload, the channel position is not changed
+	 * @param position    the start position of the file
+	 * @param count       the bytes to upload
+	 */
+	public UploadFileChannel(FileChannel fileChannel, long position, long count) {
+		this.fileChannel = fileChannel;
+		this.position = position;
+		this.count = count;
+	}
+
+	/**
+	 * send file content by stream, for socket transport
+	 *
+	 * @param out output stream for writing file content
+	 * @return 0 success, return none zero(errno) if fail
+	 */
+	@Override
+	public int send(OutputStream out) throws IOException {
+		byte[] buff = BufferPool.acquireHeap((int) Math.min(count, BufferPool.BUFFER_SIZE));
+		try {
+			long filePosition = position;
+			long remainBytes = count;
+			while (remainBytes > 0) {
+				int bytes = fileChannel.read(ByteBuffer.wrap(buff, 0, (int) Math.min(buff.length, remainBytes)),
+						filePosition);
+				if (bytes < 0) {
+					throw new IOException("file size " + fileChannel.size() + " < " + (filePosition + remainBytes));
+				}
+				out.write(buff, 0, bytes);
+				filePosition += bytes;
+				remainBytes -= bytes;
+			}
+			return 0;
+		} finally {
+			BufferPool.releaseHeap(buff);
+		}
+	}
+
+	/**
+	 * send the header, then the file region by FileChannel.transferTo
+	 *
+	 * @param connection the nio transport connection
+	 * @param header     the request header not sent yet
+	 * @return 0 success, return none zero(errno) if fail
+	 */
+	@Override
+	public int send(Connection connection, ByteBuffer header) throws IOException {
+		connection.write(header);
+		connection.transferFrom(fileChannel, position, count);
+		return 0;
+	}
+}
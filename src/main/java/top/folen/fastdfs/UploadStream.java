@@ -2,10 +2,17 @@ package top.folen.fastdfs;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import top.folen.fastdfs.pool.Connection;
+import top.folen.fastdfs.pool.BufferPool;
 
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 
 /**
  * Upload file by stream
@@ -13,7 +20,7 @@ import java.io.OutputStream;
  * @author zhouzezhong & Happy Fish / YuQing
  * @version Version 1.11
  */
-public class UploadStream implements UploadCallback {
+public class UploadStream implements ChannelUploadCallback {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(UploadStream.class);
 
@@ -48,21 +55,69 @@ public class UploadStream implements UploadCallback {
 	@Override
 	public int send(OutputStream out) throws IOException {
 		long remainBytes = fileSize;
-		byte[] buff = new byte[256 * 1024];
-		int bytes;
-		while (remainBytes > 0) {
-			try {
-				if ((bytes = inputStream.read(buff, 0, remainBytes > buff.length ? buff.length : (int) remainBytes)) < 0) {
+		byte[] buff = BufferPool.acquireHeap(BufferPool.BUFFER_SIZE);
+		try {
+			int bytes;
+			while (remainBytes > 0) {
+				try {
+					if ((bytes = inputStream.read(buff, 0, remainBytes > buff.length ? buff.length : (int) remainBytes)) < 0) {
+						return -1;
+					}
+				} catch (IOException ex) {
+					LOGGER.error("发送异常", ex);
 					return -1;
 				}
-			} catch (IOException ex) {
-				LOGGER.error("发送异常", ex);
-				return -1;
+				out.write(buff, 0, bytes);
+				remainBytes -= bytes;
 			}
-			out.write(buff, 0, bytes);
-			remainBytes -= bytes;
+		} finally {
+			BufferPool.releaseHeap(buff);
 		}
 
 		return 0;
 	}
+
+	/**
+	 * send the header together with the first part of file content by gathering write, then the remain content,
+	 * the content is read into a pooled direct buffer (by FileChannel for FileInputStream)
+	 *
+	 * @param connection the nio transport connection
+	 * @param header     the request header not sent yet
+	 * @return 0 success, return none zero(errno) if fail
+	 */
+	@Override
+	public int send(Connection connection, ByteBuffer header) throws IOException {
+		ReadableByteChannel in = inputStream instanceof FileInputStream ?
+				((FileInputStream) inputStream).getChannel() : Channels.newChannel(inputStream);
+		ByteBuffer buff = BufferPool.acquireDirect(BufferPool.BUFFER_SIZE);
+		try {
+			if (fileSize == 0) {
+				connection.write(header);
+				return 0;
+			}
+			long remainBytes = fileSize;
+			while (remainBytes > 0) {
+				((Buffer) buff).clear();
+				if (remainBytes < buff.capacity()) {
+					((Buffer) buff).limit((int) remainBytes);
+				}
+				int bytes;
+				try {
+					bytes = in.read(buff);
+				} catch (IOException ex) {
+					LOGGER.error("发送异常", ex);
+					return -1;
+				}
+				if (bytes < 0) {
+					return -1;
+				}
+				((Buffer) buff).flip();
+				connection.write(header, buff);
+				remainBytes -= bytes;
+			}
+			return 0;
+		} finally {
+			BufferPool.releaseDirect(buff);
+		}
+	}
 }
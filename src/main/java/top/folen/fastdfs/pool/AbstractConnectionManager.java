@@ -0,0 +1,208 @@
+package top.folen.fastdfs.pool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import top.folen.common.FastDfsException;
+import top.folen.fastdfs.ClientGlobal;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.List;
+
+/**
+ * 单个 ip:port 对应的连接管理器基类，不同实现的连接池共享连接校验和关闭逻辑
+ *
+ * @author sec
+ * @version 1.0
+ **/
+public abstract class AbstractConnectionManager {
+
+	private static final Logger logger = LoggerFactory.getLogger(AbstractConnectionManager.class);
+
+	protected final InetSocketAddress inetSocketAddress;
+
+	protected AbstractConnectionManager(InetSocketAddress socketAddress) {
+		this.inetSocketAddress = socketAddress;
+	}
+
+	/**
+	 * get a connection of this entry, create a new one if no free connection and the max count not reached
+	 *
+	 * @return the connection
+	 * @throws FastDfsException if create connection fail or wait timeout
+	 */
+	public abstract Connection getConnection() throws FastDfsException;
+
+	/**
+	 * give back a connection to the free list
+	 *
+	 * @param connection the connection
+	 */
+	public abstract void releaseConnection(Connection connection);
+
+	/**
+	 * close a connection and remove it from this entry
+	 *
+	 * @param connection the connection
+	 */
+	public abstract void closeConnection(Connection connection);
+
+	/**
+	 * mark all free connections as need active test before next use
+	 */
+	public abstract void setActiveTestFlag();
+
+	/**
+	 * take the free connections which idle time reach the given milliseconds or need active test out of the free
+	 * list, so they can be checked without holding any lock
+	 *
+	 * @param minIdleMillis min idle time in milliseconds
+	 * @return the taken connections
+	 */
+	protected abstract List<Connection> takeIdleConnections(long minIdleMillis);
+
+	/**
+	 * put a checked connection back to the tail of the free list
+	 *
+	 * @param connection the connection
+	 */
+	protected abstract void putIdleConnection(Connection connection);
+
+	/**
+	 * close a connection which is not borrowed
+	 *
+	 * @param connection the connection
+	 */
+	protected abstract void discardIdleConnection(Connection connection);
+
+	/**
+	 * reserve the count for a new connection
+	 *
+	 * @return false if max_count_per_entry reached
+	 */
+	protected abstract boolean reserveConnection();
+
+	/**
+	 * cancel the count reserved by {@link #reserveConnection()}
+	 */
+	protected abstract void cancelReservation();
+
+	/**
+	 * @return free connection count
+	 */
+	public abstract int getFreeCount();
+
+	/**
+	 * @return total connection count, including borrowed and free connections
+	 */
+	public abstract int getTotalCount();
+
+	/**
+	 * background maintenance, called by the pool maintainer thread:
+	 * <ul><li>close the free connections idle longer than max_idle_time</li></ul>
+	 * <ul><li>active test the free connections idle longer than the maintenance interval, so the request path
+	 * need not do it</li></ul>
+	 * <ul><li>open new connections until the free count reaches min_idle</li></ul>
+	 */
+	public void maintain() {
+		long testIdleMillis = ClientGlobal.g_connection_pool_maintenance_interval * 1000L;
+		for (Connection connection : takeIdleConnections(testIdleMillis)) {
+			connection.setNeedActiveTest(true);
+			if (validate(connection)) {
+				putIdleConnection(connection);
+			} else {
+				discardIdleConnection(connection);
+			}
+		}
+		fillIdleConnections(ClientGlobal.g_connection_pool_min_idle);
+	}
+
+	/**
+	 * open new connections until the free count reaches the given count or max_count_per_entry reached
+	 *
+	 * @param count the expected free count
+	 * @return the count of the new opened connections
+	 */
+	public int fillIdleConnections(int count) {
+		int opened = 0;
+		while (getFreeCount() < count) {
+			try {
+				if (!openIdleConnection()) {
+					break;
+				}
+			} catch (FastDfsException e) {
+				logger.warn("open idle connection to server[{}] fail, emsg: {}", getAddressInfo(), e.getMessage());
+				break;
+			}
+			opened++;
+		}
+		return opened;
+	}
+
+	/**
+	 * open a new connection and put it to the free list
+	 *
+	 * @return false if max_count_per_entry reached
+	 * @throws FastDfsException if connect fail
+	 */
+	public boolean openIdleConnection() throws FastDfsException {
+		if (!reserveConnection()) {
+			return false;
+		}
+		Connection connection;
+		try {
+			connection = ConnectionUtil.create(this.inetSocketAddress);
+		} catch (FastDfsException e) {
+			cancelReservation();
+			throw e;
+		}
+		putIdleConnection(connection);
+		return true;
+	}
+
+	public InetSocketAddress getInetSocketAddress() {
+		return inetSocketAddress;
+	}
+
+	/**
+	 * check whether the free connection can be reused, run active test if flagged
+	 *
+	 * @param connection the free connection
+	 * @return true if the connection is ok
+	 */
+	protected boolean validate(Connection connection) {
+		if (!connection.isAvailable() || (System.currentTimeMillis() - connection.getLastAccessTime()) > ClientGlobal.g_connection_pool_max_idle_time) {
+			return false;
+		}
+		if (connection.isNeedActiveTest()) {
+			boolean isActive;
+			try {
+				isActive = connection.activeTest();
+			} catch (IOException e) {
+				logger.warn("send to server[{}] active test error, emsg: {}", getAddressInfo(), e.getMessage());
+				isActive = false;
+			}
+			if (!isActive) {
+				return false;
+			}
+			connection.setNeedActiveTest(false);
+		}
+		return true;
+	}
+
+	protected void closeDirectly(Connection connection) {
+		try {
+			connection.closeDirectly();
+		} catch (IOException e) {
+			logger.error("close socket[{}] error.", getAddressInfo(), e);
+		}
+	}
+
+	protected ConnectionPoolExhaustedException waitTimeoutException() {
+		return new ConnectionPoolExhaustedException("connect to server " + getAddressInfo() + " fail, wait_time > " + ClientGlobal.g_connection_pool_max_wait_time_in_ms + "ms");
+	}
+
+	protected String getAddressInfo() {
+		return inetSocketAddress.getAddress().getHostAddress() + ":" + inetSocketAddress.getPort();
+	}
+}
@@ -0,0 +1,258 @@
+package top.folen.fastdfs.pool;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按大小分级的缓冲区池，堆内存（byte[]）和直接内存（ByteBuffer）各一组，供各个传输路径收发请求和文件内容使用，
+ * 避免每次请求分配缓冲区
+ * <p>
+ * 缓冲区大小从 MIN_SIZE 到 MAX_SIZE 按 2 的幂分级，申请时返回不小于所需大小的最小一级；每一级最多缓存
+ * MAX_POOLED_BYTES_PER_CLASS 字节，超出的以及大于 MAX_SIZE 的缓冲区归还时交给 GC 回收。
+ * 归还后的缓冲区不能再使用，也不能重复归还
+ *
+ * @author sec
+ * @version 1.0
+ **/
+public class BufferPool {
+
+	/**
+	 * capacity of the smallest size class
+	 */
+	public static final int MIN_SIZE = 4 * 1024;
+
+	/**
+	 * capacity of the largest size class, larger buffers are not pooled
+	 */
+	public static final int MAX_SIZE = 1024 * 1024;
+
+	/**
+	 * buffer size of the file content transfer
+	 */
+	public static final int BUFFER_SIZE = 256 * 1024;
+
+	/**
+	 * max bytes kept in a size class, the buffers released beyond it are left to GC
+	 */
+	private static final int MAX_POOLED_BYTES_PER_CLASS = 4 * 1024 * 1024;
+
+	private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_SIZE);
+
+	private static final int CLASS_COUNT = Integer.numberOfTrailingZeros(MAX_SIZE) - MIN_SHIFT + 1;
+
+	private static final Pool<byte[]> HEAP = newHeapPool();
+
+	private static final Pool<ByteBuffer> DIRECT = newDirectPool();
+
+	private BufferPool() {
+	}
+
+	/**
+	 * @return a heap buffer pool apart from the shared one, so its counters are not touched by other threads
+	 */
+	static Pool<byte[]> newHeapPool() {
+		return new Pool<byte[]>() {
+			@Override
+			byte[] allocate(int size) {
+				return new byte[size];
+			}
+		};
+	}
+
+	/**
+	 * @return a direct buffer pool apart from the shared one, the acquired buffers are cleared
+	 */
+	static Pool<ByteBuffer> newDirectPool() {
+		return new Pool<ByteBuffer>() {
+			@Override
+			ByteBuffer allocate(int size) {
+				return ByteBuffer.allocateDirect(size);
+			}
+
+			@Override
+			ByteBuffer acquire(int size) {
+				ByteBuffer buffer = super.acquire(size);
+				((Buffer) buffer).clear();
+				return buffer;
+			}
+		};
+	}
+
+	/**
+	 * take a heap buffer from the pool, allocate a new one if the pool is empty
+	 *
+	 * @param size the min length
+	 * @return the buffer, the length is the size class not less than size, or size if it is greater than MAX_SIZE
+	 */
+	public static byte[] acquireHeap(int size) {
+		return HEAP.acquire(size);
+	}
+
+	/**
+	 * give back a buffer taken by {@link #acquireHeap(int)}
+	 *
+	 * @param buff the buffer, can be null
+	 */
+	public static void releaseHeap(byte[] buff) {
+		if (buff != null) {
+			HEAP.release(buff, buff.length);
+		}
+	}
+
+	/**
+	 * take a cleared direct buffer from the pool, allocate a new one if the pool is empty
+	 *
+	 * @param size the min capacity
+	 * @return the buffer, the capacity is the size class not less than size, or size if it is greater than MAX_SIZE
+	 */
+	public static ByteBuffer acquireDirect(int size) {
+		return DIRECT.acquire(size);
+	}
+
+	/**
+	 * give back a buffer taken by {@link #acquireDirect(int)}, not a slice or duplicate of it
+	 *
+	 * @param buffer the buffer, can be null
+	 */
+	public static void releaseDirect(ByteBuffer buffer) {
+		if (buffer != null && buffer.isDirect()) {
+			DIRECT.release(buffer, buffer.capacity());
+		}
+	}
+
+	public static Stats getHeapStats() {
+		return HEAP.stats;
+	}
+
+	public static Stats getDirectStats() {
+		return DIRECT.stats;
+	}
+
+	/**
+	 * @return the size class index of the size, -1 if greater than MAX_SIZE
+	 */
+	private static int classIndex(int size) {
+		if (size <= MIN_SIZE) {
+			return 0;
+		}
+		if (size > MAX_SIZE) {
+			return -1;
+		}
+		return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+	}
+
+	abstract static class Pool<T> {
+
+		private final SizeClass<T>[] classes;
+
+		private final Stats stats = new Stats();
+
+		@SuppressWarnings("unchecked")
+		Pool() {
+			classes = (SizeClass<T>[]) new SizeClass<?>[CLASS_COUNT];
+			for (int i = 0; i < CLASS_COUNT; i++) {
+				classes[i] = new SizeClass<>(MIN_SIZE << i);
+			}
+		}
+
+		abstract T allocate(int size);
+
+		Stats getStats() {
+			return stats;
+		}
+
+		T acquire(int size) {
+			int index = classIndex(size);
+			if (index < 0) {
+				stats.misses.incrementAndGet();
+				return allocate(size);
+			}
+			SizeClass<T> sizeClass = classes[index];
+			T buff = sizeClass.buffers.poll();
+			if (buff == null) {
+				stats.misses.incrementAndGet();
+				return allocate(sizeClass.size);
+			}
+			sizeClass.count.decrementAndGet();
+			stats.hits.incrementAndGet();
+			return buff;
+		}
+
+		void release(T buff, int capacity) {
+			int index = classIndex(capacity);
+			if (index < 0 || classes[index].size != capacity) {
+				stats.drops.incrementAndGet();
+				return;
+			}
+			SizeClass<T> sizeClass = classes[index];
+			if (sizeClass.count.incrementAndGet() > sizeClass.maxCount) {
+				sizeClass.count.decrementAndGet();
+				stats.drops.incrementAndGet();
+				return;
+			}
+			sizeClass.buffers.offer(buff);
+		}
+	}
+
+	private static final class SizeClass<T> {
+		private final int size;
+		private final int maxCount;
+		private final ConcurrentLinkedQueue<T> buffers = new ConcurrentLinkedQueue<>();
+		private final AtomicInteger count = new AtomicInteger();
+
+		SizeClass(int size) {
+			this.size = size;
+			this.maxCount = Math.max(1, MAX_POOLED_BYTES_PER_CLASS / size);
+		}
+	}
+
+	/**
+	 * counters of a pool
+	 */
+	public static final class Stats {
+
+		private final AtomicLong hits = new AtomicLong();
+
+		private final AtomicLong misses = new AtomicLong();
+
+		private final AtomicLong drops = new AtomicLong();
+
+		/**
+		 * @return the acquires served by a pooled buffer
+		 */
+		public long getHits() {
+			return hits.get();
+		}
+
+		/**
+		 * @return the acquires which allocate a new buffer
+		 */
+		public long getMisses() {
+			return misses.get();
+		}
+
+		/**
+		 * @return the releases left to GC, because the size class is full or the size is not pooled
+		 */
+		public long getDrops() {
+			return drops.get();
+		}
+
+		public double getHitRatio() {
+			long total = getHits() + getMisses();
+			return total == 0 ? 0 : (double) getHits() / total;
+		}
+
+		@Override
+		public String toString() {
+			return "Stats{" +
+					"hits=" + getHits() +
+					", misses=" + getMisses() +
+					", drops=" + getDrops() +
+					'}';
+		}
+	}
+}
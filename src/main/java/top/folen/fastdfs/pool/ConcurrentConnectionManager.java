@@ -0,0 +1,197 @@
+package top.folen.fastdfs.pool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import top.folen.common.FastDfsException;
+import top.folen.fastdfs.ClientGlobal;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 无锁连接管理器，空闲连接保存在无锁双端队列中，连接的创建和校验都在任何锁之外完成
+ * <p>
+ * 借出的连接数由信号量控制，每个借出的连接持有一个许可，许可数即为 max_count_per_entry，
+ * 没有许可时最多等待 max_wait_time_in_ms 毫秒
+ *
+ * @author sec
+ * @version 1.0
+ **/
+public class ConcurrentConnectionManager extends AbstractConnectionManager {
+
+	private static final Logger logger = LoggerFactory.getLogger(ConcurrentConnectionManager.class);
+
+	/**
+	 * total create connection count, including borrowed and free connections
+	 */
+	private final AtomicInteger totalCount = new AtomicInteger();
+
+	/**
+	 * free connections, the most recently released connection is reused first
+	 */
+	private final ConcurrentLinkedDeque<Connection> freeConnections = new ConcurrentLinkedDeque<>();
+
+	/**
+	 * permits of borrowed connections, null if the connection count is not limited
+	 */
+	private final Semaphore permits;
+
+	private final int maxCount;
+
+	public ConcurrentConnectionManager(InetSocketAddress socketAddress) {
+		super(socketAddress);
+		this.maxCount = ClientGlobal.g_connection_pool_max_count_per_entry;
+		this.permits = maxCount > 0 ? new Semaphore(maxCount) : null;
+	}
+
+	@Override
+	public Connection getConnection() throws FastDfsException {
+		acquirePermit();
+		boolean success = false;
+		try {
+			Connection connection;
+			while ((connection = freeConnections.pollFirst()) != null) {
+				if (validate(connection)) {
+					success = true;
+					return connection;
+				}
+				closeConnection(connection, false);
+			}
+			connection = ConnectionUtil.create(this.inetSocketAddress);
+			totalCount.incrementAndGet();
+			success = true;
+			return connection;
+		} finally {
+			if (!success) {
+				releasePermit();
+			}
+		}
+	}
+
+	@Override
+	public void releaseConnection(Connection connection) {
+		if (connection == null) {
+			return;
+		}
+		connection.setLastAccessTime(System.currentTimeMillis());
+		if (maxCount > 0 && totalCount.get() > maxCount) {
+			// trim the connection created during a concurrent release
+			closeConnection(connection);
+			return;
+		}
+		// put back before release the permit, so the waiter will find it
+		freeConnections.offerFirst(connection);
+		releasePermit();
+	}
+
+	@Override
+	public void closeConnection(Connection connection) {
+		closeConnection(connection, true);
+	}
+
+	@Override
+	public void setActiveTestFlag() {
+		for (Connection freeConnection : freeConnections) {
+			freeConnection.setNeedActiveTest(true);
+		}
+	}
+
+	@Override
+	protected List<Connection> takeIdleConnections(long minIdleMillis) {
+		List<Connection> connections = new ArrayList<>();
+		long now = System.currentTimeMillis();
+		for (Connection connection : freeConnections) {
+			if ((connection.isNeedActiveTest() || now - connection.getLastAccessTime() >= minIdleMillis)
+					&& freeConnections.removeFirstOccurrence(connection)) {
+				connections.add(connection);
+			}
+		}
+		return connections;
+	}
+
+	@Override
+	protected void putIdleConnection(Connection connection) {
+		freeConnections.offerLast(connection);
+	}
+
+	@Override
+	protected void discardIdleConnection(Connection connection) {
+		closeConnection(connection, false);
+	}
+
+	@Override
+	protected boolean reserveConnection() {
+		while (true) {
+			int count = totalCount.get();
+			if (maxCount > 0 && count >= maxCount) {
+				return false;
+			}
+			if (totalCount.compareAndSet(count, count + 1)) {
+				return true;
+			}
+		}
+	}
+
+	@Override
+	protected void cancelReservation() {
+		totalCount.decrementAndGet();
+	}
+
+	@Override
+	public int getFreeCount() {
+		return freeConnections.size();
+	}
+
+	@Override
+	public int getTotalCount() {
+		return totalCount.get();
+	}
+
+	private void closeConnection(Connection connection, boolean borrowed) {
+		if (connection == null) {
+			return;
+		}
+		totalCount.decrementAndGet();
+		closeDirectly(connection);
+		if (borrowed) {
+			releasePermit();
+		}
+	}
+
+	private void acquirePermit() throws FastDfsException {
+		if (permits == null) {
+			return;
+		}
+		try {
+			if (!permits.tryAcquire() &&
+					!permits.tryAcquire(ClientGlobal.g_connection_pool_max_wait_time_in_ms, TimeUnit.MILLISECONDS)) {
+				throw waitTimeoutException();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.error("建立连接异常", e);
+			throw new FastDfsException("connect to server " + getAddressInfo() + " fail, emsg:" + e.getMessage());
+		}
+	}
+
+	private void releasePermit() {
+		if (permits != null) {
+			permits.release();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ConcurrentConnectionManager{" +
+				"ip:port='" + getAddressInfo() +
+				", totalCount=" + totalCount +
+				", freeCount=" + freeConnections.size() +
+				", freeConnections =" + freeConnections +
+				'}';
+	}
+}
@@ -8,22 +8,40 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 public class Connection {
 
     private Socket sock;
 
+    /**
+     * the channel of nio transport, null for socket transport
+     */
+    private TimeoutSocketChannel channel;
+
     private InetSocketAddress inetSockAddr;
 
     private Long lastAccessTime = System.currentTimeMillis();
 
     private boolean needActiveTest = false;
 
+    /**
+     * closed by abort, not reusable
+     */
+    private volatile boolean aborted = false;
+
     public Connection(Socket sock, InetSocketAddress inetSockAddr) {
         this.sock = sock;
         this.inetSockAddr = inetSockAddr;
     }
 
+    public Connection(TimeoutSocketChannel channel, InetSocketAddress inetSockAddr) {
+        this(channel.socket(), inetSockAddr);
+        this.channel = channel;
+    }
+
     /**
      * get the server info
      *
@@ -34,13 +52,210 @@ public class Connection {
     }
 
     public OutputStream getOutputStream() throws IOException {
+        if (this.channel != null) {
+            return this.channel.getOutputStream();
+        }
         return this.sock.getOutputStream();
     }
 
     public InputStream getInputStream() throws IOException {
+        if (this.channel != null) {
+            return this.channel.getInputStream();
+        }
         return this.sock.getInputStream();
     }
 
+    /**
+     * @return the receive buffer size of the socket (SO_RCVBUF)
+     */
+    public int getReceiveBufferSize() throws IOException {
+        return this.sock.getReceiveBufferSize();
+    }
+
+    /**
+     * @return true if the connection is nio transport (SocketChannel)
+     */
+    public boolean isChannelTransport() {
+        return this.channel != null;
+    }
+
+    /**
+     * write all remaining bytes of the buffers, gathering write for nio transport.
+     * for socket transport the buffers are collected into a pooled buffer and written together, so that a small
+     * request header goes out in the same segment as the front of the body; the rest of a large heap buffer
+     * is written directly after the collected bytes
+     *
+     * @param srcs the buffers to write
+     */
+    public void write(ByteBuffer... srcs) throws IOException {
+        if (this.channel != null) {
+            this.channel.write(srcs);
+            return;
+        }
+        OutputStream out = this.sock.getOutputStream();
+        if (srcs.length == 1 && srcs[0].hasArray()) {
+            writeArray(out, srcs[0]);
+            return;
+        }
+        long totalBytes = 0;
+        for (ByteBuffer src : srcs) {
+            totalBytes += src.remaining();
+        }
+        byte[] buff = BufferPool.acquireHeap((int) Math.min(totalBytes, BufferPool.BUFFER_SIZE));
+        try {
+            int count = 0;
+            for (ByteBuffer src : srcs) {
+                while (src.hasRemaining()) {
+                    if (count == 0 && src.hasArray() && src.remaining() >= buff.length) {
+                        writeArray(out, src);
+                        break;
+                    }
+                    int bytes = Math.min(buff.length - count, src.remaining());
+                    src.get(buff, count, bytes);
+                    count += bytes;
+                    if (count == buff.length) {
+                        out.write(buff, 0, count);
+                        count = 0;
+                    }
+                }
+            }
+            if (count > 0) {
+                out.write(buff, 0, count);
+            }
+        } finally {
+            BufferPool.releaseHeap(buff);
+        }
+    }
+
+    private static void writeArray(OutputStream out, ByteBuffer src) throws IOException {
+        out.write(src.array(), src.arrayOffset() + src.position(), src.remaining());
+        ((Buffer) src).position(src.limit());
+    }
+
+    /**
+     * send the file region to the server, zero-copy by FileChannel.transferTo for nio transport
+     *
+     * @param src      the file channel
+     * @param position the start position of the file
+     * @param count    the bytes to send
+     */
+    public void transferFrom(FileChannel src, long position, long count) throws IOException {
+        if (this.channel != null) {
+            this.channel.transferFrom(src, position, count);
+            return;
+        }
+        OutputStream out = this.sock.getOutputStream();
+        byte[] buff = BufferPool.acquireHeap((int) Math.min(count, BufferPool.BUFFER_SIZE));
+        try {
+            long remainBytes = count;
+            while (remainBytes > 0) {
+                int bytes = src.read(ByteBuffer.wrap(buff, 0, (int) Math.min(buff.length, remainBytes)), position);
+                if (bytes <= 0) {
+                    throw new IOException("file size " + src.size() + " < " + (position + remainBytes));
+                }
+                out.write(buff, 0, bytes);
+                position += bytes;
+                remainBytes -= bytes;
+            }
+        } finally {
+            BufferPool.releaseHeap(buff);
+        }
+    }
+
+    /**
+     * receive the bytes into the file region, by FileChannel.transferFrom for nio transport
+     *
+     * @param dst      the file channel
+     * @param position the start position of the file, can not be greater than the file size
+     * @param count    the bytes to receive
+     */
+    public void transferTo(FileChannel dst, long position, long count) throws IOException {
+        if (this.channel != null) {
+            this.channel.transferTo(dst, position, count);
+            return;
+        }
+        InputStream in = this.sock.getInputStream();
+        byte[] buff = BufferPool.acquireHeap((int) Math.min(count, BufferPool.BUFFER_SIZE));
+        try {
+            long remainBytes = count;
+            while (remainBytes > 0) {
+                int bytes = in.read(buff, 0, (int) Math.min(buff.length, remainBytes));
+                if (bytes < 0) {
+                    throw new IOException("recv package size " + (count - remainBytes) + " != " + count);
+                }
+                ByteBuffer src = ByteBuffer.wrap(buff, 0, bytes);
+                while (src.hasRemaining()) {
+                    position += dst.write(src, position);
+                }
+                remainBytes -= bytes;
+            }
+        } finally {
+            BufferPool.releaseHeap(buff);
+        }
+    }
+
+    /**
+     * read at least one byte, scattering read for nio transport
+     *
+     * @param dsts the buffers to read into
+     * @return the read bytes, 0 if the buffers have no remaining, -1 if the end of stream
+     */
+    public long read(ByteBuffer... dsts) throws IOException {
+        if (this.channel != null) {
+            return this.channel.read(dsts);
+        }
+        for (ByteBuffer dst : dsts) {
+            if (!dst.hasRemaining()) {
+                continue;
+            }
+            InputStream in = this.sock.getInputStream();
+            if (dst.hasArray()) {
+                int bytes = in.read(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+                if (bytes > 0) {
+                    ((Buffer) dst).position(dst.position() + bytes);
+                }
+                return bytes;
+            }
+            int size = Math.min(dst.remaining(), 8 * 1024);
+            byte[] buff = BufferPool.acquireHeap(size);
+            try {
+                int bytes = in.read(buff, 0, size);
+                if (bytes > 0) {
+                    dst.put(buff, 0, bytes);
+                }
+                return bytes;
+            } finally {
+                BufferPool.releaseHeap(buff);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * read until all the buffers are full, scattering read for nio transport
+     *
+     * @param dsts the buffers to read into
+     * @throws IOException if the end of stream reached before the buffers are full
+     */
+    public void readFully(ByteBuffer... dsts) throws IOException {
+        if (this.channel != null) {
+            this.channel.readFully(dsts);
+            return;
+        }
+        long expectBytes = 0;
+        for (ByteBuffer dst : dsts) {
+            expectBytes += dst.remaining();
+        }
+        long remainBytes = expectBytes;
+        while (remainBytes > 0) {
+            long bytes = read(dsts);
+            if (bytes < 0) {
+                throw new IOException("recv package size " + (expectBytes - remainBytes) + " != " + expectBytes);
+            }
+            remainBytes -= bytes;
+        }
+    }
+
     public Long getLastAccessTime() {
         return lastAccessTime;
     }
@@ -54,15 +269,31 @@ public class Connection {
      * @throws IOException
      */
     public void close() throws IOException {
+        if (this.sock == null) {
+            // already closed, e.g. closed on error then released in finally block
+            return;
+        }
         //if connection enabled get from connection pool
         if (ClientGlobal.g_connection_pool_enabled) {
-            ConnectionPool.closeConnection(this);
+            if (this.aborted) {
+                // closed on purpose, the server and the other connections are fine
+                ConnectionPool.discardConnection(this);
+            } else {
+                ConnectionPool.closeConnection(this);
+            }
         } else {
             this.closeDirectly();
         }
     }
 
     public void release() throws IOException {
+        if (this.sock == null) {
+            return;
+        }
+        if (this.aborted) {
+            this.close();
+            return;
+        }
         if (ClientGlobal.g_connection_pool_enabled) {
             ConnectionPool.releaseConnection(this);
         } else {
@@ -76,20 +307,74 @@ public class Connection {
     public void closeDirectly() throws IOException {
         if (this.sock != null) {
             try {
-                ProtoCommon.closeSocket(this.sock);
+                if (this.aborted) {
+                    // the socket is closed already, do not send QUIT
+                    if (this.channel != null) {
+                        this.channel.close();
+                    } else {
+                        this.sock.close();
+                    }
+                } else if (this.channel != null) {
+                    closeChannel();
+                } else {
+                    ProtoCommon.closeSocket(this.sock);
+                }
             } finally {
                 this.sock = null;
+                this.channel = null;
             }
         }
     }
 
+    private void closeChannel() throws IOException {
+        try {
+            this.channel.write(headerBuffer(ProtoCommon.FDFS_PROTO_CMD_QUIT));
+        } finally {
+            this.channel.close();
+        }
+    }
+
+    /**
+     * close the socket from another thread to cancel the request in progress, the blocked read or write of the
+     * owner thread fails with IOException. the connection is not reusable any more, the owner still closes or
+     * releases it as usual, and an aborted connection released to the pool is closed
+     */
+    public void abort() throws IOException {
+        this.aborted = true;
+        TimeoutSocketChannel channel = this.channel;
+        Socket sock = this.sock;
+        if (channel != null) {
+            channel.abort();
+        } else if (sock != null) {
+            sock.close();
+        }
+    }
+
+    public boolean isAborted() {
+        return aborted;
+    }
+
     public boolean activeTest() throws IOException {
         if (this.sock == null) {
             return false;
         }
+        if (this.channel != null) {
+            this.channel.write(headerBuffer(ProtoCommon.FDFS_PROTO_CMD_ACTIVE_TEST));
+            return ProtoCommon.recvHeader(this.channel.getInputStream(), ProtoCommon.TRACKER_PROTO_CMD_RESP, 0).errno == 0;
+        }
         return ProtoCommon.activeTest(this.sock);
     }
 
+    /**
+     * @return the per thread header buffer packed with the command without body, ready to write
+     */
+    private static ByteBuffer headerBuffer(byte cmd) {
+        ByteBuffer buffer = ProtoCommon.headerBuffer();
+        ProtoCommon.packHeader(buffer, cmd, 0, (byte) 0);
+        ((Buffer) buffer).flip();
+        return buffer;
+    }
+
     public boolean isConnected() {
         boolean isConnected = false;
         if (sock != null) {
@@ -100,6 +385,9 @@ public class Connection {
         return isConnected;
     }
     public boolean isAvailable() {
+        if (aborted) {
+            return false;
+        }
         if (isConnected()) {
             if (sock.getPort() == 0) {
                 return false;
@@ -133,6 +421,7 @@ public class Connection {
     public String toString() {
         return "Connection{" +
                 "sock=" + sock +
+                ", transport=" + (channel != null ? "nio" : "socket") +
                 ", inetSockAddr=" + inetSockAddr +
                 ", lastAccessTime=" + lastAccessTime +
                 ", needActiveTest=" + needActiveTest +
@@ -5,20 +5,25 @@ import org.slf4j.LoggerFactory;
 import top.folen.common.FastDfsException;
 import top.folen.fastdfs.ClientGlobal;
 
-import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
-public class ConnectionManager {
+/**
+ * 基于公平锁的连接管理器，连接的创建和校验都在锁内完成
+ *
+ * @see ConcurrentConnectionManager
+ */
+public class ConnectionManager extends AbstractConnectionManager {
 
 	private static final Logger logger = LoggerFactory.getLogger(ConnectionManager.class);
 
-	private InetSocketAddress inetSocketAddress;
-
 	/**
 	 * total create connection pool
 	 */
@@ -41,13 +46,11 @@ public class ConnectionManager {
 	 */
 	private final LinkedList<Connection> freeConnections = new LinkedList<>();
 
-	private ConnectionManager() {
-	}
-
 	public ConnectionManager(InetSocketAddress socketAddress) {
-		this.inetSocketAddress = socketAddress;
+		super(socketAddress);
 	}
 
+	@Override
 	public Connection getConnection() throws FastDfsException {
 		lock.lock();
 		try {
@@ -56,26 +59,10 @@ public class ConnectionManager {
 				if (freeCount.get() > 0) {
 					freeCount.decrementAndGet();
 					connection = freeConnections.poll();
-					if (!connection.isAvailable() || (System.currentTimeMillis() - connection.getLastAccessTime()) > ClientGlobal.g_connection_pool_max_idle_time) {
+					if (!validate(connection)) {
 						closeConnection(connection);
 						continue;
 					}
-					if (connection.isNeedActiveTest()) {
-						boolean isActive;
-						try {
-							isActive = connection.activeTest();
-						} catch (IOException e) {
-							System.err.println("send to server[" + inetSocketAddress.getAddress().getHostAddress() +
-									":" + inetSocketAddress.getPort() + "] active test error ,emsg:" + e.getMessage());
-							isActive = false;
-						}
-						if (!isActive) {
-							closeConnection(connection);
-							continue;
-						} else {
-							connection.setNeedActiveTest(false);
-						}
-					}
 				} else if (ClientGlobal.g_connection_pool_max_count_per_entry == 0 || totalCount.get() < ClientGlobal.g_connection_pool_max_count_per_entry) {
 					connection = ConnectionUtil.create(this.inetSocketAddress);
 					totalCount.incrementAndGet();
@@ -86,10 +73,10 @@ public class ConnectionManager {
 							//wait single success
 							continue;
 						}
-						throw new FastDfsException("connect to server " + inetSocketAddress.getAddress().getHostAddress() + ":" + inetSocketAddress.getPort() + " fail, wait_time > " + ClientGlobal.g_connection_pool_max_wait_time_in_ms + "ms");
+						throw waitTimeoutException();
 					} catch (InterruptedException e) {
 						logger.error("建立连接异常", e);
-						throw new FastDfsException("connect to server " + inetSocketAddress.getAddress().getHostAddress() + ":" + inetSocketAddress.getPort() + " fail, emsg:" + e.getMessage());
+						throw new FastDfsException("connect to server " + getAddressInfo() + " fail, emsg:" + e.getMessage());
 					}
 				}
 				return connection;
@@ -99,6 +86,7 @@ public class ConnectionManager {
 		}
 	}
 
+	@Override
 	public void releaseConnection(Connection connection) {
 		if (connection == null) {
 			return;
@@ -114,19 +102,15 @@ public class ConnectionManager {
 		}
 	}
 
+	@Override
 	public void closeConnection(Connection connection) {
-		try {
-			if (connection != null) {
-				totalCount.decrementAndGet();
-				connection.closeDirectly();
-			}
-		} catch (IOException e) {
-			logger.error("close socket[{}:{}] error.",
-					inetSocketAddress.getAddress().getHostAddress(),
-					inetSocketAddress.getPort(), e);
+		if (connection != null) {
+			totalCount.decrementAndGet();
+			closeDirectly(connection);
 		}
 	}
 
+	@Override
 	public void setActiveTestFlag() {
 		if (freeCount.get() > 0) {
 			lock.lock();
@@ -140,10 +124,80 @@ public class ConnectionManager {
 		}
 	}
 
+	@Override
+	protected List<Connection> takeIdleConnections(long minIdleMillis) {
+		List<Connection> connections = new ArrayList<>();
+		if (freeCount.get() == 0) {
+			return connections;
+		}
+		long now = System.currentTimeMillis();
+		lock.lock();
+		try {
+			Iterator<Connection> iterator = freeConnections.iterator();
+			while (iterator.hasNext()) {
+				Connection connection = iterator.next();
+				if (connection.isNeedActiveTest() || now - connection.getLastAccessTime() >= minIdleMillis) {
+					iterator.remove();
+					freeCount.decrementAndGet();
+					connections.add(connection);
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+		return connections;
+	}
+
+	@Override
+	protected void putIdleConnection(Connection connection) {
+		lock.lock();
+		try {
+			freeConnections.add(connection);
+			freeCount.incrementAndGet();
+			condition.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	protected void discardIdleConnection(Connection connection) {
+		closeConnection(connection);
+	}
+
+	@Override
+	protected boolean reserveConnection() {
+		lock.lock();
+		try {
+			if (ClientGlobal.g_connection_pool_max_count_per_entry == 0 || totalCount.get() < ClientGlobal.g_connection_pool_max_count_per_entry) {
+				totalCount.incrementAndGet();
+				return true;
+			}
+			return false;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	protected void cancelReservation() {
+		totalCount.decrementAndGet();
+	}
+
+	@Override
+	public int getFreeCount() {
+		return freeCount.get();
+	}
+
+	@Override
+	public int getTotalCount() {
+		return totalCount.get();
+	}
+
 	@Override
 	public String toString() {
 		return "ConnectionManager{" +
-				"ip:port='" + inetSocketAddress.getAddress().getHostAddress() + ":" + inetSocketAddress.getPort() +
+				"ip:port='" + getAddressInfo() +
 				", totalCount=" + totalCount +
 				", freeCount=" + freeCount +
 				", freeConnections =" + freeConnections +
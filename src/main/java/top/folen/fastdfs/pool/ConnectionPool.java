@@ -1,11 +1,17 @@
 package top.folen.fastdfs.pool;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import top.folen.common.FastDfsException;
+import top.folen.fastdfs.ClientGlobal;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 连接池相关操作
@@ -14,28 +20,98 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class ConnectionPool {
 
+	private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionPool.class);
+
 	/**
 	 * key is ip:port, value is ConnectionManager
 	 */
-	private final static ConcurrentHashMap<String, ConnectionManager> CP = new ConcurrentHashMap<>();
+	private final static ConcurrentHashMap<String, AbstractConnectionManager> CP = new ConcurrentHashMap<>();
+
+	/**
+	 * background maintainer, evict and active test the free connections, keep min_idle connections
+	 */
+	private static ScheduledExecutorService maintainer;
 
 	public static Connection getConnection(InetSocketAddress socketAddress) throws FastDfsException {
 		if (socketAddress == null) {
 			return null;
 		}
+		return getConnectionManager(socketAddress).getConnection();
+	}
+
+	/**
+	 * get the connection manager of the server, create it if not exists
+	 *
+	 * @param socketAddress the server address
+	 * @return the connection manager
+	 */
+	public static AbstractConnectionManager getConnectionManager(InetSocketAddress socketAddress) {
 		String key = getKey(socketAddress);
-		ConnectionManager connectionManager;
+		AbstractConnectionManager connectionManager;
 		connectionManager = CP.get(key);
 		if (connectionManager == null) {
 			synchronized (ConnectionPool.class) {
 				connectionManager = CP.get(key);
 				if (connectionManager == null) {
-					connectionManager = new ConnectionManager(socketAddress);
+					connectionManager = newConnectionManager(socketAddress);
 					CP.put(key, connectionManager);
+					startMaintainer();
 				}
 			}
 		}
-		return connectionManager.getConnection();
+		return connectionManager;
+	}
+
+	/**
+	 * start the background maintainer if connection_pool.maintenance_interval &gt; 0
+	 */
+	private static synchronized void startMaintainer() {
+		if (maintainer != null || ClientGlobal.g_connection_pool_maintenance_interval <= 0) {
+			return;
+		}
+		maintainer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "fastdfs-connection-pool-maintainer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long interval = ClientGlobal.g_connection_pool_maintenance_interval;
+		maintainer.scheduleWithFixedDelay(ConnectionPool::maintain, interval, interval, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * run maintenance of all entries once
+	 */
+	public static void maintain() {
+		for (AbstractConnectionManager connectionManager : CP.values()) {
+			try {
+				connectionManager.maintain();
+			} catch (Throwable e) {
+				LOGGER.error("maintain connection pool of {} error", connectionManager.getAddressInfo(), e);
+			}
+		}
+	}
+
+	/**
+	 * stop the background maintainer, it will be restarted when a new entry is created
+	 */
+	public static synchronized void stopMaintainer() {
+		if (maintainer != null) {
+			maintainer.shutdownNow();
+			maintainer = null;
+		}
+	}
+
+	/**
+	 * create the connection manager of the pool type configured by connection_pool.type
+	 *
+	 * @param socketAddress the server address
+	 * @return the connection manager
+	 */
+	private static AbstractConnectionManager newConnectionManager(InetSocketAddress socketAddress) {
+		if (ClientGlobal.CONNECTION_POOL_TYPE_CONCURRENT.equalsIgnoreCase(ClientGlobal.g_connection_pool_type)) {
+			return new ConcurrentConnectionManager(socketAddress);
+		}
+		return new ConnectionManager(socketAddress);
 	}
 
 	public static void releaseConnection(Connection connection) throws IOException {
@@ -43,7 +119,7 @@ public class ConnectionPool {
 			return;
 		}
 		String key = getKey(connection.getInetSocketAddress());
-		ConnectionManager connectionManager = CP.get(key);
+		AbstractConnectionManager connectionManager = CP.get(key);
 		if (connectionManager != null) {
 			connectionManager.releaseConnection(connection);
 		} else {
@@ -57,7 +133,7 @@ public class ConnectionPool {
 			return;
 		}
 		String key = getKey(connection.getInetSocketAddress());
-		ConnectionManager connectionManager = CP.get(key);
+		AbstractConnectionManager connectionManager = CP.get(key);
 		if (connectionManager != null) {
 			connectionManager.closeConnection(connection);
 			connectionManager.setActiveTestFlag();
@@ -66,6 +142,25 @@ public class ConnectionPool {
 		}
 	}
 
+	/**
+	 * close a connection known to be unusable by itself, e.g. aborted by the caller, the free connections of the
+	 * server are not marked as need active test
+	 *
+	 * @param connection the connection
+	 */
+	public static void discardConnection(Connection connection) throws IOException {
+		if (connection == null) {
+			return;
+		}
+		String key = getKey(connection.getInetSocketAddress());
+		AbstractConnectionManager connectionManager = CP.get(key);
+		if (connectionManager != null) {
+			connectionManager.closeConnection(connection);
+		} else {
+			connection.closeDirectly();
+		}
+	}
+
 	private static String getKey(InetSocketAddress socketAddress) {
 		if (socketAddress == null) {
 			return null;
@@ -77,7 +172,7 @@ public class ConnectionPool {
 	public String toString() {
 		if (!CP.isEmpty()) {
 			StringBuilder builder = new StringBuilder();
-			for (Map.Entry<String, ConnectionManager> managerEntry : CP.entrySet()) {
+			for (Map.Entry<String, AbstractConnectionManager> managerEntry : CP.entrySet()) {
 				builder.append("key:[").append(managerEntry.getKey()).append(" ]-------- entry:").append(managerEntry.getValue()).append("\n");
 			}
 			return builder.toString();
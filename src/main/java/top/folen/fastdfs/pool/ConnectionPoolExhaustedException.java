@@ -0,0 +1,17 @@
+package top.folen.fastdfs.pool;
+
+import top.folen.common.FastDfsException;
+
+/**
+ * 连接池中某个地址的连接数已达 max_count_per_entry，等待 max_wait_time_in_ms 后仍没有空闲连接；
+ * 这是客户端自身的限制，不代表服务端连接失败
+ *
+ * @author sec
+ * @version 1.0
+ **/
+public class ConnectionPoolExhaustedException extends FastDfsException {
+
+	public ConnectionPoolExhaustedException(String message) {
+		super(message);
+	}
+}
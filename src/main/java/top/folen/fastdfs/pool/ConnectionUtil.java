@@ -24,8 +24,13 @@ public class ConnectionUtil {
 	 */
 	public static Connection create(InetSocketAddress socketAddress) throws FastDfsException {
 		try {
+			if (ClientGlobal.NETWORK_TRANSPORT_NIO.equalsIgnoreCase(ClientGlobal.g_network_transport)) {
+				return new Connection(TimeoutSocketChannel.open(socketAddress, ClientGlobal.g_connect_timeout,
+						ClientGlobal.g_network_timeout), socketAddress);
+			}
 			Socket sock = new Socket();
 			sock.setReuseAddress(true);
+			ClientGlobal.configSocket(sock);
 			sock.setSoTimeout(ClientGlobal.g_network_timeout);
 			sock.connect(socketAddress, ClientGlobal.g_connect_timeout);
 			return new Connection(sock, socketAddress);
@@ -0,0 +1,288 @@
+package top.folen.fastdfs.pool;
+
+import top.folen.fastdfs.ClientGlobal;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * 非阻塞 SocketChannel 的包装，读写不可继续时在连接自己的 Selector 上等待，等待超时即抛出 SocketTimeoutException，
+ * 与 Socket 的 soTimeout 语义一致
+ * <p>
+ * 除了聚集写、分散读之外，同时提供基于 channel 的输入输出流，供仍以流方式收发的协议代码使用
+ *
+ * @author sec
+ * @version 1.0
+ **/
+public class TimeoutSocketChannel implements Closeable {
+
+	private final SocketChannel channel;
+
+	private final Selector selector;
+
+	private final SelectionKey selectionKey;
+
+	/**
+	 * read/write timeout, unit: millisecond, 0 for wait forever
+	 */
+	private final int timeout;
+
+	private final InputStream inputStream = new ChannelInputStream();
+
+	private final OutputStream outputStream = new ChannelOutputStream();
+
+	private TimeoutSocketChannel(SocketChannel channel, int timeout) throws IOException {
+		this.channel = channel;
+		this.timeout = timeout;
+		this.selector = Selector.open();
+		try {
+			this.selectionKey = channel.register(selector, 0);
+		} catch (IOException e) {
+			selector.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * connect to the server and switch the channel to non-blocking mode
+	 *
+	 * @param address        the server address
+	 * @param connectTimeout connect timeout, unit: millisecond
+	 * @param networkTimeout read/write timeout, unit: millisecond
+	 * @return the connected channel
+	 * @throws IOException if connect fail
+	 */
+	public static TimeoutSocketChannel open(InetSocketAddress address, int connectTimeout,
+	                                        int networkTimeout) throws IOException {
+		SocketChannel channel = SocketChannel.open();
+		try {
+			channel.socket().setReuseAddress(true);
+			ClientGlobal.configSocket(channel.socket());
+			channel.socket().connect(address, connectTimeout);
+			channel.configureBlocking(false);
+			return new TimeoutSocketChannel(channel, networkTimeout);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the socket of the channel, only for querying the socket state
+	 */
+	public Socket socket() {
+		return channel.socket();
+	}
+
+	public InputStream getInputStream() {
+		return inputStream;
+	}
+
+	public OutputStream getOutputStream() {
+		return outputStream;
+	}
+
+	/**
+	 * write all remaining bytes of the buffers by gathering write
+	 *
+	 * @param srcs the buffers to write
+	 * @throws IOException if write fail or timeout
+	 */
+	public void write(ByteBuffer... srcs) throws IOException {
+		long remainBytes = remaining(srcs);
+		while (remainBytes > 0) {
+			long bytes = channel.write(srcs);
+			if (bytes == 0) {
+				await(SelectionKey.OP_WRITE);
+			}
+			remainBytes -= bytes;
+		}
+	}
+
+	/**
+	 * scattering read, wait until at least one byte read
+	 *
+	 * @param dsts the buffers to read into
+	 * @return the read bytes, 0 if the buffers have no remaining, -1 if the end of stream
+	 * @throws IOException if read fail or timeout
+	 */
+	public long read(ByteBuffer... dsts) throws IOException {
+		if (remaining(dsts) == 0) {
+			return 0;
+		}
+		long bytes;
+		while ((bytes = channel.read(dsts)) == 0) {
+			await(SelectionKey.OP_READ);
+		}
+		return bytes;
+	}
+
+	/**
+	 * scattering read until all the buffers are full
+	 *
+	 * @param dsts the buffers to read into
+	 * @throws IOException if read fail, timeout or the end of stream reached
+	 */
+	public void readFully(ByteBuffer... dsts) throws IOException {
+		long expectBytes = remaining(dsts);
+		long remainBytes = expectBytes;
+		while (remainBytes > 0) {
+			long bytes = read(dsts);
+			if (bytes < 0) {
+				throw new EOFException("recv package size " + (expectBytes - remainBytes) + " != " + expectBytes);
+			}
+			remainBytes -= bytes;
+		}
+	}
+
+	/**
+	 * send the file region by FileChannel.transferTo, the kernel sends the file without copying to user space
+	 * (sendfile) when supported
+	 *
+	 * @param src      the file channel
+	 * @param position the start position of the file
+	 * @param count    the bytes to send
+	 * @throws IOException if write fail, timeout or the file is shorter than position + count
+	 */
+	public void transferFrom(FileChannel src, long position, long count) throws IOException {
+		long remainBytes = count;
+		while (remainBytes > 0) {
+			long bytes = src.transferTo(position, remainBytes, channel);
+			if (bytes == 0) {
+				if (position >= src.size()) {
+					throw new EOFException("file size " + src.size() + " < " + (position + remainBytes));
+				}
+				await(SelectionKey.OP_WRITE);
+			}
+			position += bytes;
+			remainBytes -= bytes;
+		}
+	}
+
+	/**
+	 * receive the bytes into the file region by FileChannel.transferFrom
+	 *
+	 * @param dst      the file channel
+	 * @param position the start position of the file, can not be greater than the file size
+	 * @param count    the bytes to receive
+	 * @throws IOException if read fail, timeout or the end of stream reached
+	 */
+	public void transferTo(FileChannel dst, long position, long count) throws IOException {
+		if (position > dst.size()) {
+			throw new IOException("position " + position + " > file size " + dst.size());
+		}
+		long remainBytes = count;
+		boolean readable = false;
+		while (remainBytes > 0) {
+			long bytes = dst.transferFrom(channel, position, remainBytes);
+			if (bytes == 0) {
+				if (readable) {
+					// readable but nothing transferred, the end of stream
+					throw new EOFException("recv package size " + (count - remainBytes) + " != " + count);
+				}
+				await(SelectionKey.OP_READ);
+				readable = true;
+				continue;
+			}
+			readable = false;
+			position += bytes;
+			remainBytes -= bytes;
+		}
+	}
+
+	private void await(int ops) throws IOException {
+		try {
+			selectionKey.interestOps(ops);
+		} catch (CancelledKeyException e) {
+			// closed by abort
+			throw new ClosedChannelException();
+		}
+		try {
+			if (selector.select(timeout) == 0) {
+				if (!channel.isOpen()) {
+					throw new ClosedChannelException();
+				}
+				throw new SocketTimeoutException(ops == SelectionKey.OP_READ ? "Read timed out" : "Write timed out");
+			}
+		} finally {
+			selector.selectedKeys().clear();
+		}
+	}
+
+	private static long remaining(ByteBuffer[] buffers) {
+		long remaining = 0;
+		for (ByteBuffer buffer : buffers) {
+			remaining += buffer.remaining();
+		}
+		return remaining;
+	}
+
+	/**
+	 * close the channel from another thread, wake up the blocked read or write which fails with
+	 * ClosedChannelException, the owner thread still calls close to release the selector
+	 */
+	public void abort() throws IOException {
+		channel.close();
+		selector.wakeup();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			channel.close();
+		} finally {
+			selector.close();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "TimeoutSocketChannel{" +
+				"channel=" + channel +
+				", timeout=" + timeout +
+				'}';
+	}
+
+	private class ChannelInputStream extends InputStream {
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			return (int) TimeoutSocketChannel.this.read(ByteBuffer.wrap(b, off, len));
+		}
+	}
+
+	private class ChannelOutputStream extends OutputStream {
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[]{(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			TimeoutSocketChannel.this.write(ByteBuffer.wrap(b, off, len));
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package top.folen.fastdfs;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * streaming upload of unknown length to a fake storage server which keeps the appender files in memory
+ */
+public class AppenderOutputStreamTests {
+
+	private static final String GROUP_NAME = "group1";
+
+	private static final String APPENDER_FILENAME = "M00/00/00/appender.bin";
+
+	private static final String NORMAL_FILENAME = "M00/00/00/normal.bin";
+
+	private final Map<String, byte[]> files = new ConcurrentHashMap<>();
+
+	private final AtomicInteger requestCount = new AtomicInteger();
+
+	private FakeStorageServer server;
+
+	private StorageClient client;
+
+	@Before
+	public void setUp() throws IOException {
+		server = new FakeStorageServer().handle(ProtoCommon.STORAGE_PROTO_CMD_UPLOAD_APPENDER_FILE, body -> {
+			requestCount.incrementAndGet();
+			int dataOffset = 1 + ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE + ProtoCommon.FDFS_FILE_EXT_NAME_MAX_LEN;
+			files.put(APPENDER_FILENAME, Arrays.copyOfRange(body, dataOffset, body.length));
+			return new FakeStorageServer.Response((byte) 0, fileResponse(APPENDER_FILENAME));
+		}).handle(ProtoCommon.STORAGE_PROTO_CMD_MODIFY_FILE, body -> {
+			requestCount.incrementAndGet();
+			int nameLen = (int) ProtoCommon.buff2long(body, 0);
+			int fileOffset = (int) ProtoCommon.buff2long(body, ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE);
+			int dataOffset = 3 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE + nameLen;
+			byte[] content = files.get(new String(body, 3 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE, nameLen));
+			if (content == null || fileOffset != content.length) {
+				return new FakeStorageServer.Response(ProtoCommon.ERR_NO_EINVAL, null);
+			}
+			byte[] modified = Arrays.copyOf(content, content.length + body.length - dataOffset);
+			System.arraycopy(body, dataOffset, modified, fileOffset, body.length - dataOffset);
+			files.put(APPENDER_FILENAME, modified);
+			return new FakeStorageServer.Response((byte) 0, new byte[0]);
+		}).handle(ProtoCommon.STORAGE_PROTO_CMD_REGENERATE_APPENDER_FILENAME, body -> {
+			files.put(NORMAL_FILENAME, files.remove(new String(body)));
+			return new FakeStorageServer.Response((byte) 0, fileResponse(NORMAL_FILENAME));
+		}).handle(ProtoCommon.STORAGE_PROTO_CMD_DELETE_FILE, body -> {
+			String filename = new String(body, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN,
+					body.length - ProtoCommon.FDFS_GROUP_NAME_MAX_LEN);
+			return new FakeStorageServer.Response(files.remove(filename) != null ? 0 : ProtoCommon.ERR_NO_ENOENT,
+					new byte[0]);
+		});
+		client = new StorageClient(null, server.getStorageServer());
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		server.close();
+	}
+
+	private static byte[] fileResponse(String filename) {
+		byte[] resp = new byte[ProtoCommon.FDFS_GROUP_NAME_MAX_LEN + filename.length()];
+		System.arraycopy(GROUP_NAME.getBytes(), 0, resp, 0, GROUP_NAME.length());
+		System.arraycopy(filename.getBytes(), 0, resp, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN, filename.length());
+		return resp;
+	}
+
+	@Test
+	public void testUploadInputStream() throws Exception {
+		byte[] content = new byte[2 * AppenderOutputStream.DEFAULT_CHUNK_SIZE + 100];
+		new Random(7).nextBytes(content);
+
+		String[] results = client.uploadFile(GROUP_NAME, new ByteArrayInputStream(content), "bin", null);
+		Assert.assertArrayEquals(new String[]{GROUP_NAME, NORMAL_FILENAME}, results);
+		Assert.assertArrayEquals(content, files.get(NORMAL_FILENAME));
+		// create and 2 appends
+		Assert.assertEquals(3, requestCount.get());
+	}
+
+	@Test
+	public void testKeepAppenderFile() throws Exception {
+		AppenderOutputStream out = new AppenderOutputStream(client, GROUP_NAME, "bin", null, 10, false);
+		out.write('a');
+		out.write("0123456789abcdef".getBytes());
+		Assert.assertEquals(APPENDER_FILENAME, out.getRemoteFilename());
+		Assert.assertEquals(10, out.getFileSize());
+		out.close();
+
+		Assert.assertEquals(17, out.getFileSize());
+		Assert.assertEquals(APPENDER_FILENAME, out.getRemoteFilename());
+		Assert.assertEquals("a0123456789abcdef", new String(files.get(APPENDER_FILENAME)));
+	}
+
+	@Test
+	public void testAbortDeletesAppenderFile() {
+		InputStream failing = new SequenceInputStream(
+				new ByteArrayInputStream(new byte[AppenderOutputStream.DEFAULT_CHUNK_SIZE + 100]), new InputStream() {
+			@Override
+			public int read() throws IOException {
+				throw new IOException("read fail");
+			}
+		});
+
+		try {
+			client.uploadFile(GROUP_NAME, failing, "bin", null);
+			Assert.fail();
+		} catch (IOException e) {
+			Assert.assertEquals("read fail", e.getMessage());
+		}
+		// the first chunk is sent before the read fails
+		Assert.assertEquals(1, requestCount.get());
+		Assert.assertTrue(files.isEmpty());
+	}
+
+	@Test
+	public void testEmptyStream() throws Exception {
+		String[] results = client.uploadFile(GROUP_NAME, new ByteArrayInputStream(new byte[0]), "bin", null);
+		Assert.assertArrayEquals(new String[]{GROUP_NAME, NORMAL_FILENAME}, results);
+		Assert.assertEquals(0, files.get(NORMAL_FILENAME).length);
+	}
+}
@@ -0,0 +1,153 @@
+package top.folen.fastdfs;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import top.folen.common.FastDfsException;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * async requests to a fake server serving both the tracker and the storage commands
+ */
+public class AsyncStorageClientTests {
+
+	private static final String GROUP_NAME = "group1";
+
+	private final CountDownLatch blocked = new CountDownLatch(1);
+
+	private FakeStorageServer server;
+
+	private TrackerGroup oldTrackerGroup;
+
+	@Before
+	public void setUp() throws IOException {
+		server = new FakeStorageServer();
+		// the tracker routes every file to the fake server itself
+		byte[] route = new byte[ProtoCommon.TRACKER_QUERY_STORAGE_FETCH_BODY_LEN];
+		System.arraycopy(GROUP_NAME.getBytes(), 0, route, 0, GROUP_NAME.length());
+		System.arraycopy("127.0.0.1".getBytes(), 0, route, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN, 9);
+		System.arraycopy(ProtoCommon.long2buff(server.getPort()), 0, route, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN
+				+ ProtoCommon.FDFS_IPADDR_SIZE - 1, ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE);
+		server.handle(ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_FETCH_ONE,
+				body -> new FakeStorageServer.Response((byte) 0, route))
+				.handle(ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_UPDATE,
+						body -> new FakeStorageServer.Response((byte) 0, route))
+				.handle(ProtoCommon.STORAGE_PROTO_CMD_DOWNLOAD_FILE, body -> {
+					int nameOffset = 2 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE + ProtoCommon.FDFS_GROUP_NAME_MAX_LEN;
+					String filename = new String(body, nameOffset, body.length - nameOffset);
+					if (filename.startsWith("blocked")) {
+						try {
+							blocked.await(10, TimeUnit.SECONDS);
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+					}
+					if (filename.startsWith("missing")) {
+						return new FakeStorageServer.Response(ProtoCommon.ERR_NO_ENOENT, null);
+					}
+					return new FakeStorageServer.Response((byte) 0, filename.getBytes());
+				})
+				.handle(ProtoCommon.STORAGE_PROTO_CMD_DELETE_FILE,
+						body -> new FakeStorageServer.Response(ProtoCommon.ERR_NO_ENOENT, new byte[0]));
+		oldTrackerGroup = ClientGlobal.G_TRACKER_GROUP;
+		ClientGlobal.G_TRACKER_GROUP = new TrackerGroup(new InetSocketAddress[]{
+				new InetSocketAddress("127.0.0.1", server.getPort())});
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		blocked.countDown();
+		server.close();
+		ClientGlobal.G_TRACKER_GROUP = oldTrackerGroup;
+	}
+
+	private static String fileId(String filename) {
+		return GROUP_NAME + "/" + filename;
+	}
+
+	private static FastDfsException failure(CompletableFuture<?> future) throws InterruptedException {
+		try {
+			future.get();
+			Assert.fail("the future should fail");
+			return null;
+		} catch (ExecutionException e) {
+			Assert.assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof FastDfsException);
+			return (FastDfsException) e.getCause();
+		}
+	}
+
+	@Test
+	public void testDownload() throws Exception {
+		AsyncStorageClient client = new AsyncStorageClient(2, 10);
+		try {
+			CompletableFuture<byte[]> found = client.downloadFile1(fileId("file-1"));
+			CompletableFuture<byte[]> missing = client.downloadFile1(fileId("missing-1"));
+			Assert.assertEquals("file-1", new String(found.get()));
+			Assert.assertEquals(ProtoCommon.ERR_NO_ENOENT, failure(missing).getErrorCode());
+		} finally {
+			client.close();
+		}
+	}
+
+	@Test
+	public void testErrnoResult() throws Exception {
+		AsyncStorageClient client = new AsyncStorageClient(2, 10);
+		try {
+			CompletableFuture<Void> deleted = client.deleteFile1(fileId("file-2"));
+			Assert.assertEquals(ProtoCommon.ERR_NO_ENOENT, failure(deleted).getErrorCode());
+		} finally {
+			client.close();
+		}
+	}
+
+	@Test
+	public void testQueueFull() throws Exception {
+		AsyncStorageClient client = new AsyncStorageClient(1, 1);
+		try {
+			CompletableFuture<byte[]> running = client.downloadFile1(fileId("blocked-1"));
+			CompletableFuture<byte[]> queued = client.downloadFile1(fileId("blocked-2"));
+			CompletableFuture<byte[]> rejected = client.downloadFile1(fileId("blocked-3"));
+			Assert.assertTrue(rejected.isCompletedExceptionally());
+			try {
+				rejected.get();
+				Assert.fail("the request should be rejected");
+			} catch (ExecutionException e) {
+				Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+			}
+
+			blocked.countDown();
+			Assert.assertEquals("blocked-1", new String(running.get()));
+			Assert.assertEquals("blocked-2", new String(queued.get()));
+		} finally {
+			client.close();
+		}
+	}
+
+	@Test
+	public void testClientPerThread() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			AsyncStorageClient client = new AsyncStorageClient(executor);
+			StorageClient1[] clients = executor.submit(() -> {
+				// the inner task runs on the other thread while this one is busy
+				StorageClient1 inner = executor.submit(client::currentClient).get();
+				return new StorageClient1[]{client.currentClient(), client.currentClient(), inner};
+			}).get();
+			Assert.assertNotNull(clients[0]);
+			Assert.assertSame(clients[0], clients[1]);
+			Assert.assertNotSame(clients[0], clients[2]);
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
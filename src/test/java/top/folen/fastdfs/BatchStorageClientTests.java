@@ -0,0 +1,185 @@
+package top.folen.fastdfs;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import top.folen.common.NameValuePair;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * pipelined batch requests to two fake storage servers, the routes are put into the route cache in advance
+ */
+public class BatchStorageClientTests {
+
+	private static final String GROUP_NAME = "group1";
+
+	private final FakeStorageServer[] servers = new FakeStorageServer[2];
+
+	private final Set<String> files = ConcurrentHashMap.newKeySet();
+
+	private int oldTtl;
+
+	private BatchStorageClient client;
+
+	@Before
+	public void setUp() throws IOException {
+		oldTtl = ClientGlobal.g_route_cache_ttl_in_ms;
+		ClientGlobal.g_route_cache_ttl_in_ms = 60000;
+		StorageRouteCache.clear();
+		for (int i = 0; i < servers.length; i++) {
+			servers[i] = new FakeStorageServer().handle(ProtoCommon.STORAGE_PROTO_CMD_DELETE_FILE, body -> {
+				String filename = new String(body, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN,
+						body.length - ProtoCommon.FDFS_GROUP_NAME_MAX_LEN);
+				return new FakeStorageServer.Response(files.remove(filename) ? 0 : ProtoCommon.ERR_NO_ENOENT,
+						new byte[0]);
+			}).handle(ProtoCommon.STORAGE_PROTO_CMD_GET_METADATA, body -> {
+				String filename = new String(body, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN,
+						body.length - ProtoCommon.FDFS_GROUP_NAME_MAX_LEN);
+				if (!files.contains(filename)) {
+					return new FakeStorageServer.Response(ProtoCommon.ERR_NO_ENOENT, new byte[0]);
+				}
+				NameValuePair[] metaList = {new NameValuePair("name", filename), new NameValuePair("width", "64")};
+				return new FakeStorageServer.Response((byte) 0, ProtoCommon.packMetadata(metaList).getBytes());
+			}).handle(ProtoCommon.STORAGE_PROTO_CMD_QUERY_FILE_INFO, body -> {
+				String filename = new String(body, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN,
+						body.length - ProtoCommon.FDFS_GROUP_NAME_MAX_LEN);
+				if (!files.contains(filename)) {
+					return new FakeStorageServer.Response(ProtoCommon.ERR_NO_ENOENT, new byte[0]);
+				}
+				byte[] info = new byte[3 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE + ProtoCommon.FDFS_IPADDR_SIZE];
+				System.arraycopy(ProtoCommon.long2buff(filename.length()), 0, info, 0,
+						ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE);
+				byte[] ipAddr = "127.0.0.1".getBytes();
+				System.arraycopy(ipAddr, 0, info, 3 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE, ipAddr.length);
+				return new FakeStorageServer.Response((byte) 0, info);
+			});
+		}
+		client = new BatchStorageClient(null, 4);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		client.close();
+		for (FakeStorageServer server : servers) {
+			server.close();
+		}
+		ClientGlobal.g_route_cache_ttl_in_ms = oldTtl;
+		StorageRouteCache.clear();
+	}
+
+	@Test
+	public void testDeleteFiles() {
+		List<String> fileIds = new ArrayList<>();
+		for (int i = 0; i < 500; i++) {
+			String filename = "f" + i;
+			if (i % 5 != 0) {
+				files.add(filename);
+			}
+			StorageRouteCache.put(StorageRouteCache.ROUTE_UPDATE, GROUP_NAME, filename,
+					servers[i % servers.length].getStorageServer());
+			fileIds.add(GROUP_NAME + "/" + filename);
+		}
+		fileIds.add("invalid");
+
+		Map<String, StorageResult<Void>> results = client.deleteFiles(fileIds);
+		Assert.assertEquals(new ArrayList<>(fileIds), new ArrayList<>(results.keySet()));
+		for (int i = 0; i < 500; i++) {
+			StorageResult<Void> result = results.get(fileIds.get(i));
+			Assert.assertEquals(i % 5 != 0 ? 0 : ProtoCommon.ERR_NO_ENOENT, result.getErrno());
+		}
+		Assert.assertEquals(ProtoCommon.ERR_NO_EINVAL, results.get("invalid").getErrno());
+		Assert.assertTrue(files.isEmpty());
+	}
+
+	@Test
+	public void testGetMetadata() {
+		List<String> fileIds = new ArrayList<>();
+		for (int i = 0; i < 300; i++) {
+			String filename = "m" + i;
+			if (i % 7 != 0) {
+				files.add(filename);
+			}
+			StorageRouteCache.put(StorageRouteCache.ROUTE_UPDATE, GROUP_NAME, filename,
+					servers[i % servers.length].getStorageServer());
+			fileIds.add(GROUP_NAME + "/" + filename);
+		}
+
+		Map<String, StorageResult<NameValuePair[]>> results = client.getMetadata(fileIds);
+		for (int i = 0; i < 300; i++) {
+			StorageResult<NameValuePair[]> result = results.get(fileIds.get(i));
+			if (i % 7 == 0) {
+				Assert.assertEquals(ProtoCommon.ERR_NO_ENOENT, result.getErrno());
+			} else {
+				Assert.assertEquals(2, result.getData().length);
+				Assert.assertEquals("m" + i, result.getData()[0].getValue());
+				Assert.assertEquals("64", result.getData()[1].getValue());
+			}
+		}
+	}
+
+	@Test
+	public void testQueryFileInfosStreamed() throws InterruptedException {
+		List<String> fileIds = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			String filename = "q" + i;
+			if (i % 10 != 0) {
+				files.add(filename);
+			}
+			StorageRouteCache.put(StorageRouteCache.ROUTE_UPDATE, GROUP_NAME, filename,
+					servers[i % servers.length].getStorageServer());
+			fileIds.add(GROUP_NAME + "/" + filename);
+		}
+
+		client.setWindowSize(7);
+		Map<String, StorageResult<FileInfo>> results = new ConcurrentHashMap<>();
+		client.queryFileInfos(fileIds, results::put);
+		Assert.assertEquals(1000, results.size());
+		for (int i = 0; i < 1000; i++) {
+			StorageResult<FileInfo> result = results.get(fileIds.get(i));
+			if (i % 10 == 0) {
+				Assert.assertEquals(ProtoCommon.ERR_NO_ENOENT, result.getErrno());
+			} else {
+				Assert.assertEquals(("q" + i).length(), result.getData().getFileSize());
+				Assert.assertEquals("127.0.0.1", result.getData().getSourceIpAddr());
+			}
+		}
+
+		BatchStorageClient.Progress progress = client.getProgress();
+		Assert.assertEquals(1000, progress.getTotal());
+		Assert.assertEquals(900, progress.getSucceeded());
+		Assert.assertEquals(100, progress.getFailed());
+		Assert.assertEquals(0, progress.getInFlight());
+		double rate = progress.getRate();
+		Assert.assertTrue(rate > 0);
+		// the rate of the finished batch does not decay while the client is idle
+		Thread.sleep(50);
+		Assert.assertEquals(rate, progress.getRate(), 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testWindowSizeCapped() {
+		client.setWindowSize(BatchStorageClient.MAX_WINDOW_SIZE + 1);
+	}
+
+	@Test
+	public void testNodeDownFailsItsFiles() throws IOException {
+		servers[1].close();
+		files.addAll(Arrays.asList("a", "b"));
+		StorageRouteCache.put(StorageRouteCache.ROUTE_UPDATE, GROUP_NAME, "a", servers[0].getStorageServer());
+		StorageRouteCache.put(StorageRouteCache.ROUTE_UPDATE, GROUP_NAME, "b", servers[1].getStorageServer());
+
+		Map<String, StorageResult<Void>> results = client.deleteFiles(Arrays.asList(GROUP_NAME + "/a",
+				GROUP_NAME + "/b"));
+		Assert.assertTrue(results.get(GROUP_NAME + "/a").isSuccess());
+		Assert.assertEquals(ProtoCommon.ERR_NO_EIO, results.get(GROUP_NAME + "/b").getErrno());
+		Assert.assertNull(StorageRouteCache.get(StorageRouteCache.ROUTE_UPDATE, GROUP_NAME, "b"));
+	}
+}
@@ -0,0 +1,122 @@
+package top.folen.fastdfs;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * bulk upload to two fake storage servers
+ */
+public class BulkUploaderTests {
+
+	private static final String GROUP_NAME = "group1";
+
+	private static final int DATA_OFFSET = 1 + ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE
+			+ ProtoCommon.FDFS_FILE_EXT_NAME_MAX_LEN;
+
+	private final FakeStorageServer[] servers = new FakeStorageServer[2];
+
+	private final AtomicInteger[] serverUploads = new AtomicInteger[2];
+
+	private final AtomicInteger[] serverMaxConcurrency = new AtomicInteger[2];
+
+	private final AtomicInteger concurrency = new AtomicInteger();
+
+	private final AtomicInteger maxConcurrency = new AtomicInteger();
+
+	@Before
+	public void setUp() throws IOException {
+		for (int i = 0; i < servers.length; i++) {
+			int serverIndex = i;
+			AtomicInteger serverConcurrency = new AtomicInteger();
+			serverUploads[i] = new AtomicInteger();
+			serverMaxConcurrency[i] = new AtomicInteger();
+			servers[i] = new FakeStorageServer().handle(ProtoCommon.STORAGE_PROTO_CMD_UPLOAD_FILE, body -> {
+				serverMaxConcurrency[serverIndex].accumulateAndGet(serverConcurrency.incrementAndGet(), Math::max);
+				maxConcurrency.accumulateAndGet(concurrency.incrementAndGet(), Math::max);
+				try {
+					Thread.sleep(10);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				serverUploads[serverIndex].incrementAndGet();
+				concurrency.decrementAndGet();
+				serverConcurrency.decrementAndGet();
+
+				// the stored filename is the file content
+				String filename = new String(body, DATA_OFFSET, body.length - DATA_OFFSET);
+				byte[] resp = new byte[ProtoCommon.FDFS_GROUP_NAME_MAX_LEN + filename.length()];
+				System.arraycopy(GROUP_NAME.getBytes(), 0, resp, 0, GROUP_NAME.length());
+				System.arraycopy(filename.getBytes(), 0, resp, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN,
+						filename.length());
+				return new FakeStorageServer.Response((byte) 0, resp);
+			});
+		}
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		for (FakeStorageServer server : servers) {
+			server.close();
+		}
+	}
+
+	@Test
+	public void testUploadInOrderWithConcurrencyLimits() throws Exception {
+		File localFile = File.createTempFile("bulk-upload", ".txt");
+		try {
+			Files.write(localFile.toPath(), "local-file".getBytes());
+			List<BulkUploader.Item> items = new ArrayList<>();
+			for (int i = 0; i < 40; i++) {
+				String content = String.format("item-%03d", i);
+				items.add(i % 2 == 0 ? BulkUploader.Item.of(content.getBytes(), "txt", null) :
+						BulkUploader.Item.of(ByteBuffer.wrap(content.getBytes()), "txt", null));
+			}
+			items.add(BulkUploader.Item.of(localFile.getAbsolutePath(), null, null));
+
+			BulkUploader uploader = new BulkUploader(null);
+			uploader.setConcurrencyPerNode(3);
+			List<StorageResult<String>> results = uploader.upload(new StorageServer[]{servers[0].getStorageServer(),
+					servers[1].getStorageServer()}, GROUP_NAME, items.iterator());
+
+			Assert.assertEquals(items.size(), results.size());
+			for (int i = 0; i < 40; i++) {
+				Assert.assertEquals(GROUP_NAME + "/" + String.format("item-%03d", i), results.get(i).getData());
+			}
+			Assert.assertEquals(GROUP_NAME + "/local-file", results.get(40).getData());
+			for (int i = 0; i < servers.length; i++) {
+				Assert.assertTrue(serverUploads[i].get() > 0);
+				Assert.assertTrue(serverMaxConcurrency[i].get() <= 3);
+			}
+		} finally {
+			localFile.delete();
+		}
+	}
+
+	@Test
+	public void testByteBudget() throws Exception {
+		List<BulkUploader.Item> items = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			items.add(BulkUploader.Item.of(String.format("item-%03d", i).getBytes(), null, null));
+		}
+		// a file larger than the budget is uploaded alone
+		items.add(BulkUploader.Item.of("a-large-item".getBytes(), null, null));
+
+		BulkUploader uploader = new BulkUploader(null);
+		uploader.setMaxInFlightBytes(2 * "item-000".length());
+		List<StorageResult<String>> results = uploader.upload(new StorageServer[]{servers[0].getStorageServer(),
+				servers[1].getStorageServer()}, GROUP_NAME, items.iterator());
+
+		Assert.assertEquals(GROUP_NAME + "/a-large-item", results.get(20).getData());
+		Assert.assertTrue(maxConcurrency.get() <= 2);
+	}
+}
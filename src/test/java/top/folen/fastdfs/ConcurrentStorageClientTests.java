@@ -0,0 +1,69 @@
+package top.folen.fastdfs;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * one client shared by many threads, against a fake storage server
+ */
+public class ConcurrentStorageClientTests {
+
+	private static final String GROUP_NAME = "group1";
+
+	private FakeStorageServer server;
+
+	@Before
+	public void setUp() throws IOException {
+		server = new FakeStorageServer().handle(ProtoCommon.STORAGE_PROTO_CMD_DOWNLOAD_FILE, body -> {
+			int nameOffset = 2 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE + ProtoCommon.FDFS_GROUP_NAME_MAX_LEN;
+			String filename = new String(body, nameOffset, body.length - nameOffset);
+			if (filename.startsWith("missing")) {
+				return new FakeStorageServer.Response(ProtoCommon.ERR_NO_ENOENT, null);
+			}
+			return new FakeStorageServer.Response((byte) 0, filename.getBytes());
+		});
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		server.close();
+	}
+
+	@Test
+	public void testSharedByThreads() throws Exception {
+		ConcurrentStorageClient client = new ConcurrentStorageClient(null, server.getStorageServer());
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int i = 0; i < 200; i++) {
+				String filename = (i % 3 == 0 ? "missing-" : "file-") + i;
+				futures.add(executor.submit(() -> {
+					StorageResult<byte[]> result = client.downloadFile(GROUP_NAME, filename, 0, 0);
+					if (filename.startsWith("missing")) {
+						Assert.assertFalse(result.isSuccess());
+						Assert.assertEquals(ProtoCommon.ERR_NO_ENOENT, result.getErrno());
+						Assert.assertNull(result.getData());
+					} else {
+						Assert.assertTrue(result.isSuccess());
+						Assert.assertEquals(filename, new String(result.getData()));
+					}
+					return null;
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
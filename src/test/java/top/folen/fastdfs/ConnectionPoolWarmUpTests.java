@@ -0,0 +1,108 @@
+package top.folen.fastdfs;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import top.folen.fastdfs.pool.ConnectionPool;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * warm up the connections to a fake tracker and the fake storage listed by it
+ */
+public class ConnectionPoolWarmUpTests {
+
+	private static final String GROUP_NAME = "group1";
+
+	private final CountDownLatch blocked = new CountDownLatch(1);
+
+	private FakeStorageServer tracker;
+
+	private FakeStorageServer storage;
+
+	private TrackerGroup oldTrackerGroup;
+
+	@Before
+	public void setUp() throws IOException {
+		storage = new FakeStorageServer();
+		tracker = new FakeStorageServer();
+		oldTrackerGroup = ClientGlobal.G_TRACKER_GROUP;
+		ClientGlobal.G_TRACKER_GROUP = new TrackerGroup(new InetSocketAddress[]{
+				new InetSocketAddress("127.0.0.1", tracker.getPort())});
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		blocked.countDown();
+		tracker.close();
+		storage.close();
+		ClientGlobal.G_TRACKER_GROUP = oldTrackerGroup;
+	}
+
+	private static byte[] groupStat() {
+		byte[] body = new byte[GroupStatStruct.getFieldsTotalSize()];
+		System.arraycopy(GROUP_NAME.getBytes(), 0, body,
+				GroupStatStruct.fieldsArray[GroupStatStruct.FIELD_INDEX_GROUP_NAME].offset, GROUP_NAME.length());
+		return body;
+	}
+
+	private static byte[] storageStat(int port) {
+		byte[] body = new byte[StorageStatStruct.getFieldsTotalSize()];
+		body[StorageStatStruct.fieldsArray[StorageStatStruct.FIELD_INDEX_STATUS].offset] =
+				ProtoCommon.FDFS_STORAGE_STATUS_ACTIVE;
+		System.arraycopy("127.0.0.1".getBytes(), 0, body,
+				StorageStatStruct.fieldsArray[StorageStatStruct.FIELD_INDEX_IP_ADDR].offset, 9);
+		ProtoCommon.long2buff(port, body, StorageStatStruct.fieldsArray[StorageStatStruct.FIELD_INDEX_STORAGE_PORT]
+				.offset);
+		return body;
+	}
+
+	private static ConnectionPoolWarmUp.Result find(List<ConnectionPoolWarmUp.Result> results, int port) {
+		for (ConnectionPoolWarmUp.Result result : results) {
+			if (result.getAddress().getPort() == port) {
+				return result;
+			}
+		}
+		return null;
+	}
+
+	@Test
+	public void testWarmUpListedStorages() {
+		tracker.handle(ProtoCommon.TRACKER_PROTO_CMD_SERVER_LIST_GROUP,
+				body -> new FakeStorageServer.Response((byte) 0, groupStat()))
+				.handle(ProtoCommon.TRACKER_PROTO_CMD_SERVER_LIST_STORAGE,
+						body -> new FakeStorageServer.Response((byte) 0, storageStat(storage.getPort())));
+
+		List<ConnectionPoolWarmUp.Result> results = ConnectionPoolWarmUp.warmUp(2, 5000);
+		Assert.assertEquals(2, results.size());
+		Assert.assertEquals(2, find(results, tracker.getPort()).getOpened());
+		Assert.assertEquals(2, find(results, storage.getPort()).getOpened());
+		Assert.assertEquals(2, ConnectionPool.getConnectionManager(storage.getStorageServer().getInetSocketAddress())
+				.getFreeCount());
+	}
+
+	@Test
+	public void testListStoragesWithinDeadline() {
+		tracker.handle(ProtoCommon.TRACKER_PROTO_CMD_SERVER_LIST_GROUP, body -> {
+			try {
+				blocked.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return new FakeStorageServer.Response((byte) 0, groupStat());
+		});
+
+		long startTime = System.currentTimeMillis();
+		List<ConnectionPoolWarmUp.Result> results = ConnectionPoolWarmUp.warmUp(1, 300);
+		long elapsed = System.currentTimeMillis() - startTime;
+		Assert.assertTrue("elapsed " + elapsed + "ms", elapsed < 2000);
+		// only the tracker is warmed up when listing the storages times out
+		Assert.assertEquals(1, results.size());
+		Assert.assertTrue(results.get(0).isSuccess());
+	}
+}
@@ -0,0 +1,52 @@
+package top.folen.fastdfs;
+
+import java.io.IOException;
+
+/**
+ * compare the download by callback with different buff sizes against a fake storage server on localhost,
+ * run by main, not a unit test
+ */
+public class DownloadBuffSizeBenchmark {
+
+	private static final int FILE_SIZE = 100 * 1024 * 1024;
+
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args) throws Exception {
+		byte[] content = new byte[FILE_SIZE];
+		try (FakeStorageServer server = new FakeStorageServer().handle(ProtoCommon.STORAGE_PROTO_CMD_DOWNLOAD_FILE,
+				body -> new FakeStorageServer.Response((byte) 0, content))) {
+			StorageClient client = new StorageClient(null, server.getStorageServer());
+			run(client, "2KB", 2 * 1024, false);
+			run(client, "64KB", 64 * 1024, false);
+			run(client, "adaptive from 2KB", 2 * 1024, true);
+			run(client, "adaptive from 64KB", 64 * 1024, true);
+		}
+	}
+
+	private static void run(StorageClient client, String name, int buffSize, boolean adaptive) throws Exception {
+		long[] calls = new long[1];
+		DownloadCallback callback = (fileSize, data, bytes) -> {
+			calls[0]++;
+			return 0;
+		};
+		// warm up
+		download(client, callback, buffSize, adaptive);
+		calls[0] = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < ROUNDS; i++) {
+			download(client, callback, buffSize, adaptive);
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%-20s %8.1f MB/s %10d recv calls per file%n", name,
+				(double) FILE_SIZE * ROUNDS / 1024 / 1024 / seconds, calls[0] / ROUNDS);
+	}
+
+	private static void download(StorageClient client, DownloadCallback callback, int buffSize,
+	                             boolean adaptive) throws Exception {
+		int result = client.downloadFile("group1", "M00/00/00/test.bin", 0, 0, callback, buffSize, adaptive);
+		if (result != 0) {
+			throw new IOException("download fail, errno: " + result);
+		}
+	}
+}
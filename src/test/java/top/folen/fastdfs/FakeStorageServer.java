@@ -0,0 +1,118 @@
+package top.folen.fastdfs;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * a minimal storage server speaking the FastDFS protocol on a local port, for unit tests,
+ * every accepted connection is served by its own daemon thread
+ */
+public class FakeStorageServer implements Closeable {
+
+	/**
+	 * response of a request
+	 */
+	public static class Response {
+		final byte status;
+		final byte[] body;
+
+		public Response(byte status, byte[] body) {
+			this.status = status;
+			this.body = body;
+		}
+	}
+
+	/**
+	 * handle a request
+	 */
+	public interface Handler {
+
+		/**
+		 * @param body the request body
+		 * @return the response
+		 */
+		Response handle(byte[] body) throws IOException;
+	}
+
+	private final ServerSocket serverSocket;
+
+	private final Map<Byte, Handler> handlers = new ConcurrentHashMap<>();
+
+	public FakeStorageServer() throws IOException {
+		this.serverSocket = new ServerSocket(0, 64);
+		Thread acceptor = new Thread(this::accept, "fake-storage-acceptor");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	public FakeStorageServer handle(byte cmd, Handler handler) {
+		handlers.put(cmd, handler);
+		return this;
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	public StorageServer getStorageServer() {
+		return new StorageServer("127.0.0.1", getPort(), 0);
+	}
+
+	private void accept() {
+		while (!serverSocket.isClosed()) {
+			try {
+				Socket socket = serverSocket.accept();
+				Thread worker = new Thread(() -> serve(socket), "fake-storage-worker");
+				worker.setDaemon(true);
+				worker.start();
+			} catch (IOException e) {
+				return;
+			}
+		}
+	}
+
+	private void serve(Socket socket) {
+		try (Socket s = socket) {
+			// like the real storage server, do not delay the response body behind the header
+			s.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(s.getInputStream());
+			OutputStream out = s.getOutputStream();
+			byte[] header = new byte[ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE + 2];
+			while (true) {
+				in.readFully(header);
+				byte cmd = header[ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE];
+				byte[] body = new byte[(int) ProtoCommon.buff2long(header, 0)];
+				in.readFully(body);
+				if (cmd == ProtoCommon.FDFS_PROTO_CMD_QUIT) {
+					return;
+				}
+				Response response;
+				Handler handler = handlers.get(cmd);
+				if (handler != null) {
+					response = handler.handle(body);
+				} else if (cmd == ProtoCommon.FDFS_PROTO_CMD_ACTIVE_TEST) {
+					response = new Response((byte) 0, new byte[0]);
+				} else {
+					response = new Response(ProtoCommon.ERR_NO_EINVAL, new byte[0]);
+				}
+				byte[] respBody = response.status == 0 ? response.body : new byte[0];
+				out.write(ProtoCommon.packHeader(ProtoCommon.STORAGE_PROTO_CMD_RESP, respBody.length, response.status));
+				out.write(respBody);
+				out.flush();
+			}
+		} catch (IOException ignored) {
+			// client closed
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		serverSocket.close();
+	}
+}
@@ -0,0 +1,71 @@
+package top.folen.fastdfs;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class GatheringOutputStreamTests {
+
+	/**
+	 * records the length of every write, like the socket segments
+	 */
+	private static class RecordingOutputStream extends ByteArrayOutputStream {
+		final List<Integer> writes = new ArrayList<>();
+
+		@Override
+		public synchronized void write(byte[] b, int off, int len) {
+			writes.add(len);
+			super.write(b, off, len);
+		}
+	}
+
+	private static byte[] random(int size) {
+		byte[] data = new byte[size];
+		new Random(size).nextBytes(data);
+		return data;
+	}
+
+	@Test
+	public void testSmallWritesGathered() throws IOException {
+		RecordingOutputStream socket = new RecordingOutputStream();
+		GatheringOutputStream out = new GatheringOutputStream(socket);
+		byte[] header = random(ProtoCommon.FDFS_PROTO_HEADER_SIZE + 15);
+		byte[] content = random(1024);
+		out.write(header);
+		out.write(content);
+		out.write('x');
+		Assert.assertTrue(socket.writes.isEmpty());
+		out.flush();
+		out.release();
+
+		Assert.assertEquals(1, socket.writes.size());
+		byte[] written = socket.toByteArray();
+		Assert.assertEquals(header.length + content.length + 1, written.length);
+		Assert.assertEquals('x', written[written.length - 1]);
+	}
+
+	@Test
+	public void testLargeWrite() throws IOException {
+		RecordingOutputStream socket = new RecordingOutputStream();
+		GatheringOutputStream out = new GatheringOutputStream(socket);
+		byte[] header = random(100);
+		byte[] content = random(3 * GatheringOutputStream.BUFFER_SIZE + 10);
+		out.write(header);
+		out.write(content);
+		out.flush();
+		out.release();
+
+		// the header goes with the front of the content, the rest is written directly
+		Assert.assertEquals(2, socket.writes.size());
+		Assert.assertEquals(GatheringOutputStream.BUFFER_SIZE, socket.writes.get(0).intValue());
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		expected.write(header);
+		expected.write(content);
+		Assert.assertArrayEquals(expected.toByteArray(), socket.toByteArray());
+	}
+}
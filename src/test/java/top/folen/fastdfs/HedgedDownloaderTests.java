@@ -0,0 +1,200 @@
+package top.folen.fastdfs;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import top.folen.fastdfs.pool.AbstractConnectionManager;
+import top.folen.fastdfs.pool.Connection;
+import top.folen.fastdfs.pool.ConnectionPool;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * hedged downloads from a slow, a fast and a broken fake storage server
+ */
+public class HedgedDownloaderTests {
+
+	private static final String GROUP_NAME = "group1";
+
+	private static final String FILENAME = "M00/00/00/avatar.jpg";
+
+	private static final int SLOW_DELAY_IN_MS = 2000;
+
+	private final AtomicInteger slowDelayInMs = new AtomicInteger(SLOW_DELAY_IN_MS);
+
+	private final AtomicInteger slowActiveTests = new AtomicInteger();
+
+	private FakeStorageServer slow;
+
+	private FakeStorageServer fast;
+
+	private FakeStorageServer broken;
+
+	private HedgedDownloader downloader;
+
+	@Before
+	public void setUp() throws IOException {
+		slow = new FakeStorageServer().handle(ProtoCommon.STORAGE_PROTO_CMD_DOWNLOAD_FILE, body -> {
+			try {
+				Thread.sleep(slowDelayInMs.get());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return new FakeStorageServer.Response((byte) 0, "slow".getBytes());
+		}).handle(ProtoCommon.FDFS_PROTO_CMD_ACTIVE_TEST, body -> {
+			slowActiveTests.incrementAndGet();
+			return new FakeStorageServer.Response((byte) 0, new byte[0]);
+		});
+		fast = new FakeStorageServer().handle(ProtoCommon.STORAGE_PROTO_CMD_DOWNLOAD_FILE,
+				body -> new FakeStorageServer.Response((byte) 0, "fast".getBytes()));
+		// the replica not synced yet
+		broken = new FakeStorageServer().handle(ProtoCommon.STORAGE_PROTO_CMD_DOWNLOAD_FILE,
+				body -> new FakeStorageServer.Response(ProtoCommon.ERR_NO_ENOENT, null));
+		downloader = new HedgedDownloader(new TrackerClient(null));
+		downloader.setInitialDelayInMs(20);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		slow.close();
+		fast.close();
+		broken.close();
+	}
+
+	@Test
+	public void testHedgeSlowReplica() throws Exception {
+		StorageServer[] replicas = {slow.getStorageServer(), fast.getStorageServer()};
+		long startTime = System.currentTimeMillis();
+		StorageResult<byte[]> result = downloader.downloadFile(replicas, GROUP_NAME, FILENAME, 0, 0);
+		long elapsed = System.currentTimeMillis() - startTime;
+
+		Assert.assertTrue(result.isSuccess());
+		Assert.assertEquals("fast", new String(result.getData()));
+		Assert.assertTrue("elapsed " + elapsed + "ms", elapsed < SLOW_DELAY_IN_MS / 2);
+		Assert.assertEquals(1, downloader.getHedgedCount());
+
+		// the aborted connection is not reused
+		slowDelayInMs.set(0);
+		StorageResult<byte[]> again = downloader.downloadFile(new StorageServer[]{slow.getStorageServer()},
+				GROUP_NAME, FILENAME, 0, 0);
+		Assert.assertTrue(again.isSuccess());
+		Assert.assertEquals("slow", new String(again.getData()));
+	}
+
+	@Test
+	public void testIdleConnectionsNotFlagged() throws Exception {
+		InetSocketAddress address = slow.getStorageServer().getInetSocketAddress();
+		Connection first = ConnectionPool.getConnection(address);
+		Connection second = ConnectionPool.getConnection(address);
+		first.release();
+		second.release();
+
+		StorageServer[] replicas = {slow.getStorageServer(), fast.getStorageServer()};
+		StorageResult<byte[]> result = downloader.downloadFile(replicas, GROUP_NAME, FILENAME, 0, 0);
+		Assert.assertEquals("fast", new String(result.getData()));
+		AbstractConnectionManager manager = ConnectionPool.getConnectionManager(address);
+		long deadline = System.currentTimeMillis() + SLOW_DELAY_IN_MS / 2;
+		while (manager.getTotalCount() > 1 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(1, manager.getTotalCount());
+
+		// the aborted connection is discarded, the idle one is reused without active test
+		slowDelayInMs.set(0);
+		result = downloader.downloadFile(new StorageServer[]{slow.getStorageServer()}, GROUP_NAME, FILENAME, 0, 0);
+		Assert.assertEquals("slow", new String(result.getData()));
+		Assert.assertEquals(1, manager.getTotalCount());
+		Assert.assertEquals(0, slowActiveTests.get());
+	}
+
+	@Test
+	public void testFirstReplicaFail() throws Exception {
+		StorageServer[] replicas = {broken.getStorageServer(), fast.getStorageServer()};
+		StorageResult<byte[]> result = downloader.downloadFile(replicas, GROUP_NAME, FILENAME, 0, 0);
+		Assert.assertTrue(result.isSuccess());
+		Assert.assertEquals("fast", new String(result.getData()));
+		Assert.assertEquals(0, downloader.getHedgedCount());
+
+		result = downloader.downloadFile(new StorageServer[]{broken.getStorageServer()}, GROUP_NAME, FILENAME, 0, 0);
+		Assert.assertFalse(result.isSuccess());
+		Assert.assertEquals(ProtoCommon.ERR_NO_ENOENT, result.getErrno());
+	}
+
+	@Test
+	public void testHedgeRejectedByExecutor() throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		executor.shutdown();
+		HedgedDownloader busy = new HedgedDownloader(new TrackerClient(null), executor);
+		busy.setInitialDelayInMs(20);
+		slowDelayInMs.set(100);
+
+		// the first replica is requested in the calling thread, the executor is only for the hedged request
+		StorageServer[] replicas = {slow.getStorageServer(), fast.getStorageServer()};
+		StorageResult<byte[]> result = busy.downloadFile(replicas, GROUP_NAME, FILENAME, 0, 0);
+		Assert.assertEquals("slow", new String(result.getData()));
+		Assert.assertEquals(0, busy.getHedgedCount());
+
+		// the other replica is requested in the calling thread after the first one fails
+		replicas = new StorageServer[]{broken.getStorageServer(), fast.getStorageServer()};
+		result = busy.downloadFile(replicas, GROUP_NAME, FILENAME, 0, 0);
+		Assert.assertEquals("fast", new String(result.getData()));
+	}
+
+	@Test
+	public void testDelayPercentile() throws Exception {
+		downloader.setDelayPercentile(50);
+		downloader.setMinDelayInMs(0);
+		Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(20), downloader.getDelayNanos());
+		StorageServer[] replicas = {fast.getStorageServer()};
+		for (int i = 0; i < HedgedDownloader.MIN_SAMPLES; i++) {
+			Assert.assertTrue(downloader.downloadFile(replicas, GROUP_NAME, FILENAME, 0, 0).isSuccess());
+		}
+		Assert.assertTrue(downloader.getDelayNanos() < TimeUnit.MILLISECONDS.toNanos(20));
+
+		downloader.setMinDelayInMs(30);
+		Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(30), downloader.getDelayNanos());
+	}
+
+	@Test
+	public void testAbortBlockedRead() throws Exception {
+		InetSocketAddress address = slow.getStorageServer().getInetSocketAddress();
+		Connection connection = ConnectionPool.getConnection(address);
+		new StorageClient(null, slow.getStorageServer()).sendDownloadPackage(GROUP_NAME, FILENAME, 0, 0, connection);
+		CountDownLatch reading = new CountDownLatch(1);
+		Thread aborter = new Thread(() -> {
+			try {
+				reading.await();
+				Thread.sleep(50);
+				connection.abort();
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		});
+		aborter.start();
+		long startTime = System.currentTimeMillis();
+		try {
+			reading.countDown();
+			ProtoCommon.recvPackage(connection.getInputStream(), ProtoCommon.STORAGE_PROTO_CMD_RESP, -1);
+			Assert.fail("read should fail");
+		} catch (IOException e) {
+			// expected
+		}
+		Assert.assertTrue(System.currentTimeMillis() - startTime < SLOW_DELAY_IN_MS / 2);
+		aborter.join();
+
+		Assert.assertTrue(connection.isAborted());
+		Assert.assertFalse(connection.isAvailable());
+		connection.release();
+		Assert.assertFalse(connection.isConnected());
+		Connection next = ConnectionPool.getConnection(address);
+		Assert.assertNotSame(connection, next);
+		next.release();
+	}
+}
@@ -0,0 +1,175 @@
+package top.folen.fastdfs;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * resolve the storage of a file from the storage list of a fake tracker
+ */
+public class LocalStorageResolverTests {
+
+	private static final String GROUP_NAME = "group1";
+
+	private static final String SOURCE_IP = "192.168.0.1";
+
+	private static final String SYNCED_IP = "192.168.0.2";
+
+	private static final String NOT_SYNCED_IP = "192.168.0.3";
+
+	private static final long CREATE_TIMESTAMP = 1600000000L;
+
+	private final AtomicInteger listCount = new AtomicInteger();
+
+	private final ByteArrayOutputStream storages = new ByteArrayOutputStream();
+
+	private FakeStorageServer tracker;
+
+	private TrackerServer trackerServer;
+
+	private int oldTtl;
+
+	@Before
+	public void setUp() throws IOException {
+		oldTtl = ClientGlobal.g_route_cache_storage_list_ttl_in_ms;
+		ClientGlobal.g_route_cache_storage_list_ttl_in_ms = 60000;
+		LocalStorageResolver.clear();
+		tracker = new FakeStorageServer().handle(ProtoCommon.TRACKER_PROTO_CMD_SERVER_LIST_STORAGE, body -> {
+			listCount.incrementAndGet();
+			return new FakeStorageServer.Response((byte) 0, storages.toByteArray());
+		});
+		trackerServer = new TrackerServer(tracker.getStorageServer().getInetSocketAddress());
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		tracker.close();
+		ClientGlobal.g_route_cache_storage_list_ttl_in_ms = oldTtl;
+		LocalStorageResolver.clear();
+	}
+
+	/**
+	 * add a storage to the list returned by the fake tracker
+	 */
+	private void addStorage(String ipAddr, byte status, long lastSyncedTimestamp) {
+		byte[] body = new byte[StorageStatStruct.getFieldsTotalSize()];
+		body[StorageStatStruct.fieldsArray[StorageStatStruct.FIELD_INDEX_STATUS].offset] = status;
+		System.arraycopy(ipAddr.getBytes(), 0, body,
+				StorageStatStruct.fieldsArray[StorageStatStruct.FIELD_INDEX_IP_ADDR].offset, ipAddr.length());
+		System.arraycopy(ProtoCommon.long2buff(23000), 0, body,
+				StorageStatStruct.fieldsArray[StorageStatStruct.FIELD_INDEX_STORAGE_PORT].offset,
+				ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE);
+		System.arraycopy(ProtoCommon.long2buff(lastSyncedTimestamp), 0, body,
+				StorageStatStruct.fieldsArray[StorageStatStruct.FIELD_INDEX_LAST_SYNCED_TIMESTAMP].offset,
+				ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE);
+		storages.write(body, 0, body.length);
+	}
+
+	/**
+	 * @param ipAddr the source ip address, null for a storage server ID
+	 * @return the filename encoding the source ip address and the create timestamp
+	 */
+	private static String filename(String ipAddr, long createTimestamp) throws IOException {
+		byte[] buff = new byte[20];
+		if (ipAddr != null) {
+			String[] parts = ipAddr.split("\\.");
+			for (int i = 0; i < 4; i++) {
+				buff[i] = (byte) Integer.parseInt(parts[i]);
+			}
+		} else {
+			buff[3] = 100;
+		}
+		buff[4] = (byte) (createTimestamp >> 24);
+		buff[5] = (byte) (createTimestamp >> 16);
+		buff[6] = (byte) (createTimestamp >> 8);
+		buff[7] = (byte) createTimestamp;
+		String base64 = StorageClient.base64.encode(buff).substring(0, ProtoCommon.FDFS_FILENAME_BASE64_LENGTH);
+		return "M00/00/00/" + base64 + ".jpg";
+	}
+
+	private Set<String> resolveAll(String filename) {
+		Set<String> ipAddrs = new HashSet<>();
+		for (int i = 0; i < 100; i++) {
+			StorageServer server = LocalStorageResolver.resolve(trackerServer, GROUP_NAME, filename);
+			ipAddrs.add(server == null ? null : server.getInetSocketAddress().getAddress().getHostAddress());
+		}
+		return ipAddrs;
+	}
+
+	@Test
+	public void testSyncedStorages() throws IOException {
+		addStorage(SOURCE_IP, ProtoCommon.FDFS_STORAGE_STATUS_ACTIVE, 0);
+		addStorage(SYNCED_IP, ProtoCommon.FDFS_STORAGE_STATUS_ACTIVE, CREATE_TIMESTAMP + 1);
+		addStorage(NOT_SYNCED_IP, ProtoCommon.FDFS_STORAGE_STATUS_ACTIVE, CREATE_TIMESTAMP);
+		String filename = filename(SOURCE_IP, CREATE_TIMESTAMP);
+
+		Set<String> expected = new HashSet<>();
+		expected.add(SOURCE_IP);
+		expected.add(SYNCED_IP);
+		Assert.assertEquals(expected, resolveAll(filename));
+		Assert.assertEquals(SOURCE_IP, LocalStorageResolver.resolveSource(trackerServer, GROUP_NAME, filename)
+				.getInetSocketAddress().getAddress().getHostAddress());
+		Assert.assertEquals(1, listCount.get());
+	}
+
+	@Test
+	public void testSourceNotActive() throws IOException {
+		addStorage(SOURCE_IP, ProtoCommon.FDFS_STORAGE_STATUS_OFFLINE, 0);
+		addStorage(SYNCED_IP, ProtoCommon.FDFS_STORAGE_STATUS_ACTIVE, CREATE_TIMESTAMP + 1);
+		addStorage(NOT_SYNCED_IP, ProtoCommon.FDFS_STORAGE_STATUS_ACTIVE, CREATE_TIMESTAMP - 1);
+		String filename = filename(SOURCE_IP, CREATE_TIMESTAMP);
+
+		Assert.assertEquals(Collections.singleton(SYNCED_IP), resolveAll(filename));
+		// the update requests go to the source storage only
+		Assert.assertNull(LocalStorageResolver.resolveSource(trackerServer, GROUP_NAME, filename));
+	}
+
+	@Test
+	public void testNoCandidate() throws IOException {
+		addStorage(SOURCE_IP, ProtoCommon.FDFS_STORAGE_STATUS_OFFLINE, 0);
+		addStorage(SYNCED_IP, ProtoCommon.FDFS_STORAGE_STATUS_WAIT_SYNC, CREATE_TIMESTAMP + 1);
+		addStorage(NOT_SYNCED_IP, ProtoCommon.FDFS_STORAGE_STATUS_ACTIVE, CREATE_TIMESTAMP);
+		Assert.assertNull(LocalStorageResolver.resolve(trackerServer, GROUP_NAME,
+				filename(SOURCE_IP, CREATE_TIMESTAMP)));
+	}
+
+	@Test
+	public void testFallbackFilenames() throws IOException {
+		addStorage(SOURCE_IP, ProtoCommon.FDFS_STORAGE_STATUS_ACTIVE, 0);
+		// the filename encodes the storage server ID instead of the ip address
+		String idFilename = filename(null, CREATE_TIMESTAMP);
+		Assert.assertNull(LocalStorageResolver.resolve(trackerServer, GROUP_NAME, idFilename));
+		Assert.assertNull(LocalStorageResolver.resolveSource(trackerServer, GROUP_NAME, idFilename));
+		Assert.assertNull(LocalStorageResolver.resolve(trackerServer, GROUP_NAME, "M00/00/00/short.jpg"));
+		// not in the list
+		Assert.assertNull(LocalStorageResolver.resolveSource(trackerServer, GROUP_NAME, filename("10.0.0.1",
+				CREATE_TIMESTAMP)));
+	}
+
+	@Test
+	public void testStorageListTtl() throws Exception {
+		ClientGlobal.g_route_cache_storage_list_ttl_in_ms = 100;
+		addStorage(SOURCE_IP, ProtoCommon.FDFS_STORAGE_STATUS_ACTIVE, 0);
+		String filename = filename(SOURCE_IP, CREATE_TIMESTAMP);
+
+		Assert.assertNotNull(LocalStorageResolver.resolve(trackerServer, GROUP_NAME, filename));
+		Assert.assertNotNull(LocalStorageResolver.resolve(trackerServer, GROUP_NAME, filename));
+		Assert.assertEquals(1, listCount.get());
+
+		Thread.sleep(150);
+		Assert.assertNotNull(LocalStorageResolver.resolve(trackerServer, GROUP_NAME, filename));
+		Assert.assertEquals(2, listCount.get());
+
+		LocalStorageResolver.invalidate(GROUP_NAME);
+		Assert.assertNotNull(LocalStorageResolver.resolve(trackerServer, GROUP_NAME, filename));
+		Assert.assertEquals(3, listCount.get());
+	}
+}
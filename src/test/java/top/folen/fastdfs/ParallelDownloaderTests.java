@@ -0,0 +1,93 @@
+package top.folen.fastdfs;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import top.folen.common.FastDfsException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * chunked download across replicas with retry, against fake storage servers
+ */
+public class ParallelDownloaderTests {
+
+	private static final String GROUP_NAME = "group1";
+
+	private static final String REMOTE_FILENAME = "M00/00/00/big.bin";
+
+	private final byte[] content = new byte[1000 * 1000 + 13];
+
+	private FakeStorageServer healthy;
+
+	private FakeStorageServer broken;
+
+	@Before
+	public void setUp() throws IOException {
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) (i * 13);
+		}
+		healthy = new FakeStorageServer().handle(ProtoCommon.STORAGE_PROTO_CMD_DOWNLOAD_FILE, this::download);
+		// the replica not synced yet
+		broken = new FakeStorageServer().handle(ProtoCommon.STORAGE_PROTO_CMD_DOWNLOAD_FILE,
+				body -> new FakeStorageServer.Response(ProtoCommon.ERR_NO_ENOENT, null));
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		healthy.close();
+		broken.close();
+	}
+
+	private FakeStorageServer.Response download(byte[] body) {
+		int offset = (int) ProtoCommon.buff2long(body, 0);
+		int bytes = (int) ProtoCommon.buff2long(body, ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE);
+		return new FakeStorageServer.Response((byte) 0, Arrays.copyOfRange(content, offset, offset + bytes));
+	}
+
+	@Test
+	public void testDownloadToFileWithRetry() throws IOException, FastDfsException {
+		ParallelDownloader downloader = new ParallelDownloader(null);
+		downloader.setChunkSize(64 * 1024);
+		File file = File.createTempFile("fastdfs-parallel", ".bin");
+		file.deleteOnExit();
+		ParallelDownloader.Result result = downloader.downloadFile(
+				new StorageServer[]{healthy.getStorageServer(), broken.getStorageServer()}, content.length,
+				GROUP_NAME, REMOTE_FILENAME, file.getAbsolutePath());
+		Assert.assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+		Assert.assertEquals(16, result.getChunkCount());
+		Assert.assertTrue(result.getRetryCount() > 0);
+		Assert.assertTrue(result.getThroughput() > 0);
+	}
+
+	@Test
+	public void testDownloadToBuffer() throws IOException, FastDfsException {
+		ParallelDownloader downloader = new ParallelDownloader(null);
+		downloader.setChunkSize(100 * 1000);
+		ByteBuffer target = ByteBuffer.allocate(content.length + 10);
+		target.position(10);
+		downloader.downloadFile(new StorageServer[]{healthy.getStorageServer()}, content.length,
+				GROUP_NAME, REMOTE_FILENAME, target);
+		Assert.assertEquals(content.length + 10, target.position());
+		Assert.assertArrayEquals(content, Arrays.copyOfRange(target.array(), 10, content.length + 10));
+	}
+
+	@Test
+	public void testFailAfterMaxAttempts() throws IOException {
+		ParallelDownloader downloader = new ParallelDownloader(null);
+		File file = new File(Files.createTempDirectory("fastdfs-parallel").toFile(), "fail.bin");
+		try {
+			downloader.downloadFile(new StorageServer[]{broken.getStorageServer()}, content.length,
+					GROUP_NAME, REMOTE_FILENAME, file.getAbsolutePath());
+			Assert.fail("download from a broken replica should fail");
+		} catch (FastDfsException e) {
+			Assert.assertTrue(e.getMessage().contains("attempts"));
+		}
+		Assert.assertFalse(file.exists());
+	}
+}
@@ -0,0 +1,94 @@
+package top.folen.fastdfs;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class ProtoCommonTests {
+
+	/**
+	 * returns at most one byte per read, like a slow socket
+	 */
+	private static InputStream trickle(byte[] data) {
+		return new ByteArrayInputStream(data) {
+			@Override
+			public synchronized int read(byte[] b, int off, int len) {
+				return super.read(b, off, Math.min(len, 1));
+			}
+		};
+	}
+
+	@Test
+	public void testPackHeader() throws IOException {
+		long pkgLen = 0x0102030405060708L;
+		byte[] header = ProtoCommon.packHeader(ProtoCommon.STORAGE_PROTO_CMD_UPLOAD_FILE, pkgLen, (byte) 0);
+
+		byte[] buff = new byte[ProtoCommon.FDFS_PROTO_HEADER_SIZE + 3];
+		Assert.assertEquals(buff.length, ProtoCommon.packHeader(buff, 3, ProtoCommon.STORAGE_PROTO_CMD_UPLOAD_FILE,
+				pkgLen, (byte) 0));
+		Assert.assertArrayEquals(header, Arrays.copyOfRange(buff, 3, buff.length));
+
+		ByteBuffer buffer = ProtoCommon.headerBuffer();
+		ProtoCommon.packHeader(buffer, ProtoCommon.STORAGE_PROTO_CMD_UPLOAD_FILE, pkgLen, (byte) 0);
+		Assert.assertArrayEquals(header, buffer.array());
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ProtoCommon.writeHeader(out, ProtoCommon.STORAGE_PROTO_CMD_UPLOAD_FILE, pkgLen, (byte) 0);
+		Assert.assertArrayEquals(header, out.toByteArray());
+	}
+
+	@Test
+	public void testRecvHeaderPartialRead() throws IOException {
+		byte[] data = ProtoCommon.packHeader(ProtoCommon.STORAGE_PROTO_CMD_RESP, 300, (byte) 0);
+		ProtoCommon.RecvHeaderInfo info = new ProtoCommon.RecvHeaderInfo();
+		Assert.assertSame(info, ProtoCommon.recvHeader(trickle(data), ProtoCommon.STORAGE_PROTO_CMD_RESP, -1, info));
+		Assert.assertEquals(0, info.errno);
+		Assert.assertEquals(300, info.bodyLen);
+
+		data = ProtoCommon.packHeader(ProtoCommon.STORAGE_PROTO_CMD_RESP, 0, ProtoCommon.ERR_NO_ENOENT);
+		ProtoCommon.recvHeader(trickle(data), ProtoCommon.STORAGE_PROTO_CMD_RESP, -1, info);
+		Assert.assertEquals(ProtoCommon.ERR_NO_ENOENT, info.errno);
+		Assert.assertEquals(0, info.bodyLen);
+	}
+
+	@Test
+	public void testRecvPackagePartialRead() throws IOException {
+		byte[] data = new byte[ProtoCommon.FDFS_PROTO_HEADER_SIZE + 5];
+		ProtoCommon.packHeader(data, 0, ProtoCommon.STORAGE_PROTO_CMD_RESP, 5, (byte) 0);
+		System.arraycopy("hello".getBytes(), 0, data, ProtoCommon.FDFS_PROTO_HEADER_SIZE, 5);
+
+		ProtoCommon.RecvPackageInfo pkgInfo = ProtoCommon.recvPackage(trickle(data),
+				ProtoCommon.STORAGE_PROTO_CMD_RESP, 5);
+		Assert.assertEquals(0, pkgInfo.errno);
+		Assert.assertEquals("hello", new String(pkgInfo.body));
+	}
+
+	@Test(expected = IOException.class)
+	public void testRecvHeaderEof() throws IOException {
+		byte[] data = ProtoCommon.packHeader(ProtoCommon.STORAGE_PROTO_CMD_RESP, 0, (byte) 0);
+		ProtoCommon.recvHeader(trickle(Arrays.copyOf(data, data.length - 1)),
+				ProtoCommon.STORAGE_PROTO_CMD_RESP, 0);
+	}
+
+	@Test
+	public void testDecodeHeaderBuffer() throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(2 * ProtoCommon.FDFS_PROTO_HEADER_SIZE);
+		ProtoCommon.packHeader(buffer, ProtoCommon.TRACKER_PROTO_CMD_RESP, 40, (byte) 0);
+		ProtoCommon.packHeader(buffer, ProtoCommon.TRACKER_PROTO_CMD_RESP, 0, ProtoCommon.ERR_NO_EINVAL);
+		((Buffer) buffer).flip();
+
+		ProtoCommon.RecvHeaderInfo info = new ProtoCommon.RecvHeaderInfo();
+		ProtoCommon.decodeHeader(buffer, ProtoCommon.TRACKER_PROTO_CMD_RESP, 40, info);
+		Assert.assertEquals(40, info.bodyLen);
+		ProtoCommon.decodeHeader(buffer, ProtoCommon.TRACKER_PROTO_CMD_RESP, 40, info);
+		Assert.assertEquals(ProtoCommon.ERR_NO_EINVAL, info.errno);
+		Assert.assertFalse(buffer.hasRemaining());
+	}
+}
@@ -0,0 +1,200 @@
+package top.folen.fastdfs;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import top.folen.common.FastDfsException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * download and upload by reactive streams, against a fake storage server
+ */
+public class ReactiveStorageClientTests {
+
+	private static final String GROUP_NAME = "group1";
+
+	private static final String REMOTE_FILENAME = "M00/00/00/test.bin";
+
+	private final byte[] content = new byte[300 * 1024 + 3];
+
+	private final ByteArrayOutputStream uploaded = new ByteArrayOutputStream();
+
+	private FakeStorageServer server;
+
+	private ExecutorService executor;
+
+	private ReactiveStorageClient client;
+
+	@Before
+	public void setUp() throws IOException {
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) (i * 13);
+		}
+		server = new FakeStorageServer().handle(ProtoCommon.STORAGE_PROTO_CMD_DOWNLOAD_FILE, body -> {
+			int nameOffset = 2 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE + ProtoCommon.FDFS_GROUP_NAME_MAX_LEN;
+			String filename = new String(body, nameOffset, body.length - nameOffset);
+			if (!REMOTE_FILENAME.equals(filename)) {
+				return new FakeStorageServer.Response(ProtoCommon.ERR_NO_ENOENT, null);
+			}
+			return new FakeStorageServer.Response((byte) 0, content);
+		}).handle(ProtoCommon.STORAGE_PROTO_CMD_UPLOAD_FILE, body -> {
+			int dataOffset = 1 + ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE + ProtoCommon.FDFS_FILE_EXT_NAME_MAX_LEN;
+			uploaded.write(body, dataOffset, body.length - dataOffset);
+			byte[] resp = new byte[ProtoCommon.FDFS_GROUP_NAME_MAX_LEN + REMOTE_FILENAME.length()];
+			System.arraycopy(GROUP_NAME.getBytes(), 0, resp, 0, GROUP_NAME.length());
+			System.arraycopy(REMOTE_FILENAME.getBytes(), 0, resp, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN,
+					REMOTE_FILENAME.length());
+			return new FakeStorageServer.Response((byte) 0, resp);
+		});
+		executor = Executors.newFixedThreadPool(2);
+		client = new ReactiveStorageClient(null, server.getStorageServer(), executor);
+		client.setChunkSize(16 * 1024);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		executor.shutdownNow();
+		server.close();
+	}
+
+	@Test
+	public void testDownloadOneChunkPerRequest() throws Exception {
+		CollectSubscriber subscriber = new CollectSubscriber();
+		client.downloadFile(GROUP_NAME, REMOTE_FILENAME).subscribe(subscriber);
+		Assert.assertArrayEquals(content, subscriber.done.get(10, TimeUnit.SECONDS));
+		Assert.assertTrue(subscriber.chunks >= content.length / (16 * 1024));
+	}
+
+	@Test
+	public void testDownloadStorageError() throws Exception {
+		CollectSubscriber subscriber = new CollectSubscriber();
+		client.downloadFile(GROUP_NAME, "M00/00/00/missing.bin").subscribe(subscriber);
+		try {
+			subscriber.done.get(10, TimeUnit.SECONDS);
+			Assert.fail("download missing file should fail");
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof FastDfsException);
+			Assert.assertEquals(ProtoCommon.ERR_NO_ENOENT, ((FastDfsException) e.getCause()).getErrorCode());
+		}
+	}
+
+	@Test
+	public void testUploadPublisher() throws Exception {
+		String[] results = client.uploadFile(GROUP_NAME, new ChunkPublisher(content, 10000), content.length,
+				"bin", null).get(10, TimeUnit.SECONDS);
+		Assert.assertArrayEquals(new String[]{GROUP_NAME, REMOTE_FILENAME}, results);
+		Assert.assertArrayEquals(content, uploaded.toByteArray());
+	}
+
+	@Test
+	public void testUploadSizeMismatch() throws Exception {
+		try {
+			client.uploadFile(GROUP_NAME, new ChunkPublisher(content, 10000), content.length + 1,
+					"bin", null).get(10, TimeUnit.SECONDS);
+			Assert.fail("upload less than file size should fail");
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof IOException);
+		}
+	}
+
+	/**
+	 * request one buffer at a time, from the thread of onNext
+	 */
+	private static class CollectSubscriber implements Subscriber<ByteBuffer> {
+
+		final CompletableFuture<byte[]> done = new CompletableFuture<>();
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		int chunks;
+
+		Subscription subscription;
+
+		@Override
+		public void onSubscribe(Subscription s) {
+			subscription = s;
+			s.request(1);
+		}
+
+		@Override
+		public void onNext(ByteBuffer buffer) {
+			chunks++;
+			out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+			subscription.request(1);
+		}
+
+		@Override
+		public void onError(Throwable t) {
+			done.completeExceptionally(t);
+		}
+
+		@Override
+		public void onComplete() {
+			done.complete(out.toByteArray());
+		}
+	}
+
+	/**
+	 * publish the content by chunks, never more than requested
+	 */
+	private static class ChunkPublisher implements Publisher<ByteBuffer> {
+
+		private final byte[] content;
+
+		private final int chunkSize;
+
+		ChunkPublisher(byte[] content, int chunkSize) {
+			this.content = content;
+			this.chunkSize = chunkSize;
+		}
+
+		@Override
+		public void subscribe(Subscriber<? super ByteBuffer> subscriber) {
+			AtomicLong requested = new AtomicLong();
+			int[] offset = new int[1];
+			subscriber.onSubscribe(new Subscription() {
+				boolean emitting;
+
+				@Override
+				public synchronized void request(long n) {
+					requested.addAndGet(n);
+					if (emitting) {
+						return;
+					}
+					emitting = true;
+					while (requested.get() > 0 && offset[0] < content.length) {
+						int end = Math.min(content.length, offset[0] + chunkSize);
+						ByteBuffer buffer = ByteBuffer.wrap(Arrays.copyOfRange(content, offset[0], end));
+						offset[0] = end;
+						requested.decrementAndGet();
+						subscriber.onNext(buffer);
+					}
+					emitting = false;
+					if (offset[0] == content.length) {
+						offset[0]++;
+						subscriber.onComplete();
+					}
+				}
+
+				@Override
+				public void cancel() {
+					offset[0] = content.length + 1;
+				}
+			});
+		}
+	}
+}
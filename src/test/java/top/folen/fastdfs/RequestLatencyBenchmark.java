@@ -0,0 +1,85 @@
+package top.folen.fastdfs;
+
+import top.folen.common.NameValuePair;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+
+/**
+ * measure the latency of small requests against a fake tracker/storage server on localhost, the requests which
+ * used to be written by several socket writes stall on the delayed ACK when the Nagle algorithm is on,
+ * run by main, not a unit test
+ */
+public class RequestLatencyBenchmark {
+
+	private static final int ROUNDS = 200;
+
+	private static final String GROUP_NAME = "group1";
+
+	private static final String FILENAME = "M00/00/00/test.bin";
+
+	public interface Request {
+		void run() throws Exception;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0) {
+			ClientGlobal.g_socket_tcp_nodelay = Boolean.parseBoolean(args[0]);
+		}
+		byte[] fileResponse = new byte[ProtoCommon.FDFS_GROUP_NAME_MAX_LEN + FILENAME.length()];
+		System.arraycopy(GROUP_NAME.getBytes(), 0, fileResponse, 0, GROUP_NAME.length());
+		System.arraycopy(FILENAME.getBytes(), 0, fileResponse, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN, FILENAME.length());
+		byte[] storeResponse = new byte[ProtoCommon.TRACKER_QUERY_STORAGE_STORE_BODY_LEN];
+		System.arraycopy("127.0.0.1".getBytes(), 0, storeResponse, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN, 9);
+		byte[] fileInfoResponse = new byte[3 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE + ProtoCommon.FDFS_IPADDR_SIZE];
+
+		try (FakeStorageServer server = new FakeStorageServer()
+				.handle(ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_STORE_WITH_GROUP_ONE,
+						body -> new FakeStorageServer.Response((byte) 0, storeResponse))
+				.handle(ProtoCommon.STORAGE_PROTO_CMD_UPLOAD_FILE,
+						body -> new FakeStorageServer.Response((byte) 0, fileResponse))
+				.handle(ProtoCommon.STORAGE_PROTO_CMD_SET_METADATA,
+						body -> new FakeStorageServer.Response((byte) 0, new byte[0]))
+				.handle(ProtoCommon.STORAGE_PROTO_CMD_QUERY_FILE_INFO,
+						body -> new FakeStorageServer.Response((byte) 0, fileInfoResponse))) {
+			TrackerClient trackerClient = new TrackerClient();
+			TrackerServer trackerServer = new TrackerServer(new InetSocketAddress("127.0.0.1", server.getPort()));
+			StorageClient client = new StorageClient(null, server.getStorageServer());
+			byte[] content = new byte[1024];
+			File localFile = File.createTempFile("benchmark", ".bin");
+			localFile.deleteOnExit();
+			Files.write(localFile.toPath(), content);
+			NameValuePair[] metaList = {new NameValuePair("width", "100"), new NameValuePair("height", "200")};
+
+			run("getStoreStorage", () -> trackerClient.getStoreStorage(trackerServer, GROUP_NAME));
+			run("uploadFile(byte[])", () -> client.uploadFile(GROUP_NAME, content, 0, content.length, "bin", null));
+			run("uploadFile(callback)", () -> client.uploadFile(GROUP_NAME, content.length, out -> {
+				out.write(content);
+				return 0;
+			}, "bin", null));
+			run("uploadFile(localFilename)", () -> client.uploadFile(GROUP_NAME, localFile.getPath(), null, null));
+			run("setMetadata", () -> check(client.setMetadata(GROUP_NAME, FILENAME, metaList,
+					ProtoCommon.STORAGE_SET_METADATA_FLAG_OVERWRITE)));
+			run("queryFileInfo", () -> client.queryFileInfo(GROUP_NAME, FILENAME));
+		}
+	}
+
+	private static void check(int result) throws IOException {
+		if (result != 0) {
+			throw new IOException("request fail, errno: " + result);
+		}
+	}
+
+	private static void run(String name, Request request) throws Exception {
+		// warm up
+		request.run();
+		long start = System.nanoTime();
+		for (int i = 0; i < ROUNDS; i++) {
+			request.run();
+		}
+		double avgMs = (System.nanoTime() - start) / 1e6 / ROUNDS;
+		System.out.printf("%-26s %8.3f ms per request%n", name, avgMs);
+	}
+}
@@ -0,0 +1,140 @@
+package top.folen.fastdfs;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import top.folen.common.FastDfsException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * resumable upload to a fake storage server which keeps the appender files in memory
+ */
+public class ResumableUploaderTests {
+
+	private static final String GROUP_NAME = "group1";
+
+	private static final String APPENDER_FILENAME = "M00/00/00/appender.bin";
+
+	private static final String NORMAL_FILENAME = "M00/00/00/normal.bin";
+
+	private final Map<String, byte[]> files = new ConcurrentHashMap<>();
+
+	private final AtomicInteger modifyCount = new AtomicInteger();
+
+	/**
+	 * the modify requests after this count fail with EIO
+	 */
+	private volatile int failAfterModifies = Integer.MAX_VALUE;
+
+	private FakeStorageServer server;
+
+	private File localFile;
+
+	private ResumableUploader uploader;
+
+	@Before
+	public void setUp() throws IOException {
+		server = new FakeStorageServer().handle(ProtoCommon.STORAGE_PROTO_CMD_UPLOAD_APPENDER_FILE, body -> {
+			int dataOffset = 1 + ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE + ProtoCommon.FDFS_FILE_EXT_NAME_MAX_LEN;
+			files.put(APPENDER_FILENAME, Arrays.copyOfRange(body, dataOffset, body.length));
+			return new FakeStorageServer.Response((byte) 0, fileResponse(APPENDER_FILENAME));
+		}).handle(ProtoCommon.STORAGE_PROTO_CMD_MODIFY_FILE, body -> {
+			if (modifyCount.incrementAndGet() > failAfterModifies) {
+				return new FakeStorageServer.Response(ProtoCommon.ERR_NO_EIO, null);
+			}
+			int nameLen = (int) ProtoCommon.buff2long(body, 0);
+			int fileOffset = (int) ProtoCommon.buff2long(body, ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE);
+			int dataOffset = 3 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE + nameLen;
+			String filename = new String(body, 3 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE, nameLen);
+			byte[] content = files.get(filename);
+			if (content == null || fileOffset > content.length) {
+				return new FakeStorageServer.Response(ProtoCommon.ERR_NO_EINVAL, null);
+			}
+			byte[] modified = Arrays.copyOf(content, Math.max(content.length, fileOffset + body.length - dataOffset));
+			System.arraycopy(body, dataOffset, modified, fileOffset, body.length - dataOffset);
+			files.put(filename, modified);
+			return new FakeStorageServer.Response((byte) 0, new byte[0]);
+		}).handle(ProtoCommon.STORAGE_PROTO_CMD_QUERY_FILE_INFO, body -> {
+			String filename = new String(body, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN,
+					body.length - ProtoCommon.FDFS_GROUP_NAME_MAX_LEN);
+			byte[] content = files.get(filename);
+			if (content == null) {
+				return new FakeStorageServer.Response(ProtoCommon.ERR_NO_ENOENT, null);
+			}
+			byte[] info = new byte[3 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE + ProtoCommon.FDFS_IPADDR_SIZE];
+			System.arraycopy(ProtoCommon.long2buff(content.length), 0, info, 0, ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE);
+			return new FakeStorageServer.Response((byte) 0, info);
+		}).handle(ProtoCommon.STORAGE_PROTO_CMD_REGENERATE_APPENDER_FILENAME, body -> {
+			byte[] content = files.remove(new String(body));
+			if (content == null) {
+				return new FakeStorageServer.Response(ProtoCommon.ERR_NO_ENOENT, null);
+			}
+			files.put(NORMAL_FILENAME, content);
+			return new FakeStorageServer.Response((byte) 0, fileResponse(NORMAL_FILENAME));
+		});
+
+		byte[] content = new byte[10 * 1024 + 123];
+		new Random(17).nextBytes(content);
+		localFile = File.createTempFile("resumable-upload", ".bin");
+		Files.write(localFile.toPath(), content);
+
+		uploader = new ResumableUploader(null, server.getStorageServer());
+		uploader.setChunkSize(1024);
+		uploader.setMaxAttempts(2);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		server.close();
+		Files.deleteIfExists(uploader.getJournalFile(localFile.getPath()).toPath());
+		Files.deleteIfExists(localFile.toPath());
+	}
+
+	private static byte[] fileResponse(String filename) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] group = Arrays.copyOf(GROUP_NAME.getBytes(), ProtoCommon.FDFS_GROUP_NAME_MAX_LEN);
+		out.write(group, 0, group.length);
+		out.write(filename.getBytes(), 0, filename.length());
+		return out.toByteArray();
+	}
+
+	@Test
+	public void testUpload() throws Exception {
+		String[] results = uploader.uploadFile(GROUP_NAME, localFile.getPath(), "bin", null);
+		Assert.assertArrayEquals(new String[]{GROUP_NAME, NORMAL_FILENAME}, results);
+		Assert.assertArrayEquals(Files.readAllBytes(localFile.toPath()), files.get(NORMAL_FILENAME));
+		Assert.assertEquals(10, modifyCount.get());
+		Assert.assertFalse(uploader.getJournalFile(localFile.getPath()).exists());
+	}
+
+	@Test
+	public void testResumeFromJournal() throws Exception {
+		failAfterModifies = 4;
+		try {
+			uploader.uploadFile(GROUP_NAME, localFile.getPath(), "bin", null);
+			Assert.fail("upload should fail");
+		} catch (FastDfsException e) {
+			Assert.assertTrue(uploader.getJournalFile(localFile.getPath()).exists());
+		}
+		Assert.assertEquals(5 * 1024, files.get(APPENDER_FILENAME).length);
+
+		failAfterModifies = Integer.MAX_VALUE;
+		modifyCount.set(0);
+		String[] results = uploader.uploadFile(GROUP_NAME, localFile.getPath(), "bin", null);
+		Assert.assertArrayEquals(new String[]{GROUP_NAME, NORMAL_FILENAME}, results);
+		Assert.assertArrayEquals(Files.readAllBytes(localFile.toPath()), files.get(NORMAL_FILENAME));
+		// only the chunks after the confirmed offset are uploaded again
+		Assert.assertEquals(6, modifyCount.get());
+		Assert.assertFalse(uploader.getJournalFile(localFile.getPath()).exists());
+	}
+}
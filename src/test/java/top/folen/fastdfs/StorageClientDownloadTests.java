@@ -0,0 +1,123 @@
+package top.folen.fastdfs;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import top.folen.common.FastDfsException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * download to local file by socket and nio transport, against a fake storage server
+ */
+public class StorageClientDownloadTests {
+
+	private static final String GROUP_NAME = "group1";
+
+	private static final String REMOTE_FILENAME = "M00/00/00/test.bin";
+
+	private final byte[] content = new byte[1024 * 1024 + 7];
+
+	private FakeStorageServer server;
+
+	private String oldTransport;
+
+	@Before
+	public void setUp() throws IOException {
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) (i * 7);
+		}
+		oldTransport = ClientGlobal.g_network_transport;
+		server = new FakeStorageServer().handle(ProtoCommon.STORAGE_PROTO_CMD_DOWNLOAD_FILE, body -> {
+			long offset = ProtoCommon.buff2long(body, 0);
+			long bytes = ProtoCommon.buff2long(body, ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE);
+			int nameOffset = 2 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE + ProtoCommon.FDFS_GROUP_NAME_MAX_LEN;
+			String filename = new String(body, nameOffset, body.length - nameOffset);
+			if (!REMOTE_FILENAME.equals(filename)) {
+				return new FakeStorageServer.Response(ProtoCommon.ERR_NO_ENOENT, null);
+			}
+			int end = bytes == 0 ? content.length : (int) (offset + bytes);
+			return new FakeStorageServer.Response((byte) 0, Arrays.copyOfRange(content, (int) offset, end));
+		});
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		ClientGlobal.g_network_transport = oldTransport;
+		server.close();
+	}
+
+	@Test
+	public void testDownloadToFileBySocket() throws IOException, FastDfsException {
+		ClientGlobal.g_network_transport = ClientGlobal.NETWORK_TRANSPORT_SOCKET;
+		assertDownloadToFile();
+	}
+
+	@Test
+	public void testDownloadToFileByNio() throws IOException, FastDfsException {
+		ClientGlobal.g_network_transport = ClientGlobal.NETWORK_TRANSPORT_NIO;
+		assertDownloadToFile();
+	}
+
+	@Test
+	public void testDownloadFailDoesNotCreateFile() throws IOException, FastDfsException {
+		ClientGlobal.g_network_transport = ClientGlobal.NETWORK_TRANSPORT_NIO;
+		File file = new File(Files.createTempDirectory("fastdfs-download").toFile(), "missing.bin");
+		StorageClient client = new StorageClient(null, server.getStorageServer());
+		Assert.assertEquals(ProtoCommon.ERR_NO_ENOENT, client.downloadFile(GROUP_NAME, "M00/00/00/missing.bin",
+				file.getAbsolutePath()));
+		Assert.assertFalse(file.exists());
+	}
+
+	@Test
+	public void testDownloadByCallbackBuffSize() throws IOException, FastDfsException {
+		StorageClient client = new StorageClient(null, server.getStorageServer());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		int[] maxRecvBytes = new int[1];
+		DownloadCallback callback = (fileSize, data, bytes) -> {
+			maxRecvBytes[0] = Math.max(maxRecvBytes[0], bytes);
+			out.write(data, 0, bytes);
+			return 0;
+		};
+
+		Assert.assertEquals(0, client.downloadFile(GROUP_NAME, REMOTE_FILENAME, 0, 0, callback, 1000, false));
+		Assert.assertArrayEquals(content, out.toByteArray());
+		Assert.assertTrue(maxRecvBytes[0] <= 1000);
+
+		out.reset();
+		Assert.assertEquals(0, client.downloadFile(GROUP_NAME, REMOTE_FILENAME, 0, 0, callback, 1000, true));
+		Assert.assertArrayEquals(content, out.toByteArray());
+	}
+
+	@Test
+	public void testAdaptiveBuffSize() {
+		AdaptiveBuffSize fixed = new AdaptiveBuffSize(1024, 1024);
+		fixed.onRead(1024 * 1024);
+		Assert.assertEquals(1024, fixed.get());
+
+		AdaptiveBuffSize adaptive = new AdaptiveBuffSize(1024, 4096);
+		// the first window is the baseline, always grow
+		adaptive.onRead(8 * 1024);
+		Assert.assertEquals(2048, adaptive.get());
+		for (int i = 0; i < 100 && adaptive.get() < 4096; i++) {
+			adaptive.onRead(adaptive.get());
+		}
+		Assert.assertTrue(adaptive.get() <= 4096);
+	}
+
+	private void assertDownloadToFile() throws IOException, FastDfsException {
+		File file = File.createTempFile("fastdfs-download", ".bin");
+		file.deleteOnExit();
+		StorageClient client = new StorageClient(null, server.getStorageServer());
+		Assert.assertEquals(0, client.downloadFile(GROUP_NAME, REMOTE_FILENAME, file.getAbsolutePath()));
+		Assert.assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+
+		Assert.assertEquals(0, client.downloadFile(GROUP_NAME, REMOTE_FILENAME, 100, 1000, file.getAbsolutePath()));
+		Assert.assertArrayEquals(Arrays.copyOfRange(content, 100, 1100), Files.readAllBytes(file.toPath()));
+	}
+}
@@ -0,0 +1,169 @@
+package top.folen.fastdfs;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * read balance between a slow and a fast fake storage server, the replicas are put into the route cache in advance
+ */
+public class StorageLoadBalancerTests {
+
+	private static final String GROUP_NAME = "group1";
+
+	private static final String FILENAME = "M00/00/00/test.bin";
+
+	private final AtomicInteger slowCount = new AtomicInteger();
+
+	private final AtomicInteger fastCount = new AtomicInteger();
+
+	private FakeStorageServer slow;
+
+	private FakeStorageServer fast;
+
+	private int oldTtl;
+
+	@Before
+	public void setUp() throws IOException {
+		oldTtl = ClientGlobal.g_route_cache_ttl_in_ms;
+		ClientGlobal.g_route_cache_ttl_in_ms = 60000;
+		ClientGlobal.g_read_balance_enabled = true;
+		StorageRouteCache.clear();
+		StorageLoadBalancer.clear();
+		slow = new FakeStorageServer().handle(ProtoCommon.STORAGE_PROTO_CMD_DOWNLOAD_FILE, body -> {
+			slowCount.incrementAndGet();
+			try {
+				Thread.sleep(20);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return new FakeStorageServer.Response((byte) 0, "slow".getBytes());
+		});
+		fast = new FakeStorageServer().handle(ProtoCommon.STORAGE_PROTO_CMD_DOWNLOAD_FILE, body -> {
+			fastCount.incrementAndGet();
+			return new FakeStorageServer.Response((byte) 0, "fast".getBytes());
+		});
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		slow.close();
+		fast.close();
+		ClientGlobal.g_route_cache_ttl_in_ms = oldTtl;
+		ClientGlobal.g_read_balance_enabled = ClientGlobal.DEFAULT_READ_BALANCE_ENABLED;
+		StorageRouteCache.clear();
+		StorageLoadBalancer.clear();
+	}
+
+	@Test
+	public void testSelectFaster() throws Exception {
+		StorageRouteCache.putAll(StorageRouteCache.ROUTE_FETCH_ALL, GROUP_NAME, FILENAME,
+				new StorageServer[]{slow.getStorageServer(), fast.getStorageServer()});
+		StorageClient client = new StorageClient();
+		for (int i = 0; i < 50; i++) {
+			Assert.assertNotNull(client.downloadFile(GROUP_NAME, FILENAME));
+		}
+
+		// both are tried once at most before the latency is known
+		Assert.assertEquals(50, slowCount.get() + fastCount.get());
+		Assert.assertTrue("slow storage selected " + slowCount.get() + " times", slowCount.get() <= 2);
+		StorageLoadBalancer.Node node = StorageLoadBalancer.getNode(slow.getStorageServer().getInetSocketAddress());
+		Assert.assertEquals(0, node.getOutstanding());
+		if (slowCount.get() > 0) {
+			// the time to the first byte, decayed a little since updated
+			Assert.assertTrue(node.getLatencyInMs() >= 15);
+		}
+	}
+
+	@Test
+	public void testOutstandingRequests() {
+		StorageServer a = slow.getStorageServer();
+		StorageServer b = fast.getStorageServer();
+		StorageLoadBalancer.Node nodeA = StorageLoadBalancer.getNode(a.getInetSocketAddress());
+		StorageLoadBalancer.Node nodeB = StorageLoadBalancer.getNode(b.getInetSocketAddress());
+		nodeA.start();
+		nodeA.finish(TimeUnit.MILLISECONDS.toNanos(10), false);
+		nodeB.start();
+		nodeB.finish(TimeUnit.MILLISECONDS.toNanos(10), false);
+
+		// the same latency, the one with less requests in progress wins
+		nodeA.start();
+		nodeA.start();
+		StorageServer[] servers = {a, b};
+		for (int i = 0; i < 10; i++) {
+			Assert.assertSame(b, StorageLoadBalancer.select(servers));
+		}
+		Assert.assertEquals(2, nodeA.getOutstanding());
+
+		// a failure counts as network_timeout
+		nodeA.finish(0, false);
+		nodeA.finish(0, false);
+		nodeB.start();
+		nodeB.finish(0, true);
+		Assert.assertTrue(nodeB.getLatencyInMs() > nodeA.getLatencyInMs());
+		Assert.assertSame(a, StorageLoadBalancer.select(servers));
+	}
+
+	@Test
+	public void testUploadCountsOutstanding() throws Exception {
+		AtomicInteger outstanding = new AtomicInteger(-1);
+		StorageLoadBalancer.Node node = StorageLoadBalancer.getNode(fast.getStorageServer().getInetSocketAddress());
+		byte[] filename = "M00/00/00/upload.bin".getBytes();
+		fast.handle(ProtoCommon.STORAGE_PROTO_CMD_UPLOAD_FILE, body -> {
+			outstanding.set(node.getOutstanding());
+			byte[] resp = new byte[ProtoCommon.FDFS_GROUP_NAME_MAX_LEN + filename.length];
+			System.arraycopy(GROUP_NAME.getBytes(), 0, resp, 0, GROUP_NAME.length());
+			System.arraycopy(filename, 0, resp, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN, filename.length);
+			return new FakeStorageServer.Response((byte) 0, resp);
+		});
+
+		StorageClient client = new StorageClient(null, fast.getStorageServer());
+		Assert.assertNotNull(client.uploadFile("upload".getBytes(), "bin", null));
+		Assert.assertEquals(1, outstanding.get());
+		Assert.assertEquals(0, node.getOutstanding());
+		// the upload does not measure the time to the first byte
+		Assert.assertEquals(0, node.getLatencyInMs(), 0);
+	}
+
+	@Test
+	public void testFailedNodeRecovers() {
+		StorageServer a = slow.getStorageServer();
+		StorageServer b = fast.getStorageServer();
+		StorageLoadBalancer.Node nodeA = StorageLoadBalancer.getNode(a.getInetSocketAddress());
+		StorageLoadBalancer.Node nodeB = StorageLoadBalancer.getNode(b.getInetSocketAddress());
+		StorageServer[] servers = {a, b};
+		long now = System.nanoTime();
+		nodeA.start();
+		nodeA.finish(TimeUnit.MILLISECONDS.toNanos(10), false, now);
+		nodeB.start();
+		nodeB.finish(0, true, now);
+		Assert.assertSame(a, StorageLoadBalancer.select(servers, now));
+
+		// the requests without the time to the first byte change the requests in progress only
+		nodeB.start();
+		nodeB.finish(-1, false, now);
+		Assert.assertEquals(ClientGlobal.g_network_timeout, nodeB.getLatencyInMs(now), 0.001);
+
+		// a keeps serving while the failure of b decays
+		long later = now;
+		for (int i = 0; i < 12; i++) {
+			later += TimeUnit.SECONDS.toNanos(10);
+			nodeA.start();
+			nodeA.finish(TimeUnit.MILLISECONDS.toNanos(10), false, later);
+			if (nodeB.getLatencyInMs(later) > 10) {
+				Assert.assertSame(a, StorageLoadBalancer.select(servers, later));
+			}
+		}
+		// b is probed, and gets the requests again after it succeeds
+		Assert.assertSame(b, StorageLoadBalancer.select(servers, later));
+		nodeB.start();
+		nodeB.finish(TimeUnit.MILLISECONDS.toNanos(2), false, later);
+		Assert.assertTrue(nodeB.getLatencyInMs(later) < nodeA.getLatencyInMs(later));
+		Assert.assertSame(b, StorageLoadBalancer.select(servers, later));
+	}
+}
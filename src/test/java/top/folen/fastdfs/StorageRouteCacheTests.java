@@ -0,0 +1,68 @@
+package top.folen.fastdfs;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * ttl, lru eviction and invalidation of the storage route cache
+ */
+public class StorageRouteCacheTests {
+
+	private static final String GROUP_NAME = "group1";
+
+	private final StorageServer storageServer = new StorageServer("127.0.0.1", 23000, 0);
+
+	private int oldTtl;
+
+	private int oldMaxEntries;
+
+	@Before
+	public void setUp() {
+		oldTtl = ClientGlobal.g_route_cache_ttl_in_ms;
+		oldMaxEntries = ClientGlobal.g_route_cache_max_entries;
+		ClientGlobal.g_route_cache_ttl_in_ms = 60000;
+		ClientGlobal.g_route_cache_max_entries = 2;
+		StorageRouteCache.clear();
+	}
+
+	@After
+	public void tearDown() {
+		ClientGlobal.g_route_cache_ttl_in_ms = oldTtl;
+		ClientGlobal.g_route_cache_max_entries = oldMaxEntries;
+		StorageRouteCache.clear();
+	}
+
+	@Test
+	public void testGetAndInvalidate() {
+		StorageRouteCache.put(StorageRouteCache.ROUTE_FETCH, GROUP_NAME, "a", storageServer);
+		Assert.assertSame(storageServer, StorageRouteCache.get(StorageRouteCache.ROUTE_FETCH, GROUP_NAME, "a"));
+		Assert.assertNull(StorageRouteCache.get(StorageRouteCache.ROUTE_UPDATE, GROUP_NAME, "a"));
+		StorageRouteCache.invalidate(GROUP_NAME, "a");
+		Assert.assertNull(StorageRouteCache.get(StorageRouteCache.ROUTE_FETCH, GROUP_NAME, "a"));
+	}
+
+	@Test
+	public void testEvictLeastRecentlyUsed() {
+		StorageRouteCache.put(StorageRouteCache.ROUTE_FETCH, GROUP_NAME, "a", storageServer);
+		StorageRouteCache.put(StorageRouteCache.ROUTE_FETCH, GROUP_NAME, "b", storageServer);
+		StorageRouteCache.get(StorageRouteCache.ROUTE_FETCH, GROUP_NAME, "a");
+		StorageRouteCache.put(StorageRouteCache.ROUTE_FETCH, GROUP_NAME, "c", storageServer);
+		Assert.assertEquals(2, StorageRouteCache.size());
+		Assert.assertNotNull(StorageRouteCache.get(StorageRouteCache.ROUTE_FETCH, GROUP_NAME, "a"));
+		Assert.assertNull(StorageRouteCache.get(StorageRouteCache.ROUTE_FETCH, GROUP_NAME, "b"));
+	}
+
+	@Test
+	public void testExpireAndDisable() throws InterruptedException {
+		ClientGlobal.g_route_cache_ttl_in_ms = 20;
+		StorageRouteCache.put(StorageRouteCache.ROUTE_FETCH, GROUP_NAME, "a", storageServer);
+		Thread.sleep(50);
+		Assert.assertNull(StorageRouteCache.get(StorageRouteCache.ROUTE_FETCH, GROUP_NAME, "a"));
+
+		ClientGlobal.g_route_cache_ttl_in_ms = 0;
+		StorageRouteCache.put(StorageRouteCache.ROUTE_FETCH, GROUP_NAME, "a", storageServer);
+		Assert.assertEquals(0, StorageRouteCache.size());
+	}
+}
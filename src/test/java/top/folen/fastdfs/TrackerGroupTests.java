@@ -0,0 +1,171 @@
+package top.folen.fastdfs;
+
+import org.junit.Assert;
+import org.junit.Test;
+import top.folen.common.FastDfsException;
+import top.folen.fastdfs.pool.Connection;
+import top.folen.fastdfs.pool.ConnectionPoolExhaustedException;
+import top.folen.fastdfs.pool.ConnectionUtil;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class TrackerGroupTests {
+
+	/**
+	 * @return a localhost port nobody listens on
+	 */
+	private static int deadPort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+
+	@Test
+	public void testFailover() throws Exception {
+		byte[] storeResponse = new byte[ProtoCommon.TRACKER_QUERY_STORAGE_STORE_BODY_LEN];
+		System.arraycopy("127.0.0.1".getBytes(), 0, storeResponse, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN, 9);
+		try (FakeStorageServer server = new FakeStorageServer()
+				.handle(ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_STORE_WITH_GROUP_ONE,
+						body -> new FakeStorageServer.Response((byte) 0, storeResponse))) {
+			TrackerGroup group = new TrackerGroup(new InetSocketAddress[]{
+					new InetSocketAddress("127.0.0.1", deadPort()),
+					new InetSocketAddress("127.0.0.1", server.getPort())});
+			TrackerClient client = new TrackerClient(group);
+			for (int i = 0; i < 10; i++) {
+				StorageServer storageServer = client.getStoreStorage(null, "group1");
+				Assert.assertNotNull(storageServer);
+				Assert.assertEquals("127.0.0.1", storageServer.getInetSocketAddress().getAddress().getHostAddress());
+			}
+
+			// the dead tracker is skipped once its circuit opens
+			Assert.assertTrue(group.getHealth(0).isOpen());
+			Assert.assertEquals(1, group.getHealth(0).getFailureCount());
+			Assert.assertFalse(group.getHealth(1).isOpen());
+			Assert.assertEquals(10, group.getHealth(1).getSuccessCount());
+		}
+	}
+
+	@Test
+	public void testSharedTrackerServer() throws Exception {
+		byte[] storeResponse = new byte[ProtoCommon.TRACKER_QUERY_STORAGE_STORE_BODY_LEN];
+		System.arraycopy("127.0.0.1".getBytes(), 0, storeResponse, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN, 9);
+		try (FakeStorageServer server = new FakeStorageServer()
+				.handle(ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_STORE_WITH_GROUP_ONE,
+						body -> new FakeStorageServer.Response((byte) 0, storeResponse))) {
+			InetSocketAddress dead = new InetSocketAddress("127.0.0.1", deadPort());
+			TrackerGroup group = new TrackerGroup(new InetSocketAddress[]{
+					dead, new InetSocketAddress("127.0.0.1", server.getPort())});
+			// used by the threads together, the fail over does not change it
+			TrackerServer trackerServer = new TrackerServer(group, 0);
+			ExecutorService executor = Executors.newFixedThreadPool(4);
+			try {
+				List<Future<StorageServer>> futures = new ArrayList<>();
+				for (int i = 0; i < 40; i++) {
+					futures.add(executor.submit(() -> new TrackerClient(group).getStoreStorage(trackerServer,
+							"group1")));
+				}
+				for (Future<StorageServer> future : futures) {
+					Assert.assertNotNull(future.get());
+				}
+			} finally {
+				executor.shutdown();
+			}
+
+			Assert.assertEquals(dead, trackerServer.getInetSocketAddress());
+			Assert.assertEquals(0, group.getHealth(0).getSuccessCount());
+			Assert.assertTrue(group.getHealth(0).isOpen());
+			Assert.assertEquals(40, group.getHealth(1).getSuccessCount());
+			Assert.assertEquals(0, group.getHealth(1).getFailureCount());
+		}
+	}
+
+	@Test
+	public void testAllTrackersDown() throws Exception {
+		TrackerGroup group = new TrackerGroup(new InetSocketAddress[]{
+				new InetSocketAddress("127.0.0.1", deadPort()),
+				new InetSocketAddress("127.0.0.1", deadPort())});
+		try {
+			new TrackerClient(group).getStoreStorage(null, "group1");
+			Assert.fail("connect should fail");
+		} catch (FastDfsException ex) {
+			// expected
+		}
+		Assert.assertTrue(group.getHealth(0).isOpen());
+		Assert.assertTrue(group.getHealth(1).isOpen());
+	}
+
+	@Test
+	public void testPoolExhaustedKeepsCircuitClosed() throws Exception {
+		boolean oldEnabled = ClientGlobal.g_connection_pool_enabled;
+		int oldMaxCount = ClientGlobal.g_connection_pool_max_count_per_entry;
+		int oldMaxWaitTime = ClientGlobal.g_connection_pool_max_wait_time_in_ms;
+		ClientGlobal.g_connection_pool_enabled = true;
+		ClientGlobal.g_connection_pool_max_count_per_entry = 1;
+		ClientGlobal.g_connection_pool_max_wait_time_in_ms = 50;
+		try (FakeStorageServer server = new FakeStorageServer(); FakeStorageServer other = new FakeStorageServer()) {
+			TrackerGroup group = new TrackerGroup(new InetSocketAddress[]{
+					new InetSocketAddress("127.0.0.1", server.getPort()),
+					new InetSocketAddress("127.0.0.1", other.getPort())});
+			Connection connection = new TrackerServer(group, 0).getConnection();
+			try {
+				new TrackerServer(group, 0).getConnection();
+				Assert.fail("the pool should be exhausted");
+			} catch (ConnectionPoolExhaustedException ex) {
+				// expected
+			} finally {
+				ConnectionUtil.release(connection);
+			}
+			Assert.assertFalse(group.getHealth(0).isOpen());
+			Assert.assertEquals(0, group.getHealth(0).getFailureCount());
+		} finally {
+			ClientGlobal.g_connection_pool_enabled = oldEnabled;
+			ClientGlobal.g_connection_pool_max_count_per_entry = oldMaxCount;
+			ClientGlobal.g_connection_pool_max_wait_time_in_ms = oldMaxWaitTime;
+		}
+	}
+
+	@Test
+	public void testHalfOpenProbe() throws Exception {
+		TrackerHealth health = new TrackerHealth(50, 150);
+		Assert.assertTrue(health.tryAcquire());
+		health.onFailure(true);
+		Assert.assertTrue(health.isOpen());
+		Assert.assertFalse(health.tryAcquire());
+
+		Thread.sleep(60);
+		// only one probe is allowed
+		Assert.assertTrue(health.tryAcquire());
+		Assert.assertFalse(health.tryAcquire());
+
+		// the failed probe doubles the open time
+		health.onFailure(false);
+		Thread.sleep(60);
+		Assert.assertFalse(health.tryAcquire());
+		Thread.sleep(60);
+		Assert.assertTrue(health.tryAcquire());
+
+		health.onSuccess(1000000);
+		Assert.assertFalse(health.isOpen());
+		Assert.assertEquals(0, health.getErrorRate(), 0);
+		Assert.assertTrue(health.tryAcquire());
+	}
+
+	@Test
+	public void testErrorRateOpensCircuit() {
+		TrackerHealth health = new TrackerHealth();
+		health.onFailure(false);
+		health.onFailure(false);
+		Assert.assertFalse(health.isOpen());
+		health.onFailure(false);
+		health.onFailure(false);
+		// 1 - 0.8^4 > 0.5
+		Assert.assertTrue(health.isOpen());
+	}
+}
@@ -0,0 +1,64 @@
+package top.folen.fastdfs.pool;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+public class BufferPoolTests {
+
+	@Test
+	public void testSizeClasses() {
+		Assert.assertEquals(BufferPool.MIN_SIZE, BufferPool.acquireHeap(1).length);
+		Assert.assertEquals(BufferPool.MIN_SIZE, BufferPool.acquireHeap(BufferPool.MIN_SIZE).length);
+		Assert.assertEquals(2 * BufferPool.MIN_SIZE, BufferPool.acquireHeap(BufferPool.MIN_SIZE + 1).length);
+		Assert.assertEquals(BufferPool.MAX_SIZE, BufferPool.acquireHeap(BufferPool.MAX_SIZE - 1).length);
+		Assert.assertEquals(BufferPool.MAX_SIZE + 1, BufferPool.acquireHeap(BufferPool.MAX_SIZE + 1).length);
+
+		ByteBuffer buffer = BufferPool.acquireDirect(100 * 1024);
+		Assert.assertTrue(buffer.isDirect());
+		Assert.assertEquals(128 * 1024, buffer.capacity());
+		Assert.assertEquals(buffer.capacity(), buffer.remaining());
+	}
+
+	@Test
+	public void testReuseAndStats() {
+		// pools apart from the shared ones, which other threads of the jvm may use at the same time
+		BufferPool.Pool<byte[]> heap = BufferPool.newHeapPool();
+		int size = 64 * 1024 + 1;
+		byte[] buff = heap.acquire(size);
+		Assert.assertEquals(1, heap.getStats().getMisses());
+		heap.release(buff, buff.length);
+		Assert.assertSame(buff, heap.acquire(size));
+		Assert.assertEquals(1, heap.getStats().getHits());
+
+		heap.release(new byte[size], size);
+		Assert.assertEquals(1, heap.getStats().getDrops());
+
+		BufferPool.Pool<ByteBuffer> direct = BufferPool.newDirectPool();
+		ByteBuffer buffer = direct.acquire(size);
+		buffer.put((byte) 1);
+		direct.release(buffer, buffer.capacity());
+		ByteBuffer reused = direct.acquire(size);
+		Assert.assertSame(buffer, reused);
+		Assert.assertEquals(0, reused.position());
+		Assert.assertEquals(1, direct.getStats().getHits());
+	}
+
+	@Test
+	public void testBounded() {
+		BufferPool.Pool<byte[]> heap = BufferPool.newHeapPool();
+		int size = BufferPool.MAX_SIZE;
+		List<byte[]> buffs = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			buffs.add(heap.acquire(size));
+		}
+		for (byte[] buff : buffs) {
+			heap.release(buff, buff.length);
+		}
+		// 4MB per size class
+		Assert.assertEquals(6, heap.getStats().getDrops());
+	}
+}
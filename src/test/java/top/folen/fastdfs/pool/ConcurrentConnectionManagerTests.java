@@ -0,0 +1,85 @@
+package top.folen.fastdfs.pool;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import top.folen.common.FastDfsException;
+import top.folen.fastdfs.ClientGlobal;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+
+/**
+ * max_count_per_entry / max_wait_time_in_ms semantics of the lock-free connection manager
+ */
+public class ConcurrentConnectionManagerTests {
+
+	private ServerSocket serverSocket;
+
+	private int oldMaxCount;
+
+	private int oldMaxWaitTime;
+
+	@Before
+	public void setUp() throws IOException {
+		serverSocket = new ServerSocket(0, 16);
+		oldMaxCount = ClientGlobal.g_connection_pool_max_count_per_entry;
+		oldMaxWaitTime = ClientGlobal.g_connection_pool_max_wait_time_in_ms;
+		ClientGlobal.g_connection_pool_max_count_per_entry = 2;
+		ClientGlobal.g_connection_pool_max_wait_time_in_ms = 100;
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		ClientGlobal.g_connection_pool_max_count_per_entry = oldMaxCount;
+		ClientGlobal.g_connection_pool_max_wait_time_in_ms = oldMaxWaitTime;
+		serverSocket.close();
+	}
+
+	@Test
+	public void testMaxCountAndReuse() throws FastDfsException {
+		ConcurrentConnectionManager manager = new ConcurrentConnectionManager(
+				new InetSocketAddress("127.0.0.1", serverSocket.getLocalPort()));
+		Connection first = manager.getConnection();
+		Connection second = manager.getConnection();
+		try {
+			manager.getConnection();
+			Assert.fail("the third connection should wait timeout");
+		} catch (FastDfsException e) {
+			Assert.assertTrue(e.getMessage().contains("wait_time"));
+		}
+
+		manager.releaseConnection(first);
+		Assert.assertSame(first, manager.getConnection());
+
+		manager.closeConnection(second);
+		Connection third = manager.getConnection();
+		Assert.assertNotSame(second, third);
+		Assert.assertTrue(third.isAvailable());
+	}
+
+	@Test
+	public void testMaintainKeepsMinIdleAndEvictsExpired() throws FastDfsException {
+		int oldMinIdle = ClientGlobal.g_connection_pool_min_idle;
+		ClientGlobal.g_connection_pool_min_idle = 2;
+		try {
+			ConcurrentConnectionManager manager = new ConcurrentConnectionManager(
+					new InetSocketAddress("127.0.0.1", serverSocket.getLocalPort()));
+			manager.maintain();
+			Assert.assertEquals(2, manager.getFreeCount());
+			Assert.assertEquals(2, manager.getTotalCount());
+
+			Connection connection = manager.getConnection();
+			manager.releaseConnection(connection);
+			connection.setLastAccessTime(0L);
+			manager.maintain();
+			Assert.assertFalse(connection.isConnected());
+			Assert.assertEquals(2, manager.getFreeCount());
+			Assert.assertEquals(2, manager.getTotalCount());
+		} finally {
+			ClientGlobal.g_connection_pool_min_idle = oldMinIdle;
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package top.folen.fastdfs.pool;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * gathering write / scattering read and timeout of the nio transport
+ */
+public class TimeoutSocketChannelTests {
+
+	private ServerSocket serverSocket;
+
+	@Before
+	public void setUp() throws IOException {
+		serverSocket = new ServerSocket(0, 16);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		serverSocket.close();
+	}
+
+	@Test
+	public void testGatheringWriteAndScatteringRead() throws IOException {
+		Thread echo = new Thread(() -> {
+			try (Socket socket = serverSocket.accept()) {
+				InputStream in = socket.getInputStream();
+				OutputStream out = socket.getOutputStream();
+				byte[] buff = new byte[8192];
+				int bytes;
+				while ((bytes = in.read(buff)) > 0) {
+					out.write(buff, 0, bytes);
+				}
+			} catch (IOException ignored) {
+			}
+		});
+		echo.setDaemon(true);
+		echo.start();
+
+		byte[] body = new byte[64 * 1024 + 100];
+		for (int i = 0; i < body.length; i++) {
+			body[i] = (byte) i;
+		}
+		try (TimeoutSocketChannel channel = TimeoutSocketChannel.open(
+				new InetSocketAddress("127.0.0.1", serverSocket.getLocalPort()), 1000, 5000)) {
+			ByteBuffer header = ByteBuffer.allocateDirect(10);
+			header.put(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10});
+			((Buffer) header).flip();
+			channel.write(header, ByteBuffer.wrap(body));
+			Assert.assertFalse(header.hasRemaining());
+
+			byte[] recvHeader = new byte[10];
+			ByteBuffer recvBody = ByteBuffer.allocateDirect(body.length);
+			channel.readFully(ByteBuffer.wrap(recvHeader), recvBody);
+			Assert.assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10}, recvHeader);
+			((Buffer) recvBody).flip();
+			byte[] recvBytes = new byte[recvBody.remaining()];
+			recvBody.get(recvBytes);
+			Assert.assertTrue(Arrays.equals(body, recvBytes));
+		}
+	}
+
+	@Test
+	public void testTransferFromFile() throws IOException, InterruptedException, ExecutionException,
+			TimeoutException {
+		CompletableFuture<byte[]> received = CompletableFuture.supplyAsync(() -> {
+			try (Socket socket = serverSocket.accept()) {
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				InputStream in = socket.getInputStream();
+				byte[] buff = new byte[8192];
+				int bytes;
+				while ((bytes = in.read(buff)) > 0) {
+					out.write(buff, 0, bytes);
+				}
+				return out.toByteArray();
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+
+		File file = File.createTempFile("fastdfs-transfer", ".bin");
+		file.deleteOnExit();
+		byte[] content = new byte[300 * 1024];
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) (i * 31);
+		}
+		try (FileOutputStream fos = new FileOutputStream(file)) {
+			fos.write(content);
+		}
+
+		try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			TimeoutSocketChannel channel = TimeoutSocketChannel.open(
+					new InetSocketAddress("127.0.0.1", serverSocket.getLocalPort()), 1000, 5000);
+			channel.transferFrom(fileChannel, 100, content.length - 100);
+			channel.close();
+		}
+		Assert.assertArrayEquals(Arrays.copyOfRange(content, 100, content.length), received.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test(expected = SocketTimeoutException.class)
+	public void testReadTimeout() throws IOException {
+		try (TimeoutSocketChannel channel = TimeoutSocketChannel.open(
+				new InetSocketAddress("127.0.0.1", serverSocket.getLocalPort()), 1000, 100)) {
+			channel.getInputStream().read(new byte[10]);
+		}
+	}
+}